@@ -22,6 +22,7 @@ import com.io7m.montarre.api.MFileName;
 import com.io7m.montarre.api.MPackageDeclaration;
 import com.io7m.montarre.api.MPlatformDependentModule;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.function.Function;
@@ -96,6 +97,30 @@ public interface MPackageReaderType
     MFileName file)
     throws MException;
 
+  /**
+   * A receiver of the files of a package.
+   */
+
+  @FunctionalInterface
+  interface EntryConsumerType
+  {
+    /**
+     * Receive a file.
+     *
+     * @param path The path of the file relative to the root of the package
+     * @param size The size of the file in octets
+     * @param data The file data, which is closed by the reader
+     *
+     * @throws IOException On errors
+     */
+
+    void accept(
+      String path,
+      long size,
+      InputStream data)
+      throws IOException;
+  }
+
   /**
    * Unpack all files into the given output directory.
    *
@@ -127,4 +152,21 @@ public interface MPackageReaderType
     Path output,
     Function<MPlatformDependentModule, PlatformDependentModulePolicy> filterPlatform)
     throws MException;
+
+  /**
+   * Pass all files to the given consumer, without writing anything to disk.
+   * The consumer receives exactly the files, with the same paths, that
+   * {@link #unpackInto(Path, Function)} would produce, in ascending order
+   * of path. Paths use {@code /} as a separator.
+   *
+   * @param consumer       The consumer
+   * @param filterPlatform The filter for platform-dependent modules
+   *
+   * @throws MException On errors
+   */
+
+  void streamTo(
+    EntryConsumerType consumer,
+    Function<MPlatformDependentModule, PlatformDependentModulePolicy> filterPlatform)
+    throws MException;
 }
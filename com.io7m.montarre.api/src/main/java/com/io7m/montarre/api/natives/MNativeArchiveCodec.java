@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.api.natives;
+
+/**
+ * The archive codecs that can be used to produce native packages that are
+ * plain archives.
+ */
+
+public enum MNativeArchiveCodec
+{
+  /**
+   * An xz-compressed tar archive. Levels are xz presets.
+   */
+
+  TAR_XZ("txz", 0, 9, 2),
+
+  /**
+   * A gzip-compressed tar archive. Levels are deflate levels.
+   */
+
+  TAR_GZIP("tgz", 1, 9, 6),
+
+  /**
+   * A zstd-compressed tar archive. Levels are zstd levels.
+   */
+
+  TAR_ZSTD("tar.zst", 1, 19, 3),
+
+  /**
+   * A zip archive. Levels are deflate levels. Zip archives do not preserve
+   * file permissions.
+   */
+
+  ZIP("zip", 0, 9, 6);
+
+  private final String fileExtension;
+  private final int levelMinimum;
+  private final int levelMaximum;
+  private final int levelDefault;
+
+  MNativeArchiveCodec(
+    final String inFileExtension,
+    final int inLevelMinimum,
+    final int inLevelMaximum,
+    final int inLevelDefault)
+  {
+    this.fileExtension = inFileExtension;
+    this.levelMinimum = inLevelMinimum;
+    this.levelMaximum = inLevelMaximum;
+    this.levelDefault = inLevelDefault;
+  }
+
+  /**
+   * @return The file extension of archives, without a leading dot
+   */
+
+  public String fileExtension()
+  {
+    return this.fileExtension;
+  }
+
+  /**
+   * @return The minimum compression level
+   */
+
+  public int levelMinimum()
+  {
+    return this.levelMinimum;
+  }
+
+  /**
+   * @return The maximum compression level
+   */
+
+  public int levelMaximum()
+  {
+    return this.levelMaximum;
+  }
+
+  /**
+   * @return The default compression level
+   */
+
+  public int levelDefault()
+  {
+    return this.levelDefault;
+  }
+}
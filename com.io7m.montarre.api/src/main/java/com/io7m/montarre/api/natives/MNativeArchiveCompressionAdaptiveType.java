@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalDouble;
+
+/**
+ * An adaptive choice of compression level. Sampled blocks of the input are
+ * compressed at increasing levels in order to estimate the total time and
+ * compressed size at each level.
+ *
+ * <p>If only a time budget is specified, the strongest level whose
+ * estimated time fits within the budget is chosen. If only a ratio target is
+ * specified, the weakest level whose estimated ratio (compressed size divided
+ * by uncompressed size) is at most the target is chosen, or the strongest
+ * level if no level reaches the target. If both are specified, the weakest
+ * level that reaches the ratio target within the time budget is chosen, or
+ * otherwise the strongest level within the time budget. If no level fits
+ * the time budget, the weakest level is chosen.</p>
+ *
+ * <p>The chosen level is logged. Pinning the same codec and level
+ * explicitly produces byte-for-byte identical archives.</p>
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface MNativeArchiveCompressionAdaptiveType
+{
+  /**
+   * @return The archive codec, or nothing if each packager should use the
+   * codec it would use by default
+   */
+
+  Optional<MNativeArchiveCodec> codec();
+
+  /**
+   * @return The time budget for compressing an archive
+   */
+
+  Optional<Duration> timeBudget();
+
+  /**
+   * @return The target compression ratio in the range {@code (0, 1]}
+   */
+
+  OptionalDouble ratioTarget();
+
+  /**
+   * @return The maximum number of sampled blocks
+   */
+
+  @Value.Default
+  default int sampleBlockCount()
+  {
+    return 8;
+  }
+
+  /**
+   * @return The size in octets of each sampled block
+   */
+
+  @Value.Default
+  default int sampleBlockSize()
+  {
+    return 1024 * 1024;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.timeBudget().isEmpty() && this.ratioTarget().isEmpty()) {
+      throw new IllegalArgumentException(
+        "Adaptive compression requires a time budget, a ratio target, or both."
+      );
+    }
+
+    this.timeBudget().ifPresent(budget -> {
+      if (budget.isNegative() || budget.isZero()) {
+        throw new IllegalArgumentException(
+          "Time budget %s must be positive.".formatted(budget)
+        );
+      }
+    });
+
+    this.ratioTarget().ifPresent(ratio -> {
+      if (!(ratio > 0.0 && ratio <= 1.0)) {
+        throw new IllegalArgumentException(
+          "Ratio target %s must be in the range (0, 1]."
+            .formatted(Double.valueOf(ratio))
+        );
+      }
+    });
+
+    if (this.sampleBlockCount() < 1) {
+      throw new IllegalArgumentException(
+        "Sample block count %d must be at least 1."
+          .formatted(Integer.valueOf(this.sampleBlockCount()))
+      );
+    }
+    if (this.sampleBlockSize() < 1) {
+      throw new IllegalArgumentException(
+        "Sample block size %d must be at least 1."
+          .formatted(Integer.valueOf(this.sampleBlockSize()))
+      );
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+/**
+ * A choice of archive codec and compression level.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface MNativeArchiveCompressionType
+{
+  /**
+   * @return The archive codec
+   */
+
+  MNativeArchiveCodec codec();
+
+  /**
+   * @return The compression level
+   */
+
+  @Value.Default
+  default int level()
+  {
+    return this.codec().levelDefault();
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var codec = this.codec();
+    final var level = this.level();
+    if (level < codec.levelMinimum() || level > codec.levelMaximum()) {
+      throw new IllegalArgumentException(
+        "Compression level %d for codec %s must be in the range [%d, %d]."
+          .formatted(
+            Integer.valueOf(level),
+            codec,
+            Integer.valueOf(codec.levelMinimum()),
+            Integer.valueOf(codec.levelMaximum())
+          )
+      );
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.montarre.api.MException;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A running cache server.
+ *
+ * <p>A cache server stores content-addressed blobs at
+ * {@code /blobs/sha256/HASH}, and references from output cache keys to blobs
+ * at {@code /outputs/KEY}. Both are accessed using the HTTP {@code HEAD},
+ * {@code GET}, and {@code PUT} methods. The server rejects any blob whose
+ * content does not match its hash.</p>
+ *
+ * @see MNativeRemoteCacheConfigurationType
+ */
+
+public interface MNativeCacheServerType extends AutoCloseable
+{
+  /**
+   * @return The server configuration
+   */
+
+  MNativeCacheServerConfiguration configuration();
+
+  /**
+   * @return The address on which the server is listening
+   */
+
+  InetSocketAddress address();
+
+  @Override
+  void close()
+    throws MException;
+}
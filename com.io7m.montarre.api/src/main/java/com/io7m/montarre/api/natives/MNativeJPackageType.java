@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.api.MException;
+
+import java.util.List;
+
+/**
+ * A runner for the {@code jpackage} tool.
+ *
+ * <p>The {@code jpackage} tool is executed as a child process, rather than
+ * in the current JVM, so that any number of packagers may use it
+ * concurrently without their output being interleaved. The number of
+ * concurrently executing {@code jpackage} processes is limited.</p>
+ */
+
+public interface MNativeJPackageType
+{
+  /**
+   * Execute {@code jpackage} and wait for it to complete.
+   *
+   * @param processes The process interface used to execute the tool
+   * @param packager  The packager executing the tool
+   * @param arguments The arguments passed to the tool
+   *
+   * @throws MException           On errors, or if the tool fails
+   * @throws InterruptedException On interruption
+   */
+
+  void execute(
+    MNativeProcessesType processes,
+    RDottedName packager,
+    List<String> arguments)
+    throws MException, InterruptedException;
+}
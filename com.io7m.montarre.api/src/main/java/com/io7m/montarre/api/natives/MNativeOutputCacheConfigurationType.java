@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+
+/**
+ * The configuration for a cache of native packager outputs.
+ *
+ * <p>Packagers produce reproducible outputs, and so the output produced by
+ * a packager for a given package, Java runtime, and platform can be reused
+ * instead of being produced again.</p>
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface MNativeOutputCacheConfigurationType
+{
+  /**
+   * @return The directory containing the cache
+   */
+
+  Path directory();
+
+  /**
+   * The maximum total size of the outputs in the cache. When the cache
+   * exceeds this size, the least recently used outputs are removed.
+   *
+   * @return The maximum size of the cache in octets
+   */
+
+  @Value.Default
+  default long sizeLimit()
+  {
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.sizeLimit() < 0L) {
+      throw new IllegalArgumentException(
+        "Size limit %d must be non-negative."
+          .formatted(Long.valueOf(this.sizeLimit()))
+      );
+    }
+  }
+}
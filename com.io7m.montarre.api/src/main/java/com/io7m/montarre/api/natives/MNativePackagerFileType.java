@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.montarre.api.MHash;
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+
+/**
+ * A file produced by a native packager in addition to its main output.
+ *
+ * @see MNativePackagerResultType#additionalFiles()
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface MNativePackagerFileType
+{
+  /**
+   * @return The file
+   */
+
+  Path file();
+
+  /**
+   * @return The size of the file in octets
+   */
+
+  long size();
+
+  /**
+   * @return The SHA-256 hash of the file
+   */
+
+  MHash hash();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.size() < 0L) {
+      throw new IllegalArgumentException(
+        "Size %d must be non-negative.".formatted(Long.valueOf(this.size()))
+      );
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.montarre.api.MHash;
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of executing a native packager. The size and hash describe
+ * the output file as it was written, so that consumers do not need to read
+ * the file again. A packager may additionally expose directory trees that
+ * it produced along the way, for use by other packagers that build upon it.
+ * Packagers that produce more than one package in a single execution
+ * return the remaining packages as additional files.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface MNativePackagerResultType
+{
+  /**
+   * @return The output file
+   */
+
+  Path file();
+
+  /**
+   * @return The size of the output file in octets
+   */
+
+  long size();
+
+  /**
+   * @return The SHA-256 hash of the output file
+   */
+
+  MHash hash();
+
+  /**
+   * @return The auxiliary directory trees produced by the packager, by name
+   */
+
+  Map<String, Path> auxiliaryTrees();
+
+  /**
+   * @return The files produced by the packager in addition to {@link #file()}
+   */
+
+  List<MNativePackagerFile> additionalFiles();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.size() < 0L) {
+      throw new IllegalArgumentException(
+        "Size %d must be non-negative.".formatted(Long.valueOf(this.size()))
+      );
+    }
+  }
+}
@@ -23,7 +23,6 @@ import com.io7m.montarre.api.MPackageDeclaration;
 import com.io7m.montarre.api.io.MPackageReaderType;
 import com.io7m.seltzer.api.SStructuredErrorType;
 
-import java.nio.file.Path;
 import java.util.Optional;
 
 /**
@@ -44,6 +43,33 @@ public interface MNativePackagerServiceType
 
   String describe();
 
+  /**
+   * The version of the packager. Cached outputs are only used by packagers
+   * with the same name and version. By default, this is the version of the
+   * module that contains the packager, or the implementation version of its
+   * package if the packager is not in a named module.
+   *
+   * @return The version of the packager
+   */
+
+  default String version()
+  {
+    final var type =
+      this.getClass();
+    final var descriptor =
+      type.getModule().getDescriptor();
+
+    if (descriptor != null) {
+      return "%s:%s".formatted(type.getName(), descriptor.toNameAndVersion());
+    }
+
+    final var version = type.getPackage().getImplementationVersion();
+    if (version != null) {
+      return "%s:%s".formatted(type.getName(), version);
+    }
+    return type.getName();
+  }
+
   /**
    * Determine if the service can run on the current platform, and return
    * the reason why it cannot (if it cannot). Some services are unable to
@@ -67,12 +93,12 @@ public interface MNativePackagerServiceType
    * @param workspace The workspace
    * @param packageV  The package
    *
-   * @return The output file
+   * @return The output file, along with its size and hash
    *
    * @throws MException On errors
    */
 
-  Path execute(
+  MNativePackagerResult execute(
     MNativeWorkspaceType workspace,
     MPackageReaderType packageV)
     throws MException;
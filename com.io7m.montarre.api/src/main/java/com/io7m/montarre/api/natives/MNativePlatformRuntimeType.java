@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.montarre.api.MArchiveFormat;
+import com.io7m.montarre.api.MPlatform;
+import org.immutables.value.Value;
+
+import java.net.URI;
+
+/**
+ * A Java runtime for a specific platform. Such runtimes are bundled into
+ * the outputs of packagers that produce packages for platforms other than
+ * the one on which the packager is running, and are never executed.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface MNativePlatformRuntimeType
+{
+  /**
+   * @return The platform of the runtime
+   */
+
+  MPlatform platform();
+
+  /**
+   * @return The URI from which the runtime archive is downloaded
+   */
+
+  URI downloadURI();
+
+  /**
+   * @return The SHA-256 hash of the runtime archive
+   */
+
+  String downloadSHA256();
+
+  /**
+   * @return The format of the runtime archive
+   */
+
+  MArchiveFormat downloadFormat();
+}
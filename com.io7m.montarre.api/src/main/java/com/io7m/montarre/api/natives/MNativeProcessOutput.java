@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The captured output of a single process execution.
+ *
+ * <p>The most recent lines written to the standard output and standard error
+ * streams of the process are held in bounded buffers. If a log file is
+ * specified, every line is additionally appended to the log file as it is
+ * produced.</p>
+ */
+
+public final class MNativeProcessOutput
+{
+  /**
+   * The default maximum number of lines held for each stream.
+   */
+
+  public static final int DEFAULT_LINE_LIMIT = 100;
+
+  /**
+   * The default maximum number of octets held for each stream.
+   */
+
+  public static final int DEFAULT_OCTET_LIMIT = 16384;
+
+  private final MNativeProcessOutputBuffer standardOut;
+  private final MNativeProcessOutputBuffer standardError;
+  private final Optional<Path> logFile;
+
+  /**
+   * The captured output of a single process execution.
+   *
+   * @param inLineLimit  The maximum number of lines held for each stream
+   * @param inOctetLimit The maximum number of octets held for each stream
+   * @param inLogFile    The log file to which all output is appended
+   */
+
+  public MNativeProcessOutput(
+    final int inLineLimit,
+    final int inOctetLimit,
+    final Optional<Path> inLogFile)
+  {
+    this.standardOut =
+      new MNativeProcessOutputBuffer(inLineLimit, inOctetLimit);
+    this.standardError =
+      new MNativeProcessOutputBuffer(inLineLimit, inOctetLimit);
+    this.logFile =
+      Objects.requireNonNull(inLogFile, "logFile");
+  }
+
+  /**
+   * @return Output with the default limits and no log file
+   */
+
+  public static MNativeProcessOutput create()
+  {
+    return new MNativeProcessOutput(
+      DEFAULT_LINE_LIMIT,
+      DEFAULT_OCTET_LIMIT,
+      Optional.empty()
+    );
+  }
+
+  /**
+   * @return The most recent lines of standard output
+   */
+
+  public MNativeProcessOutputBuffer standardOut()
+  {
+    return this.standardOut;
+  }
+
+  /**
+   * @return The most recent lines of standard error
+   */
+
+  public MNativeProcessOutputBuffer standardError()
+  {
+    return this.standardError;
+  }
+
+  /**
+   * @return The log file to which all output is appended
+   */
+
+  public Optional<Path> logFile()
+  {
+    return this.logFile;
+  }
+
+  /**
+   * @return The output in a form suitable for use as error attributes
+   */
+
+  public Map<String, String> errorAttributes()
+  {
+    final var attributes = new HashMap<String, String>();
+    if (!this.standardOut.isEmpty()) {
+      attributes.put("Standard Output", this.standardOut.tail());
+    }
+    if (!this.standardError.isEmpty()) {
+      attributes.put("Standard Error", this.standardError.tail());
+    }
+    this.logFile.ifPresent(file -> {
+      attributes.put("Log File", file.toString());
+    });
+    return Map.copyOf(attributes);
+  }
+}
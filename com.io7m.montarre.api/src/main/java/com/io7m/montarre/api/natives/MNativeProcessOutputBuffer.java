@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * A bounded buffer holding the most recent lines of output of a process.
+ *
+ * <p>The buffer holds at most a given number of lines, and at most a given
+ * number of octets (measured in UTF-8) of text. When either limit is
+ * exceeded, the oldest lines are discarded. A single line that is larger
+ * than the octet limit is truncated. The memory used by the buffer is
+ * therefore bounded regardless of how much output a process produces.</p>
+ *
+ * <p>Buffers are safe to use from multiple threads.</p>
+ */
+
+public final class MNativeProcessOutputBuffer
+{
+  private final int lineLimit;
+  private final int octetLimit;
+  private final ArrayDeque<String> lines;
+  private long octets;
+  private long linesDropped;
+
+  /**
+   * A bounded buffer holding the most recent lines of output of a process.
+   *
+   * @param inLineLimit  The maximum number of lines
+   * @param inOctetLimit The maximum number of octets
+   */
+
+  public MNativeProcessOutputBuffer(
+    final int inLineLimit,
+    final int inOctetLimit)
+  {
+    if (inLineLimit < 1) {
+      throw new IllegalArgumentException(
+        "Line limit %d must be at least 1."
+          .formatted(Integer.valueOf(inLineLimit))
+      );
+    }
+    if (inOctetLimit < 1) {
+      throw new IllegalArgumentException(
+        "Octet limit %d must be at least 1."
+          .formatted(Integer.valueOf(inOctetLimit))
+      );
+    }
+
+    this.lineLimit = inLineLimit;
+    this.octetLimit = inOctetLimit;
+    this.lines = new ArrayDeque<>();
+  }
+
+  /**
+   * @return The maximum number of lines
+   */
+
+  public int lineLimit()
+  {
+    return this.lineLimit;
+  }
+
+  /**
+   * @return The maximum number of octets
+   */
+
+  public int octetLimit()
+  {
+    return this.octetLimit;
+  }
+
+  /**
+   * Add a line to the buffer, discarding the oldest lines if necessary.
+   *
+   * @param line The line
+   */
+
+  public synchronized void add(
+    final String line)
+  {
+    var text = line;
+    var size = sizeOf(text);
+    if (size > this.octetLimit) {
+      text = truncate(text, this.octetLimit);
+      size = sizeOf(text);
+    }
+
+    this.lines.addLast(text);
+    this.octets += size;
+
+    while (this.lines.size() > this.lineLimit || this.octets > this.octetLimit) {
+      this.octets -= sizeOf(this.lines.removeFirst());
+      ++this.linesDropped;
+    }
+  }
+
+  /**
+   * @return The lines currently held in the buffer, oldest first
+   */
+
+  public synchronized List<String> lines()
+  {
+    return List.copyOf(this.lines);
+  }
+
+  /**
+   * @return The number of lines discarded from the buffer
+   */
+
+  public synchronized long linesDropped()
+  {
+    return this.linesDropped;
+  }
+
+  /**
+   * @return {@code true} if the buffer holds no lines
+   */
+
+  public synchronized boolean isEmpty()
+  {
+    return this.lines.isEmpty();
+  }
+
+  /**
+   * @return The lines currently held in the buffer as a single string,
+   * noting the number of discarded lines, if any
+   */
+
+  public synchronized String tail()
+  {
+    final var text = new StringBuilder(Math.toIntExact(this.octets + 64L));
+    if (this.linesDropped > 0L) {
+      text.append("[%d earlier lines omitted]"
+                    .formatted(Long.valueOf(this.linesDropped)));
+      text.append(System.lineSeparator());
+    }
+    for (final var line : this.lines) {
+      text.append(line);
+      text.append(System.lineSeparator());
+    }
+    return text.toString();
+  }
+
+  private static String truncate(
+    final String text,
+    final int octetLimit)
+  {
+    var size = 0;
+    var index = 0;
+    while (index < text.length()) {
+      final var codePoint = text.codePointAt(index);
+      size += sizeOfCodePoint(codePoint);
+      if (size > octetLimit) {
+        break;
+      }
+      index += Character.charCount(codePoint);
+    }
+    return text.substring(0, index);
+  }
+
+  private static int sizeOf(
+    final String text)
+  {
+    var size = 0;
+    var index = 0;
+    while (index < text.length()) {
+      final var codePoint = text.codePointAt(index);
+      size += sizeOfCodePoint(codePoint);
+      index += Character.charCount(codePoint);
+    }
+    return size;
+  }
+
+  private static int sizeOfCodePoint(
+    final int codePoint)
+  {
+    if (codePoint < 0x80) {
+      return 1;
+    }
+    if (codePoint < 0x800) {
+      return 2;
+    }
+    if (codePoint < 0x10000) {
+      return 3;
+    }
+    return 4;
+  }
+}
@@ -20,9 +20,9 @@ package com.io7m.montarre.api.natives;
 import com.io7m.jaffirm.core.Preconditions;
 import com.io7m.montarre.api.MException;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * An interface for running external native processes.
@@ -33,11 +33,12 @@ public interface MNativeProcessesType
 {
   /**
    * Execute a process, waiting for it to complete, and return the exit code.
+   * If the calling thread is interrupted whilst waiting, the process and all
+   * of its descendants are destroyed.
    *
-   * @param environment   The environment
-   * @param standardOut   The standard out log
-   * @param standardError The standard error log
-   * @param commandLine   The command line
+   * @param environment The environment
+   * @param output      The captured output
+   * @param commandLine The command line
    *
    * @return The exit code
    *
@@ -47,19 +48,18 @@ public interface MNativeProcessesType
 
   int executeAndWait(
     Map<String, String> environment,
-    ConcurrentLinkedQueue<String> standardOut,
-    ConcurrentLinkedQueue<String> standardError,
+    MNativeProcessOutput output,
     List<String> commandLine)
     throws MException, InterruptedException;
 
   /**
    * Execute a process, waiting for it to complete, and raise an exception
-   * if the exit code returned is non-zero.
+   * if the exit code returned is non-zero. The exception carries the most
+   * recent output of the process.
    *
-   * @param environment   The environment
-   * @param standardOut   The standard out log
-   * @param standardError The standard error log
-   * @param commandLine   The command line
+   * @param environment The environment
+   * @param output      The captured output
+   * @param commandLine The command line
    *
    * @throws MException           On errors
    * @throws InterruptedException On interruption
@@ -67,8 +67,7 @@ public interface MNativeProcessesType
 
   default void executeAndWaitChecked(
     final Map<String, String> environment,
-    final ConcurrentLinkedQueue<String> standardOut,
-    final ConcurrentLinkedQueue<String> standardError,
+    final MNativeProcessOutput output,
     final List<String> commandLine)
     throws MException, InterruptedException
   {
@@ -79,23 +78,45 @@ public interface MNativeProcessesType
 
     final var r = this.executeAndWait(
       environment,
-      standardOut,
-      standardError,
+      output,
       List.copyOf(commandLine)
     );
 
     if (r != 0) {
+      final var attributes = new HashMap<>(output.errorAttributes());
+      attributes.put("Error Code", Integer.toString(r));
+      attributes.put("Command", commandLine.toString());
+
       throw new MException(
         "The command returned a non-zero exit code.",
         "error-exec-command",
-        Map.ofEntries(
-          Map.entry("Error Code", Integer.toString(r)),
-          Map.entry("Command", commandLine.toString())
-        )
+        Map.copyOf(attributes)
       );
     }
   }
 
+  /**
+   * Execute a process that probes the capabilities of a tool (such as
+   * {@code tool --version}), and return the exit code. Results, including
+   * failures to execute the tool, are cached for a limited time, keyed by
+   * the command line and by the path and modification time of the resolved
+   * executable, so replacing the tool invalidates the cached result.
+   * Concurrent probes with the same key execute the process once.
+   *
+   * @param environment The environment
+   * @param commandLine The command line
+   *
+   * @return The exit code
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   */
+
+  int probe(
+    Map<String, String> environment,
+    List<String> commandLine)
+    throws MException, InterruptedException;
+
   @Override
   void close()
     throws MException;
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.net.URI;
+
+/**
+ * The configuration for a remote cache of native packager outputs and Java
+ * runtimes.
+ *
+ * <p>A remote cache is an HTTP server that stores content-addressed blobs,
+ * and references from output cache keys to blobs. Every blob fetched from a
+ * remote cache is verified against its hash before it is used.</p>
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface MNativeRemoteCacheConfigurationType
+{
+  /**
+   * @return The base URI of the cache
+   */
+
+  URI uri();
+
+  /**
+   * @return {@code true} if outputs and runtimes that are not present in
+   * the cache should be uploaded to it
+   */
+
+  @Value.Default
+  default boolean push()
+  {
+    return true;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.montarre.api.MArchiveFormat;
+import org.immutables.value.Value;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+
+/**
+ * A Java runtime held in a runtime store.
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface MNativeRuntimeStoreEntryType
+{
+  /**
+   * @return The SHA-256 hash of the archive from which the runtime was extracted
+   */
+
+  String sha256();
+
+  /**
+   * @return The URI from which the runtime archive was downloaded
+   */
+
+  URI source();
+
+  /**
+   * @return The format of the runtime archive
+   */
+
+  MArchiveFormat format();
+
+  /**
+   * @return The directory containing the extracted runtime
+   */
+
+  Path directory();
+
+  /**
+   * @return The total size of the extracted runtime in octets
+   */
+
+  long size();
+
+  /**
+   * @return The time the runtime was last used
+   */
+
+  OffsetDateTime timeLastUsed();
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.montarre.api.MException;
+
+import java.util.List;
+
+/**
+ * A store of extracted Java runtimes, keyed by the SHA-256 hash of the
+ * archives from which they were extracted. A store may be shared between
+ * any number of workspaces. Runtime directories within the store must be
+ * treated as read-only.
+ */
+
+public interface MNativeRuntimeStoreType
+{
+  /**
+   * @return The store configuration
+   */
+
+  MNativeRuntimeStoreConfiguration configuration();
+
+  /**
+   * @return The runtimes in the store, most recently used first
+   *
+   * @throws MException On errors
+   */
+
+  List<MNativeRuntimeStoreEntry> list()
+    throws MException;
+
+  /**
+   * Remove the least recently used runtimes until the total size of the
+   * store is no greater than {@code sizeLimit}. Runtimes currently in use
+   * by workspaces in this process are never removed.
+   *
+   * @param sizeLimit The maximum size of the store in octets
+   *
+   * @return The removed runtimes
+   *
+   * @throws MException On errors
+   */
+
+  List<MNativeRuntimeStoreEntry> prune(long sizeLimit)
+    throws MException;
+
+  /**
+   * Remove the least recently used runtimes until the total size of the
+   * store is no greater than the configured size limit.
+   *
+   * @return The removed runtimes
+   *
+   * @throws MException On errors
+   *
+   * @see MNativeRuntimeStoreConfigurationType#sizeLimit()
+   */
+
+  default List<MNativeRuntimeStoreEntry> prune()
+    throws MException
+  {
+    return this.prune(this.configuration().sizeLimit());
+  }
+}
@@ -18,14 +18,28 @@
 package com.io7m.montarre.api.natives;
 
 import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.lanark.core.RDottedName;
 import com.io7m.montarre.api.MArchiveFormat;
+import com.io7m.montarre.api.MPlatform;
 import org.immutables.value.Value;
 
 import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * A workspace configuration.
+ *
+ * <p>A workspace obtains its Java runtime either by downloading an archive
+ * (in which case the download URI, format, and SHA-256 hash must all be
+ * specified), or by using an existing runtime directory on the local
+ * filesystem (in which case none of the download attributes may be
+ * specified).</p>
  */
 
 @ImmutablesStyleType
@@ -42,17 +56,301 @@ public interface MNativeWorkspaceConfigurationType
    * @return The Java runtime archive format
    */
 
-  MArchiveFormat javaRuntimeDownloadFormat();
+  Optional<MArchiveFormat> javaRuntimeDownloadFormat();
 
   /**
    * @return The Java runtime archive URI
    */
 
-  URI javaRuntimeDownloadURI();
+  Optional<URI> javaRuntimeDownloadURI();
 
   /**
    * @return The Java runtime archive checksum
    */
 
-  String javaRuntimeDownloadSHA256();
+  Optional<String> javaRuntimeDownloadSHA256();
+
+  /**
+   * An existing Java runtime directory. If a directory is specified, the
+   * workspace uses the directory as-is and does not download or extract
+   * anything.
+   *
+   * @return The Java runtime directory
+   */
+
+  Optional<Path> javaRuntimeDirectory();
+
+  /**
+   * The expected SHA-256 tree digest of the Java runtime directory. If
+   * specified, the directory is verified before it is used.
+   *
+   * @return The Java runtime directory digest
+   *
+   * @see #javaRuntimeDirectory()
+   */
+
+  Optional<String> javaRuntimeDirectorySHA256();
+
+  /**
+   * The number of concurrent range requests used to download the Java
+   * runtime. A value of {@code 1} downloads the runtime using a single
+   * request. Servers that do not support range requests are always accessed
+   * using a single request.
+   *
+   * @return The number of concurrent download segments
+   */
+
+  @Value.Default
+  default int javaRuntimeDownloadSegments()
+  {
+    return 1;
+  }
+
+  /**
+   * The store used to hold extracted Java runtimes. Stores can be shared
+   * between workspaces. If no store is specified, the workspace uses a store
+   * in the {@code runtimes} subdirectory of the base directory.
+   *
+   * @return The Java runtime store
+   */
+
+  Optional<MNativeRuntimeStoreConfiguration> javaRuntimeStore();
+
+  /**
+   * The cache used to hold the outputs of packagers. Caches can be shared
+   * between workspaces. If no cache is specified, outputs are not cached.
+   *
+   * @return The output cache
+   */
+
+  Optional<MNativeOutputCacheConfiguration> outputCache();
+
+  /**
+   * The remote cache used to share the outputs of packagers and Java
+   * runtimes between machines. If no remote cache is specified, only the
+   * local caches are used.
+   *
+   * @return The remote cache
+   */
+
+  Optional<MNativeRemoteCacheConfiguration> remoteCache();
+
+  /**
+   * The Java runtimes for specific platforms. These runtimes are bundled
+   * into the outputs of packagers that produce packages for other
+   * platforms, and are obtained via the same runtime store as the Java
+   * runtime of the workspace. At most one runtime may be specified for each
+   * platform.
+   *
+   * @return The Java runtimes for specific platforms
+   */
+
+  List<MNativePlatformRuntime> platformRuntimes();
+
+  /**
+   * The version of the packagers. Outputs cached by packagers with a
+   * different version are never used.
+   *
+   * @return The packager version
+   */
+
+  @Value.Default
+  default String packagerVersion()
+  {
+    return "";
+  }
+
+  /**
+   * The archive compression used by packagers that produce plain archives,
+   * unless overridden for a specific packager. If no compression is
+   * specified, each packager uses its own default.
+   *
+   * @return The archive compression
+   *
+   * @see #archiveCompressionByPackager()
+   */
+
+  Optional<MNativeArchiveCompression> archiveCompression();
+
+  /**
+   * @return The archive compression for specific packagers
+   */
+
+  Map<RDottedName, MNativeArchiveCompression> archiveCompressionByPackager();
+
+  /**
+   * The adaptive compression used by packagers that produce plain archives,
+   * unless a compression is specified for a specific packager. Adaptive
+   * compression cannot be combined with {@link #archiveCompression()}.
+   *
+   * @return The adaptive archive compression
+   */
+
+  Optional<MNativeArchiveCompressionAdaptive> archiveCompressionAdaptive();
+
+  /**
+   * The retention policy for work directories. The policy is enforced in
+   * the background when the workspace is opened, and again when the
+   * workspace is closed. If no policy is specified, work directories are
+   * never removed.
+   *
+   * @return The work directory retention policy
+   */
+
+  Optional<MNativeWorkspaceRetention> workRetention();
+
+  /**
+   * The directory into which the output of external processes is logged.
+   * Each packager appends the output of the processes it executes to a
+   * file named after the packager, inside a directory named after the
+   * package (and its version) being packaged.
+   *
+   * @return The process log directory
+   */
+
+  Optional<Path> processLogDirectory();
+
+  /**
+   * @return The maximum number of lines of each output stream of a process
+   * held in memory
+   */
+
+  @Value.Default
+  default int processOutputLineLimit()
+  {
+    return MNativeProcessOutput.DEFAULT_LINE_LIMIT;
+  }
+
+  /**
+   * @return The maximum number of octets of each output stream of a process
+   * held in memory
+   */
+
+  @Value.Default
+  default int processOutputOctetLimit()
+  {
+    return MNativeProcessOutput.DEFAULT_OCTET_LIMIT;
+  }
+
+  /**
+   * @return The maximum number of {@code jpackage} processes that may
+   * execute concurrently
+   */
+
+  @Value.Default
+  default int jpackageConcurrency()
+  {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * The maximum length of time that obtaining the Java runtime may take,
+   * including any download and extraction. If the runtime has not been
+   * obtained when the time elapses, the operation is cancelled.
+   *
+   * @return The Java runtime timeout
+   *
+   * @see MNativeWorkspaceType#awaitJavaRuntime()
+   */
+
+  Optional<Duration> javaRuntimeTimeout();
+
+  /**
+   * The maximum length of time that a single packager may execute. If the
+   * packager has not completed when the time elapses, the packager is
+   * cancelled, and any work directories it created are deleted.
+   *
+   * @return The packager timeout
+   */
+
+  Optional<Duration> packagerTimeout();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.javaRuntimeDownloadSegments() < 1) {
+      throw new IllegalArgumentException(
+        "Download segments %d must be at least 1."
+          .formatted(Integer.valueOf(this.javaRuntimeDownloadSegments()))
+      );
+    }
+
+    if (this.processOutputLineLimit() < 1) {
+      throw new IllegalArgumentException(
+        "Process output line limit %d must be at least 1."
+          .formatted(Integer.valueOf(this.processOutputLineLimit()))
+      );
+    }
+
+    if (this.processOutputOctetLimit() < 1) {
+      throw new IllegalArgumentException(
+        "Process output octet limit %d must be at least 1."
+          .formatted(Integer.valueOf(this.processOutputOctetLimit()))
+      );
+    }
+
+    if (this.jpackageConcurrency() < 1) {
+      throw new IllegalArgumentException(
+        "jpackage concurrency %d must be at least 1."
+          .formatted(Integer.valueOf(this.jpackageConcurrency()))
+      );
+    }
+
+    for (final var timeout : List.of(
+      this.javaRuntimeTimeout(),
+      this.packagerTimeout())) {
+      if (timeout.isPresent()
+          && (timeout.get().isNegative() || timeout.get().isZero())) {
+        throw new IllegalArgumentException(
+          "Timeout %s must be positive.".formatted(timeout.get())
+        );
+      }
+    }
+
+    final var platforms = new HashSet<MPlatform>();
+    for (final var runtime : this.platformRuntimes()) {
+      if (!platforms.add(runtime.platform())) {
+        throw new IllegalArgumentException(
+          "More than one Java runtime is specified for platform %s."
+            .formatted(runtime.platform())
+        );
+      }
+    }
+
+    if (this.archiveCompression().isPresent()
+        && this.archiveCompressionAdaptive().isPresent()) {
+      throw new IllegalArgumentException(
+        "An archive compression cannot be combined with adaptive archive compression."
+      );
+    }
+
+    final var downloads = Stream.of(
+      this.javaRuntimeDownloadFormat(),
+      this.javaRuntimeDownloadURI(),
+      this.javaRuntimeDownloadSHA256()
+    ).filter(Optional::isPresent).count();
+
+    if (this.javaRuntimeDirectory().isPresent()) {
+      if (downloads != 0L) {
+        throw new IllegalArgumentException(
+          "A Java runtime directory cannot be combined with a Java runtime download."
+        );
+      }
+    } else {
+      if (downloads != 3L) {
+        throw new IllegalArgumentException(
+          "A Java runtime download requires a URI, a format, and a SHA-256 hash."
+        );
+      }
+      if (this.javaRuntimeDirectorySHA256().isPresent()) {
+        throw new IllegalArgumentException(
+          "A Java runtime directory digest requires a Java runtime directory."
+        );
+      }
+    }
+  }
 }
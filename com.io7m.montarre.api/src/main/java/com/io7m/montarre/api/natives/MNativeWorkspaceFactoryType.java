@@ -17,9 +17,13 @@
 
 package com.io7m.montarre.api.natives;
 
+import com.io7m.montarre.api.MException;
 import com.io7m.montarre.api.http.MHTTPClientFactoryType;
 import com.io7m.montarre.api.io.MPackageReaderType;
 
+import java.nio.file.Path;
+import java.util.List;
+
 /**
  * A factory of workspaces for producing a native package.
  */
@@ -40,4 +44,37 @@ public interface MNativeWorkspaceFactoryType
     MNativeWorkspaceConfiguration configuration,
     MHTTPClientFactoryType httpClients,
     MPackageReaderType packageReader);
+
+  /**
+   * Open a workspace that is not associated with any package. Packages must
+   * be passed explicitly to
+   * {@link MNativeWorkspaceType#executePackager(MNativePackagerServiceType, MPackageReaderType)}.
+   *
+   * @param configuration The configuration
+   * @param httpClients   The HTTP client factory
+   *
+   * @return A workspace
+   */
+
+  MNativeWorkspaceType open(
+    MNativeWorkspaceConfiguration configuration,
+    MHTTPClientFactoryType httpClients);
+
+  /**
+   * Remove the runs in the given workspace base directory that are not
+   * retained by the given policy. Runs that are in use by any process are
+   * not removed.
+   *
+   * @param baseDirectory The workspace base directory
+   * @param retention     The retention policy
+   *
+   * @return The removed runs
+   *
+   * @throws MException On errors
+   */
+
+  List<MNativeWorkspaceRun> collectGarbage(
+    Path baseDirectory,
+    MNativeWorkspaceRetention retention)
+    throws MException;
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.api.natives;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+/**
+ * A retention policy for the work directories of a workspace.
+ *
+ * <p>Each time a workspace is used to produce packages, the work directories
+ * created by packagers are placed into a new run directory. A run is removed
+ * if it is older than the maximum age, or if it is not one of the most
+ * recent runs when a maximum number of runs is specified. If the remaining
+ * runs are larger than the maximum size, the oldest runs are removed until
+ * the total size is no greater than the maximum size. Runs that are in use
+ * are never removed.</p>
+ */
+
+@ImmutablesStyleType
+@Value.Immutable
+public interface MNativeWorkspaceRetentionType
+{
+  /**
+   * @return The maximum age of a run, measured from the time it was last
+   * modified
+   */
+
+  Optional<Duration> maximumAge();
+
+  /**
+   * @return The maximum total size of all runs in octets
+   */
+
+  OptionalLong maximumSize();
+
+  /**
+   * @return The maximum number of runs to keep
+   */
+
+  OptionalInt maximumRuns();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    this.maximumAge().ifPresent(age -> {
+      if (age.isNegative()) {
+        throw new IllegalArgumentException(
+          "Maximum age %s must be non-negative.".formatted(age)
+        );
+      }
+    });
+
+    this.maximumSize().ifPresent(size -> {
+      if (size < 0L) {
+        throw new IllegalArgumentException(
+          "Maximum size %d must be non-negative."
+            .formatted(Long.valueOf(size))
+        );
+      }
+    });
+
+    this.maximumRuns().ifPresent(runs -> {
+      if (runs < 0) {
+        throw new IllegalArgumentException(
+          "Maximum runs %d must be non-negative."
+            .formatted(Integer.valueOf(runs))
+        );
+      }
+    });
+  }
+}
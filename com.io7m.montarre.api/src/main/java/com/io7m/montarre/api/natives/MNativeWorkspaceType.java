@@ -17,14 +17,18 @@
 
 package com.io7m.montarre.api.natives;
 
+import com.io7m.lanark.core.RDottedName;
 import com.io7m.montarre.api.MArchitectureName;
 import com.io7m.montarre.api.MException;
 import com.io7m.montarre.api.MOperatingSystemName;
+import com.io7m.montarre.api.MPlatform;
 import com.io7m.montarre.api.MPlatformDependentModule;
+import com.io7m.montarre.api.io.MPackageReaderType;
 import com.io7m.streamtime.core.STTransferStatistics;
 
 import java.nio.file.Path;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Flow;
 
@@ -59,11 +63,49 @@ public interface MNativeWorkspaceType
   Flow.Publisher<STTransferStatistics> javaRuntimeDownload();
 
   /**
+   * Obtain the Java runtime in the background. Cancelling the returned
+   * future with interruption interrupts the operation.
+   *
    * @return The java runtime
    */
 
   CompletableFuture<Path> javaRuntime();
 
+  /**
+   * Obtain the Java runtime, waiting for at most the configured Java runtime
+   * timeout. If the timeout elapses, or the calling thread is interrupted,
+   * the operation is cancelled, and this method returns only when the
+   * operation has stopped.
+   *
+   * @return The java runtime
+   *
+   * @throws MException           On errors, including expired deadlines
+   * @throws InterruptedException On interruption
+   *
+   * @see MNativeWorkspaceConfigurationType#javaRuntimeTimeout()
+   */
+
+  Path awaitJavaRuntime()
+    throws MException, InterruptedException;
+
+  /**
+   * Obtain the Java runtime configured for the given platform, downloading
+   * it if necessary. The runtime is retained until the workspace is closed.
+   *
+   * @param platform The platform
+   *
+   * @return The directory containing the runtime, or nothing if no runtime
+   * is configured for the platform
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   *
+   * @see MNativeWorkspaceConfigurationType#platformRuntimes()
+   */
+
+  Optional<Path> platformRuntime(MPlatform platform)
+    throws MException, InterruptedException;
+
   /**
    * @return A fresh working directory
    *
@@ -73,6 +115,99 @@ public interface MNativeWorkspaceType
   Path createWorkDirectory()
     throws MException;
 
+  /**
+   * Determine the archive compression that the given packager should use.
+   *
+   * @param packager The packager name
+   *
+   * @return The archive compression, or nothing if the packager should use
+   * its own default
+   */
+
+  Optional<MNativeArchiveCompression> archiveCompression(
+    RDottedName packager);
+
+  /**
+   * Determine the adaptive archive compression that the given packager
+   * should use. This is empty if an explicit compression is specified for
+   * the packager.
+   *
+   * @param packager The packager name
+   *
+   * @return The adaptive archive compression, if any
+   *
+   * @see #archiveCompression(RDottedName)
+   */
+
+  Optional<MNativeArchiveCompressionAdaptive> archiveCompressionAdaptive(
+    RDottedName packager);
+
+  /**
+   * Create a capture for the output of a process executed by the given
+   * packager, using the process output limits and log directory of the
+   * workspace.
+   *
+   * @param packager The packager name
+   *
+   * @return The process output
+   */
+
+  MNativeProcessOutput processOutput(
+    RDottedName packager);
+
+  /**
+   * @return The {@code jpackage} runner shared by all packagers using
+   * the workspace
+   */
+
+  MNativeJPackageType jpackage();
+
+  /**
+   * Execute the given packager on the package associated with the workspace.
+   * The workspace must have been opened with a package.
+   * If the workspace has an output cache, and the cache contains an output
+   * produced by the same packager for the same package, Java runtime,
+   * platform, and compression settings, the cached output is returned
+   * without executing the packager. Otherwise, if the workspace has a remote
+   * cache that contains such an output, the output is fetched from the
+   * remote cache. Otherwise, the packager is executed and the output is
+   * added to the caches. The packager is cancelled if it does not complete
+   * within the configured packager timeout.
+   *
+   * @param packager The packager
+   *
+   * @return The output of the packager
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   */
+
+  MNativePackagerResult executePackager(
+    MNativePackagerServiceType packager)
+    throws MException, InterruptedException;
+
+  /**
+   * Execute the given packager on the given package. This behaves as
+   * {@link #executePackager(MNativePackagerServiceType)}, except that the
+   * package need not be the package associated with the workspace. Any
+   * number of packages may be packaged concurrently in the same workspace,
+   * sharing the Java runtime, the caches, and the {@code jpackage}
+   * concurrency limit of the workspace.
+   *
+   * @param packager      The packager
+   * @param packageReader The package
+   *
+   * @return The output of the packager
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   */
+
+  MNativePackagerResult executePackager(
+    MNativePackagerServiceType packager,
+    MPackageReaderType packageReader)
+    throws MException, InterruptedException;
+
   /**
    * Check if the operating system and architecture of the given module matches
    * this workspace.
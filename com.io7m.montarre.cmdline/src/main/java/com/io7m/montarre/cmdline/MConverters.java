@@ -18,7 +18,9 @@
 package com.io7m.montarre.cmdline;
 
 import com.io7m.montarre.cmdline.converters.MArchitectureNameConverter;
+import com.io7m.montarre.cmdline.converters.MNativeArchiveCompressionConverter;
 import com.io7m.montarre.cmdline.converters.MOperatingSystemNameConverter;
+import com.io7m.montarre.cmdline.converters.MPlatformConverter;
 import com.io7m.montarre.cmdline.converters.RuntimeVersionConverter;
 import com.io7m.quarrel.core.QValueConverterDirectory;
 import com.io7m.quarrel.core.QValueConverterDirectoryType;
@@ -32,7 +34,9 @@ public final class MConverters
   private static final QValueConverterDirectoryType CONVERTERS =
     QValueConverterDirectory.core()
       .with(new MArchitectureNameConverter())
+      .with(new MNativeArchiveCompressionConverter())
       .with(new MOperatingSystemNameConverter())
+      .with(new MPlatformConverter())
       .with(new RuntimeVersionConverter());
 
   /**
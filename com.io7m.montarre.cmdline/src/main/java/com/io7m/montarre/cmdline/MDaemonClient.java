@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline;
+
+import com.io7m.montarre.cmdline.internal.MCDaemonProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A thin client that asks a running daemon to execute a command. The
+ * client deliberately avoids loading any part of the command-line
+ * application itself, and so starts quickly.
+ *
+ * <p>Usage: {@code MDaemonClient <socket> <command> <arguments...>}</p>
+ */
+
+public final class MDaemonClient
+{
+  private MDaemonClient()
+  {
+
+  }
+
+  /**
+   * The main entry point.
+   *
+   * @param args Command line arguments
+   */
+
+  public static void main(
+    final String[] args)
+  {
+    System.exit(mainExitless(args));
+  }
+
+  /**
+   * The main (exitless) entry point.
+   *
+   * @param args Command line arguments
+   *
+   * @return The exit code
+   */
+
+  public static int mainExitless(
+    final String[] args)
+  {
+    if (args.length < 1) {
+      System.err.println("usage: socket command [arguments ...]");
+      return 1;
+    }
+
+    try {
+      return execute(
+        Path.of(args[0]),
+        Path.of("").toAbsolutePath(),
+        Arrays.asList(args).subList(1, args.length),
+        System.out,
+        System.err
+      );
+    } catch (final IOException e) {
+      System.err.printf(
+        "ERROR: Could not communicate with the daemon at %s: %s%n",
+        args[0],
+        e.getMessage()
+      );
+      return 1;
+    }
+  }
+
+  /**
+   * Ask the daemon listening on the given socket to execute a command.
+   *
+   * @param socket           The socket
+   * @param workingDirectory The working directory against which the daemon
+   *                         will resolve relative paths
+   * @param arguments        The command-line arguments
+   * @param output           The stream that receives command output
+   * @param log              The stream that receives log output
+   *
+   * @return The exit code of the command
+   *
+   * @throws IOException On errors
+   */
+
+  public static int execute(
+    final Path socket,
+    final Path workingDirectory,
+    final List<String> arguments,
+    final OutputStream output,
+    final OutputStream log)
+    throws IOException
+  {
+    Objects.requireNonNull(socket, "socket");
+    Objects.requireNonNull(workingDirectory, "workingDirectory");
+    Objects.requireNonNull(arguments, "arguments");
+    Objects.requireNonNull(output, "output");
+    Objects.requireNonNull(log, "log");
+
+    try (var channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      channel.connect(UnixDomainSocketAddress.of(socket));
+
+      MCDaemonProtocol.writeRequest(
+        new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel))),
+        new MCDaemonProtocol.Request(workingDirectory, arguments)
+      );
+
+      return MCDaemonProtocol.readFrames(
+        new DataInputStream(
+          new BufferedInputStream(Channels.newInputStream(channel))),
+        output,
+        log
+      );
+    }
+  }
+}
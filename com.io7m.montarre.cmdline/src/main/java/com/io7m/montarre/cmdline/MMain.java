@@ -17,9 +17,16 @@
 
 package com.io7m.montarre.cmdline;
 
+import com.io7m.montarre.cmdline.internal.MCDaemonServe;
 import com.io7m.montarre.cmdline.internal.MCMavenDownload;
+import com.io7m.montarre.cmdline.internal.MCNativeCacheServe;
 import com.io7m.montarre.cmdline.internal.MCNativeCreate;
+import com.io7m.montarre.cmdline.internal.MCNativeCreateBatch;
 import com.io7m.montarre.cmdline.internal.MCNativePackagers;
+import com.io7m.montarre.cmdline.internal.MCNativeRuntimesDigest;
+import com.io7m.montarre.cmdline.internal.MCNativeRuntimesList;
+import com.io7m.montarre.cmdline.internal.MCNativeRuntimesPrune;
+import com.io7m.montarre.cmdline.internal.MCNativeWorkspaceGC;
 import com.io7m.montarre.cmdline.internal.MCPackageCheck;
 import com.io7m.montarre.cmdline.internal.MCPackageExtractDeclaration;
 import com.io7m.montarre.cmdline.internal.MCPackagePack;
@@ -32,9 +39,11 @@ import com.io7m.quarrel.core.QApplicationMetadata;
 import com.io7m.quarrel.core.QApplicationType;
 import com.io7m.quarrel.core.QCommandMetadata;
 import com.io7m.quarrel.core.QStringType;
+import com.io7m.quarrel.core.QValueConverterDirectoryType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.PrintWriter;
 import java.net.URI;
 import java.util.List;
 import java.util.Objects;
@@ -65,6 +74,32 @@ public final class MMain implements Runnable
     this.args =
       Objects.requireNonNull(List.of(inArgs), "Command line arguments");
 
+    this.application =
+      createApplication(
+        new PrintWriter(System.out, true),
+        MConverters.get()
+      );
+    this.exitCode = 0;
+  }
+
+  /**
+   * Create a new instance of the command-line application. The daemon
+   * creates one application per job so that each job has its own output
+   * and value converters.
+   *
+   * @param output     The output writer
+   * @param converters The value converters
+   *
+   * @return The application
+   */
+
+  public static QApplicationType createApplication(
+    final PrintWriter output,
+    final QValueConverterDirectoryType converters)
+  {
+    Objects.requireNonNull(output, "output");
+    Objects.requireNonNull(converters, "converters");
+
     final var metadata =
       new QApplicationMetadata(
         "montarre",
@@ -76,7 +111,8 @@ public final class MMain implements Runnable
       );
 
     final var builder = QApplication.builder(metadata);
-    builder.setValueConverters(MConverters.get());
+    builder.setOutput(output);
+    builder.setValueConverters(converters);
 
     {
       final var g =
@@ -106,6 +142,51 @@ public final class MMain implements Runnable
         );
       g.addCommand(new MCNativePackagers());
       g.addCommand(new MCNativeCreate());
+      g.addCommand(new MCNativeCreateBatch());
+
+      final var r =
+        g.createCommandGroup(
+          new QCommandMetadata(
+            "runtimes",
+            new QStringType.QConstant("Java runtime store commands."),
+            Optional.empty()
+          )
+        );
+      r.addCommand(new MCNativeRuntimesDigest());
+      r.addCommand(new MCNativeRuntimesList());
+      r.addCommand(new MCNativeRuntimesPrune());
+
+      final var w =
+        g.createCommandGroup(
+          new QCommandMetadata(
+            "workspace",
+            new QStringType.QConstant("Workspace commands."),
+            Optional.empty()
+          )
+        );
+      w.addCommand(new MCNativeWorkspaceGC());
+
+      final var c =
+        g.createCommandGroup(
+          new QCommandMetadata(
+            "cache",
+            new QStringType.QConstant("Remote cache commands."),
+            Optional.empty()
+          )
+        );
+      c.addCommand(new MCNativeCacheServe());
+    }
+
+    {
+      final var g =
+        builder.createCommandGroup(
+          new QCommandMetadata(
+            "daemon",
+            new QStringType.QConstant("Daemon commands."),
+            Optional.empty()
+          )
+        );
+      g.addCommand(new MCDaemonServe());
     }
 
     {
@@ -133,9 +214,7 @@ public final class MMain implements Runnable
     }
 
     builder.allowAtSyntax(true);
-
-    this.application = builder.build();
-    this.exitCode = 0;
+    return builder.build();
   }
 
   /**
@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.converters;
+
+import com.io7m.montarre.api.natives.MNativeArchiveCodec;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.quarrel.core.QValueConverterType;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * A converter for archive compression settings of the form
+ * {@code CODEC[:LEVEL]}.
+ */
+
+public final class MNativeArchiveCompressionConverter
+  implements QValueConverterType<MNativeArchiveCompression>
+{
+  /**
+   * A converter for archive compression settings.
+   */
+
+  public MNativeArchiveCompressionConverter()
+  {
+
+  }
+
+  /**
+   * Parse an archive compression setting.
+   *
+   * @param text The text
+   *
+   * @return The compression setting
+   *
+   * @throws IllegalArgumentException On unparseable text
+   */
+
+  public static MNativeArchiveCompression parse(
+    final String text)
+  {
+    final var separator = text.indexOf(':');
+    final var codecText =
+      separator == -1 ? text : text.substring(0, separator);
+    final var codec =
+      MNativeArchiveCodec.valueOf(codecText.toUpperCase(Locale.ROOT));
+
+    final var builder =
+      MNativeArchiveCompression.builder()
+        .setCodec(codec);
+
+    if (separator != -1) {
+      builder.setLevel(Integer.parseInt(text.substring(separator + 1)));
+    }
+    return builder.build();
+  }
+
+  @Override
+  public MNativeArchiveCompression convertFromString(
+    final String text)
+  {
+    return parse(text);
+  }
+
+  @Override
+  public String convertToString(
+    final MNativeArchiveCompression value)
+  {
+    return "%s:%d".formatted(value.codec(), Integer.valueOf(value.level()));
+  }
+
+  @Override
+  public MNativeArchiveCompression exampleValue()
+  {
+    return MNativeArchiveCompression.builder()
+      .setCodec(MNativeArchiveCodec.TAR_ZSTD)
+      .setLevel(9)
+      .build();
+  }
+
+  @Override
+  public String syntax()
+  {
+    return Arrays.stream(MNativeArchiveCodec.values())
+      .map(Enum::name)
+      .collect(Collectors.joining("|", "(", ")(:[0-9]+)?"));
+  }
+
+  @Override
+  public Class<MNativeArchiveCompression> convertedClass()
+  {
+    return MNativeArchiveCompression.class;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.converters;
+
+import com.io7m.montarre.api.MArchitectureName;
+import com.io7m.montarre.api.MOperatingSystemName;
+import com.io7m.montarre.api.MPlatform;
+import com.io7m.quarrel.core.QValueConverterType;
+
+/**
+ * A value converter.
+ */
+
+public final class MPlatformConverter
+  implements QValueConverterType<MPlatform>
+{
+  /**
+   * A value converter.
+   */
+
+  public MPlatformConverter()
+  {
+
+  }
+
+  @Override
+  public MPlatform convertFromString(
+    final String text)
+  {
+    final var separator = text.indexOf(':');
+    if (separator < 0) {
+      throw new IllegalArgumentException(
+        "Platform '%s' must be of the form ARCHITECTURE:OPERATING_SYSTEM."
+          .formatted(text)
+      );
+    }
+
+    return new MPlatform(
+      new MArchitectureName(text.substring(0, separator)),
+      new MOperatingSystemName(text.substring(separator + 1))
+    );
+  }
+
+  @Override
+  public String convertToString(
+    final MPlatform value)
+  {
+    return value.toString();
+  }
+
+  @Override
+  public MPlatform exampleValue()
+  {
+    return new MPlatform(
+      MArchitectureName.x86_64(),
+      MOperatingSystemName.linux()
+    );
+  }
+
+  @Override
+  public String syntax()
+  {
+    return "%s:%s".formatted(
+      MArchitectureName.valid().pattern(),
+      MOperatingSystemName.valid().pattern()
+    );
+  }
+
+  @Override
+  public Class<MPlatform> convertedClass()
+  {
+    return MPlatform.class;
+  }
+}
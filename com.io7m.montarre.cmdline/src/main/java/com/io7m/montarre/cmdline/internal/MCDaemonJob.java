@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A job executing inside the daemon.
+ *
+ * <p>The job that the current thread is executing on behalf of is tracked
+ * with an inheritable thread local, and so threads created by a command
+ * (such as those used to run packagers concurrently) are attributed to the
+ * same job. Threads that do not belong to any job, such as those in pools
+ * shared between jobs, write to the daemon's own standard streams.</p>
+ */
+
+public final class MCDaemonJob
+{
+  private static final InheritableThreadLocal<MCDaemonJob> CURRENT =
+    new InheritableThreadLocal<>();
+
+  private final long id;
+  private final Path workingDirectory;
+  private final OutputStream output;
+  private final OutputStream log;
+
+  /**
+   * A job executing inside the daemon.
+   *
+   * @param inId               The job ID
+   * @param inWorkingDirectory The client's working directory
+   * @param inOutput           The stream that receives command output
+   * @param inLog              The stream that receives log output
+   */
+
+  public MCDaemonJob(
+    final long inId,
+    final Path inWorkingDirectory,
+    final OutputStream inOutput,
+    final OutputStream inLog)
+  {
+    this.id = inId;
+    this.workingDirectory =
+      Objects.requireNonNull(inWorkingDirectory, "workingDirectory");
+    this.output =
+      Objects.requireNonNull(inOutput, "output");
+    this.log =
+      Objects.requireNonNull(inLog, "log");
+  }
+
+  /**
+   * @return The job executing on the current thread, if any
+   */
+
+  public static Optional<MCDaemonJob> current()
+  {
+    return Optional.ofNullable(CURRENT.get());
+  }
+
+  /**
+   * @return The stream that receives the standard output of the current job,
+   * or {@link System#out} if the current thread is not executing a job
+   */
+
+  public static OutputStream standardOutput()
+  {
+    final var job = CURRENT.get();
+    if (job != null) {
+      return job.output;
+    }
+    return System.out;
+  }
+
+  /**
+   * Execute the given procedure on the current thread as part of this job.
+   *
+   * @param procedure The procedure
+   */
+
+  public void runAs(
+    final Runnable procedure)
+  {
+    final var previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      procedure.run();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  /**
+   * @return The job ID
+   */
+
+  public long id()
+  {
+    return this.id;
+  }
+
+  /**
+   * @return The client's working directory
+   */
+
+  public Path workingDirectory()
+  {
+    return this.workingDirectory;
+  }
+
+  /**
+   * @return The stream that receives command output
+   */
+
+  public OutputStream output()
+  {
+    return this.output;
+  }
+
+  /**
+   * @return The stream that receives log output
+   */
+
+  public OutputStream log()
+  {
+    return this.log;
+  }
+}
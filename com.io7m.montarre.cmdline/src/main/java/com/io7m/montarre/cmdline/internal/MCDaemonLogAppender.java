@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.filter.Filter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An appender that sends log events to the daemon job that produced them.
+ * Events produced by a job are removed from the daemon's other appenders,
+ * and so the log output of each job is only seen by the client that
+ * submitted it.
+ */
+
+public final class MCDaemonLogAppender
+  extends UnsynchronizedAppenderBase<ILoggingEvent>
+  implements AutoCloseable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MCDaemonLogAppender.class);
+
+  private static final AtomicBoolean FILTERED =
+    new AtomicBoolean(false);
+
+  private final LoggerContext loggerContext;
+  private final PatternLayoutEncoder encoder;
+
+  private MCDaemonLogAppender(
+    final LoggerContext inLoggerContext)
+  {
+    this.loggerContext =
+      Objects.requireNonNull(inLoggerContext, "loggerContext");
+
+    this.encoder = new PatternLayoutEncoder();
+    this.encoder.setContext(this.loggerContext);
+    this.encoder.setPattern("%level %logger: %msg%n");
+    this.encoder.start();
+
+    this.setContext(this.loggerContext);
+    this.setName("MONTARRE_DAEMON");
+  }
+
+  /**
+   * Attach a new appender to the root logger.
+   *
+   * @return The appender, if the logging backend is logback
+   */
+
+  public static Optional<MCDaemonLogAppender> install()
+  {
+    if (!(LoggerFactory.getILoggerFactory()
+      instanceof final LoggerContext context)) {
+      LOG.warn(
+        "The logging backend is not logback; job logs will not be routed to clients.");
+      return Optional.empty();
+    }
+
+    final var root =
+      context.getLogger(Logger.ROOT_LOGGER_NAME);
+
+    /*
+     * Stop the existing appenders from seeing events that belong to jobs.
+     * The filters are harmless once the daemon has stopped, and so they
+     * are installed once and never removed.
+     */
+
+    if (FILTERED.compareAndSet(false, true)) {
+      final var appenders = root.iteratorForAppenders();
+      while (appenders.hasNext()) {
+        appenders.next().addFilter(new JobFilter());
+      }
+    }
+
+    final var appender = new MCDaemonLogAppender(context);
+    appender.start();
+    root.addAppender(appender);
+    return Optional.of(appender);
+  }
+
+  @Override
+  protected void append(
+    final ILoggingEvent event)
+  {
+    final var jobOpt = MCDaemonJob.current();
+    if (jobOpt.isEmpty()) {
+      return;
+    }
+
+    try {
+      jobOpt.get().log().write(this.encoder.encode(event));
+    } catch (final IOException e) {
+      /*
+       * The client has gone away. There is nowhere to send the event.
+       */
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    this.loggerContext.getLogger(Logger.ROOT_LOGGER_NAME)
+      .detachAppender(this);
+    this.stop();
+    this.encoder.stop();
+  }
+
+  private static final class JobFilter extends Filter<ILoggingEvent>
+  {
+    JobFilter()
+    {
+
+    }
+
+    @Override
+    public FilterReply decide(
+      final ILoggingEvent event)
+    {
+      if (MCDaemonJob.current().isPresent()) {
+        return FilterReply.DENY;
+      }
+      return FilterReply.NEUTRAL;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.io7m.quarrel.core.QException;
+import com.io7m.quarrel.core.QValueConverterDirectory;
+import com.io7m.quarrel.core.QValueConverterType;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * A converter for paths that resolves relative paths against a client's
+ * working directory rather than the working directory of the daemon.
+ */
+
+final class MCDaemonPathConverter
+  implements QValueConverterType<Path>
+{
+  private static final QValueConverterType<Path> DELEGATE =
+    QValueConverterDirectory.core()
+      .converterFor(Path.class)
+      .orElseThrow();
+
+  private final Path workingDirectory;
+
+  MCDaemonPathConverter(
+    final Path inWorkingDirectory)
+  {
+    this.workingDirectory =
+      Objects.requireNonNull(inWorkingDirectory, "workingDirectory");
+  }
+
+  @Override
+  public Path convertFromString(
+    final String text)
+    throws QException
+  {
+    return this.workingDirectory.resolve(DELEGATE.convertFromString(text));
+  }
+
+  @Override
+  public String convertToString(
+    final Path value)
+    throws QException
+  {
+    return DELEGATE.convertToString(value);
+  }
+
+  @Override
+  public Path exampleValue()
+  {
+    return DELEGATE.exampleValue();
+  }
+
+  @Override
+  public String syntax()
+  {
+    return DELEGATE.syntax();
+  }
+
+  @Override
+  public Class<Path> convertedClass()
+  {
+    return Path.class;
+  }
+}
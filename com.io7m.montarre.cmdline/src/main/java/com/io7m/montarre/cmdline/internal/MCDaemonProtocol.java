@@ -0,0 +1,417 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The protocol spoken between the daemon and its clients.
+ *
+ * <p>A client opens a connection and sends a single request consisting of
+ * the protocol magic number, the protocol version, the client's working
+ * directory, and the command-line arguments. All strings are sent as a
+ * 32-bit big-endian length followed by UTF-8 bytes. The daemon then sends
+ * a sequence of frames, each consisting of a frame type byte, a 32-bit
+ * big-endian length, and that many bytes of data. The final frame is always
+ * an exit frame carrying the 32-bit exit code of the command.</p>
+ */
+
+public final class MCDaemonProtocol
+{
+  /**
+   * The protocol magic number ("MDMN").
+   */
+
+  public static final int MAGIC = 0x4D444D4E;
+
+  /**
+   * The protocol version.
+   */
+
+  public static final int VERSION = 1;
+
+  /**
+   * A frame containing data written to the command's standard output.
+   */
+
+  public static final int FRAME_OUTPUT = 1;
+
+  /**
+   * A frame containing log output.
+   */
+
+  public static final int FRAME_LOG = 2;
+
+  /**
+   * A frame containing the exit code of the command.
+   */
+
+  public static final int FRAME_EXIT = 3;
+
+  /**
+   * The maximum length of a single string in a request.
+   */
+
+  private static final int STRING_SIZE_LIMIT = 1024 * 1024;
+
+  /**
+   * The maximum number of arguments in a request.
+   */
+
+  private static final int ARGUMENT_COUNT_LIMIT = 4096;
+
+  /**
+   * The maximum length of a single frame.
+   */
+
+  private static final int FRAME_SIZE_LIMIT = 1024 * 1024;
+
+  private MCDaemonProtocol()
+  {
+
+  }
+
+  /**
+   * A request to execute a command.
+   *
+   * @param workingDirectory The client's working directory
+   * @param arguments        The command-line arguments
+   */
+
+  public record Request(
+    Path workingDirectory,
+    List<String> arguments)
+  {
+    /**
+     * A request to execute a command.
+     */
+
+    public Request
+    {
+      Objects.requireNonNull(workingDirectory, "workingDirectory");
+      arguments = List.copyOf(arguments);
+    }
+  }
+
+  /**
+   * Write a request.
+   *
+   * @param output  The output stream
+   * @param request The request
+   *
+   * @throws IOException On errors
+   */
+
+  public static void writeRequest(
+    final DataOutputStream output,
+    final Request request)
+    throws IOException
+  {
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    writeString(output, request.workingDirectory().toString());
+    output.writeInt(request.arguments().size());
+    for (final var argument : request.arguments()) {
+      writeString(output, argument);
+    }
+    output.flush();
+  }
+
+  /**
+   * Read a request.
+   *
+   * @param input The input stream
+   *
+   * @return The request
+   *
+   * @throws IOException On errors, or if the request is malformed
+   */
+
+  public static Request readRequest(
+    final DataInputStream input)
+    throws IOException
+  {
+    final var magic = input.readInt();
+    if (magic != MAGIC) {
+      throw new IOException(
+        "Unrecognized magic number 0x%08x".formatted(magic)
+      );
+    }
+    final var version = input.readInt();
+    if (version != VERSION) {
+      throw new IOException(
+        "Unsupported protocol version %d".formatted(version)
+      );
+    }
+
+    final var workingDirectory = Path.of(readString(input));
+    if (!workingDirectory.isAbsolute()) {
+      throw new IOException("The working directory must be absolute.");
+    }
+
+    final var count = input.readInt();
+    if (count < 0 || count > ARGUMENT_COUNT_LIMIT) {
+      throw new IOException(
+        "Argument count %d is out of range".formatted(count)
+      );
+    }
+
+    final var arguments = new ArrayList<String>(count);
+    for (int index = 0; index < count; ++index) {
+      arguments.add(readString(input));
+    }
+    return new Request(workingDirectory, arguments);
+  }
+
+  /**
+   * Read frames until an exit frame is received, copying output and log
+   * frames to the given streams.
+   *
+   * @param input  The input stream
+   * @param output The stream that receives command output
+   * @param log    The stream that receives log output
+   *
+   * @return The exit code
+   *
+   * @throws IOException On errors, or if the connection is closed before an
+   *                     exit frame is received
+   */
+
+  public static int readFrames(
+    final DataInputStream input,
+    final OutputStream output,
+    final OutputStream log)
+    throws IOException
+  {
+    while (true) {
+      final var type = input.read();
+      if (type == -1) {
+        throw new EOFException("The daemon closed the connection.");
+      }
+
+      final var length = input.readInt();
+      if (length < 0 || length > FRAME_SIZE_LIMIT) {
+        throw new IOException(
+          "Frame length %d is out of range".formatted(length)
+        );
+      }
+
+      final var data = input.readNBytes(length);
+      if (data.length != length) {
+        throw new EOFException("The daemon closed the connection.");
+      }
+
+      switch (type) {
+        case FRAME_OUTPUT -> {
+          output.write(data);
+          output.flush();
+        }
+        case FRAME_LOG -> {
+          log.write(data);
+          log.flush();
+        }
+        case FRAME_EXIT -> {
+          if (length != 4) {
+            throw new IOException("Malformed exit frame.");
+          }
+          return ((data[0] & 0xff) << 24)
+                 | ((data[1] & 0xff) << 16)
+                 | ((data[2] & 0xff) << 8)
+                 | (data[3] & 0xff);
+        }
+        default -> {
+          throw new IOException(
+            "Unrecognized frame type %d".formatted(type)
+          );
+        }
+      }
+    }
+  }
+
+  private static void writeString(
+    final DataOutputStream output,
+    final String text)
+    throws IOException
+  {
+    final var bytes = text.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(
+    final DataInputStream input)
+    throws IOException
+  {
+    final var length = input.readInt();
+    if (length < 0 || length > STRING_SIZE_LIMIT) {
+      throw new IOException(
+        "String length %d is out of range".formatted(length)
+      );
+    }
+    final var bytes = input.readNBytes(length);
+    if (bytes.length != length) {
+      throw new EOFException();
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A writer of frames. Frames may be written from any number of threads,
+   * and each frame is written atomically. If the client goes away, all
+   * further output is discarded.
+   */
+
+  public static final class FrameWriter
+  {
+    private final DataOutputStream output;
+    private boolean broken;
+
+    /**
+     * A writer of frames.
+     *
+     * @param inOutput The output stream
+     */
+
+    public FrameWriter(
+      final OutputStream inOutput)
+    {
+      this.output = new DataOutputStream(
+        Objects.requireNonNull(inOutput, "output")
+      );
+    }
+
+    /**
+     * Write a frame.
+     *
+     * @param type   The frame type
+     * @param data   The frame data
+     * @param offset The offset of the data
+     * @param length The length of the data
+     */
+
+    public synchronized void write(
+      final int type,
+      final byte[] data,
+      final int offset,
+      final int length)
+    {
+      if (this.broken) {
+        return;
+      }
+
+      try {
+        var position = offset;
+        var remaining = length;
+        do {
+          final var size = Math.min(remaining, FRAME_SIZE_LIMIT);
+          this.output.writeByte(type);
+          this.output.writeInt(size);
+          this.output.write(data, position, size);
+          position += size;
+          remaining -= size;
+        } while (remaining > 0);
+        this.output.flush();
+      } catch (final IOException e) {
+        this.broken = true;
+      }
+    }
+
+    /**
+     * Write an exit frame.
+     *
+     * @param exitCode The exit code
+     */
+
+    public void writeExit(
+      final int exitCode)
+    {
+      final var data = new byte[]{
+        (byte) (exitCode >>> 24),
+        (byte) (exitCode >>> 16),
+        (byte) (exitCode >>> 8),
+        (byte) exitCode,
+      };
+      this.write(FRAME_EXIT, data, 0, data.length);
+    }
+
+    /**
+     * @return {@code true} if the client has gone away
+     */
+
+    public synchronized boolean isBroken()
+    {
+      return this.broken;
+    }
+
+    /**
+     * Create an output stream that writes frames of the given type.
+     *
+     * @param type The frame type
+     *
+     * @return An output stream
+     */
+
+    public OutputStream stream(
+      final int type)
+    {
+      return new FrameOutputStream(this, type);
+    }
+  }
+
+  private static final class FrameOutputStream extends OutputStream
+  {
+    private final FrameWriter writer;
+    private final int type;
+
+    FrameOutputStream(
+      final FrameWriter inWriter,
+      final int inType)
+    {
+      this.writer = Objects.requireNonNull(inWriter, "writer");
+      this.type = inType;
+    }
+
+    @Override
+    public void write(
+      final int b)
+    {
+      this.writer.write(this.type, new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(
+      final byte[] data,
+      final int offset,
+      final int length)
+    {
+      Objects.checkFromIndexSize(offset, length, data.length);
+      if (length > 0) {
+        this.writer.write(this.type, data, offset, length);
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.quarrel.core.QCommandContextType;
+import com.io7m.quarrel.core.QCommandMetadata;
+import com.io7m.quarrel.core.QCommandStatus;
+import com.io7m.quarrel.core.QCommandType;
+import com.io7m.quarrel.core.QParameterNamed01;
+import com.io7m.quarrel.core.QParameterNamed1;
+import com.io7m.quarrel.core.QParameterNamedType;
+import com.io7m.quarrel.core.QStringType;
+import com.io7m.quarrel.ext.logback.QLogback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * "serve"
+ */
+
+public final class MCDaemonServe implements QCommandType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MCDaemonServe.class);
+
+  private static final QParameterNamed1<Path> SOCKET =
+    new QParameterNamed1<>(
+      "--socket",
+      List.of(),
+      new QStringType.QConstant("The Unix domain socket on which to listen."),
+      Optional.empty(),
+      Path.class
+    );
+
+  private static final QParameterNamed01<Integer> JOBS =
+    new QParameterNamed01<>(
+      "--jobs",
+      List.of(),
+      new QStringType.QConstant(
+        "The maximum number of jobs that may execute concurrently."),
+      Optional.empty(),
+      Integer.class
+    );
+
+  private final QCommandMetadata metadata;
+
+  /**
+   * Construct a command.
+   */
+
+  public MCDaemonServe()
+  {
+    this.metadata = new QCommandMetadata(
+      "serve",
+      new QStringType.QConstant("Run a daemon that executes commands."),
+      Optional.empty()
+    );
+  }
+
+  @Override
+  public List<QParameterNamedType<?>> onListNamedParameters()
+  {
+    return Stream.concat(
+      Stream.of(JOBS, SOCKET),
+      QLogback.parameters().stream()
+    ).toList();
+  }
+
+  @Override
+  public QCommandStatus onExecute(
+    final QCommandContextType newContext)
+    throws InterruptedException
+  {
+    QLogback.configure(newContext);
+
+    final var jobs =
+      newContext.parameterValue(JOBS)
+        .map(Integer::intValue)
+        .orElse(Runtime.getRuntime().availableProcessors());
+
+    if (jobs < 1) {
+      LOG.error("{} must be at least 1.", JOBS.name());
+      return QCommandStatus.FAILURE;
+    }
+
+    try (var server =
+           MCDaemonServer.start(newContext.parameterValue(SOCKET), jobs)) {
+      final var out = newContext.output();
+      out.printf("Listening on %s%n", server.socket());
+      out.flush();
+
+      /*
+       * Serve requests until the process is interrupted.
+       */
+
+      new CountDownLatch(1).await();
+    } catch (final MException e) {
+      MCSLogging.logStructuredError(LOG, e);
+      return QCommandStatus.FAILURE;
+    }
+    return QCommandStatus.SUCCESS;
+  }
+
+  @Override
+  public QCommandMetadata metadata()
+  {
+    return this.metadata;
+  }
+}
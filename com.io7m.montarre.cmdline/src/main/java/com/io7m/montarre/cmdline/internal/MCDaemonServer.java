@@ -0,0 +1,389 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.cmdline.MConverters;
+import com.io7m.montarre.cmdline.MMain;
+import jdk.net.ExtendedSocketOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A daemon that executes commands on behalf of clients connected over a
+ * Unix domain socket.
+ *
+ * <p>Each connection carries exactly one job. Each job is executed with
+ * its own instance of the command-line application, has its output and log
+ * messages sent back over its own connection, and has relative paths
+ * resolved against the client's working directory. At most a fixed number
+ * of jobs execute at any one time; further jobs wait for a slot. The socket
+ * is only accessible to the user running the daemon and, where the platform
+ * allows it, the credentials of each peer are checked against the owner of
+ * the socket.</p>
+ */
+
+public final class MCDaemonServer implements AutoCloseable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MCDaemonServer.class);
+
+  private final Path socket;
+  private final ServerSocketChannel channel;
+  private final UserPrincipal owner;
+  private final Semaphore slots;
+  private final ExecutorService executor;
+  private final Optional<MCDaemonLogAppender> appender;
+  private final AtomicLong jobIds;
+
+  private MCDaemonServer(
+    final Path inSocket,
+    final ServerSocketChannel inChannel,
+    final UserPrincipal inOwner,
+    final int jobs)
+  {
+    this.socket =
+      Objects.requireNonNull(inSocket, "socket");
+    this.channel =
+      Objects.requireNonNull(inChannel, "channel");
+    this.owner =
+      Objects.requireNonNull(inOwner, "owner");
+    this.slots =
+      new Semaphore(jobs, true);
+    this.executor =
+      Executors.newVirtualThreadPerTaskExecutor();
+    this.appender =
+      MCDaemonLogAppender.install();
+    this.jobIds =
+      new AtomicLong(0L);
+  }
+
+  /**
+   * Start a daemon.
+   *
+   * @param socket The socket path
+   * @param jobs   The maximum number of jobs that may execute concurrently
+   *
+   * @return The daemon
+   *
+   * @throws MException On errors
+   */
+
+  public static MCDaemonServer start(
+    final Path socket,
+    final int jobs)
+    throws MException
+  {
+    Objects.requireNonNull(socket, "socket");
+
+    if (jobs < 1) {
+      throw new IllegalArgumentException(
+        "The number of jobs must be at least 1."
+      );
+    }
+
+    final var path = socket.toAbsolutePath().normalize();
+    final var address = UnixDomainSocketAddress.of(path);
+
+    try {
+      final var parent = path.getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+
+      removeStaleSocket(path, address);
+
+      final var channel =
+        ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+
+      try {
+        channel.bind(address);
+
+        final var view = FileSystems.getDefault().supportedFileAttributeViews();
+        if (view.contains("posix")) {
+          Files.setPosixFilePermissions(
+            path,
+            PosixFilePermissions.fromString("rw-------")
+          );
+        }
+
+        final var server =
+          new MCDaemonServer(path, channel, Files.getOwner(path), jobs);
+        server.executor.execute(server::acceptLoop);
+        LOG.info("Daemon listening on {} ({} jobs)", path, jobs);
+        return server;
+      } catch (final IOException e) {
+        channel.close();
+        Files.deleteIfExists(path);
+        throw e;
+      }
+    } catch (final IOException e) {
+      throw new MException(
+        e.getMessage(),
+        e,
+        "error-io",
+        Map.of("Socket", path.toString())
+      );
+    }
+  }
+
+  private static void removeStaleSocket(
+    final Path path,
+    final UnixDomainSocketAddress address)
+    throws IOException, MException
+  {
+    if (!Files.exists(path)) {
+      return;
+    }
+
+    try (var ignored = SocketChannel.open(address)) {
+      throw new MException(
+        "A daemon is already listening on the socket.",
+        "error-daemon-running",
+        Map.of("Socket", path.toString()),
+        Optional.empty()
+      );
+    } catch (final IOException e) {
+      LOG.debug("Removing stale socket {}", path);
+      Files.delete(path);
+    }
+  }
+
+  /**
+   * @return The socket path
+   */
+
+  public Path socket()
+  {
+    return this.socket;
+  }
+
+  private void acceptLoop()
+  {
+    while (this.channel.isOpen()) {
+      try {
+        final var client = this.channel.accept();
+        try {
+          this.executor.execute(() -> this.handle(client));
+        } catch (final RejectedExecutionException e) {
+          LOG.debug("Daemon is shutting down; refusing connection.");
+          closeClient(client);
+          return;
+        }
+      } catch (final ClosedChannelException e) {
+        return;
+      } catch (final IOException e) {
+        if (!this.channel.isOpen()) {
+          return;
+        }
+        LOG.error("Failed to accept a connection: ", e);
+      }
+    }
+  }
+
+  private static void closeClient(
+    final SocketChannel client)
+  {
+    try {
+      client.close();
+    } catch (final IOException e) {
+      LOG.debug("Failed to close connection: ", e);
+    }
+  }
+
+  private boolean peerPermitted(
+    final SocketChannel client)
+  {
+    if (!client.supportedOptions()
+      .contains(ExtendedSocketOptions.SO_PEERCRED)) {
+      return true;
+    }
+
+    try {
+      final var peer =
+        client.getOption(ExtendedSocketOptions.SO_PEERCRED).user();
+      if (Objects.equals(peer.getName(), this.owner.getName())) {
+        return true;
+      }
+      LOG.warn("Rejected a connection from user {}", peer.getName());
+      return false;
+    } catch (final IOException e) {
+      LOG.warn("Could not determine the credentials of a peer: ", e);
+      return false;
+    }
+  }
+
+  private void handle(
+    final SocketChannel client)
+  {
+    try (client) {
+      if (!this.peerPermitted(client)) {
+        return;
+      }
+
+      final MCDaemonProtocol.Request request;
+      try {
+        request = MCDaemonProtocol.readRequest(
+          new DataInputStream(Channels.newInputStream(client))
+        );
+      } catch (final IOException e) {
+        LOG.debug("Malformed request: ", e);
+        return;
+      }
+
+      final var frames =
+        new MCDaemonProtocol.FrameWriter(Channels.newOutputStream(client));
+
+      final var arguments = request.arguments();
+      if (!arguments.isEmpty() && "daemon".equals(arguments.getFirst())) {
+        final var text =
+          "ERROR: Daemon commands cannot be executed by the daemon.%n"
+            .formatted()
+            .getBytes(StandardCharsets.UTF_8);
+        frames.write(MCDaemonProtocol.FRAME_LOG, text, 0, text.length);
+        frames.writeExit(1);
+        return;
+      }
+
+      frames.writeExit(this.runJob(request, frames));
+    } catch (final IOException e) {
+      LOG.debug("Failed to close connection: ", e);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private int runJob(
+    final MCDaemonProtocol.Request request,
+    final MCDaemonProtocol.FrameWriter frames)
+    throws InterruptedException
+  {
+    final var job =
+      new MCDaemonJob(
+        this.jobIds.incrementAndGet(),
+        request.workingDirectory(),
+        frames.stream(MCDaemonProtocol.FRAME_OUTPUT),
+        frames.stream(MCDaemonProtocol.FRAME_LOG)
+      );
+
+    if (!this.slots.tryAcquire()) {
+      final var text =
+        "INFO: Waiting for one of the daemon's job slots.%n"
+          .formatted()
+          .getBytes(StandardCharsets.UTF_8);
+      frames.write(MCDaemonProtocol.FRAME_LOG, text, 0, text.length);
+      this.slots.acquire();
+    }
+
+    LOG.info("Job {} started: {}", job.id(), request.arguments());
+    final var timeThen = System.nanoTime();
+    try {
+      final var output =
+        new PrintWriter(
+          new OutputStreamWriter(job.output(), StandardCharsets.UTF_8),
+          true
+        );
+      final var converters =
+        MConverters.get()
+          .with(Path.class, new MCDaemonPathConverter(job.workingDirectory()));
+      final var application =
+        MMain.createApplication(output, converters);
+
+      final var exitCode = new int[]{1};
+      job.runAs(() -> {
+        try {
+          exitCode[0] =
+            application.run(LOG, request.arguments()).exitCode();
+        } catch (final RuntimeException e) {
+          LOG.error("Job failed: ", e);
+        } finally {
+          output.flush();
+        }
+      });
+
+      LOG.info(
+        "Job {} finished with exit code {} in {} ms",
+        job.id(),
+        exitCode[0],
+        (System.nanoTime() - timeThen) / 1_000_000L
+      );
+      return exitCode[0];
+    } finally {
+      this.slots.release();
+    }
+  }
+
+  @Override
+  public void close()
+    throws MException
+  {
+    try {
+      this.channel.close();
+      this.executor.shutdownNow();
+
+      /*
+       * Running jobs are interrupted, and must be allowed to finish before
+       * the appender that routes their log messages is removed.
+       */
+
+      try {
+        if (!this.executor.awaitTermination(30L, TimeUnit.SECONDS)) {
+          LOG.warn("Timed out waiting for running jobs to stop.");
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      this.appender.ifPresent(MCDaemonLogAppender::close);
+      Files.deleteIfExists(this.socket);
+    } catch (final IOException e) {
+      throw new MException(
+        e.getMessage(),
+        e,
+        "error-io",
+        Map.of("Socket", this.socket.toString())
+      );
+    }
+  }
+}
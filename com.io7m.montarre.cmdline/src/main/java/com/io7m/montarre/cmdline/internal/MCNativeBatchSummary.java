@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A summary of the packages produced by a batch of native packaging
+ * operations, written as a JSON file.
+ */
+
+public final class MCNativeBatchSummary
+{
+  /**
+   * The name of the JSON summary file.
+   */
+
+  public static final String SUMMARY_JSON = "summary.json";
+
+  private final List<Entry> entries;
+
+  /**
+   * A summary entry.
+   *
+   * @param packageFile     The input package
+   * @param outputDirectory The directory containing the outputs
+   * @param files           The outputs
+   * @param elapsed         The time taken to produce the outputs
+   * @param error           The error that stopped the package being produced
+   */
+
+  public record Entry(
+    Path packageFile,
+    Path outputDirectory,
+    List<MCNativeOutputManifest.Entry> files,
+    Duration elapsed,
+    Optional<String> error)
+  {
+    /**
+     * A summary entry.
+     *
+     * @param packageFile     The input package
+     * @param outputDirectory The directory containing the outputs
+     * @param files           The outputs
+     * @param elapsed         The time taken to produce the outputs
+     * @param error           The error that stopped the package being produced
+     */
+
+    public Entry
+    {
+      Objects.requireNonNull(packageFile, "packageFile");
+      Objects.requireNonNull(outputDirectory, "outputDirectory");
+      files = List.copyOf(files);
+      Objects.requireNonNull(elapsed, "elapsed");
+      Objects.requireNonNull(error, "error");
+    }
+
+    /**
+     * @return {@code true} if the package was produced successfully
+     */
+
+    public boolean succeeded()
+    {
+      return this.error.isEmpty();
+    }
+  }
+
+  /**
+   * A summary of the packages produced by a batch.
+   */
+
+  public MCNativeBatchSummary()
+  {
+    this.entries = new ArrayList<>();
+  }
+
+  /**
+   * Add an entry to the summary.
+   *
+   * @param entry The entry
+   */
+
+  public void add(
+    final Entry entry)
+  {
+    this.entries.add(Objects.requireNonNull(entry, "entry"));
+  }
+
+  /**
+   * @return The entries in the summary, in the order they were added
+   */
+
+  public List<Entry> entries()
+  {
+    return List.copyOf(this.entries);
+  }
+
+  /**
+   * @return The number of packages that could not be produced
+   */
+
+  public long failures()
+  {
+    return this.entries.stream()
+      .filter(e -> !e.succeeded())
+      .count();
+  }
+
+  /**
+   * Write the summary into the given directory. Output directories are
+   * written relative to the given directory.
+   *
+   * @param directory The output directory
+   *
+   * @throws IOException On errors
+   */
+
+  public void write(
+    final Path directory)
+    throws IOException
+  {
+    final var base = directory.toAbsolutePath();
+    final var file = directory.resolve(SUMMARY_JSON);
+
+    MCNativeOutputManifest.writeAtomically(file, output -> {
+      try (var json =
+             new JsonFactory().createGenerator(output, JsonEncoding.UTF8)) {
+        json.useDefaultPrettyPrinter();
+        json.writeStartObject();
+        json.writeArrayFieldStart("packages");
+        for (final var entry : this.entries) {
+          json.writeStartObject();
+          json.writeStringField(
+            "package",
+            entry.packageFile().getFileName().toString()
+          );
+          json.writeStringField(
+            "outputDirectory",
+            base.relativize(entry.outputDirectory().toAbsolutePath())
+              .toString()
+          );
+          json.writeStringField(
+            "status",
+            entry.succeeded() ? "SUCCEEDED" : "FAILED"
+          );
+          if (entry.error().isPresent()) {
+            json.writeStringField("error", entry.error().get());
+          }
+          json.writeNumberField(
+            "elapsedMilliseconds",
+            entry.elapsed().toMillis()
+          );
+          json.writeArrayFieldStart("files");
+          for (final var fileEntry : entry.files()) {
+            final var result = fileEntry.result();
+            json.writeStartObject();
+            json.writeStringField(
+              "file",
+              result.file().getFileName().toString()
+            );
+            json.writeNumberField("size", result.size());
+            json.writeStringField("sha256", result.hash().value().value());
+            json.writeStringField("packager", fileEntry.packager().value());
+            json.writeEndObject();
+          }
+          json.writeEndArray();
+          json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+      }
+    });
+  }
+}
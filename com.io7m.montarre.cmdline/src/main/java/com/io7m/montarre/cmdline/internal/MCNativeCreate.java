@@ -17,21 +17,13 @@
 
 package com.io7m.montarre.cmdline.internal;
 
-import com.io7m.montarre.adoptium.MEARuntimeSearch;
-import com.io7m.montarre.adoptium.MEAdoptiumConfiguration;
-import com.io7m.montarre.adoptium.MEAdoptiumFactory;
-import com.io7m.montarre.adoptium.METImageKind;
-import com.io7m.montarre.api.MArchitectureName;
-import com.io7m.montarre.api.MArchiveFormat;
 import com.io7m.montarre.api.MException;
-import com.io7m.montarre.api.MHash;
-import com.io7m.montarre.api.MHashAlgorithm;
-import com.io7m.montarre.api.MHashValue;
-import com.io7m.montarre.api.MOperatingSystemName;
 import com.io7m.montarre.api.http.MHTTPClients;
-import com.io7m.montarre.api.natives.MNativePackagerDirectoryType;
+import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
 import com.io7m.montarre.api.natives.MNativePackagerServiceType;
 import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
+import com.io7m.montarre.api.natives.MNativeWorkspaceType;
 import com.io7m.montarre.io.MPackageReaders;
 import com.io7m.montarre.nativepack.MNPackagers;
 import com.io7m.montarre.nativepack.MNWorkspaces;
@@ -40,28 +32,23 @@ import com.io7m.quarrel.core.QCommandMetadata;
 import com.io7m.quarrel.core.QCommandStatus;
 import com.io7m.quarrel.core.QCommandType;
 import com.io7m.quarrel.core.QException;
-import com.io7m.quarrel.core.QParameterNamed01;
-import com.io7m.quarrel.core.QParameterNamed0N;
 import com.io7m.quarrel.core.QParameterNamed1;
 import com.io7m.quarrel.core.QParameterNamedType;
 import com.io7m.quarrel.core.QStringType;
 import com.io7m.quarrel.ext.logback.QLogback;
-import com.io7m.streamtime.core.STTransferStatistics;
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
 import java.util.stream.Stream;
 
 /**
@@ -75,15 +62,6 @@ public final class MCNativeCreate implements QCommandType
 
   private final QCommandMetadata metadata;
 
-  private static final QParameterNamed0N<String> INCLUDE_PACKAGERS =
-    new QParameterNamed0N<>(
-      "--include-packagers",
-      List.of(),
-      new QStringType.QConstant("Only run the named packagers."),
-      List.of(),
-      String.class
-    );
-
   private static final QParameterNamed1<Path> INPUT_PACKAGE =
     new QParameterNamed1<>(
       "--package",
@@ -93,15 +71,6 @@ public final class MCNativeCreate implements QCommandType
       Path.class
     );
 
-  private static final QParameterNamed1<Path> WORK_DIRECTORY =
-    new QParameterNamed1<>(
-      "--work-directory",
-      List.of(),
-      new QStringType.QConstant("The work directory."),
-      Optional.empty(),
-      Path.class
-    );
-
   private static final QParameterNamed1<Path> OUTPUT_DIRECTORY =
     new QParameterNamed1<>(
       "--output-directory",
@@ -111,43 +80,6 @@ public final class MCNativeCreate implements QCommandType
       Path.class
     );
 
-  private static final QParameterNamed01<URI> JAVA_DOWNLOAD_URI =
-    new QParameterNamed01<>(
-      "--java-runtime-download-uri",
-      List.of(),
-      new QStringType.QConstant("The location for a Java runtime."),
-      Optional.empty(),
-      URI.class
-    );
-
-  private static final QParameterNamed01<String> JAVA_DOWNLOAD_SHA256 =
-    new QParameterNamed01<>(
-      "--java-runtime-sha256",
-      List.of(),
-      new QStringType.QConstant("The SHA-256 of the Java runtime."),
-      Optional.empty(),
-      String.class
-    );
-
-  private static final QParameterNamed01<MArchiveFormat> JAVA_DOWNLOAD_FORMAT =
-    new QParameterNamed01<>(
-      "--java-runtime-format",
-      List.of(),
-      new QStringType.QConstant("The format of the Java runtime archive."),
-      Optional.empty(),
-      MArchiveFormat.class
-    );
-
-  private static final QParameterNamed01<Runtime.Version> ADOPTIUM_TEMURIN_VERSION =
-    new QParameterNamed01<>(
-      "--adoptium-temurin-version",
-      List.of(),
-      new QStringType.QConstant(
-        "The version of the Adoptium Temurin runtime to use."),
-      Optional.empty(),
-      Runtime.Version.class
-    );
-
   /**
    * Construct a command.
    */
@@ -164,27 +96,14 @@ public final class MCNativeCreate implements QCommandType
   @Override
   public List<QParameterNamedType<?>> onListNamedParameters()
   {
-    return Stream.concat(
+    return Stream.of(
       Stream.of(
-        ADOPTIUM_TEMURIN_VERSION,
-        INCLUDE_PACKAGERS,
         INPUT_PACKAGE,
-        JAVA_DOWNLOAD_FORMAT,
-        JAVA_DOWNLOAD_SHA256,
-        JAVA_DOWNLOAD_URI,
-        OUTPUT_DIRECTORY,
-        WORK_DIRECTORY
+        OUTPUT_DIRECTORY
       ),
+      MCNativeWorkspaceOptions.parameters().stream(),
       QLogback.parameters().stream()
-    ).toList();
-  }
-
-  private record RuntimeParameters(
-    URI runtimeURI,
-    MHash runtimeHash,
-    MArchiveFormat format)
-  {
-
+    ).<QParameterNamedType<?>>flatMap(s -> s).toList();
   }
 
   @Override
@@ -194,9 +113,9 @@ public final class MCNativeCreate implements QCommandType
   {
     QLogback.configure(newContext);
 
-    final RuntimeParameters runtimeParameters;
+    final MNativeWorkspaceConfiguration workspaceConfig;
     try {
-      runtimeParameters = this.handleRuntimeParameters(newContext);
+      workspaceConfig = MCNativeWorkspaceOptions.parse(newContext);
     } catch (final MException e) {
       MCSLogging.logStructuredError(LOG, e);
       return QCommandStatus.FAILURE;
@@ -209,25 +128,13 @@ public final class MCNativeCreate implements QCommandType
     final var workspaces =
       new MNWorkspaces();
     final var packagers =
-      MNPackagers.createFromServiceLoader();
+      MCNativeWorkspaceOptions.packagerDirectory();
 
     final var packageFile =
       newContext.parameterValue(INPUT_PACKAGE);
     final var outputDirectory =
       newContext.parameterValue(OUTPUT_DIRECTORY);
 
-    final var workspaceConfig =
-      MNativeWorkspaceConfiguration.builder()
-        .setBaseDirectory(
-          newContext.parameterValue(WORK_DIRECTORY))
-        .setJavaRuntimeDownloadURI(
-          runtimeParameters.runtimeURI)
-        .setJavaRuntimeDownloadSHA256(
-          runtimeParameters.runtimeHash.value().value())
-        .setJavaRuntimeDownloadFormat(
-          runtimeParameters.format)
-        .build();
-
     LOG.info("Opening package {}.", packageFile);
     try (final var packageReader = readers.open(packageFile)) {
       LOG.info("Creating output directory {}", outputDirectory);
@@ -241,40 +148,30 @@ public final class MCNativeCreate implements QCommandType
         LOG.info("Workspace architecture: {}", workspace.architecture());
         LOG.info("Workspace OS: {}", workspace.operatingSystem());
 
-        LOG.info("Downloading Java runtime.");
+        LOG.info("Obtaining Java runtime.");
         workspace.javaRuntimeDownload()
-          .subscribe(new MCPerpetualSubscriber<>(this::onJavaDownloadProgress));
-        workspace.javaRuntime()
-          .get();
+          .subscribe(new MCPerpetualSubscriber<>(
+            MCNativeWorkspaceOptions::onJavaDownloadProgress));
+        workspace.awaitJavaRuntime();
 
         final var packagerList =
-          this.getPackagers(newContext, packagers);
+          MCNativeWorkspaceOptions.packagers(newContext, packagers);
         LOG.info("Executing {} packagers.", packagerList.size());
 
-        final var packageDecl = packageReader.packageDeclaration();
-        for (final var packager : packagerList) {
-          final var unsupportedOpt =
-            packager.unsupportedReason(Optional.of(packageDecl));
-          if (unsupportedOpt.isPresent()) {
-            final var unsupported = unsupportedOpt.get();
-            LOG.info(
-              "Unsupported: {} {}",
-              packager.name(),
-              unsupported.message());
-            continue;
-          }
-
-          LOG.info("Executing packager {}.", packager.name());
-          final var output = packager.execute(workspace, packageReader);
-
-          LOG.info("Created {}", output);
-          Files.move(
-            output,
-            outputDirectory.resolve(output.getFileName()),
-            StandardCopyOption.REPLACE_EXISTING,
-            StandardCopyOption.ATOMIC_MOVE
+        final var manifest =
+          createPackages(
+            workspace,
+            packageReader,
+            packagerList,
+            outputDirectory
           );
-        }
+
+        LOG.info(
+          "Writing {} and {}.",
+          MCNativeOutputManifest.SHA256SUMS,
+          MCNativeOutputManifest.MANIFEST_JSON
+        );
+        manifest.write(outputDirectory);
       }
     } catch (final MException e) {
       MCSLogging.logStructuredError(LOG, e);
@@ -291,135 +188,104 @@ public final class MCNativeCreate implements QCommandType
     return QCommandStatus.SUCCESS;
   }
 
-  private RuntimeParameters handleRuntimeParameters(
-    final QCommandContextType newContext)
-    throws QException, MException
+  /**
+   * Execute the given packagers on a package, moving each output into the
+   * output directory.
+   *
+   * @param workspace       The workspace
+   * @param packageReader   The package
+   * @param packagerList    The packagers
+   * @param outputDirectory The output directory
+   *
+   * @return A manifest of the outputs
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   * @throws IOException          On I/O errors
+   */
+
+  static MCNativeOutputManifest createPackages(
+    final MNativeWorkspaceType workspace,
+    final MPackageReaderType packageReader,
+    final Collection<MNativePackagerServiceType> packagerList,
+    final Path outputDirectory)
+    throws MException, InterruptedException, IOException
   {
-    final var uriOpt =
-      newContext.parameterValue(JAVA_DOWNLOAD_URI);
-    final var temurinOpt =
-      newContext.parameterValue(ADOPTIUM_TEMURIN_VERSION);
-
-    if (uriOpt.isEmpty() && temurinOpt.isEmpty()) {
-      LOG.error(
-        "At least one of {} or {} must be specified.",
-        JAVA_DOWNLOAD_URI.name(),
-        ADOPTIUM_TEMURIN_VERSION.name()
-      );
-      throw new QException(
-        "Missing parameter value.",
-        "parameter-missing-value",
-        Map.ofEntries(),
-        Optional.empty(),
-        List.of()
-      );
-    }
+    final var packageDecl =
+      packageReader.packageDeclaration();
+    final var unsupportedReasons =
+      MNPackagers.unsupportedReasons(packagerList, Optional.of(packageDecl));
+
+    final var manifest = new MCNativeOutputManifest();
+    for (final var packager : packagerList) {
+      final var unsupportedOpt =
+        unsupportedReasons.get(packager.name());
+      if (unsupportedOpt.isPresent()) {
+        final var unsupported = unsupportedOpt.get();
+        LOG.info(
+          "Unsupported: {} {}",
+          packager.name(),
+          unsupported.message());
+        continue;
+      }
 
-    if (uriOpt.isPresent()) {
-      return new RuntimeParameters(
-        uriOpt.get(),
-        new MHash(
-          new MHashAlgorithm("SHA-256"),
-          new MHashValue(
-            newContext.parameterValueRequireNow(JAVA_DOWNLOAD_SHA256)
-          )
-        ),
-        newContext.parameterValueRequireNow(JAVA_DOWNLOAD_FORMAT)
-      );
-    }
+      LOG.info("Executing packager {}.", packager.name());
+      final var timeThen = Instant.now();
+      final var result = workspace.executePackager(packager, packageReader);
+      final var timeNow = Instant.now();
 
-    return this.handleAdoptium(
-      newContext.parameterValueRequireNow(ADOPTIUM_TEMURIN_VERSION)
-    );
-  }
+      final var elapsed = Duration.between(timeThen, timeNow);
 
-  private RuntimeParameters handleAdoptium(
-    final Runtime.Version requiredVersion)
-    throws MException
-  {
-    final var adoptiums = new MEAdoptiumFactory();
-    try (final var adoptium =
-           adoptiums.createAdoptium(
-             MEAdoptiumConfiguration.builder()
-               .build())) {
-
-      final var runtimes =
-        adoptium.runtimes(
-          MEARuntimeSearch.builder()
-            .setImageKind(METImageKind.JRE)
-            .setOperatingSystem(os())
-            .setArchitecture(arch())
-            .setFeatureVersion(requiredVersion.feature())
+      /*
+       * Packagers that produce several packages return the rest as
+       * additional files, and each of those gets its own manifest entry.
+       */
+
+      final var outputs = new ArrayList<MNativePackagerResult>();
+      outputs.add(
+        MNativePackagerResult.builder()
+          .from(result)
+          .setAdditionalFiles(List.of())
+          .build()
+      );
+      for (final var additional : result.additionalFiles()) {
+        outputs.add(
+          MNativePackagerResult.builder()
+            .setFile(additional.file())
+            .setSize(additional.size())
+            .setHash(additional.hash())
             .build()
         );
-
-      for (final var runtime : runtimes) {
-        if (Objects.equals(runtime.version(), requiredVersion)) {
-          return new RuntimeParameters(
-            runtime.downloadLink(),
-            runtime.hash(),
-            runtime.format()
-          );
-        }
       }
 
-      throw new MException(
-        "No Adoptium Temurin runtime is available for the given version.",
-        "error-adoptium-temurin-unavailable",
-        Map.ofEntries(
-          Map.entry("Version", requiredVersion.toString())
-        )
-      );
-    }
-  }
-
-  private static MArchitectureName arch()
-  {
-    return MArchitectureName.infer(System.getProperty("os.arch"));
-  }
-
-  private static MOperatingSystemName os()
-  {
-    return MOperatingSystemName.infer(System.getProperty("os.name"));
-  }
+      for (final var output : outputs) {
+        LOG.info(
+          "Created {} ({} octets, SHA-256 {})",
+          output.file(),
+          Long.valueOf(output.size()),
+          output.hash().value()
+        );
 
-  private Collection<MNativePackagerServiceType> getPackagers(
-    final QCommandContextType context,
-    final MNativePackagerDirectoryType packagers)
-  {
-    final var includes =
-      Set.copyOf(context.parameterValues(INCLUDE_PACKAGERS));
-    final var unfiltered =
-      packagers.packagers().values();
+        final var target =
+          outputDirectory.resolve(output.file().getFileName());
+        Files.move(
+          output.file(),
+          target,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE
+        );
 
-    if (includes.isEmpty()) {
-      return unfiltered;
+        manifest.add(new MCNativeOutputManifest.Entry(
+          MNativePackagerResult.builder()
+            .from(output)
+            .setFile(target)
+            .build(),
+          packager.name(),
+          elapsed
+        ));
+      }
     }
-
-    return unfiltered.stream()
-      .filter(p -> includes.contains(p.name().value()))
-      .toList();
-  }
-
-  private void onJavaDownloadProgress(
-    final STTransferStatistics status)
-  {
-    final var sizeExpected =
-      FileUtils.byteCountToDisplaySize(status.sizeExpected().orElse(0L));
-    final var sizeTransferred =
-      FileUtils.byteCountToDisplaySize(status.sizeTransferred());
-    final var rate =
-      FileUtils.byteCountToDisplaySize(status.octetsPerSecond());
-    final var remaining =
-      Duration.ofSeconds(status.expectedSecondsRemaining().orElse(0L));
-
-    LOG.info(
-      "[JDK] {}/{} ({}/s) ~{} remaining",
-      sizeTransferred,
-      sizeExpected,
-      rate,
-      remaining
-    );
+    return manifest;
   }
 
   @Override
@@ -0,0 +1,409 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.http.MHTTPClients;
+import com.io7m.montarre.api.natives.MNativePackagerServiceType;
+import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
+import com.io7m.montarre.api.natives.MNativeWorkspaceType;
+import com.io7m.montarre.io.MPackageReaders;
+import com.io7m.montarre.nativepack.MNWorkspaces;
+import com.io7m.quarrel.core.QCommandContextType;
+import com.io7m.quarrel.core.QCommandMetadata;
+import com.io7m.quarrel.core.QCommandStatus;
+import com.io7m.quarrel.core.QCommandType;
+import com.io7m.quarrel.core.QException;
+import com.io7m.quarrel.core.QParameterNamed01;
+import com.io7m.quarrel.core.QParameterNamed0N;
+import com.io7m.quarrel.core.QParameterNamed1;
+import com.io7m.quarrel.core.QParameterNamedType;
+import com.io7m.quarrel.core.QStringType;
+import com.io7m.quarrel.ext.logback.QLogback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * "create-batch"
+ */
+
+public final class MCNativeCreateBatch implements QCommandType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MCNativeCreateBatch.class);
+
+  private static final String PACKAGE_SUFFIX = ".mpk";
+
+  private final QCommandMetadata metadata;
+
+  private static final QParameterNamed0N<Path> INPUT_PACKAGES =
+    new QParameterNamed0N<>(
+      "--package",
+      List.of(),
+      new QStringType.QConstant("An input package."),
+      List.of(),
+      Path.class
+    );
+
+  private static final QParameterNamed01<Path> INPUT_PACKAGE_DIRECTORY =
+    new QParameterNamed01<>(
+      "--package-directory",
+      List.of(),
+      new QStringType.QConstant(
+        "A directory containing input packages (files ending in .mpk)."),
+      Optional.empty(),
+      Path.class
+    );
+
+  private static final QParameterNamed1<Path> OUTPUT_DIRECTORY =
+    new QParameterNamed1<>(
+      "--output-directory",
+      List.of(),
+      new QStringType.QConstant("The output directory."),
+      Optional.empty(),
+      Path.class
+    );
+
+  private static final QParameterNamed01<Integer> JOBS =
+    new QParameterNamed01<>(
+      "--jobs",
+      List.of(),
+      new QStringType.QConstant(
+        "The maximum number of packages that may be produced concurrently."),
+      Optional.empty(),
+      Integer.class
+    );
+
+  /**
+   * Construct a command.
+   */
+
+  public MCNativeCreateBatch()
+  {
+    this.metadata = new QCommandMetadata(
+      "create-batch",
+      new QStringType.QConstant("Create native packages for many packages."),
+      Optional.empty()
+    );
+  }
+
+  @Override
+  public List<QParameterNamedType<?>> onListNamedParameters()
+  {
+    return Stream.of(
+      Stream.of(
+        INPUT_PACKAGES,
+        INPUT_PACKAGE_DIRECTORY,
+        JOBS,
+        OUTPUT_DIRECTORY
+      ),
+      MCNativeWorkspaceOptions.parameters().stream(),
+      QLogback.parameters().stream()
+    ).<QParameterNamedType<?>>flatMap(s -> s).toList();
+  }
+
+  @Override
+  public QCommandStatus onExecute(
+    final QCommandContextType newContext)
+    throws QException
+  {
+    QLogback.configure(newContext);
+
+    final var jobs =
+      newContext.parameterValue(JOBS)
+        .map(Integer::intValue)
+        .orElse(Runtime.getRuntime().availableProcessors());
+
+    if (jobs < 1) {
+      LOG.error("{} must be at least 1.", JOBS.name());
+      return QCommandStatus.FAILURE;
+    }
+
+    final MNativeWorkspaceConfiguration workspaceConfig;
+    final List<Path> packageFiles;
+    try {
+      packageFiles = packageFiles(newContext);
+      workspaceConfig = MCNativeWorkspaceOptions.parse(newContext);
+    } catch (final MException e) {
+      MCSLogging.logStructuredError(LOG, e);
+      return QCommandStatus.FAILURE;
+    }
+
+    if (packageFiles.isEmpty()) {
+      LOG.error(
+        "At least one package must be specified with {} or {}.",
+        INPUT_PACKAGES.name(),
+        INPUT_PACKAGE_DIRECTORY.name()
+      );
+      return QCommandStatus.FAILURE;
+    }
+
+    final var httpClients =
+      new MHTTPClients();
+    final var workspaces =
+      new MNWorkspaces();
+    final var packagers =
+      MCNativeWorkspaceOptions.packagerDirectory();
+    final var outputDirectory =
+      newContext.parameterValue(OUTPUT_DIRECTORY);
+
+    final var summary = new MCNativeBatchSummary();
+    try {
+      LOG.info("Creating output directory {}", outputDirectory);
+      Files.createDirectories(outputDirectory);
+
+      LOG.info("Creating workspace {}.", workspaceConfig.baseDirectory());
+      try (final var workspace =
+             workspaces.open(workspaceConfig, httpClients)) {
+        LOG.info("Workspace architecture: {}", workspace.architecture());
+        LOG.info("Workspace OS: {}", workspace.operatingSystem());
+
+        LOG.info("Obtaining Java runtime.");
+        workspace.javaRuntimeDownload()
+          .subscribe(new MCPerpetualSubscriber<>(
+            MCNativeWorkspaceOptions::onJavaDownloadProgress));
+        workspace.awaitJavaRuntime();
+
+        final var packagerList =
+          MCNativeWorkspaceOptions.packagers(newContext, packagers);
+
+        LOG.info(
+          "Executing {} packagers on {} packages with at most {} jobs.",
+          Integer.valueOf(packagerList.size()),
+          Integer.valueOf(packageFiles.size()),
+          Integer.valueOf(jobs)
+        );
+
+        final var semaphore = new Semaphore(jobs);
+        final var futures = new ArrayList<Future<MCNativeBatchSummary.Entry>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+          for (final var packageFile : packageFiles) {
+            futures.add(executor.submit(() -> {
+              semaphore.acquire();
+              try {
+                return createPackage(
+                  workspace,
+                  packagerList,
+                  packageFile,
+                  outputDirectory.resolve(outputName(packageFile))
+                );
+              } finally {
+                semaphore.release();
+              }
+            }));
+          }
+        }
+
+        for (final var future : futures) {
+          summary.add(future.get());
+        }
+      }
+
+      LOG.info("Writing {}.", MCNativeBatchSummary.SUMMARY_JSON);
+      summary.write(outputDirectory);
+    } catch (final MException e) {
+      MCSLogging.logStructuredError(LOG, e);
+      return QCommandStatus.FAILURE;
+    } catch (final Exception e) {
+      if (e.getCause() instanceof final MException ee) {
+        MCSLogging.logStructuredError(LOG, ee);
+        return QCommandStatus.FAILURE;
+      }
+      LOG.error("", e);
+      return QCommandStatus.FAILURE;
+    }
+
+    final var out = newContext.output();
+    for (final var entry : summary.entries()) {
+      out.printf(
+        "%-9s %s (%d files, %d ms)%s%n",
+        entry.succeeded() ? "SUCCEEDED" : "FAILED",
+        entry.packageFile().getFileName(),
+        Integer.valueOf(entry.files().size()),
+        Long.valueOf(entry.elapsed().toMillis()),
+        entry.error().map(m -> ": " + m).orElse("")
+      );
+    }
+    out.flush();
+
+    if (summary.failures() > 0L) {
+      LOG.error(
+        "{} of {} packages could not be produced.",
+        Long.valueOf(summary.failures()),
+        Integer.valueOf(packageFiles.size())
+      );
+      return QCommandStatus.FAILURE;
+    }
+    return QCommandStatus.SUCCESS;
+  }
+
+  /**
+   * Produce the native packages for a single package. Failures are recorded
+   * in the returned entry so that the other packages in the batch are still
+   * produced.
+   */
+
+  private static MCNativeBatchSummary.Entry createPackage(
+    final MNativeWorkspaceType workspace,
+    final Collection<MNativePackagerServiceType> packagerList,
+    final Path packageFile,
+    final Path outputDirectory)
+    throws InterruptedException
+  {
+    final var timeThen = Instant.now();
+
+    LOG.info("Opening package {}.", packageFile);
+    try (final var packageReader = new MPackageReaders().open(packageFile)) {
+      Files.createDirectories(outputDirectory);
+
+      final var manifest =
+        MCNativeCreate.createPackages(
+          workspace,
+          packageReader,
+          packagerList,
+          outputDirectory
+        );
+      manifest.write(outputDirectory);
+
+      LOG.info("Created packages for {}.", packageFile);
+      return new MCNativeBatchSummary.Entry(
+        packageFile,
+        outputDirectory,
+        manifest.entries(),
+        Duration.between(timeThen, Instant.now()),
+        Optional.empty()
+      );
+    } catch (final InterruptedException e) {
+      throw e;
+    } catch (final MException e) {
+      LOG.error("Failed to create packages for {}.", packageFile);
+      MCSLogging.logStructuredError(LOG, e);
+      return failed(packageFile, outputDirectory, timeThen, e);
+    } catch (final Exception e) {
+      LOG.error("Failed to create packages for {}: ", packageFile, e);
+      return failed(packageFile, outputDirectory, timeThen, e);
+    }
+  }
+
+  private static MCNativeBatchSummary.Entry failed(
+    final Path packageFile,
+    final Path outputDirectory,
+    final Instant timeThen,
+    final Exception e)
+  {
+    return new MCNativeBatchSummary.Entry(
+      packageFile,
+      outputDirectory,
+      List.of(),
+      Duration.between(timeThen, Instant.now()),
+      Optional.of(
+        Optional.ofNullable(e.getMessage())
+          .orElse(e.getClass().getName())
+      )
+    );
+  }
+
+  /**
+   * Determine the list of packages from the command-line parameters. Each
+   * package produces outputs in a directory named after the package file,
+   * and so package file names must be unique.
+   */
+
+  private static List<Path> packageFiles(
+    final QCommandContextType context)
+    throws MException
+  {
+    final var files =
+      new ArrayList<>(context.parameterValues(INPUT_PACKAGES));
+
+    final var directoryOpt =
+      context.parameterValue(INPUT_PACKAGE_DIRECTORY);
+    if (directoryOpt.isPresent()) {
+      final var directory = directoryOpt.get();
+      try (var stream = Files.list(directory)) {
+        stream.filter(Files::isRegularFile)
+          .filter(p -> isPackageFile(p.getFileName().toString()))
+          .sorted()
+          .forEach(files::add);
+      } catch (final IOException e) {
+        throw new MException(
+          e.getMessage(),
+          e,
+          "error-io",
+          Map.of("Directory", directory.toString())
+        );
+      }
+    }
+
+    final var names = new HashMap<String, Path>();
+    for (final var file : files) {
+      final var name = outputName(file);
+      final var existing = names.put(name, file);
+      if (existing != null) {
+        throw new MException(
+          "Package file names must be unique.",
+          "error-duplicate",
+          Map.ofEntries(
+            Map.entry("Package (0)", existing.toString()),
+            Map.entry("Package (1)", file.toString())
+          )
+        );
+      }
+    }
+    return List.copyOf(files);
+  }
+
+  private static boolean isPackageFile(
+    final String name)
+  {
+    return name.toLowerCase(Locale.ROOT).endsWith(PACKAGE_SUFFIX);
+  }
+
+  private static String outputName(
+    final Path packageFile)
+  {
+    final var name = packageFile.getFileName().toString();
+    if (isPackageFile(name)) {
+      return name.substring(0, name.length() - PACKAGE_SUFFIX.length());
+    }
+    return name;
+  }
+
+  @Override
+  public QCommandMetadata metadata()
+  {
+    return this.metadata;
+  }
+}
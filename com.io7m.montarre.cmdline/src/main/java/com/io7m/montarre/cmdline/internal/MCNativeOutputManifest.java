@@ -0,0 +1,199 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A manifest of the files produced by native packagers. The manifest is
+ * written as a {@code SHA256SUMS} file (in the format understood by
+ * {@code sha256sum --check}) and a JSON file, using the sizes and hashes
+ * calculated by the packagers as they wrote each file.
+ */
+
+public final class MCNativeOutputManifest
+{
+  /**
+   * The name of the checksum file.
+   */
+
+  public static final String SHA256SUMS = "SHA256SUMS";
+
+  /**
+   * The name of the JSON manifest file.
+   */
+
+  public static final String MANIFEST_JSON = "manifest.json";
+
+  private final List<Entry> entries;
+
+  /**
+   * A manifest entry.
+   *
+   * @param result   The packager result (with the file in the output directory)
+   * @param packager The packager
+   * @param elapsed  The time taken by the packager
+   */
+
+  public record Entry(
+    MNativePackagerResult result,
+    RDottedName packager,
+    Duration elapsed)
+  {
+    /**
+     * A manifest entry.
+     *
+     * @param result   The packager result (with the file in the output directory)
+     * @param packager The packager
+     * @param elapsed  The time taken by the packager
+     */
+
+    public Entry
+    {
+      Objects.requireNonNull(result, "result");
+      Objects.requireNonNull(packager, "packager");
+      Objects.requireNonNull(elapsed, "elapsed");
+    }
+
+    private String fileName()
+    {
+      return this.result.file().getFileName().toString();
+    }
+  }
+
+  /**
+   * A manifest of the files produced by native packagers.
+   */
+
+  public MCNativeOutputManifest()
+  {
+    this.entries = new ArrayList<>();
+  }
+
+  /**
+   * Add an entry to the manifest.
+   *
+   * @param entry The entry
+   */
+
+  public void add(
+    final Entry entry)
+  {
+    this.entries.add(Objects.requireNonNull(entry, "entry"));
+  }
+
+  /**
+   * @return The entries in the manifest, in the order they were added
+   */
+
+  public List<Entry> entries()
+  {
+    return List.copyOf(this.entries);
+  }
+
+  /**
+   * Write the manifest files into the given directory. Each file is written
+   * to a temporary file and then atomically moved into place.
+   *
+   * @param directory The output directory
+   *
+   * @throws IOException On errors
+   */
+
+  public void write(
+    final Path directory)
+    throws IOException
+  {
+    final var sorted =
+      this.entries.stream()
+        .sorted(Comparator.comparing(Entry::fileName))
+        .toList();
+
+    writeAtomically(directory.resolve(SHA256SUMS), output -> {
+      for (final var entry : sorted) {
+        output.write(
+          "%s  %s\n".formatted(
+            entry.result().hash().value().value(),
+            entry.fileName()
+          ).getBytes(StandardCharsets.UTF_8)
+        );
+      }
+    });
+
+    writeAtomically(directory.resolve(MANIFEST_JSON), output -> {
+      try (var json =
+             new JsonFactory().createGenerator(output, JsonEncoding.UTF8)) {
+        json.useDefaultPrettyPrinter();
+        json.writeStartObject();
+        json.writeArrayFieldStart("files");
+        for (final var entry : sorted) {
+          final var result = entry.result();
+          json.writeStartObject();
+          json.writeStringField("file", entry.fileName());
+          json.writeNumberField("size", result.size());
+          json.writeStringField("sha256", result.hash().value().value());
+          json.writeStringField("packager", entry.packager().value());
+          json.writeNumberField("elapsedMilliseconds", entry.elapsed().toMillis());
+          json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+      }
+    });
+  }
+
+  interface WriterType
+  {
+    void write(OutputStream output)
+      throws IOException;
+  }
+
+  static void writeAtomically(
+    final Path file,
+    final WriterType writer)
+    throws IOException
+  {
+    final var temporary =
+      file.resolveSibling(file.getFileName() + ".tmp");
+
+    try (var output = Files.newOutputStream(temporary)) {
+      writer.write(output);
+    }
+    Files.move(
+      temporary,
+      file,
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE
+    );
+  }
+}
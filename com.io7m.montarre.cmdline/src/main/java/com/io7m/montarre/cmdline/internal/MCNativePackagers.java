@@ -68,10 +68,15 @@ public final class MCNativePackagers implements QCommandType
     QLogback.configure(newContext);
 
     final var directory =
-      MNPackagers.createFromServiceLoader();
+      MCNativeWorkspaceOptions.packagerDirectory();
+
+    final var packagers =
+      directory.packagers();
+    final var unsupportedReasons =
+      MNPackagers.unsupportedReasons(packagers.values(), Optional.empty());
 
     final var out = newContext.output();
-    for (var entry : directory.packagers().entrySet()) {
+    for (var entry : packagers.entrySet()) {
       final var name =
         entry.getKey();
       final var packager =
@@ -81,7 +86,7 @@ public final class MCNativePackagers implements QCommandType
       out.println("Description: " + packager.describe());
 
       final var unsupported =
-        packager.unsupportedReason(Optional.empty());
+        unsupportedReasons.get(name);
 
       if (unsupported.isPresent()) {
         final var reason = unsupported.get();
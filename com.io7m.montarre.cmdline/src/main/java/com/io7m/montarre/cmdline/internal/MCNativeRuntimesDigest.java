@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.nativepack.MNTreeDigests;
+import com.io7m.quarrel.core.QCommandContextType;
+import com.io7m.quarrel.core.QCommandMetadata;
+import com.io7m.quarrel.core.QCommandStatus;
+import com.io7m.quarrel.core.QCommandType;
+import com.io7m.quarrel.core.QParameterNamed1;
+import com.io7m.quarrel.core.QParameterNamedType;
+import com.io7m.quarrel.core.QStringType;
+import com.io7m.quarrel.ext.logback.QLogback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * "digest"
+ */
+
+public final class MCNativeRuntimesDigest implements QCommandType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MCNativeRuntimesDigest.class);
+
+  private static final QParameterNamed1<Path> DIRECTORY =
+    new QParameterNamed1<>(
+      "--directory",
+      List.of(),
+      new QStringType.QConstant("The Java runtime directory."),
+      Optional.empty(),
+      Path.class
+    );
+
+  private final QCommandMetadata metadata;
+
+  /**
+   * Construct a command.
+   */
+
+  public MCNativeRuntimesDigest()
+  {
+    this.metadata = new QCommandMetadata(
+      "digest",
+      new QStringType.QConstant(
+        "Calculate the SHA-256 tree digest of a Java runtime directory."),
+      Optional.empty()
+    );
+  }
+
+  @Override
+  public List<QParameterNamedType<?>> onListNamedParameters()
+  {
+    return Stream.concat(
+      Stream.of(DIRECTORY),
+      QLogback.parameters().stream()
+    ).toList();
+  }
+
+  @Override
+  public QCommandStatus onExecute(
+    final QCommandContextType newContext)
+    throws InterruptedException
+  {
+    QLogback.configure(newContext);
+
+    final String digest;
+    try {
+      digest = MNTreeDigests.sha256(newContext.parameterValue(DIRECTORY));
+    } catch (final MException e) {
+      MCSLogging.logStructuredError(LOG, e);
+      return QCommandStatus.FAILURE;
+    }
+
+    final var out = newContext.output();
+    out.println(digest);
+    out.flush();
+    return QCommandStatus.SUCCESS;
+  }
+
+  @Override
+  public QCommandMetadata metadata()
+  {
+    return this.metadata;
+  }
+}
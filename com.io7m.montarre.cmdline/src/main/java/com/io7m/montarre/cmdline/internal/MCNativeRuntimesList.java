@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreConfiguration;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreEntry;
+import com.io7m.montarre.nativepack.MNRuntimeStores;
+import com.io7m.quarrel.core.QCommandContextType;
+import com.io7m.quarrel.core.QCommandMetadata;
+import com.io7m.quarrel.core.QCommandStatus;
+import com.io7m.quarrel.core.QCommandType;
+import com.io7m.quarrel.core.QParameterNamed1;
+import com.io7m.quarrel.core.QParameterNamedType;
+import com.io7m.quarrel.core.QStringType;
+import com.io7m.quarrel.ext.logback.QLogback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * "list"
+ */
+
+public final class MCNativeRuntimesList implements QCommandType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MCNativeRuntimesList.class);
+
+  private static final QParameterNamed1<Path> STORE_DIRECTORY =
+    new QParameterNamed1<>(
+      "--store-directory",
+      List.of(),
+      new QStringType.QConstant("The Java runtime store directory."),
+      Optional.empty(),
+      Path.class
+    );
+
+  private final QCommandMetadata metadata;
+
+  /**
+   * Construct a command.
+   */
+
+  public MCNativeRuntimesList()
+  {
+    this.metadata = new QCommandMetadata(
+      "list",
+      new QStringType.QConstant("List the Java runtimes in a store."),
+      Optional.empty()
+    );
+  }
+
+  @Override
+  public List<QParameterNamedType<?>> onListNamedParameters()
+  {
+    return Stream.concat(
+      Stream.of(STORE_DIRECTORY),
+      QLogback.parameters().stream()
+    ).toList();
+  }
+
+  @Override
+  public QCommandStatus onExecute(
+    final QCommandContextType newContext)
+  {
+    QLogback.configure(newContext);
+
+    final var configuration =
+      MNativeRuntimeStoreConfiguration.builder()
+        .setDirectory(newContext.parameterValue(STORE_DIRECTORY))
+        .build();
+
+    final List<MNativeRuntimeStoreEntry> entries;
+    try {
+      entries = new MNRuntimeStores().open(configuration).list();
+    } catch (final MException e) {
+      MCSLogging.logStructuredError(LOG, e);
+      return QCommandStatus.FAILURE;
+    }
+
+    final var out = newContext.output();
+    var total = 0L;
+    for (final var entry : entries) {
+      out.println("SHA-256: " + entry.sha256());
+      out.println("Source: " + entry.source());
+      out.println("Format: " + entry.format());
+      out.println("Size: " + entry.size());
+      out.println("Last Used: " + entry.timeLastUsed());
+      out.println("Directory: " + entry.directory());
+      out.println("--");
+      out.println();
+      total += entry.size();
+    }
+    out.printf("Runtimes: %d%n", Integer.valueOf(entries.size()));
+    out.printf("Total Size: %d%n", Long.valueOf(total));
+    out.flush();
+    return QCommandStatus.SUCCESS;
+  }
+
+  @Override
+  public QCommandMetadata metadata()
+  {
+    return this.metadata;
+  }
+}
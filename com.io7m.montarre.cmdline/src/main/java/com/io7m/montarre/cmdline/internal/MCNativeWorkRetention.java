@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.io7m.montarre.api.natives.MNativeWorkspaceRetention;
+import com.io7m.quarrel.core.QCommandContextType;
+import com.io7m.quarrel.core.QException;
+import com.io7m.quarrel.core.QParameterNamed01;
+import com.io7m.quarrel.core.QParameterNamedType;
+import com.io7m.quarrel.core.QStringType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The parameters that specify a work directory retention policy.
+ */
+
+final class MCNativeWorkRetention
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MCNativeWorkRetention.class);
+
+  static final QParameterNamed01<Duration> WORK_RETENTION_AGE =
+    new QParameterNamed01<>(
+      "--work-retention-age",
+      List.of(),
+      new QStringType.QConstant(
+        "Remove work directories that have not been modified for longer than the given duration."),
+      Optional.empty(),
+      Duration.class
+    );
+
+  static final QParameterNamed01<Long> WORK_RETENTION_SIZE =
+    new QParameterNamed01<>(
+      "--work-retention-size",
+      List.of(),
+      new QStringType.QConstant(
+        "Remove the oldest work directories until the total size of the work directories is no larger than this size in octets."),
+      Optional.empty(),
+      Long.class
+    );
+
+  static final QParameterNamed01<Integer> WORK_RETENTION_RUNS =
+    new QParameterNamed01<>(
+      "--work-retention-runs",
+      List.of(),
+      new QStringType.QConstant(
+        "Keep only the work directories of the given number of most recent runs."),
+      Optional.empty(),
+      Integer.class
+    );
+
+  private MCNativeWorkRetention()
+  {
+
+  }
+
+  static List<QParameterNamedType<?>> parameters()
+  {
+    return List.of(
+      WORK_RETENTION_AGE,
+      WORK_RETENTION_RUNS,
+      WORK_RETENTION_SIZE
+    );
+  }
+
+  static Optional<MNativeWorkspaceRetention> parse(
+    final QCommandContextType context)
+    throws QException
+  {
+    final var age =
+      context.parameterValue(WORK_RETENTION_AGE);
+    final var size =
+      context.parameterValue(WORK_RETENTION_SIZE);
+    final var runs =
+      context.parameterValue(WORK_RETENTION_RUNS);
+
+    if (age.isEmpty() && size.isEmpty() && runs.isEmpty()) {
+      return Optional.empty();
+    }
+
+    try {
+      final var builder =
+        MNativeWorkspaceRetention.builder()
+          .setMaximumAge(age);
+      size.ifPresent(builder::setMaximumSize);
+      runs.ifPresent(builder::setMaximumRuns);
+      return Optional.of(builder.build());
+    } catch (final IllegalArgumentException e) {
+      LOG.error("{}", e.getMessage());
+      throw new QException(
+        "Unparseable parameter value.",
+        e,
+        "parameter-unparseable",
+        Map.ofEntries(),
+        Optional.empty(),
+        List.of()
+      );
+    }
+  }
+}
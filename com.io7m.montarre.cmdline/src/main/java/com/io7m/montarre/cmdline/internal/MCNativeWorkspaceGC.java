@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeWorkspaceRun;
+import com.io7m.montarre.nativepack.MNWorkspaces;
+import com.io7m.quarrel.core.QCommandContextType;
+import com.io7m.quarrel.core.QCommandMetadata;
+import com.io7m.quarrel.core.QCommandStatus;
+import com.io7m.quarrel.core.QCommandType;
+import com.io7m.quarrel.core.QException;
+import com.io7m.quarrel.core.QParameterNamed1;
+import com.io7m.quarrel.core.QParameterNamedType;
+import com.io7m.quarrel.core.QStringType;
+import com.io7m.quarrel.ext.logback.QLogback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * "gc"
+ */
+
+public final class MCNativeWorkspaceGC implements QCommandType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MCNativeWorkspaceGC.class);
+
+  private static final QParameterNamed1<Path> WORK_DIRECTORY =
+    new QParameterNamed1<>(
+      "--work-directory",
+      List.of(),
+      new QStringType.QConstant("The work directory."),
+      Optional.empty(),
+      Path.class
+    );
+
+  private final QCommandMetadata metadata;
+
+  /**
+   * Construct a command.
+   */
+
+  public MCNativeWorkspaceGC()
+  {
+    this.metadata = new QCommandMetadata(
+      "gc",
+      new QStringType.QConstant("Remove old work directories from a workspace."),
+      Optional.empty()
+    );
+  }
+
+  @Override
+  public List<QParameterNamedType<?>> onListNamedParameters()
+  {
+    return Stream.of(
+      Stream.of(WORK_DIRECTORY),
+      MCNativeWorkRetention.parameters().stream(),
+      QLogback.parameters().stream()
+    ).<QParameterNamedType<?>>flatMap(s -> s).toList();
+  }
+
+  @Override
+  public QCommandStatus onExecute(
+    final QCommandContextType newContext)
+    throws QException
+  {
+    QLogback.configure(newContext);
+
+    final var retentionOpt =
+      MCNativeWorkRetention.parse(newContext);
+
+    if (retentionOpt.isEmpty()) {
+      LOG.error(
+        "At least one of {}, {}, or {} is required.",
+        MCNativeWorkRetention.WORK_RETENTION_AGE.name(),
+        MCNativeWorkRetention.WORK_RETENTION_RUNS.name(),
+        MCNativeWorkRetention.WORK_RETENTION_SIZE.name()
+      );
+      throw new QException(
+        "Missing parameter value.",
+        "parameter-missing-value",
+        Map.ofEntries(),
+        Optional.empty(),
+        List.of()
+      );
+    }
+
+    final List<MNativeWorkspaceRun> removed;
+    try {
+      removed = new MNWorkspaces().collectGarbage(
+        newContext.parameterValue(WORK_DIRECTORY),
+        retentionOpt.get()
+      );
+    } catch (final MException e) {
+      MCSLogging.logStructuredError(LOG, e);
+      return QCommandStatus.FAILURE;
+    }
+
+    final var out = newContext.output();
+    var total = 0L;
+    for (final var run : removed) {
+      out.printf(
+        "Removed: %s (%d octets, last modified %s)%n",
+        run.directory(),
+        Long.valueOf(run.size()),
+        run.timeLastModified()
+      );
+      total += run.size();
+    }
+    out.printf("Runs Removed: %d%n", Integer.valueOf(removed.size()));
+    out.printf("Total Removed: %d%n", Long.valueOf(total));
+    out.flush();
+    return QCommandStatus.SUCCESS;
+  }
+
+  @Override
+  public QCommandMetadata metadata()
+  {
+    return this.metadata;
+  }
+}
@@ -0,0 +1,880 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.cmdline.internal;
+
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.adoptium.MEARuntimeSearch;
+import com.io7m.montarre.adoptium.MEAdoptiumConfiguration;
+import com.io7m.montarre.adoptium.MEAdoptiumFactory;
+import com.io7m.montarre.adoptium.METImageKind;
+import com.io7m.montarre.api.MArchitectureName;
+import com.io7m.montarre.api.MArchiveFormat;
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MHash;
+import com.io7m.montarre.api.MHashAlgorithm;
+import com.io7m.montarre.api.MHashValue;
+import com.io7m.montarre.api.MOperatingSystemName;
+import com.io7m.montarre.api.MPlatform;
+import com.io7m.montarre.api.natives.MNativeArchiveCodec;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.api.natives.MNativeArchiveCompressionAdaptive;
+import com.io7m.montarre.api.natives.MNativeOutputCacheConfiguration;
+import com.io7m.montarre.api.natives.MNativePlatformRuntime;
+import com.io7m.montarre.api.natives.MNativePackagerDirectoryType;
+import com.io7m.montarre.api.natives.MNativePackagerServiceType;
+import com.io7m.montarre.api.natives.MNativeRemoteCacheConfiguration;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreConfiguration;
+import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
+import com.io7m.montarre.cmdline.MVersion;
+import com.io7m.montarre.cmdline.converters.MNativeArchiveCompressionConverter;
+import com.io7m.montarre.nativepack.MNPackagers;
+import com.io7m.quarrel.core.QCommandContextType;
+import com.io7m.quarrel.core.QException;
+import com.io7m.quarrel.core.QParameterNamed01;
+import com.io7m.quarrel.core.QParameterNamed0N;
+import com.io7m.quarrel.core.QParameterNamed1;
+import com.io7m.quarrel.core.QParameterNamedType;
+import com.io7m.quarrel.core.QStringType;
+import com.io7m.streamtime.core.STTransferStatistics;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * The parameters that configure a workspace for producing native packages.
+ */
+
+final class MCNativeWorkspaceOptions
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MCNativeWorkspaceOptions.class);
+
+  static final QParameterNamed0N<String> INCLUDE_PACKAGERS =
+    new QParameterNamed0N<>(
+      "--include-packagers",
+      List.of(),
+      new QStringType.QConstant("Only run the named packagers."),
+      List.of(),
+      String.class
+    );
+
+  static final QParameterNamed1<Path> WORK_DIRECTORY =
+    new QParameterNamed1<>(
+      "--work-directory",
+      List.of(),
+      new QStringType.QConstant("The work directory."),
+      Optional.empty(),
+      Path.class
+    );
+
+  static final QParameterNamed01<URI> JAVA_DOWNLOAD_URI =
+    new QParameterNamed01<>(
+      "--java-runtime-download-uri",
+      List.of(),
+      new QStringType.QConstant("The location for a Java runtime."),
+      Optional.empty(),
+      URI.class
+    );
+
+  static final QParameterNamed01<String> JAVA_DOWNLOAD_SHA256 =
+    new QParameterNamed01<>(
+      "--java-runtime-sha256",
+      List.of(),
+      new QStringType.QConstant("The SHA-256 of the Java runtime."),
+      Optional.empty(),
+      String.class
+    );
+
+  static final QParameterNamed01<MArchiveFormat> JAVA_DOWNLOAD_FORMAT =
+    new QParameterNamed01<>(
+      "--java-runtime-format",
+      List.of(),
+      new QStringType.QConstant("The format of the Java runtime archive."),
+      Optional.empty(),
+      MArchiveFormat.class
+    );
+
+  static final QParameterNamed01<Path> JAVA_DIRECTORY =
+    new QParameterNamed01<>(
+      "--java-runtime-directory",
+      List.of(),
+      new QStringType.QConstant(
+        "An existing Java runtime directory to use instead of downloading a runtime."),
+      Optional.empty(),
+      Path.class
+    );
+
+  static final QParameterNamed01<String> JAVA_DIRECTORY_SHA256 =
+    new QParameterNamed01<>(
+      "--java-runtime-directory-sha256",
+      List.of(),
+      new QStringType.QConstant(
+        "The expected SHA-256 tree digest of the Java runtime directory."),
+      Optional.empty(),
+      String.class
+    );
+
+  static final QParameterNamed1<Integer> JAVA_DOWNLOAD_SEGMENTS =
+    new QParameterNamed1<>(
+      "--java-runtime-download-segments",
+      List.of(),
+      new QStringType.QConstant(
+        "The number of concurrent range requests used to download the Java runtime."),
+      Optional.of(1),
+      Integer.class
+    );
+
+  static final QParameterNamed01<Path> JAVA_STORE_DIRECTORY =
+    new QParameterNamed01<>(
+      "--java-runtime-store-directory",
+      List.of(),
+      new QStringType.QConstant(
+        "The Java runtime store directory (defaults to a directory inside the work directory)."),
+      Optional.empty(),
+      Path.class
+    );
+
+  static final QParameterNamed01<Long> JAVA_STORE_SIZE_LIMIT =
+    new QParameterNamed01<>(
+      "--java-runtime-store-size-limit",
+      List.of(),
+      new QStringType.QConstant(
+        "The maximum size in octets of the Java runtime store."),
+      Optional.empty(),
+      Long.class
+    );
+
+  static final QParameterNamed01<Path> OUTPUT_CACHE_DIRECTORY =
+    new QParameterNamed01<>(
+      "--output-cache-directory",
+      List.of(),
+      new QStringType.QConstant(
+        "The directory containing a cache of packager outputs shared between work directories."),
+      Optional.empty(),
+      Path.class
+    );
+
+  static final QParameterNamed01<Long> OUTPUT_CACHE_SIZE_LIMIT =
+    new QParameterNamed01<>(
+      "--output-cache-size-limit",
+      List.of(),
+      new QStringType.QConstant(
+        "The maximum size in octets of the output cache."),
+      Optional.empty(),
+      Long.class
+    );
+
+  static final QParameterNamed01<URI> REMOTE_CACHE_URI =
+    new QParameterNamed01<>(
+      "--remote-cache-uri",
+      List.of(),
+      new QStringType.QConstant(
+        "The base URI of a remote cache of outputs and runtimes."),
+      Optional.empty(),
+      URI.class
+    );
+
+  static final QParameterNamed1<Boolean> REMOTE_CACHE_PUSH =
+    new QParameterNamed1<>(
+      "--remote-cache-push",
+      List.of(),
+      new QStringType.QConstant(
+        "Whether to upload missing outputs and runtimes to the remote cache."),
+      Optional.of(Boolean.TRUE),
+      Boolean.class
+    );
+
+  static final QParameterNamed01<Integer> JPACKAGE_CONCURRENCY =
+    new QParameterNamed01<>(
+      "--jpackage-concurrency",
+      List.of(),
+      new QStringType.QConstant(
+        "The maximum number of jpackage processes that may execute concurrently."),
+      Optional.empty(),
+      Integer.class
+    );
+
+  static final QParameterNamed01<Path> PROCESS_LOG_DIRECTORY =
+    new QParameterNamed01<>(
+      "--process-log-directory",
+      List.of(),
+      new QStringType.QConstant(
+        "A directory into which the output of external tools is logged, in one directory per package and one file per packager."),
+      Optional.empty(),
+      Path.class
+    );
+
+  static final QParameterNamed01<Runtime.Version> ADOPTIUM_TEMURIN_VERSION =
+    new QParameterNamed01<>(
+      "--adoptium-temurin-version",
+      List.of(),
+      new QStringType.QConstant(
+        "The version of the Adoptium Temurin runtime to use."),
+      Optional.empty(),
+      Runtime.Version.class
+    );
+
+  static final QParameterNamed0N<MPlatform> PLATFORM_RUNTIME_PLATFORM =
+    new QParameterNamed0N<>(
+      "--platform-runtime-platform",
+      List.of(),
+      new QStringType.QConstant(
+        "A platform for which a Java runtime is bundled into packages built for that platform."),
+      List.of(),
+      MPlatform.class
+    );
+
+  static final QParameterNamed01<Runtime.Version> PLATFORM_RUNTIME_TEMURIN_VERSION =
+    new QParameterNamed01<>(
+      "--platform-runtime-temurin-version",
+      List.of(),
+      new QStringType.QConstant(
+        "The version of the Adoptium Temurin runtimes bundled into packages built for specific platforms."),
+      Optional.empty(),
+      Runtime.Version.class
+    );
+
+  static final QParameterNamed01<MNativeArchiveCompression> ARCHIVE_COMPRESSION =
+    new QParameterNamed01<>(
+      "--archive-compression",
+      List.of(),
+      new QStringType.QConstant(
+        "The archive codec and compression level used by packagers that produce archives."),
+      Optional.empty(),
+      MNativeArchiveCompression.class
+    );
+
+  static final QParameterNamed0N<String> PACKAGER_ARCHIVE_COMPRESSION =
+    new QParameterNamed0N<>(
+      "--packager-archive-compression",
+      List.of(),
+      new QStringType.QConstant(
+        "The archive codec and compression level used by a specific packager (PACKAGER=CODEC[:LEVEL])."),
+      List.of(),
+      String.class
+    );
+
+  static final QParameterNamed01<Duration> ARCHIVE_COMPRESSION_TIME_BUDGET =
+    new QParameterNamed01<>(
+      "--archive-compression-time-budget",
+      List.of(),
+      new QStringType.QConstant(
+        "Choose the strongest compression level estimated to compress each archive within the given time."),
+      Optional.empty(),
+      Duration.class
+    );
+
+  static final QParameterNamed01<Double> ARCHIVE_COMPRESSION_RATIO_TARGET =
+    new QParameterNamed01<>(
+      "--archive-compression-ratio-target",
+      List.of(),
+      new QStringType.QConstant(
+        "Choose the weakest compression level estimated to reach the given ratio of compressed to uncompressed size."),
+      Optional.empty(),
+      Double.class
+    );
+
+  static final QParameterNamed01<MNativeArchiveCodec> ARCHIVE_COMPRESSION_ADAPTIVE_CODEC =
+    new QParameterNamed01<>(
+      "--archive-compression-adaptive-codec",
+      List.of(),
+      new QStringType.QConstant(
+        "The archive codec used with adaptive compression (defaults to the codec each packager would use)."),
+      Optional.empty(),
+      MNativeArchiveCodec.class
+    );
+
+  static final QParameterNamed01<Duration> JAVA_RUNTIME_TIMEOUT =
+    new QParameterNamed01<>(
+      "--java-runtime-timeout",
+      List.of(),
+      new QStringType.QConstant(
+        "Cancel obtaining the Java runtime if it does not complete within the given time."),
+      Optional.empty(),
+      Duration.class
+    );
+
+  static final QParameterNamed01<Duration> PACKAGER_TIMEOUT =
+    new QParameterNamed01<>(
+      "--packager-timeout",
+      List.of(),
+      new QStringType.QConstant(
+        "Cancel each packager if it does not complete within the given time."),
+      Optional.empty(),
+      Duration.class
+    );
+
+  private MCNativeWorkspaceOptions()
+  {
+
+  }
+
+  private record RuntimeParameters(
+    URI runtimeURI,
+    MHash runtimeHash,
+    MArchiveFormat format)
+  {
+
+  }
+
+  static List<QParameterNamedType<?>> parameters()
+  {
+    return Stream.of(
+      Stream.of(
+        ADOPTIUM_TEMURIN_VERSION,
+        ARCHIVE_COMPRESSION,
+        ARCHIVE_COMPRESSION_ADAPTIVE_CODEC,
+        ARCHIVE_COMPRESSION_RATIO_TARGET,
+        ARCHIVE_COMPRESSION_TIME_BUDGET,
+        INCLUDE_PACKAGERS,
+        JAVA_DIRECTORY,
+        JAVA_DIRECTORY_SHA256,
+        JAVA_DOWNLOAD_FORMAT,
+        JAVA_DOWNLOAD_SEGMENTS,
+        JAVA_DOWNLOAD_SHA256,
+        JAVA_DOWNLOAD_URI,
+        JAVA_RUNTIME_TIMEOUT,
+        JAVA_STORE_DIRECTORY,
+        JAVA_STORE_SIZE_LIMIT,
+        JPACKAGE_CONCURRENCY,
+        OUTPUT_CACHE_DIRECTORY,
+        OUTPUT_CACHE_SIZE_LIMIT,
+        REMOTE_CACHE_URI,
+        REMOTE_CACHE_PUSH,
+        PACKAGER_ARCHIVE_COMPRESSION,
+        PACKAGER_TIMEOUT,
+        PLATFORM_RUNTIME_PLATFORM,
+        PLATFORM_RUNTIME_TEMURIN_VERSION,
+        PROCESS_LOG_DIRECTORY,
+        WORK_DIRECTORY
+      ),
+      MCNativeWorkRetention.parameters().stream()
+    ).<QParameterNamedType<?>>flatMap(s -> s).toList();
+  }
+
+  /**
+   * Produce a workspace configuration from the command-line parameters. If
+   * an Adoptium runtime is requested, the Adoptium API is queried here, and
+   * so the returned configuration can be used for any number of workspaces
+   * without further queries.
+   *
+   * @param newContext The command context
+   *
+   * @return A workspace configuration
+   *
+   * @throws QException On parameter errors
+   * @throws MException On errors
+   */
+
+  static MNativeWorkspaceConfiguration parse(
+    final QCommandContextType newContext)
+    throws QException, MException
+  {
+    final var runtimeParameters =
+      handleRuntimeParameters(newContext);
+    final var packagerCompression =
+      handlePackagerCompression(newContext);
+    final var adaptiveCompression =
+      handleAdaptiveCompression(newContext);
+    final var workRetention =
+      MCNativeWorkRetention.parse(newContext);
+    final var platformRuntimes =
+      handlePlatformRuntimes(newContext);
+
+    final var workDirectory =
+      newContext.parameterValue(WORK_DIRECTORY);
+    final var storeDirectory =
+      newContext.parameterValue(JAVA_STORE_DIRECTORY);
+    final var storeSizeLimit =
+      newContext.parameterValue(JAVA_STORE_SIZE_LIMIT);
+
+    final Optional<MNativeRuntimeStoreConfiguration> storeConfig;
+    if (storeDirectory.isPresent() || storeSizeLimit.isPresent()) {
+      storeConfig = Optional.of(
+        MNativeRuntimeStoreConfiguration.builder()
+          .setDirectory(
+            storeDirectory.orElse(workDirectory.resolve("runtimes")))
+          .setSizeLimit(
+            storeSizeLimit.orElse(Long.MAX_VALUE).longValue())
+          .build()
+      );
+    } else {
+      storeConfig = Optional.empty();
+    }
+
+    final var outputCacheDirectory =
+      newContext.parameterValue(OUTPUT_CACHE_DIRECTORY);
+    final var outputCacheSizeLimit =
+      newContext.parameterValue(OUTPUT_CACHE_SIZE_LIMIT);
+
+    final Optional<MNativeOutputCacheConfiguration> outputCacheConfig;
+    if (outputCacheDirectory.isPresent() || outputCacheSizeLimit.isPresent()) {
+      outputCacheConfig = Optional.of(
+        MNativeOutputCacheConfiguration.builder()
+          .setDirectory(
+            outputCacheDirectory.orElse(workDirectory.resolve("outputs")))
+          .setSizeLimit(
+            outputCacheSizeLimit.orElse(Long.MAX_VALUE).longValue())
+          .build()
+      );
+    } else {
+      outputCacheConfig = Optional.empty();
+    }
+
+    final var remoteCachePush =
+      newContext.parameterValue(REMOTE_CACHE_PUSH).booleanValue();
+    final var remoteCacheConfig =
+      newContext.parameterValue(REMOTE_CACHE_URI)
+        .map(uri -> {
+          return MNativeRemoteCacheConfiguration.builder()
+            .setUri(uri)
+            .setPush(remoteCachePush)
+            .build();
+        });
+
+    try {
+      return MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(workDirectory)
+        .setJavaRuntimeStore(storeConfig)
+        .setOutputCache(outputCacheConfig)
+        .setRemoteCache(remoteCacheConfig)
+        .setPackagerVersion(
+          "%s %s".formatted(MVersion.MAIN_VERSION, MVersion.MAIN_BUILD))
+        .setJavaRuntimeDirectory(
+          newContext.parameterValue(JAVA_DIRECTORY))
+        .setJavaRuntimeDirectorySHA256(
+          newContext.parameterValue(JAVA_DIRECTORY_SHA256))
+        .setJavaRuntimeDownloadURI(
+          runtimeParameters.map(RuntimeParameters::runtimeURI))
+        .setJavaRuntimeDownloadSHA256(
+          runtimeParameters.map(p -> p.runtimeHash().value().value()))
+        .setJavaRuntimeDownloadFormat(
+          runtimeParameters.map(RuntimeParameters::format))
+        .setJavaRuntimeDownloadSegments(
+          newContext.parameterValue(JAVA_DOWNLOAD_SEGMENTS).intValue())
+        .setArchiveCompression(
+          newContext.parameterValue(ARCHIVE_COMPRESSION))
+        .setArchiveCompressionByPackager(packagerCompression)
+        .setArchiveCompressionAdaptive(adaptiveCompression)
+        .setPlatformRuntimes(platformRuntimes)
+        .setWorkRetention(workRetention)
+        .setProcessLogDirectory(
+          newContext.parameterValue(PROCESS_LOG_DIRECTORY))
+        .setJavaRuntimeTimeout(
+          newContext.parameterValue(JAVA_RUNTIME_TIMEOUT))
+        .setPackagerTimeout(
+          newContext.parameterValue(PACKAGER_TIMEOUT))
+        .setJpackageConcurrency(
+          newContext.parameterValue(JPACKAGE_CONCURRENCY)
+            .map(Integer::intValue)
+            .orElse(Runtime.getRuntime().availableProcessors()))
+        .build();
+    } catch (final IllegalArgumentException e) {
+      LOG.error("{}", e.getMessage());
+      throw new QException(
+        "Unparseable parameter value.",
+        e,
+        "parameter-unparseable",
+        Map.ofEntries(),
+        Optional.empty(),
+        List.of()
+      );
+    }
+  }
+
+  private static Optional<MNativeArchiveCompressionAdaptive>
+  handleAdaptiveCompression(
+    final QCommandContextType newContext)
+    throws QException
+  {
+    final var budget =
+      newContext.parameterValue(ARCHIVE_COMPRESSION_TIME_BUDGET);
+    final var target =
+      newContext.parameterValue(ARCHIVE_COMPRESSION_RATIO_TARGET);
+    final var codec =
+      newContext.parameterValue(ARCHIVE_COMPRESSION_ADAPTIVE_CODEC);
+
+    if (budget.isEmpty() && target.isEmpty()) {
+      if (codec.isPresent()) {
+        LOG.error(
+          "{} requires {} or {}.",
+          ARCHIVE_COMPRESSION_ADAPTIVE_CODEC.name(),
+          ARCHIVE_COMPRESSION_TIME_BUDGET.name(),
+          ARCHIVE_COMPRESSION_RATIO_TARGET.name()
+        );
+        throw new QException(
+          "Missing parameter value.",
+          "parameter-missing-value",
+          Map.ofEntries(),
+          Optional.empty(),
+          List.of()
+        );
+      }
+      return Optional.empty();
+    }
+
+    if (newContext.parameterValue(ARCHIVE_COMPRESSION).isPresent()) {
+      LOG.error(
+        "{} cannot be combined with {} or {}.",
+        ARCHIVE_COMPRESSION.name(),
+        ARCHIVE_COMPRESSION_TIME_BUDGET.name(),
+        ARCHIVE_COMPRESSION_RATIO_TARGET.name()
+      );
+      throw new QException(
+        "Conflicting parameter values.",
+        "parameter-conflict",
+        Map.ofEntries(),
+        Optional.empty(),
+        List.of()
+      );
+    }
+
+    try {
+      final var builder =
+        MNativeArchiveCompressionAdaptive.builder()
+          .setCodec(codec)
+          .setTimeBudget(budget);
+      target.ifPresent(builder::setRatioTarget);
+      return Optional.of(builder.build());
+    } catch (final IllegalArgumentException e) {
+      LOG.error("{}", e.getMessage());
+      throw new QException(
+        "Unparseable parameter value.",
+        e,
+        "parameter-unparseable",
+        Map.ofEntries(),
+        Optional.empty(),
+        List.of()
+      );
+    }
+  }
+
+  private static Map<RDottedName, MNativeArchiveCompression>
+  handlePackagerCompression(
+    final QCommandContextType newContext)
+    throws QException
+  {
+    final var results =
+      new HashMap<RDottedName, MNativeArchiveCompression>();
+
+    for (final var text : newContext.parameterValues(
+      PACKAGER_ARCHIVE_COMPRESSION)) {
+      final var separator = text.indexOf('=');
+      try {
+        if (separator == -1) {
+          throw new IllegalArgumentException("Missing '=' separator.");
+        }
+        results.put(
+          new RDottedName(text.substring(0, separator)),
+          MNativeArchiveCompressionConverter.parse(
+            text.substring(separator + 1))
+        );
+      } catch (final IllegalArgumentException e) {
+        LOG.error(
+          "{}: Unparseable value '{}': {}",
+          PACKAGER_ARCHIVE_COMPRESSION.name(),
+          text,
+          e.getMessage()
+        );
+        throw new QException(
+          "Unparseable parameter value.",
+          e,
+          "parameter-unparseable",
+          Map.ofEntries(),
+          Optional.empty(),
+          List.of()
+        );
+      }
+    }
+    return Map.copyOf(results);
+  }
+
+  private static List<MNativePlatformRuntime> handlePlatformRuntimes(
+    final QCommandContextType newContext)
+    throws QException, MException
+  {
+    final var platforms =
+      new TreeSet<>(newContext.parameterValues(PLATFORM_RUNTIME_PLATFORM));
+    final var versionOpt =
+      newContext.parameterValue(PLATFORM_RUNTIME_TEMURIN_VERSION);
+
+    if (platforms.isEmpty()) {
+      return List.of();
+    }
+
+    if (versionOpt.isEmpty()) {
+      LOG.error(
+        "{} requires {}.",
+        PLATFORM_RUNTIME_PLATFORM.name(),
+        PLATFORM_RUNTIME_TEMURIN_VERSION.name()
+      );
+      throw new QException(
+        "Missing parameter value.",
+        "parameter-missing-value",
+        Map.ofEntries(),
+        Optional.empty(),
+        List.of()
+      );
+    }
+
+    final var results = new ArrayList<MNativePlatformRuntime>();
+    for (final var platform : platforms) {
+      final var parameters =
+        handleAdoptium(
+          versionOpt.get(),
+          platform.operatingSystem(),
+          platform.architecture()
+        );
+
+      results.add(
+        MNativePlatformRuntime.builder()
+          .setPlatform(platform)
+          .setDownloadURI(parameters.runtimeURI())
+          .setDownloadSHA256(parameters.runtimeHash().value().value())
+          .setDownloadFormat(parameters.format())
+          .build()
+      );
+    }
+    return List.copyOf(results);
+  }
+
+  private static Optional<RuntimeParameters> handleRuntimeParameters(
+    final QCommandContextType newContext)
+    throws QException, MException
+  {
+    final var uriOpt =
+      newContext.parameterValue(JAVA_DOWNLOAD_URI);
+    final var temurinOpt =
+      newContext.parameterValue(ADOPTIUM_TEMURIN_VERSION);
+    final var directoryOpt =
+      newContext.parameterValue(JAVA_DIRECTORY);
+
+    if (directoryOpt.isPresent()) {
+      if (uriOpt.isPresent() || temurinOpt.isPresent()) {
+        LOG.error(
+          "{} cannot be combined with {} or {}.",
+          JAVA_DIRECTORY.name(),
+          JAVA_DOWNLOAD_URI.name(),
+          ADOPTIUM_TEMURIN_VERSION.name()
+        );
+        throw new QException(
+          "Conflicting parameter values.",
+          "parameter-conflict",
+          Map.ofEntries(),
+          Optional.empty(),
+          List.of()
+        );
+      }
+      return Optional.empty();
+    }
+
+    if (newContext.parameterValue(JAVA_DIRECTORY_SHA256).isPresent()) {
+      LOG.error(
+        "{} requires {}.",
+        JAVA_DIRECTORY_SHA256.name(),
+        JAVA_DIRECTORY.name()
+      );
+      throw new QException(
+        "Missing parameter value.",
+        "parameter-missing-value",
+        Map.ofEntries(),
+        Optional.empty(),
+        List.of()
+      );
+    }
+
+    if (uriOpt.isEmpty() && temurinOpt.isEmpty()) {
+      LOG.error(
+        "At least one of {}, {}, or {} must be specified.",
+        JAVA_DOWNLOAD_URI.name(),
+        ADOPTIUM_TEMURIN_VERSION.name(),
+        JAVA_DIRECTORY.name()
+      );
+      throw new QException(
+        "Missing parameter value.",
+        "parameter-missing-value",
+        Map.ofEntries(),
+        Optional.empty(),
+        List.of()
+      );
+    }
+
+    if (uriOpt.isPresent()) {
+      return Optional.of(new RuntimeParameters(
+        uriOpt.get(),
+        new MHash(
+          new MHashAlgorithm("SHA-256"),
+          new MHashValue(
+            newContext.parameterValueRequireNow(JAVA_DOWNLOAD_SHA256)
+          )
+        ),
+        newContext.parameterValueRequireNow(JAVA_DOWNLOAD_FORMAT)
+      ));
+    }
+
+    return Optional.of(handleAdoptium(
+      newContext.parameterValueRequireNow(ADOPTIUM_TEMURIN_VERSION),
+      os(),
+      arch()
+    ));
+  }
+
+  private static RuntimeParameters handleAdoptium(
+    final Runtime.Version requiredVersion,
+    final MOperatingSystemName operatingSystem,
+    final MArchitectureName architecture)
+    throws MException
+  {
+    final var adoptiums = new MEAdoptiumFactory();
+    try (final var adoptium =
+           adoptiums.createAdoptium(
+             MEAdoptiumConfiguration.builder()
+               .build())) {
+
+      final var runtimes =
+        adoptium.runtimes(
+          MEARuntimeSearch.builder()
+            .setImageKind(METImageKind.JRE)
+            .setOperatingSystem(operatingSystem)
+            .setArchitecture(architecture)
+            .setFeatureVersion(requiredVersion.feature())
+            .build()
+        );
+
+      for (final var runtime : runtimes) {
+        if (Objects.equals(runtime.version(), requiredVersion)) {
+          return new RuntimeParameters(
+            runtime.downloadLink(),
+            runtime.hash(),
+            runtime.format()
+          );
+        }
+      }
+
+      throw new MException(
+        "No Adoptium Temurin runtime is available for the given version.",
+        "error-adoptium-temurin-unavailable",
+        Map.ofEntries(
+          Map.entry("Version", requiredVersion.toString()),
+          Map.entry("Operating System", operatingSystem.name()),
+          Map.entry("Architecture", architecture.name())
+        )
+      );
+    }
+  }
+
+  private static MArchitectureName arch()
+  {
+    return MArchitectureName.infer(System.getProperty("os.arch"));
+  }
+
+  private static MOperatingSystemName os()
+  {
+    return MOperatingSystemName.infer(System.getProperty("os.name"));
+  }
+
+  /**
+   * The packager directory is shared between all commands executed in the
+   * same process, and so a daemon retains the results of probing for
+   * external tools between jobs.
+   *
+   * @return The packager directory
+   */
+
+  static MNativePackagerDirectoryType packagerDirectory()
+  {
+    return SharedPackagers.PACKAGERS;
+  }
+
+  /**
+   * @param context   The command context
+   * @param packagers The available packagers
+   *
+   * @return The packagers selected by the command-line parameters
+   */
+
+  static Collection<MNativePackagerServiceType> packagers(
+    final QCommandContextType context,
+    final MNativePackagerDirectoryType packagers)
+  {
+    final var includes =
+      Set.copyOf(context.parameterValues(INCLUDE_PACKAGERS));
+    final var unfiltered =
+      packagers.packagers().values();
+
+    if (includes.isEmpty()) {
+      return unfiltered;
+    }
+
+    return unfiltered.stream()
+      .filter(p -> includes.contains(p.name().value()))
+      .toList();
+  }
+
+  /**
+   * Log the progress of a Java runtime download.
+   *
+   * @param status The download status
+   */
+
+  static void onJavaDownloadProgress(
+    final STTransferStatistics status)
+  {
+    final var sizeExpected =
+      FileUtils.byteCountToDisplaySize(status.sizeExpected().orElse(0L));
+    final var sizeTransferred =
+      FileUtils.byteCountToDisplaySize(status.sizeTransferred());
+    final var rate =
+      FileUtils.byteCountToDisplaySize(status.octetsPerSecond());
+    final var remaining =
+      Duration.ofSeconds(status.expectedSecondsRemaining().orElse(0L));
+
+    LOG.info(
+      "[JDK] {}/{} ({}/s) ~{} remaining",
+      sizeTransferred,
+      sizeExpected,
+      rate,
+      remaining
+    );
+  }
+
+  private static final class SharedPackagers
+  {
+    private static final MNativePackagerDirectoryType PACKAGERS =
+      MNPackagers.createFromServiceLoader();
+
+    private SharedPackagers()
+    {
+
+    }
+  }
+}
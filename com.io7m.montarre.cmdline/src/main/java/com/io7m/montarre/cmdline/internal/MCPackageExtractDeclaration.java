@@ -101,7 +101,9 @@ public final class MCPackageExtractDeclaration implements QCommandType
       }
 
       try (var stream = zipFile.getInputStream(entry)) {
-        stream.transferTo(System.out);
+        final var output = MCDaemonJob.standardOutput();
+        stream.transferTo(output);
+        output.flush();
       }
     } catch (IOException e) {
       LOG.error("I/O error: ", e);
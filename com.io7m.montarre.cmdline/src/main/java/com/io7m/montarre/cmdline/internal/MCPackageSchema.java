@@ -30,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -88,8 +89,10 @@ public final class MCPackageSchema implements QCommandType
 
     if (version == 1) {
       try (var stream = MSchemas.schema1_0().location().openStream()) {
-        stream.transferTo(System.out);
-        System.out.println();
+        final var output = MCDaemonJob.standardOutput();
+        stream.transferTo(output);
+        output.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+        output.flush();
         return QCommandStatus.SUCCESS;
       }
     }
@@ -112,7 +112,7 @@ public final class MCWixXML implements QCommandType
       try (var writer = writers.create(
         packageDecl,
         newContext.parameterValue(INPUT_DIRECTORY),
-        System.out)) {
+        MCDaemonJob.standardOutput())) {
         writer.execute();
       }
     } catch (final MException e) {
@@ -32,6 +32,9 @@ module com.io7m.montarre.cmdline
   requires com.io7m.montarre.schema;
   requires com.io7m.montarre.xml;
 
+  requires ch.qos.logback.classic;
+  requires ch.qos.logback.core;
+  requires com.fasterxml.jackson.core;
   requires com.io7m.jdownload.core;
   requires com.io7m.jxe.core;
   requires com.io7m.lanark.core;
@@ -39,6 +42,7 @@ module com.io7m.montarre.cmdline
   requires com.io7m.quarrel.ext.logback;
   requires com.io7m.streamtime.core;
   requires java.net.http;
+  requires jdk.net;
   requires org.apache.commons.compress;
   requires org.apache.commons.io;
 
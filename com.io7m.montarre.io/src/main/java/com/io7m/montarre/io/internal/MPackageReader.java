@@ -53,6 +53,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -76,6 +78,7 @@ public final class MPackageReader implements MPackageReaderType
     StandardOpenOption.TRUNCATE_EXISTING,
   };
 
+  private final Path file;
   private final ZipFile zipFile;
   private final MPackageDeclarationParserFactoryType parsers;
   private final HashMap<String, Object> attributes;
@@ -95,6 +98,8 @@ public final class MPackageReader implements MPackageReaderType
     final ZipFile inZipFile,
     final MPackageDeclarationParserFactoryType inParsers)
   {
+    this.file =
+      Objects.requireNonNull(file, "file");
     this.zipFile =
       Objects.requireNonNull(inZipFile, "zipFile");
     this.parsers =
@@ -290,50 +295,66 @@ public final class MPackageReader implements MPackageReaderType
     }
   }
 
-  private void unpackZip(
-    final Path outputDirectory,
+  @Override
+  public void streamTo(
+    final EntryConsumerType consumer,
     final Function<MPlatformDependentModule, PlatformDependentModulePolicy> filterPlatform)
-    throws IOException
+    throws MException
   {
-    LOG.debug("Unpacking…");
+    Objects.requireNonNull(consumer, "consumer");
+    Objects.requireNonNull(filterPlatform, "filterPlatform");
 
-    this.attributes.clear();
+    /*
+     * The consumer may be slow, and other methods may be called on this
+     * reader whilst it runs, so the error attributes are kept locally.
+     */
 
-    final var metaInfDir =
-      outputDirectory.resolve("META-INF");
-    final var metaDir =
-      outputDirectory.resolve("meta");
-    final var libDir =
-      outputDirectory.resolve("lib");
+    final var errorAttributes = new HashMap<String, Object>();
+    errorAttributes.put("File", this.file);
 
-    Files.createDirectories(metaInfDir);
-    setFakeTime(metaInfDir);
-    Files.createDirectories(metaDir);
-    setFakeTime(metaDir);
-    Files.createDirectories(libDir);
-    setFakeTime(libDir);
+    try {
+      for (final var file : this.layout(filterPlatform).entrySet()) {
+        final var entry = file.getValue();
+        errorAttributes.put("Entry Name", entry.getName());
 
-    this.unpackDeclaration(metaInfDir);
+        try (final var stream = this.zipFile.getInputStream(entry)) {
+          consumer.accept(file.getKey(), entry.getSize(), stream);
+        }
+      }
+    } catch (final IOException e) {
+      throw errorIO(e, errorAttributes);
+    }
+  }
+
+  /**
+   * Determine the paths of all files in the unpacked package, and the zip
+   * entries from which they are read.
+   */
+
+  private SortedMap<String, ZipArchiveEntry> layout(
+    final Function<MPlatformDependentModule, PlatformDependentModulePolicy> filterPlatform)
+  {
+    final var files = new TreeMap<String, ZipArchiveEntry>();
+    files.put(
+      "META-INF/MONTARRE/PACKAGE.XML",
+      this.zipFile.getEntry(MReservedNames.montarrePackage().name())
+    );
 
     for (final var item : this.packageV.manifest().items()) {
       final var entry =
         this.entries.get(item.file());
-
-      this.attributes.put("File", item.file());
+      final var fileName =
+        Paths.get(item.file().name())
+          .getFileName()
+          .toString();
 
       switch (item) {
         case final MResource ignored -> {
-          final var entryPath =
-            Paths.get(item.file().name());
-
-          this.copyEntry(entry, metaDir.resolve(entryPath.getFileName()));
+          files.put("meta/" + fileName, entry);
         }
 
         case final MModule ignored -> {
-          final var entryPath =
-            Paths.get(item.file().name());
-
-          this.copyEntry(entry, libDir.resolve(entryPath.getFileName()));
+          files.put("lib/" + fileName, entry);
         }
 
         case final MPlatformDependentModule platformModule -> {
@@ -342,42 +363,66 @@ public final class MPackageReader implements MPackageReaderType
               // Do nothing.
             }
             case MERGE -> {
-              final var entryPath = Paths.get(item.file().name());
-              this.copyEntry(entry, libDir.resolve(entryPath.getFileName()));
+              files.put("lib/" + fileName, entry);
             }
             case INCLUDE -> {
-              final var entryPath =
-                Paths.get(item.file().name());
-              final var archDir =
-                libDir.resolve(platformModule.architecture().name());
-              final var osDir =
-                archDir.resolve(platformModule.operatingSystem().name());
-
-              Files.createDirectories(archDir);
-              setFakeTime(archDir);
-              Files.createDirectories(osDir);
-              setFakeTime(osDir);
-
-              this.copyEntry(entry, osDir.resolve(entryPath.getFileName()));
+              files.put(
+                "lib/%s/%s/%s".formatted(
+                  platformModule.architecture().name(),
+                  platformModule.operatingSystem().name(),
+                  fileName
+                ),
+                entry
+              );
             }
           }
         }
       }
     }
+    return files;
   }
 
-  private void unpackDeclaration(
-    final Path metaInfDir)
+  private void unpackZip(
+    final Path outputDirectory,
+    final Function<MPlatformDependentModule, PlatformDependentModulePolicy> filterPlatform)
     throws IOException
   {
-    final var entry =
-      this.zipFile.getEntry(MReservedNames.montarrePackage().name());
+    LOG.debug("Unpacking…");
+
+    this.attributes.clear();
+
+    final var metaInfDir =
+      outputDirectory.resolve("META-INF");
+    final var metaDir =
+      outputDirectory.resolve("meta");
+    final var libDir =
+      outputDirectory.resolve("lib");
+
+    Files.createDirectories(metaInfDir);
+    setFakeTime(metaInfDir);
+    Files.createDirectories(metaDir);
+    setFakeTime(metaDir);
+    Files.createDirectories(libDir);
+    setFakeTime(libDir);
+
+    for (final var file : this.layout(filterPlatform).entrySet()) {
+      final var entry = file.getValue();
+      this.attributes.put("Entry Name", entry.getName());
+
+      final var outFile = outputDirectory.resolve(file.getKey());
+      createDirectories(outFile.getParent());
+      this.copyEntry(entry, outFile);
+    }
+  }
 
-    try (final var stream = this.zipFile.getInputStream(entry)) {
-      final var directory = metaInfDir.resolve("MONTARRE");
-      Files.createDirectories(directory);
+  private static void createDirectories(
+    final Path directory)
+    throws IOException
+  {
+    if (!Files.isDirectory(directory)) {
+      createDirectories(directory.getParent());
+      Files.createDirectory(directory);
       setFakeTime(directory);
-      Files.copy(stream, directory.resolve("PACKAGE.XML"));
     }
   }
 
@@ -433,12 +478,19 @@ public final class MPackageReader implements MPackageReaderType
 
   private MException errorIO(
     final IOException e)
+  {
+    return errorIO(e, this.attributes);
+  }
+
+  private static MException errorIO(
+    final IOException e,
+    final Map<String, Object> attributes)
   {
     return new MException(
       Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()),
       e,
       "error-io",
-      this.copyAttributes(),
+      copyAttributes(attributes),
       Optional.empty()
     );
   }
@@ -455,7 +507,13 @@ public final class MPackageReader implements MPackageReaderType
 
   private Map<String, String> copyAttributes()
   {
-    return this.attributes.entrySet()
+    return copyAttributes(this.attributes);
+  }
+
+  private static Map<String, String> copyAttributes(
+    final Map<String, Object> attributes)
+  {
+    return attributes.entrySet()
       .stream()
       .map(e -> Map.entry(e.getKey(), e.getValue().toString()))
       .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
@@ -18,17 +18,24 @@
 package com.io7m.montarre.nativepack;
 
 import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.api.MPackageDeclaration;
 import com.io7m.montarre.api.natives.MNativePackagerDirectoryType;
 import com.io7m.montarre.api.natives.MNativePackagerServiceProviderType;
 import com.io7m.montarre.api.natives.MNativePackagerServiceType;
 import com.io7m.montarre.api.natives.MNativeProcessesType;
+import com.io7m.seltzer.api.SStructuredErrorType;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.ServiceLoader;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * The native packager directory.
@@ -102,6 +109,62 @@ public final class MNPackagers
     return createFromServiceLoader(new MNativeProcesses());
   }
 
+  /**
+   * Determine whether each of the given packagers is supported. Packagers
+   * typically check for the presence of external tools, and so the checks
+   * are executed concurrently.
+   *
+   * @param packagers The packagers
+   * @param packageV  The package declaration
+   *
+   * @return The reason that each packager is unsupported, if any
+   *
+   * @throws InterruptedException On interruption
+   * @see MNativePackagerServiceType#unsupportedReason(Optional)
+   */
+
+  public static SortedMap<RDottedName, Optional<SStructuredErrorType<String>>>
+  unsupportedReasons(
+    final Collection<? extends MNativePackagerServiceType> packagers,
+    final Optional<MPackageDeclaration> packageV)
+    throws InterruptedException
+  {
+    Objects.requireNonNull(packagers, "packagers");
+    Objects.requireNonNull(packageV, "packageV");
+
+    final var futures =
+      new TreeMap<RDottedName, Future<Optional<SStructuredErrorType<String>>>>();
+    final var results =
+      new TreeMap<RDottedName, Optional<SStructuredErrorType<String>>>();
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (final var packager : packagers) {
+        futures.put(
+          packager.name(),
+          executor.submit(() -> packager.unsupportedReason(packageV))
+        );
+      }
+
+      for (final var entry : futures.entrySet()) {
+        try {
+          results.put(entry.getKey(), entry.getValue().get());
+        } catch (final ExecutionException e) {
+          switch (e.getCause()) {
+            case final InterruptedException x -> throw x;
+            case final RuntimeException x -> throw x;
+            case final Error x -> throw x;
+            default -> throw new IllegalStateException(e.getCause());
+          }
+        }
+      }
+    } catch (final InterruptedException e) {
+      futures.values().forEach(f -> f.cancel(true));
+      throw e;
+    }
+
+    return Collections.unmodifiableSortedMap(results);
+  }
+
   @Override
   public SortedMap<RDottedName, MNativePackagerServiceType> packagers()
   {
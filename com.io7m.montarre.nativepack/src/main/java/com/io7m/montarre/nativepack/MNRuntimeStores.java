@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.nativepack;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreConfiguration;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreFactoryType;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreType;
+import com.io7m.montarre.nativepack.internal.MNRuntimeStore;
+
+import java.util.Objects;
+
+/**
+ * The default Java runtime stores.
+ */
+
+public final class MNRuntimeStores implements MNativeRuntimeStoreFactoryType
+{
+  /**
+   * The default Java runtime stores.
+   */
+
+  public MNRuntimeStores()
+  {
+
+  }
+
+  @Override
+  public MNativeRuntimeStoreType open(
+    final MNativeRuntimeStoreConfiguration configuration)
+    throws MException
+  {
+    Objects.requireNonNull(configuration, "configuration");
+    return MNRuntimeStore.open(configuration);
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.nativepack;
+
+import com.io7m.montarre.api.MException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Functions to calculate digests of directory trees.
+ *
+ * <p>The digest of a tree is the SHA-256 hash of a textual listing of the
+ * tree. The listing contains one line per file, directory, or symbolic link
+ * in the tree (excluding the root directory itself), sorted by path, where
+ * paths are relative to the root and use {@code /} as a separator:</p>
+ *
+ * <ul>
+ *   <li>{@code d <path>} for directories</li>
+ *   <li>{@code f <size> <sha256> <path>} for regular files</li>
+ *   <li>{@code l <target> <path>} for symbolic links, which are not
+ *   followed</li>
+ * </ul>
+ *
+ * <p>Permissions and timestamps are not included, and so the digest of a
+ * tree is the same on every platform.</p>
+ */
+
+public final class MNTreeDigests
+{
+  private static final HexFormat HEX =
+    HexFormat.of();
+  private static final int BUFFER_SIZE =
+    65536;
+
+  private MNTreeDigests()
+  {
+
+  }
+
+  /**
+   * Calculate the SHA-256 tree digest of the given directory. The contents
+   * of files are hashed in parallel.
+   *
+   * @param directory The directory
+   *
+   * @return The digest as a lowercase hexadecimal string
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   */
+
+  public static String sha256(
+    final Path directory)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(directory, "directory");
+
+    final var root =
+      directory.toAbsolutePath().normalize();
+
+    final List<Path> paths;
+    try (var stream = Files.walk(root)) {
+      paths = stream.filter(p -> !p.equals(root))
+        .sorted(Comparator.comparing(p -> nameOf(root, p)))
+        .toList();
+    } catch (final IOException e) {
+      throw errorIO(e, root);
+    }
+
+    final var threads =
+      Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    final var lines = new ArrayList<Future<String>>(paths.size());
+    try (var executor = Executors.newFixedThreadPool(threads)) {
+      for (final var path : paths) {
+        lines.add(executor.submit(() -> lineOf(root, path)));
+      }
+
+      final var listing = digest();
+      for (final var line : lines) {
+        listing.update(line.get().getBytes(StandardCharsets.UTF_8));
+      }
+      return HEX.formatHex(listing.digest());
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof final IOException ex) {
+        throw errorIO(ex, root);
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static String lineOf(
+    final Path root,
+    final Path path)
+    throws IOException
+  {
+    final var name = nameOf(root, path);
+    if (Files.isSymbolicLink(path)) {
+      return "l %s %s\n".formatted(Files.readSymbolicLink(path), name);
+    }
+    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+      return "d %s\n".formatted(name);
+    }
+
+    final var digest = digest();
+    var size = 0L;
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      while (channel.read(buffer) != -1) {
+        buffer.flip();
+        size += buffer.remaining();
+        digest.update(buffer);
+        buffer.clear();
+      }
+    }
+
+    return "f %s %s %s\n".formatted(
+      Long.toUnsignedString(size),
+      HEX.formatHex(digest.digest()),
+      name
+    );
+  }
+
+  private static String nameOf(
+    final Path root,
+    final Path path)
+  {
+    final var name = new StringBuilder();
+    for (final var element : root.relativize(path)) {
+      if (!name.isEmpty()) {
+        name.append('/');
+      }
+      name.append(element);
+    }
+    return name.toString();
+  }
+
+  private static MessageDigest digest()
+  {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static MException errorIO(
+    final IOException e,
+    final Path path)
+  {
+    return new MException(
+      "I/O error.",
+      e,
+      "error-io",
+      Map.ofEntries(Map.entry("Path", path.toString()))
+    );
+  }
+}
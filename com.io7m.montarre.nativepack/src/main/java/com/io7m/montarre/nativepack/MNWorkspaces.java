@@ -17,14 +17,21 @@
 
 package com.io7m.montarre.nativepack;
 
+import com.io7m.montarre.api.MException;
 import com.io7m.montarre.api.http.MHTTPClientFactoryType;
 import com.io7m.montarre.api.io.MPackageReaderType;
 import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
 import com.io7m.montarre.api.natives.MNativeWorkspaceFactoryType;
+import com.io7m.montarre.api.natives.MNativeWorkspaceRetention;
+import com.io7m.montarre.api.natives.MNativeWorkspaceRun;
 import com.io7m.montarre.api.natives.MNativeWorkspaceType;
 import com.io7m.montarre.nativepack.internal.MNWorkspace;
+import com.io7m.montarre.nativepack.internal.MNWorkspaceCollector;
 
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
 /**
  * The default workspaces.
@@ -51,6 +58,33 @@ public final class MNWorkspaces implements MNativeWorkspaceFactoryType
     Objects.requireNonNull(httpClients, "httpClients");
     Objects.requireNonNull(packageReader, "packageReader");
 
-    return MNWorkspace.open(configuration, httpClients, packageReader);
+    return MNWorkspace.open(
+      configuration,
+      httpClients,
+      Optional.of(packageReader)
+    );
+  }
+
+  @Override
+  public MNativeWorkspaceType open(
+    final MNativeWorkspaceConfiguration configuration,
+    final MHTTPClientFactoryType httpClients)
+  {
+    Objects.requireNonNull(configuration, "configuration");
+    Objects.requireNonNull(httpClients, "httpClients");
+
+    return MNWorkspace.open(configuration, httpClients, Optional.empty());
+  }
+
+  @Override
+  public List<MNativeWorkspaceRun> collectGarbage(
+    final Path baseDirectory,
+    final MNativeWorkspaceRetention retention)
+    throws MException
+  {
+    Objects.requireNonNull(baseDirectory, "baseDirectory");
+    Objects.requireNonNull(retention, "retention");
+
+    return MNWorkspaceCollector.collect(baseDirectory, retention);
   }
 }
@@ -17,21 +17,43 @@
 
 package com.io7m.montarre.nativepack;
 
+import com.io7m.jaffirm.core.Preconditions;
 import com.io7m.jmulticlose.core.CloseableCollection;
 import com.io7m.jmulticlose.core.CloseableCollectionType;
 import com.io7m.jmulticlose.core.ClosingResourceFailedException;
 import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeProcessOutput;
+import com.io7m.montarre.api.natives.MNativeProcessOutputBuffer;
 import com.io7m.montarre.api.natives.MNativeProcessesType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * The native processes interface.
@@ -43,8 +65,17 @@ public final class MNativeProcesses
   private static final Logger LOG =
     LoggerFactory.getLogger(MNativeProcesses.class);
 
+  /**
+   * The default length of time for which probe results are cached.
+   */
+
+  public static final Duration DEFAULT_PROBE_CACHE_DURATION =
+    Duration.ofMinutes(5L);
+
   private final ExecutorService executor;
   private final CloseableCollectionType<ClosingResourceFailedException> resources;
+  private final Duration probeCacheDuration;
+  private final ConcurrentHashMap<ProbeKey, ProbeEntry> probes;
 
   /**
    * The native processes interface.
@@ -52,6 +83,23 @@ public final class MNativeProcesses
 
   public MNativeProcesses()
   {
+    this(DEFAULT_PROBE_CACHE_DURATION);
+  }
+
+  /**
+   * The native processes interface.
+   *
+   * @param inProbeCacheDuration The length of time for which probe results
+   *                             are cached
+   */
+
+  public MNativeProcesses(
+    final Duration inProbeCacheDuration)
+  {
+    this.probeCacheDuration =
+      Objects.requireNonNull(inProbeCacheDuration, "probeCacheDuration");
+    this.probes =
+      new ConcurrentHashMap<>();
     this.resources =
       CloseableCollection.create();
     this.executor =
@@ -61,55 +109,466 @@ public final class MNativeProcesses
   @Override
   public int executeAndWait(
     final Map<String, String> environment,
-    final ConcurrentLinkedQueue<String> standardOut,
-    final ConcurrentLinkedQueue<String> standardError,
+    final MNativeProcessOutput output,
     final List<String> commandLine)
     throws MException, InterruptedException
   {
-    try {
-      LOG.debug("Execute {}", commandLine);
+    Objects.requireNonNull(environment, "environment");
+    Objects.requireNonNull(output, "output");
+    Objects.requireNonNull(commandLine, "commandLine");
 
+    LOG.debug("Execute {}", commandLine);
+
+    try (var log = ProcessLog.open(output.logFile(), commandLine)) {
       final var processBuilder = new ProcessBuilder();
       processBuilder.environment().clear();
       processBuilder.environment().putAll(environment);
       processBuilder.command(commandLine);
       final var process = processBuilder.start();
 
-      this.executor.execute(() -> {
-        try (var reader = process.errorReader()) {
-          while (true) {
-            final var line = reader.readLine();
-            if (line == null) {
-              break;
-            }
-            LOG.trace("stderr: {}", line);
+      final var errors =
+        this.executor.submit(() -> {
+          readStream(
+            process.errorReader(),
+            "stderr",
+            output.standardError(),
+            log
+          );
+        });
+      final var outputs =
+        this.executor.submit(() -> {
+          readStream(
+            process.inputReader(),
+            "stdout",
+            output.standardOut(),
+            log
+          );
+        });
+
+      final int exitCode;
+      try {
+        exitCode = process.waitFor();
+      } catch (final InterruptedException e) {
+        destroyProcessTree(process);
+        throw e;
+      }
+      waitForReader(errors);
+      waitForReader(outputs);
+      log.writeExitCode(exitCode);
+      return exitCode;
+    } catch (final IOException e) {
+      final var attributes = new HashMap<>(output.errorAttributes());
+      attributes.put("Command", commandLine.toString());
+
+      throw new MException(
+        Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()),
+        e,
+        "error-exec",
+        Map.copyOf(attributes)
+      );
+    }
+  }
+
+  @Override
+  public int probe(
+    final Map<String, String> environment,
+    final List<String> commandLine)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(environment, "environment");
+    Objects.requireNonNull(commandLine, "commandLine");
+
+    Preconditions.checkPreconditionV(
+      !commandLine.isEmpty(),
+      "Command-line must be non-empty."
+    );
+
+    final var executable =
+      resolveExecutable(environment, commandLine.getFirst());
+    final var key =
+      new ProbeKey(
+        List.copyOf(commandLine),
+        executable,
+        executable.flatMap(MNativeProcesses::modificationTime)
+      );
+
+    while (true) {
+      final var timeNow =
+        Instant.now();
+
+      this.probes.values()
+        .removeIf(e -> e.isExpired(timeNow) && e.result().isDone());
+
+      final var created =
+        new ProbeEntry(
+          new CompletableFuture<>(),
+          timeNow.plus(this.probeCacheDuration)
+        );
+      final var entry =
+        this.probes.compute(key, (k, existing) -> {
+          if (existing == null || existing.isExpired(timeNow)) {
+            return created;
+          }
+          return existing;
+        });
+
+      if (entry == created) {
+        this.probeExecute(environment, key, created);
+      } else {
+        LOG.debug("Using cached probe result for {}", commandLine);
+      }
+
+      try {
+        return entry.result().get().intValue();
+      } catch (final ExecutionException e) {
+        switch (e.getCause()) {
+          case final MException x -> throw x;
+          case final RuntimeException x -> throw x;
+          default -> {
+            /*
+             * The thread that executed the probe was interrupted. Try again.
+             */
+
+            LOG.debug("Retrying interrupted probe {}", commandLine);
           }
-        } catch (final Exception e) {
-          LOG.trace("", e);
         }
+      }
+    }
+  }
+
+  private void probeExecute(
+    final Map<String, String> environment,
+    final ProbeKey key,
+    final ProbeEntry entry)
+    throws InterruptedException
+  {
+    try {
+      entry.result().complete(
+        Integer.valueOf(
+          this.executeAndWait(
+            environment,
+            MNativeProcessOutput.create(),
+            key.commandLine()
+          )
+        )
+      );
+    } catch (final MException e) {
+      entry.result().completeExceptionally(e);
+    } catch (final InterruptedException | RuntimeException e) {
+      this.probes.remove(key, entry);
+      entry.result().completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private static Optional<FileTime> modificationTime(
+    final Path file)
+  {
+    try {
+      return Optional.of(Files.getLastModifiedTime(file));
+    } catch (final IOException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Resolve the executable that would be executed for the given name,
+   * searching the {@code PATH} in the given environment as the operating
+   * system would.
+   */
+
+  private static Optional<Path> resolveExecutable(
+    final Map<String, String> environment,
+    final String name)
+  {
+    try {
+      final var path = Path.of(name);
+      if (path.isAbsolute() || path.getNameCount() > 1) {
+        return Optional.of(path.toAbsolutePath())
+          .filter(Files::isRegularFile);
+      }
+
+      final var searchPath =
+        environment.entrySet()
+          .stream()
+          .filter(e -> "PATH".equalsIgnoreCase(e.getKey()))
+          .map(Map.Entry::getValue)
+          .findFirst()
+          .orElse("");
+
+      final var extensions = new ArrayList<String>();
+      extensions.add("");
+      if (File.separatorChar == '\\') {
+        final var pathExt =
+          environment.getOrDefault("PATHEXT", ".COM;.EXE;.BAT;.CMD");
+        extensions.addAll(List.of(pathExt.split(";")));
+      }
+
+      for (final var directory : searchPath.split(File.pathSeparator)) {
+        if (directory.isEmpty()) {
+          continue;
+        }
+        for (final var extension : extensions) {
+          final Path candidate;
+          try {
+            candidate = Path.of(directory).resolve(name + extension);
+          } catch (final InvalidPathException e) {
+            continue;
+          }
+          if (Files.isRegularFile(candidate) && Files.isExecutable(candidate)) {
+            return Optional.of(candidate.toAbsolutePath());
+          }
+        }
+      }
+    } catch (final InvalidPathException e) {
+      /*
+       * Not a valid path, and so cannot be resolved.
+       */
+    }
+    return Optional.empty();
+  }
+
+  private record ProbeKey(
+    List<String> commandLine,
+    Optional<Path> executable,
+    Optional<FileTime> modificationTime)
+  {
+
+  }
+
+  private record ProbeEntry(
+    CompletableFuture<Integer> result,
+    Instant timeExpires)
+  {
+    boolean isExpired(
+      final Instant timeNow)
+    {
+      return !timeNow.isBefore(this.timeExpires);
+    }
+  }
+
+  /**
+   * Forcibly destroy a process and all of its descendants. Descendants are
+   * destroyed first so that they are not reparented and left running.
+   */
+
+  private static void destroyProcessTree(
+    final Process process)
+  {
+    LOG.debug("Destroying process {}", Long.valueOf(process.pid()));
+    process.descendants().forEach(ProcessHandle::destroyForcibly);
+    process.destroyForcibly();
+  }
+
+  private static void waitForReader(
+    final Future<?> future)
+    throws InterruptedException
+  {
+    try {
+      future.get();
+    } catch (final ExecutionException e) {
+      LOG.trace("", e.getCause());
+    }
+  }
+
+  private static void readStream(
+    final Reader reader,
+    final String name,
+    final MNativeProcessOutputBuffer buffer,
+    final ProcessLog log)
+  {
+    /*
+     * The stream must be drained to the end even if the output cannot be
+     * logged, as a process that fills its pipe will block forever.
+     */
+
+    try (reader) {
+      readLines(reader, buffer.octetLimit(), line -> {
+        LOG.trace("{}: {}", name, line);
+        buffer.add(line);
+        log.write(name, line);
       });
+    } catch (final Exception e) {
+      LOG.warn("Failed to read the {} of a process: ", name, e);
+    }
+  }
+
+  /**
+   * Read lines from the given reader. Lines longer than the given limit are
+   * truncated as they are read, so that a process that writes a single
+   * enormous line cannot exhaust memory.
+   */
 
-      this.executor.execute(() -> {
-        try (var reader = process.inputReader()) {
-          while (true) {
-            final var line = reader.readLine();
-            if (line == null) {
-              break;
+  private static void readLines(
+    final Reader reader,
+    final int lineLimit,
+    final LineReceiverType receiver)
+    throws IOException
+  {
+    final var buffer = new char[8192];
+    final var line = new StringBuilder(Math.min(lineLimit, 256));
+    var truncated = false;
+
+    while (true) {
+      final var count = reader.read(buffer);
+      if (count == -1) {
+        break;
+      }
+
+      for (int index = 0; index < count; ++index) {
+        final var c = buffer[index];
+        switch (c) {
+          case '\n' -> {
+            receiver.receive(lineOf(line, truncated));
+            line.setLength(0);
+            truncated = false;
+          }
+          case '\r' -> {
+            // Carriage returns are not part of lines.
+          }
+          default -> {
+            if (line.length() < lineLimit) {
+              line.append(c);
+            } else {
+              truncated = true;
             }
-            LOG.trace("stdout: {}", line);
           }
-        } catch (final Exception e) {
-          LOG.trace("", e);
         }
-      });
+      }
+    }
 
-      return process.waitFor();
-    } catch (final IOException e) {
-      throw new MException(
-        Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()),
-        e,
-        "error-exec"
+    if (!line.isEmpty() || truncated) {
+      receiver.receive(lineOf(line, truncated));
+    }
+  }
+
+  private static String lineOf(
+    final StringBuilder line,
+    final boolean truncated)
+  {
+    if (truncated) {
+      return line + " [truncated]";
+    }
+    return line.toString();
+  }
+
+  private interface LineReceiverType
+  {
+    void receive(String line)
+      throws IOException;
+  }
+
+  /**
+   * A log file to which the output of a single process is appended. Lines
+   * from both output streams are written through a single buffered writer.
+   */
+
+  private static final class ProcessLog implements AutoCloseable
+  {
+    private final Path file;
+    private final BufferedWriter writer;
+    private volatile boolean failed;
+
+    private ProcessLog(
+      final Path inFile,
+      final BufferedWriter inWriter)
+    {
+      this.file = inFile;
+      this.writer = inWriter;
+    }
+
+    static ProcessLog open(
+      final Optional<Path> file,
+      final List<String> commandLine)
+      throws IOException
+    {
+      if (file.isEmpty()) {
+        return new ProcessLog(null, null);
+      }
+
+      final var path = file.get();
+      final var parent = path.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+
+      final var writer =
+        Files.newBufferedWriter(
+          path,
+          StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.APPEND
+        );
+
+      final var log = new ProcessLog(path, writer);
+      log.writeLine(
+        "# %s Execute %s".formatted(
+          OffsetDateTime.now(ZoneOffset.UTC),
+          commandLine
+        )
       );
+      return log;
+    }
+
+    void write(
+      final String name,
+      final String line)
+    {
+      this.writeLine(name + ": " + line);
+    }
+
+    void writeExitCode(
+      final int exitCode)
+    {
+      this.writeLine(
+        "# %s Exit code %d".formatted(
+          OffsetDateTime.now(ZoneOffset.UTC),
+          Integer.valueOf(exitCode)
+        )
+      );
+    }
+
+    /**
+     * Write a line to the log. A failure to write the log does not affect
+     * the process: it is reported once, and nothing further is logged.
+     */
+
+    private void writeLine(
+      final String line)
+    {
+      if (this.writer == null || this.failed) {
+        return;
+      }
+      synchronized (this.writer) {
+        if (this.failed) {
+          return;
+        }
+        try {
+          this.writer.write(line);
+          this.writer.newLine();
+        } catch (final IOException e) {
+          this.failed = true;
+          LOG.warn(
+            "Failed to write process log {}; no further output will be logged: ",
+            this.file,
+            e
+          );
+        }
+      }
+    }
+
+    @Override
+    public void close()
+    {
+      if (this.writer == null) {
+        return;
+      }
+      try {
+        this.writer.close();
+      } catch (final IOException e) {
+        LOG.warn("Failed to close process log {}: ", this.file, e);
+      }
     }
   }
 
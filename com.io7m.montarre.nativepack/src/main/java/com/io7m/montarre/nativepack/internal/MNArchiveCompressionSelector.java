@@ -0,0 +1,353 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.natives.MNativeArchiveCodec;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.api.natives.MNativeArchiveCompressionAdaptive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * Functions to choose compression levels by compressing samples of the
+ * input.
+ *
+ * <p>Samples are blocks taken at evenly spaced offsets of the concatenation
+ * of the (sorted) regular files in the input directory. Each sample is
+ * compressed independently, on a single thread, at increasing levels. The
+ * time taken is scaled up to the total input size and divided by the number
+ * of threads the real compressor will use.</p>
+ */
+
+public final class MNArchiveCompressionSelector
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNArchiveCompressionSelector.class);
+
+  private MNArchiveCompressionSelector()
+  {
+
+  }
+
+  /**
+   * The estimated cost of compressing the input at a given level.
+   *
+   * @param level The compression level
+   * @param time  The estimated time
+   * @param ratio The estimated compression ratio
+   */
+
+  public record Estimate(
+    int level,
+    Duration time,
+    double ratio)
+  {
+    /**
+     * The estimated cost of compressing the input at a given level.
+     */
+
+    public Estimate
+    {
+      Objects.requireNonNull(time, "time");
+    }
+  }
+
+  /**
+   * Choose a compression level for the given input directory.
+   *
+   * @param adaptive       The adaptive compression settings
+   * @param defaultCodec   The codec used if the settings do not specify one
+   * @param inputDirectory The input directory
+   *
+   * @return The chosen compression
+   *
+   * @throws IOException On errors
+   */
+
+  public static MNativeArchiveCompression select(
+    final MNativeArchiveCompressionAdaptive adaptive,
+    final MNativeArchiveCodec defaultCodec,
+    final Path inputDirectory)
+    throws IOException
+  {
+    Objects.requireNonNull(adaptive, "adaptive");
+    Objects.requireNonNull(defaultCodec, "defaultCodec");
+    Objects.requireNonNull(inputDirectory, "inputDirectory");
+
+    final var codec =
+      adaptive.codec().orElse(defaultCodec);
+    final var files =
+      regularFiles(inputDirectory);
+    final var totalSize =
+      files.stream().mapToLong(InputFile::size).sum();
+    final var samples =
+      samples(
+        files,
+        totalSize,
+        adaptive.sampleBlockCount(),
+        adaptive.sampleBlockSize()
+      );
+
+    if (samples.isEmpty()) {
+      LOG.info(
+        "Adaptive compression: Input is empty, selected {} level {}.",
+        codec,
+        Integer.valueOf(codec.levelMinimum())
+      );
+      return compression(codec, codec.levelMinimum());
+    }
+
+    final var parallelism =
+      codec == MNativeArchiveCodec.ZIP
+        ? 1
+        : Runtime.getRuntime().availableProcessors();
+
+    LOG.info(
+      "Adaptive compression: Sampling {} blocks of {} octets from {} octets of input.",
+      Integer.valueOf(samples.size()),
+      Integer.valueOf(adaptive.sampleBlockSize()),
+      Long.valueOf(totalSize)
+    );
+
+    /*
+     * Compress the first sample once without measuring it, so that the
+     * first measured level is not penalized by class loading and
+     * compilation.
+     */
+
+    compressedSize(codec, codec.levelMinimum(), samples.getFirst());
+
+    Estimate selected = null;
+    Estimate weakest = null;
+    for (int level = codec.levelMinimum();
+         level <= codec.levelMaximum();
+         ++level) {
+      final var estimate =
+        estimate(codec, level, samples, totalSize, parallelism);
+
+      LOG.info(
+        "Adaptive compression: {} level {}: Estimated time {}, estimated ratio {}",
+        codec,
+        Integer.valueOf(level),
+        estimate.time(),
+        String.format("%.4f", Double.valueOf(estimate.ratio()))
+      );
+
+      if (weakest == null) {
+        weakest = estimate;
+      }
+
+      final var budget = adaptive.timeBudget();
+      if (budget.isPresent() && estimate.time().compareTo(budget.get()) > 0) {
+        break;
+      }
+
+      selected = estimate;
+
+      final var target = adaptive.ratioTarget();
+      if (target.isPresent() && estimate.ratio() <= target.getAsDouble()) {
+        break;
+      }
+    }
+
+    if (selected == null) {
+      LOG.warn(
+        "Adaptive compression: No level of {} fits within the time budget {}.",
+        codec,
+        adaptive.timeBudget().orElseThrow()
+      );
+      selected = weakest;
+    }
+
+    LOG.info(
+      "Adaptive compression: Selected {} level {} (estimated time {}, estimated ratio {}). Specify this codec and level explicitly to reproduce the archive.",
+      codec,
+      Integer.valueOf(selected.level()),
+      selected.time(),
+      String.format("%.4f", Double.valueOf(selected.ratio()))
+    );
+    return compression(codec, selected.level());
+  }
+
+  private static MNativeArchiveCompression compression(
+    final MNativeArchiveCodec codec,
+    final int level)
+  {
+    return MNativeArchiveCompression.builder()
+      .setCodec(codec)
+      .setLevel(level)
+      .build();
+  }
+
+  private static Estimate estimate(
+    final MNativeArchiveCodec codec,
+    final int level,
+    final List<byte[]> samples,
+    final long totalSize,
+    final int parallelism)
+    throws IOException
+  {
+    var sampledSize = 0L;
+    var compressedSize = 0L;
+
+    final var timeThen = System.nanoTime();
+    for (final var sample : samples) {
+      sampledSize += sample.length;
+      compressedSize += compressedSize(codec, level, sample);
+    }
+    final var timeNow = System.nanoTime();
+
+    final var scale =
+      (double) totalSize / (double) sampledSize;
+    final var nanos =
+      (double) (timeNow - timeThen) * scale / (double) parallelism;
+
+    return new Estimate(
+      level,
+      Duration.ofNanos((long) nanos),
+      (double) compressedSize / (double) sampledSize
+    );
+  }
+
+  private static long compressedSize(
+    final MNativeArchiveCodec codec,
+    final int level,
+    final byte[] sample)
+    throws IOException
+  {
+    if (codec == MNativeArchiveCodec.ZIP) {
+      final var deflater = new Deflater(level, true);
+      try {
+        deflater.setInput(sample);
+        deflater.finish();
+
+        final var buffer = new byte[65536];
+        var size = 0L;
+        while (!deflater.finished()) {
+          size += deflater.deflate(buffer);
+        }
+        return size;
+      } finally {
+        deflater.end();
+      }
+    }
+
+    final var bytes = new ByteArrayOutputStream(sample.length);
+    try (var output =
+           MNArchives.compressor(compression(codec, level), bytes, 1)) {
+      output.write(sample);
+    }
+    return bytes.size();
+  }
+
+  private record InputFile(
+    Path path,
+    long size)
+  {
+
+  }
+
+  private static List<InputFile> regularFiles(
+    final Path inputDirectory)
+    throws IOException
+  {
+    final var results = new ArrayList<InputFile>();
+    try (var stream = Files.walk(inputDirectory)) {
+      for (final var file : stream.sorted().toList()) {
+        if (Files.isRegularFile(file)) {
+          results.add(new InputFile(file, Files.size(file)));
+        }
+      }
+    }
+    return results;
+  }
+
+  private static List<byte[]> samples(
+    final List<InputFile> files,
+    final long totalSize,
+    final int blockCount,
+    final int blockSize)
+    throws IOException
+  {
+    if (totalSize == 0L) {
+      return List.of();
+    }
+
+    final var blocks =
+      (int) Math.min(
+        (long) blockCount,
+        (totalSize + blockSize - 1L) / (long) blockSize
+      );
+    final var lastOffset =
+      Math.max(0L, totalSize - blockSize);
+
+    final var results = new ArrayList<byte[]>(blocks);
+    for (int index = 0; index < blocks; ++index) {
+      final var offset =
+        blocks == 1 ? 0L : lastOffset * index / (blocks - 1);
+      final var size =
+        (int) Math.min((long) blockSize, totalSize - offset);
+      results.add(read(files, offset, size));
+    }
+    return results;
+  }
+
+  private static byte[] read(
+    final List<InputFile> files,
+    final long offset,
+    final int size)
+    throws IOException
+  {
+    final var buffer = ByteBuffer.allocate(size);
+
+    var fileStart = 0L;
+    for (final var file : files) {
+      final var fileEnd = fileStart + file.size();
+      final var position = offset + buffer.position();
+      if (buffer.hasRemaining() && position < fileEnd) {
+        try (var channel = FileChannel.open(file.path())) {
+          var filePosition = position - fileStart;
+          while (buffer.hasRemaining() && filePosition < file.size()) {
+            final var count = channel.read(buffer, filePosition);
+            if (count < 0) {
+              break;
+            }
+            filePosition += count;
+          }
+        }
+      }
+      if (!buffer.hasRemaining()) {
+        break;
+      }
+      fileStart = fileEnd;
+    }
+    return buffer.array();
+  }
+}
@@ -17,28 +17,63 @@
 
 package com.io7m.montarre.nativepack.internal;
 
+import com.github.luben.zstd.ZstdOutputStream;
 import com.io7m.jmulticlose.core.CloseableCollection;
 import com.io7m.jmulticlose.core.ClosingResourceFailedException;
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MPlatformDependentModule;
 import com.io7m.montarre.api.MShortName;
+import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy;
+import com.io7m.montarre.api.natives.MNativeArchiveCodec;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import com.io7m.montarre.api.natives.MNativeWorkspaceType;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 /**
  * Functions to create archives.
@@ -54,6 +89,13 @@ public final class MNArchives
   private static final FileTime SOURCE_EPOCH_FILETIME =
     FileTime.from(SOURCE_EPOCH);
 
+  private static final int XZ_BLOCK_SIZE =
+    8 * 1024 * 1024;
+  private static final int GZIP_BLOCK_SIZE =
+    1024 * 1024;
+  private static final int ZIP_MEMORY_THRESHOLD =
+    1024 * 1024;
+
   private static final OpenOption[] OPEN_OPTIONS = {
     StandardOpenOption.WRITE,
     StandardOpenOption.CREATE,
@@ -66,34 +108,93 @@ public final class MNArchives
   }
 
   /**
-   * Pack the given directory into an archive.
+   * @return The time used for every timestamp in archives
+   */
+
+  static Instant sourceEpoch()
+  {
+    return SOURCE_EPOCH;
+  }
+
+  /**
+   * Pack the given directory into an archive using the given codec.
    *
+   * @param compression    The archive compression
    * @param inputDirectory The input directory
    * @param isExecutable   A function that determines if an entry name is executable
    * @param outputFile     The output file
    * @param shortName      The short name
    *
-   * @return The output file
+   * @return The output file, along with its size and hash
    *
    * @throws IOException                    On errors
    * @throws ClosingResourceFailedException On errors
    */
 
-  public static Path packTar(
+  public static MNativePackagerResult pack(
+    final MNativeArchiveCompression compression,
     final Path inputDirectory,
     final Path outputFile,
     final Predicate<String> isExecutable,
     final MShortName shortName)
     throws IOException, ClosingResourceFailedException
   {
+    Objects.requireNonNull(compression, "compression");
+
+    return switch (compression.codec()) {
+      case ZIP -> {
+        yield packZip(inputDirectory, outputFile, compression.level(), shortName);
+      }
+      case TAR_GZIP, TAR_XZ, TAR_ZSTD -> {
+        yield packTar(
+          compression,
+          inputDirectory,
+          outputFile,
+          isExecutable,
+          shortName
+        );
+      }
+    };
+  }
+
+  /**
+   * Pack the given directory into a compressed tar archive.
+   *
+   * @param compression    The archive compression
+   * @param inputDirectory The input directory
+   * @param isExecutable   A function that determines if an entry name is executable
+   * @param outputFile     The output file
+   * @param shortName      The short name
+   *
+   * @return The output file, along with its size and hash
+   *
+   * @throws IOException                    On errors
+   * @throws ClosingResourceFailedException On errors
+   */
+
+  public static MNativePackagerResult packTar(
+    final MNativeArchiveCompression compression,
+    final Path inputDirectory,
+    final Path outputFile,
+    final Predicate<String> isExecutable,
+    final MShortName shortName)
+    throws IOException, ClosingResourceFailedException
+  {
+    Objects.requireNonNull(compression, "compression");
     Objects.requireNonNull(inputDirectory, "inputDirectory");
     Objects.requireNonNull(outputFile, "outFile");
     Objects.requireNonNull(shortName, "shortName");
 
-    LOG.info("Creating tar {}", outputFile);
+    LOG.info(
+      "Creating tar {} ({} level {})",
+      outputFile,
+      compression.codec(),
+      Integer.valueOf(compression.level())
+    );
     LOG.debug("Input directory: {}", inputDirectory);
 
     final var timeThen = Instant.now();
+    final MNDigestOutputStream digestOut;
     try (final var streams = CloseableCollection.create()) {
       final var fileStream =
         streams.add(Files.walk(inputDirectory));
@@ -103,26 +204,17 @@ public final class MNArchives
 
       final var fileOut =
         streams.add(Files.newOutputStream(outputFile, OPEN_OPTIONS));
+      digestOut =
+        streams.add(new MNDigestOutputStream(fileOut));
       final var bufOut =
-        streams.add(new BufferedOutputStream(fileOut, 65536));
-
-      /*
-       * This XZ preset was chosen from a small survey taken when
-       * compressing an average Java application consisting of a Temurin
-       * runtime and a set of jar files. These were the results:
-       *
-       * gzip(9): 16 seconds, 84mb
-       * bzip(9): 23 seconds, 74mb
-       * xz(2): 15 seconds, 68mb
-       * xz(3): 24 seconds, 67mb
-       * xz(5): 78 seconds, 63mb
-       *
-       * Using xz(2) allows builds to run as fast as using gzip, but with
-       * a much smaller resulting file size.
-       */
+        streams.add(new BufferedOutputStream(digestOut, 65536));
 
       final var compressOut =
-        streams.add(new XZCompressorOutputStream(bufOut, 2));
+        streams.add(compressor(
+          compression,
+          bufOut,
+          Runtime.getRuntime().availableProcessors()
+        ));
       final var tarOut =
         streams.add(new TarArchiveOutputStream(compressOut));
 
@@ -137,7 +229,441 @@ public final class MNArchives
 
     final var timeNow = Instant.now();
     LOG.info("Created archive in {}", Duration.between(timeThen, timeNow));
-    return outputFile;
+    return digestOut.result(outputFile);
+  }
+
+  /**
+   * Pack the files of the given package, along with the given generated
+   * files, into a compressed tar archive. Each file is read from the package
+   * and written directly into the archive, and so the package is never
+   * unpacked onto disk. Files appear in the archive in ascending order of
+   * path, and a generated file replaces any package file with the same
+   * path. As with {@link #packTar(MNativeArchiveCompression, Path, Path, Predicate, MShortName)},
+   * duplicate files are stored as hard links to the first copy. Every file
+   * is hashed as it is written; a file that has the same size and mode as
+   * an earlier file is buffered while it is hashed, and is then written
+   * either as a hard link or as a regular file. No file is read twice.
+   *
+   * @param compression    The archive compression
+   * @param reader         The package reader
+   * @param filterPlatform The filter for platform-dependent modules
+   * @param generated      The generated files
+   * @param outputFile     The output file
+   * @param isExecutable   A function that determines if an entry name is executable
+   * @param shortName      The short name
+   *
+   * @return The output file, along with its size and hash
+   *
+   * @throws IOException                    On errors
+   * @throws ClosingResourceFailedException On errors
+   * @throws MException                     On errors
+   */
+
+  public static MNativePackagerResult packTarStreaming(
+    final MNativeArchiveCompression compression,
+    final MPackageReaderType reader,
+    final Function<MPlatformDependentModule, PlatformDependentModulePolicy> filterPlatform,
+    final SortedMap<String, byte[]> generated,
+    final Path outputFile,
+    final Predicate<String> isExecutable,
+    final MShortName shortName)
+    throws IOException, ClosingResourceFailedException, MException
+  {
+    Objects.requireNonNull(compression, "compression");
+    Objects.requireNonNull(reader, "reader");
+    Objects.requireNonNull(filterPlatform, "filterPlatform");
+    Objects.requireNonNull(generated, "generated");
+    Objects.requireNonNull(outputFile, "outFile");
+    Objects.requireNonNull(isExecutable, "isExecutable");
+    Objects.requireNonNull(shortName, "shortName");
+
+    LOG.info(
+      "Creating tar {} ({} level {}) from package",
+      outputFile,
+      compression.codec(),
+      Integer.valueOf(compression.level())
+    );
+
+    final var timeThen = Instant.now();
+    final MNDigestOutputStream digestOut;
+    try (final var streams = CloseableCollection.create()) {
+      final var fileOut =
+        streams.add(Files.newOutputStream(outputFile, OPEN_OPTIONS));
+      digestOut =
+        streams.add(new MNDigestOutputStream(fileOut));
+      final var bufOut =
+        streams.add(new BufferedOutputStream(digestOut, 65536));
+
+      final var compressOut =
+        streams.add(compressor(
+          compression,
+          bufOut,
+          Runtime.getRuntime().availableProcessors()
+        ));
+      final var tarOut =
+        streams.add(new TarArchiveOutputStream(compressOut));
+
+      final var scratch =
+        Files.createTempDirectory(
+          outputFile.toAbsolutePath().getParent(),
+          "tar-scratch-"
+        );
+      streams.add(() -> FileUtils.deleteDirectory(scratch.toFile()));
+
+      final var writer =
+        new TarStreamWriter(
+          tarOut,
+          shortName.name() + "/",
+          isExecutable,
+          scratch
+        );
+      final var pending =
+        new TreeMap<>(generated);
+
+      reader.streamTo(
+        (path, size, data) -> {
+          while (!pending.isEmpty() && pending.firstKey().compareTo(path) < 0) {
+            final var first = pending.pollFirstEntry();
+            writer.writeGenerated(first.getKey(), first.getValue());
+          }
+          if (pending.containsKey(path)) {
+            return;
+          }
+          writer.write(path, size, data);
+        },
+        filterPlatform
+      );
+
+      for (final var file : pending.entrySet()) {
+        writer.writeGenerated(file.getKey(), file.getValue());
+      }
+      writer.logLinks();
+    }
+
+    final var timeNow = Instant.now();
+    LOG.info("Created archive in {}", Duration.between(timeThen, timeNow));
+    return digestOut.result(outputFile);
+  }
+
+  /**
+   * A writer of tar entries from streams, that stores duplicate files as
+   * hard links in the same manner as {@link #createTarEntries}.
+   */
+
+  private static final class TarStreamWriter
+  {
+    private final TarArchiveOutputStream tarOut;
+    private final String prefix;
+    private final Predicate<String> isExecutable;
+    private final Path scratch;
+    private final HashMap<TarLinkKey, String> linkTargets;
+    private final HashSet<TarSizeKey> sizesSeen;
+    private final byte[] buffer;
+    private long linkCount;
+    private long linkSaved;
+
+    TarStreamWriter(
+      final TarArchiveOutputStream inTarOut,
+      final String inPrefix,
+      final Predicate<String> inIsExecutable,
+      final Path inScratch)
+    {
+      this.tarOut = inTarOut;
+      this.prefix = inPrefix;
+      this.isExecutable = inIsExecutable;
+      this.scratch = inScratch;
+      this.linkTargets = new HashMap<>();
+      this.sizesSeen = new HashSet<>();
+      this.buffer = new byte[65536];
+    }
+
+    void writeGenerated(
+      final String path,
+      final byte[] data)
+      throws IOException
+    {
+      this.write(path, data.length, new ByteArrayInputStream(data));
+    }
+
+    void write(
+      final String path,
+      final long size,
+      final InputStream data)
+      throws IOException
+    {
+      LOG.debug("[tar] {}", path);
+
+      final var entryName =
+        this.prefix + path;
+      final var mode =
+        this.isExecutable.test(path) ? 0755 : 0644;
+
+      /*
+       * Empty files are never stored as links, and a file whose size and
+       * mode differ from every earlier file cannot be a duplicate, and so
+       * can be written directly.
+       */
+
+      if (size == 0L) {
+        this.writeEntry(entryName, mode, size, data, null);
+        return;
+      }
+
+      final var sizeKey = new TarSizeKey(size, mode);
+      if (this.sizesSeen.add(sizeKey)) {
+        final var digest = sha256();
+        this.writeEntry(entryName, mode, size, data, digest);
+        this.linkTargets.put(
+          new TarLinkKey(size, HexFormat.of().formatHex(digest.digest()), mode),
+          entryName
+        );
+        return;
+      }
+
+      final var buffered =
+        DeferredFileOutputStream.builder()
+          .setThreshold(ZIP_MEMORY_THRESHOLD)
+          .setDirectory(this.scratch.toFile())
+          .setPrefix("entry-")
+          .setSuffix(".tmp")
+          .get();
+
+      try {
+        final var digest = sha256();
+        try (buffered) {
+          this.copy(data, buffered, digest);
+        }
+
+        final var key =
+          new TarLinkKey(size, HexFormat.of().formatHex(digest.digest()), mode);
+        final var target =
+          this.linkTargets.get(key);
+
+        if (target != null) {
+          LOG.debug("[tar] {} -> {} (hard link)", entryName, target);
+
+          final var entry =
+            new TarArchiveEntry(entryName, TarConstants.LF_LINK);
+          entry.setLinkName(target);
+          setTarEntryAttributes(entry, mode);
+          this.tarOut.putArchiveEntry(entry);
+          this.tarOut.closeArchiveEntry();
+
+          ++this.linkCount;
+          this.linkSaved += size;
+          return;
+        }
+
+        try (var input = buffered.toInputStream()) {
+          this.writeEntry(entryName, mode, size, input, null);
+        }
+        this.linkTargets.put(key, entryName);
+      } finally {
+        if (!buffered.isInMemory()) {
+          Files.deleteIfExists(buffered.getPath());
+        }
+      }
+    }
+
+    private void writeEntry(
+      final String entryName,
+      final int mode,
+      final long size,
+      final InputStream data,
+      final MessageDigest digest)
+      throws IOException
+    {
+      final var entry = new TarArchiveEntry(entryName);
+      entry.setSize(size);
+      setTarEntryAttributes(entry, mode);
+      this.tarOut.putArchiveEntry(entry);
+      this.copy(data, this.tarOut, digest);
+      this.tarOut.closeArchiveEntry();
+    }
+
+    private void copy(
+      final InputStream input,
+      final OutputStream output,
+      final MessageDigest digest)
+      throws IOException
+    {
+      while (true) {
+        final var count = input.read(this.buffer);
+        if (count == -1) {
+          break;
+        }
+        if (digest != null) {
+          digest.update(this.buffer, 0, count);
+        }
+        output.write(this.buffer, 0, count);
+      }
+    }
+
+    void logLinks()
+    {
+      LOG.info(
+        "Stored {} duplicate files as hard links, saving {} octets.",
+        Long.valueOf(this.linkCount),
+        Long.valueOf(this.linkSaved)
+      );
+    }
+  }
+
+  /**
+   * Determine the compression that the given packager should use for an
+   * archive of the given directory. An explicit compression configured in
+   * the workspace takes precedence over adaptive compression, which in turn
+   * takes precedence over the packager's default.
+   *
+   * @param workspace          The workspace
+   * @param packager           The packager name
+   * @param inputDirectory     The directory that will be archived
+   * @param defaultCompression The packager's default compression
+   *
+   * @return The compression
+   *
+   * @throws IOException On errors
+   */
+
+  public static MNativeArchiveCompression compressionFor(
+    final MNativeWorkspaceType workspace,
+    final RDottedName packager,
+    final Path inputDirectory,
+    final MNativeArchiveCompression defaultCompression)
+    throws IOException
+  {
+    Objects.requireNonNull(workspace, "workspace");
+    Objects.requireNonNull(packager, "packager");
+    Objects.requireNonNull(inputDirectory, "inputDirectory");
+    Objects.requireNonNull(defaultCompression, "defaultCompression");
+
+    final var explicit = workspace.archiveCompression(packager);
+    if (explicit.isPresent()) {
+      return explicit.get();
+    }
+
+    final var adaptive = workspace.archiveCompressionAdaptive(packager);
+    if (adaptive.isPresent()) {
+      return MNArchiveCompressionSelector.select(
+        adaptive.get(),
+        defaultCompression.codec(),
+        inputDirectory
+      );
+    }
+    return defaultCompression;
+  }
+
+  /**
+   * The default compression for tar archives.
+   *
+   * <p>The xz preset was chosen from a small survey taken when compressing
+   * an average Java application consisting of a Temurin runtime and a set
+   * of jar files. These were the results:</p>
+   *
+   * <pre>
+   * gzip(9): 16 seconds, 84mb
+   * bzip(9): 23 seconds, 74mb
+   * xz(2): 15 seconds, 68mb
+   * xz(3): 24 seconds, 67mb
+   * xz(5): 78 seconds, 63mb
+   * </pre>
+   *
+   * <p>Using xz(2) allows builds to run as fast as using gzip, but with
+   * a much smaller resulting file size.</p>
+   *
+   * @return The default tar compression
+   */
+
+  public static MNativeArchiveCompression defaultTarCompression()
+  {
+    return MNativeArchiveCompression.builder()
+      .setCodec(MNativeArchiveCodec.TAR_XZ)
+      .setLevel(2)
+      .build();
+  }
+
+  /**
+   * @return The default zip compression
+   */
+
+  public static MNativeArchiveCompression defaultZipCompression()
+  {
+    return MNativeArchiveCompression.builder()
+      .setCodec(MNativeArchiveCodec.ZIP)
+      .build();
+  }
+
+  /**
+   * Create a compressing stream. XZ and gzip archives are compressed as
+   * sequences of independent blocks on all available cores; the block size
+   * costs a negligible amount of compression ratio (the dictionary used by
+   * xz(2) is only 1MiB). See MNXZCompressionBenchmark in the test suite for
+   * per-core throughput. Zstd archives use the multithreaded mode of the
+   * native zstd library, whose output does not depend on the number of
+   * worker threads.
+   */
+
+  static OutputStream compressor(
+    final MNativeArchiveCompression compression,
+    final OutputStream output,
+    final int threads)
+    throws IOException
+  {
+    return switch (compression.codec()) {
+      case TAR_XZ -> {
+        yield new MNXZParallelOutputStream(
+          output,
+          compression.level(),
+          XZ_BLOCK_SIZE,
+          threads
+        );
+      }
+      case TAR_GZIP -> {
+        yield new MNGZIPParallelOutputStream(
+          output,
+          compression.level(),
+          GZIP_BLOCK_SIZE,
+          threads
+        );
+      }
+      case TAR_ZSTD -> {
+        yield new ZstdOutputStream(output)
+          .setChecksum(true)
+          .setLevel(compression.level())
+          .setWorkers(threads);
+      }
+      case ZIP -> {
+        throw new IllegalArgumentException(
+          "Codec %s is not a tar codec.".formatted(compression.codec())
+        );
+      }
+    };
+  }
+
+  /**
+   * The identity of a file's content and mode. Files with equal keys are
+   * stored once, and subsequent copies are stored as hard links to the
+   * first copy.
+   */
+
+  private record TarLinkKey(
+    long size,
+    String sha256,
+    int mode)
+  {
+
+  }
+
+  /**
+   * The size and mode of a file. Only files with the same size and mode as
+   * an earlier file can be stored as hard links.
+   */
+
+  private record TarSizeKey(
+    long size,
+    int mode)
+  {
+
   }
 
   private static void createTarEntries(
@@ -148,6 +674,14 @@ public final class MNArchives
     final List<Path> fileList)
     throws IOException
   {
+    final var hashes =
+      duplicateCandidateHashes(fileList);
+    final var linkTargets =
+      new HashMap<TarLinkKey, String>();
+
+    var linkCount = 0L;
+    var linkSaved = 0L;
+
     for (final var file : fileList) {
       if (Files.isRegularFile(file)) {
         LOG.debug("[tar] {}", file);
@@ -157,46 +691,179 @@ public final class MNArchives
             .toString();
         final var entryName =
           prefix + "/" + entryWithoutPrefix;
+        final var mode =
+          isExecutable.test(entryWithoutPrefix) ? 0755 : 0644;
+
+        final var hash = hashes.get(file);
+        if (hash != null) {
+          final var key = new TarLinkKey(Files.size(file), hash, mode);
+          final var target = linkTargets.get(key);
+          if (target != null) {
+            LOG.debug("[tar] {} -> {} (hard link)", entryName, target);
+
+            final var entry =
+              new TarArchiveEntry(entryName, TarConstants.LF_LINK);
+            entry.setLinkName(target);
+            setTarEntryAttributes(entry, mode);
+            tarOut.putArchiveEntry(entry);
+            tarOut.closeArchiveEntry();
+
+            ++linkCount;
+            linkSaved += key.size();
+            continue;
+          }
+          linkTargets.put(key, entryName);
+        }
 
         final var entry =
           tarOut.createArchiveEntry(
             file,
             entryName
           );
-        entry.setCreationTime(SOURCE_EPOCH_FILETIME);
-        entry.setLastAccessTime(SOURCE_EPOCH_FILETIME);
-        entry.setLastModifiedTime(SOURCE_EPOCH_FILETIME);
-        entry.setUserId(0);
-        entry.setGroupId(0);
-
-        if (isExecutable.test(entryWithoutPrefix)) {
-          entry.setMode(0755);
-        } else {
-          entry.setMode(0644);
-        }
+        setTarEntryAttributes(entry, mode);
         tarOut.putArchiveEntry(entry);
         Files.copy(file, tarOut);
         tarOut.closeArchiveEntry();
       }
     }
+
+    LOG.info(
+      "Stored {} duplicate files as hard links, saving {} octets.",
+      Long.valueOf(linkCount),
+      Long.valueOf(linkSaved)
+    );
+  }
+
+  /**
+   * Set the attributes of the given tar entry such that the archive is
+   * reproducible: all times are set to a fixed epoch, and all files are
+   * owned by user and group 0.
+   */
+
+  static void setTarEntryAttributes(
+    final TarArchiveEntry entry,
+    final int mode)
+  {
+    entry.setCreationTime(SOURCE_EPOCH_FILETIME);
+    entry.setLastAccessTime(SOURCE_EPOCH_FILETIME);
+    entry.setLastModifiedTime(SOURCE_EPOCH_FILETIME);
+    entry.setUserId(0);
+    entry.setGroupId(0);
+    entry.setMode(mode);
+  }
+
+  /**
+   * Hash the non-empty regular files that have the same size as at least
+   * one other file. Files with a unique size cannot have duplicates and so
+   * are not read twice.
+   */
+
+  private static Map<Path, String> duplicateCandidateHashes(
+    final List<Path> fileList)
+    throws IOException
+  {
+    final var bySize = new HashMap<Long, List<Path>>();
+    for (final var file : fileList) {
+      if (Files.isRegularFile(file)) {
+        final var size = Files.size(file);
+        if (size > 0L) {
+          bySize.computeIfAbsent(Long.valueOf(size), k -> new ArrayList<>())
+            .add(file);
+        }
+      }
+    }
+
+    final var results = new HashMap<Path, String>();
+    final var buffer = new byte[65536];
+    for (final var group : bySize.values()) {
+      if (group.size() < 2) {
+        continue;
+      }
+      for (final var file : group) {
+        final var digest = sha256();
+        try (var input = Files.newInputStream(file)) {
+          while (true) {
+            final var count = input.read(buffer);
+            if (count == -1) {
+              break;
+            }
+            digest.update(buffer, 0, count);
+          }
+        }
+        results.put(file, HexFormat.of().formatHex(digest.digest()));
+      }
+    }
+    return results;
+  }
+
+  private static MessageDigest sha256()
+  {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Pack the given directory into a zip archive, deflating entries on all
+   * available cores.
+   *
+   * @param inputDirectory The input directory
+   * @param outputFile     The output file
+   * @param level          The deflate level
+   * @param shortName      The short name
+   *
+   * @return The output file, along with its size and hash
+   *
+   * @throws IOException                    On errors
+   * @throws ClosingResourceFailedException On errors
+   */
+
+  public static MNativePackagerResult packZip(
+    final Path inputDirectory,
+    final Path outputFile,
+    final int level,
+    final MShortName shortName)
+    throws IOException, ClosingResourceFailedException
+  {
+    return packZip(
+      inputDirectory,
+      outputFile,
+      level,
+      Runtime.getRuntime().availableProcessors(),
+      shortName
+    );
   }
 
   /**
-   * Pack the given directory into an archive.
+   * Pack the given directory into a zip archive.
+   *
+   * <p>Entries are deflated concurrently (scattered) into buffers that are
+   * kept in memory or spilled to temporary files next to the output file,
+   * and are then written to the archive as raw entries (gathered) in sorted
+   * order. Deflate output depends only on the level and the input, so the
+   * resulting archive is identical for any number of threads. The sizes of
+   * raw entries are known in advance, so the archive is written sequentially
+   * without seeking, and its hash is calculated as it is written.</p>
    *
    * @param inputDirectory The input directory
    * @param outputFile     The output file
+   * @param level          The deflate level
+   * @param threads        The maximum number of entries deflated concurrently
    * @param shortName      The short name
    *
-   * @return The output file
+   * @return The output file, along with its size and hash
    *
    * @throws IOException                    On errors
    * @throws ClosingResourceFailedException On errors
    */
 
-  public static Path packZip(
+  public static MNativePackagerResult packZip(
     final Path inputDirectory,
     final Path outputFile,
+    final int level,
+    final int threads,
     final MShortName shortName)
     throws IOException, ClosingResourceFailedException
   {
@@ -204,51 +871,180 @@ public final class MNArchives
     Objects.requireNonNull(outputFile, "outFile");
     Objects.requireNonNull(shortName, "shortName");
 
-    LOG.info("Creating zip {}", outputFile);
+    LOG.info(
+      "Creating zip {} (level {}, {} threads)",
+      outputFile,
+      Integer.valueOf(level),
+      Integer.valueOf(threads)
+    );
     LOG.debug("Input directory: {}", inputDirectory);
 
     final var timeThen = Instant.now();
-    try (final var streams = CloseableCollection.create()) {
-      final var fileStream =
-        streams.add(Files.walk(inputDirectory));
+    final MNDigestOutputStream digestOut;
+    try (final var resources = CloseableCollection.create()) {
       final var fileList =
-        fileStream.sorted()
+        resources.add(Files.walk(inputDirectory))
+          .sorted()
+          .filter(Files::isRegularFile)
           .toList();
+
+      final var scratch =
+        Files.createTempDirectory(
+          outputFile.toAbsolutePath().getParent(),
+          "zip-scratch-"
+        );
+      resources.add(() -> FileUtils.deleteDirectory(scratch.toFile()));
+
+      final var executor =
+        resources.add(Executors.newVirtualThreadPerTaskExecutor());
       final var fileOut =
-        streams.add(Files.newOutputStream(outputFile, OPEN_OPTIONS));
+        resources.add(Files.newOutputStream(outputFile, OPEN_OPTIONS));
+      digestOut =
+        resources.add(new MNDigestOutputStream(fileOut));
       final var bufOut =
-        streams.add(new BufferedOutputStream(fileOut, 65536));
+        resources.add(new BufferedOutputStream(digestOut, 65536));
       final var zipOut =
-        streams.add(new ZipOutputStream(bufOut));
+        resources.add(new ZipArchiveOutputStream(bufOut));
 
-      createZipEntries(inputDirectory, shortName.name(), zipOut, fileList);
+      createZipEntries(
+        new ZipDeflateContext(
+          inputDirectory,
+          shortName.name(),
+          level,
+          scratch
+        ),
+        executor,
+        Math.max(1, threads),
+        zipOut,
+        fileList
+      );
     }
 
     final var timeNow = Instant.now();
     LOG.info("Created archive in {}", Duration.between(timeThen, timeNow));
-    return outputFile;
+    return digestOut.result(outputFile);
+  }
+
+  private record ZipDeflateContext(
+    Path inputDirectory,
+    String prefix,
+    int level,
+    Path scratch)
+  {
+
+  }
+
+  private record ZipDeflatedEntry(
+    ZipArchiveEntry entry,
+    DeferredFileOutputStream data)
+  {
+
   }
 
   private static void createZipEntries(
-    final Path inputDirectory,
-    final String prefix,
-    final ZipOutputStream zipOut,
+    final ZipDeflateContext context,
+    final ExecutorService executor,
+    final int window,
+    final ZipArchiveOutputStream zipOut,
     final List<Path> fileList)
     throws IOException
   {
-    for (final var file : fileList) {
-      if (Files.isRegularFile(file)) {
-        LOG.debug("[zip] {}", file);
+    final var pending =
+      new ArrayDeque<Future<ZipDeflatedEntry>>(window);
 
-        final var entry =
-          new ZipEntry(prefix + "/" + inputDirectory.relativize(file));
+    try {
+      for (final var file : fileList) {
+        while (pending.size() >= window) {
+          writeZipEntry(zipOut, pending.poll());
+        }
+        pending.add(executor.submit(() -> deflateZipEntry(context, file)));
+      }
+      while (!pending.isEmpty()) {
+        writeZipEntry(zipOut, pending.poll());
+      }
+    } finally {
+      for (final var future : pending) {
+        future.cancel(true);
+      }
+    }
+  }
 
-        entry.setCreationTime(SOURCE_EPOCH_FILETIME);
-        entry.setLastAccessTime(SOURCE_EPOCH_FILETIME);
-        entry.setLastModifiedTime(SOURCE_EPOCH_FILETIME);
+  private static ZipDeflatedEntry deflateZipEntry(
+    final ZipDeflateContext context,
+    final Path file)
+    throws IOException
+  {
+    LOG.debug("[zip] {}", file);
+
+    final var name = new StringBuilder(context.prefix());
+    for (final var element : context.inputDirectory().relativize(file)) {
+      name.append('/');
+      name.append(element);
+    }
+
+    final var entry = new ZipArchiveEntry(name.toString());
+    entry.setMethod(ZipArchiveEntry.DEFLATED);
+    entry.setCreationTime(SOURCE_EPOCH_FILETIME);
+    entry.setLastAccessTime(SOURCE_EPOCH_FILETIME);
+    entry.setLastModifiedTime(SOURCE_EPOCH_FILETIME);
+
+    final var data =
+      DeferredFileOutputStream.builder()
+        .setThreshold(ZIP_MEMORY_THRESHOLD)
+        .setDirectory(context.scratch().toFile())
+        .setPrefix("entry-")
+        .setSuffix(".tmp")
+        .get();
+
+    final var crc = new CRC32();
+    final var deflater = new Deflater(context.level(), true);
+    var size = 0L;
+    try (var input = Files.newInputStream(file);
+         var output = new DeflaterOutputStream(data, deflater, 65536)) {
+      final var buffer = new byte[65536];
+      while (true) {
+        final var count = input.read(buffer);
+        if (count == -1) {
+          break;
+        }
+        crc.update(buffer, 0, count);
+        output.write(buffer, 0, count);
+        size += count;
+      }
+    } finally {
+      deflater.end();
+    }
+
+    entry.setSize(size);
+    entry.setCrc(crc.getValue());
+    entry.setCompressedSize(data.getByteCount());
+    return new ZipDeflatedEntry(entry, data);
+  }
+
+  private static void writeZipEntry(
+    final ZipArchiveOutputStream zipOut,
+    final Future<ZipDeflatedEntry> future)
+    throws IOException
+  {
+    final ZipDeflatedEntry deflated;
+    try {
+      deflated = future.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof final IOException io) {
+        throw io;
+      }
+      throw new IOException(e.getCause());
+    }
 
-        zipOut.putNextEntry(entry);
-        Files.copy(file, zipOut);
+    final var data = deflated.data();
+    try (var input = data.toInputStream()) {
+      zipOut.addRawArchiveEntry(deflated.entry(), input);
+    } finally {
+      if (!data.isInMemory()) {
+        Files.deleteIfExists(data.getPath());
       }
     }
   }
@@ -0,0 +1,360 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeCacheServerConfiguration;
+import com.io7m.montarre.api.natives.MNativeCacheServerType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * A cache server that stores blobs and output references in a directory.
+ *
+ * <p>The directory contains a {@code blobs} directory holding one file per
+ * blob, named after the SHA-256 hash of the blob, and an {@code outputs}
+ * directory holding one properties file per output reference, named after
+ * the output cache key. Uploads are written into a {@code staging} directory
+ * and atomically moved into place once they have been verified, and so
+ * partially uploaded blobs are never served.</p>
+ */
+
+public final class MNCacheServer implements MNativeCacheServerType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNCacheServer.class);
+
+  private static final Pattern BLOB =
+    Pattern.compile("/blobs/sha256/([0-9a-f]{64})");
+  private static final Pattern OUTPUT =
+    Pattern.compile("/outputs/([0-9a-f]{64})");
+  private static final Pattern SHA256 =
+    Pattern.compile("[0-9a-f]{64}");
+
+  /**
+   * The maximum size of an output reference.
+   */
+
+  private static final int OUTPUT_SIZE_LIMIT = 65536;
+
+  private final MNativeCacheServerConfiguration configuration;
+  private final ExecutorService executor;
+  private final Path blobs;
+  private final Path outputs;
+  private final Path staging;
+  private HttpServer server;
+
+  private MNCacheServer(
+    final MNativeCacheServerConfiguration inConfiguration,
+    final ExecutorService inExecutor,
+    final Path inBlobs,
+    final Path inOutputs,
+    final Path inStaging)
+  {
+    this.configuration =
+      Objects.requireNonNull(inConfiguration, "configuration");
+    this.executor =
+      Objects.requireNonNull(inExecutor, "executor");
+    this.blobs =
+      Objects.requireNonNull(inBlobs, "blobs");
+    this.outputs =
+      Objects.requireNonNull(inOutputs, "outputs");
+    this.staging =
+      Objects.requireNonNull(inStaging, "staging");
+  }
+
+  /**
+   * Start a cache server.
+   *
+   * @param configuration The configuration
+   *
+   * @return The server
+   *
+   * @throws MException On errors
+   */
+
+  public static MNCacheServer start(
+    final MNativeCacheServerConfiguration configuration)
+    throws MException
+  {
+    Objects.requireNonNull(configuration, "configuration");
+
+    final var directory =
+      configuration.directory().toAbsolutePath().normalize();
+    final var blobs =
+      directory.resolve("blobs");
+    final var outputs =
+      directory.resolve("outputs");
+    final var staging =
+      directory.resolve("staging");
+
+    try {
+      Files.createDirectories(blobs);
+      Files.createDirectories(outputs);
+      Files.createDirectories(staging);
+    } catch (final IOException e) {
+      throw errorIO(e, directory);
+    }
+
+    final var executor =
+      Executors.newVirtualThreadPerTaskExecutor();
+    final var cacheServer =
+      new MNCacheServer(configuration, executor, blobs, outputs, staging);
+
+    try {
+      final var server = HttpServer.create(configuration.address(), 0);
+      server.setExecutor(executor);
+      server.createContext("/", cacheServer::handle);
+      server.start();
+      cacheServer.server = server;
+    } catch (final IOException e) {
+      executor.shutdownNow();
+      throw errorIO(e, directory);
+    }
+
+    LOG.info(
+      "Cache server listening on {} using {}",
+      cacheServer.address(),
+      directory
+    );
+    return cacheServer;
+  }
+
+  @Override
+  public MNativeCacheServerConfiguration configuration()
+  {
+    return this.configuration;
+  }
+
+  @Override
+  public InetSocketAddress address()
+  {
+    return this.server.getAddress();
+  }
+
+  @Override
+  public void close()
+  {
+    this.server.stop(0);
+    this.executor.shutdownNow();
+  }
+
+  private void handle(
+    final HttpExchange exchange)
+    throws IOException
+  {
+    try (exchange) {
+      final var path = exchange.getRequestURI().getPath();
+      final var method = exchange.getRequestMethod();
+      LOG.debug("{} {}", method, path);
+
+      final var blob = BLOB.matcher(path);
+      if (blob.matches()) {
+        final var hash = blob.group(1);
+        final var file = this.blobs.resolve(hash);
+        switch (method) {
+          case "HEAD", "GET" -> sendFile(exchange, file);
+          case "PUT" -> this.receiveBlob(exchange, hash, file);
+          default -> exchange.sendResponseHeaders(405, -1L);
+        }
+        return;
+      }
+
+      final var output = OUTPUT.matcher(path);
+      if (output.matches()) {
+        final var file = this.outputs.resolve(output.group(1));
+        switch (method) {
+          case "HEAD", "GET" -> sendFile(exchange, file);
+          case "PUT" -> this.receiveOutput(exchange, file);
+          default -> exchange.sendResponseHeaders(405, -1L);
+        }
+        return;
+      }
+
+      exchange.sendResponseHeaders(404, -1L);
+    } catch (final IOException e) {
+      LOG.debug("I/O error handling request: ", e);
+      throw e;
+    }
+  }
+
+  private static void sendFile(
+    final HttpExchange exchange,
+    final Path file)
+    throws IOException
+  {
+    if (!Files.isRegularFile(file)) {
+      exchange.sendResponseHeaders(404, -1L);
+      return;
+    }
+
+    final var size = Files.size(file);
+    final var headers = exchange.getResponseHeaders();
+    headers.set("Content-Type", "application/octet-stream");
+
+    if (exchange.getRequestMethod().equals("HEAD") || size == 0L) {
+      headers.set("Content-Length", Long.toString(size));
+      exchange.sendResponseHeaders(200, -1L);
+      return;
+    }
+
+    exchange.sendResponseHeaders(200, size);
+    try (var output = exchange.getResponseBody()) {
+      Files.copy(file, output);
+    }
+  }
+
+  /**
+   * Receive a blob. The blob is only stored if its content matches the
+   * hash in the request path.
+   */
+
+  private void receiveBlob(
+    final HttpExchange exchange,
+    final String hash,
+    final Path file)
+    throws IOException
+  {
+    if (Files.isRegularFile(file)) {
+      exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+      exchange.sendResponseHeaders(200, -1L);
+      return;
+    }
+
+    final var stage =
+      this.staging.resolve(UUID.randomUUID() + ".blob");
+
+    try {
+      final var digest = MessageDigest.getInstance("SHA-256");
+      try (var output = new DigestOutputStream(
+        Files.newOutputStream(stage), digest)) {
+        exchange.getRequestBody().transferTo(output);
+      }
+
+      final var received = HexFormat.of().formatHex(digest.digest());
+      if (!Objects.equals(received, hash)) {
+        LOG.warn("Rejected blob {} with content hash {}", hash, received);
+        exchange.sendResponseHeaders(400, -1L);
+        return;
+      }
+
+      Files.move(
+        stage,
+        file,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+      LOG.info("Stored blob {}", hash);
+      exchange.sendResponseHeaders(201, -1L);
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      Files.deleteIfExists(stage);
+    }
+  }
+
+  /**
+   * Receive an output reference. The reference is only stored if it refers
+   * to a blob that is present.
+   */
+
+  private void receiveOutput(
+    final HttpExchange exchange,
+    final Path file)
+    throws IOException
+  {
+    final byte[] data;
+    try (var input = exchange.getRequestBody()) {
+      data = input.readNBytes(OUTPUT_SIZE_LIMIT + 1);
+      input.transferTo(OutputStream.nullOutputStream());
+    }
+
+    if (data.length > OUTPUT_SIZE_LIMIT) {
+      exchange.sendResponseHeaders(413, -1L);
+      return;
+    }
+
+    final var properties = new Properties();
+    try {
+      properties.load(new ByteArrayInputStream(data));
+    } catch (final IllegalArgumentException e) {
+      exchange.sendResponseHeaders(400, -1L);
+      return;
+    }
+
+    final var hash = properties.getProperty("hashValue", "");
+    if (!SHA256.matcher(hash).matches()) {
+      exchange.sendResponseHeaders(400, -1L);
+      return;
+    }
+    if (!Files.isRegularFile(this.blobs.resolve(hash))) {
+      exchange.sendResponseHeaders(409, -1L);
+      return;
+    }
+
+    final var stage =
+      this.staging.resolve(UUID.randomUUID() + ".output");
+
+    try {
+      Files.write(stage, data);
+      Files.move(
+        stage,
+        file,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+      LOG.info("Stored output {}", file.getFileName());
+      exchange.sendResponseHeaders(201, -1L);
+    } finally {
+      Files.deleteIfExists(stage);
+    }
+  }
+
+  private static MException errorIO(
+    final IOException e,
+    final Path path)
+  {
+    return new MException(
+      "I/O error.",
+      e,
+      "error-io",
+      Map.ofEntries(Map.entry("Path", path.toString()))
+    );
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.MException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Functions to execute operations with deadlines.
+ *
+ * <p>An operation with a deadline is executed on its own virtual thread,
+ * and the calling thread waits for it. If the deadline passes, or the calling
+ * thread is interrupted, the operation is interrupted, and the calling thread
+ * then waits for the operation to stop. An operation therefore never outlives
+ * the call that started it, and any cleanup that the operation performs in
+ * response to interruption is complete when the call returns.</p>
+ */
+
+public final class MNDeadlines
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNDeadlines.class);
+
+  private static final Duration STOP_WARNING =
+    Duration.ofSeconds(10L);
+
+  private MNDeadlines()
+  {
+
+  }
+
+  /**
+   * An operation.
+   *
+   * @param <T> The type of results
+   */
+
+  @FunctionalInterface
+  public interface OperationType<T>
+  {
+    /**
+     * Execute the operation.
+     *
+     * @return The result
+     *
+     * @throws MException           On errors
+     * @throws InterruptedException On interruption
+     */
+
+    T execute()
+      throws MException, InterruptedException;
+  }
+
+  /**
+   * Execute the given operation. If no timeout is given, the operation is
+   * executed on the calling thread.
+   *
+   * @param name      The operation name, used in errors and logs
+   * @param timeout   The timeout
+   * @param operation The operation
+   * @param <T>       The type of results
+   *
+   * @return The result of the operation
+   *
+   * @throws MException           On errors, including expired deadlines
+   * @throws InterruptedException On interruption
+   */
+
+  public static <T> T execute(
+    final String name,
+    final Optional<Duration> timeout,
+    final OperationType<T> operation)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(name, "name");
+    Objects.requireNonNull(timeout, "timeout");
+    Objects.requireNonNull(operation, "operation");
+
+    if (timeout.isEmpty()) {
+      return operation.execute();
+    }
+
+    final var task = new FutureTask<>(operation::execute);
+    final var thread =
+      Thread.ofVirtual()
+        .name("montarre-deadline-", 0L)
+        .start(task);
+
+    try {
+      return task.get(timeout.get().toNanos(), TimeUnit.NANOSECONDS);
+    } catch (final TimeoutException e) {
+      LOG.warn("{} did not complete within {}; cancelling.", name, timeout.get());
+      cancelAndJoin(name, task, thread);
+      throw errorDeadline(name, timeout.get());
+    } catch (final InterruptedException e) {
+      LOG.debug("{} was interrupted; cancelling.", name);
+      cancelAndJoin(name, task, thread);
+      throw e;
+    } catch (final ExecutionException e) {
+      throw rethrow(e.getCause());
+    }
+  }
+
+  /**
+   * Determine if the given exception indicates that an operation stopped
+   * because it was interrupted.
+   *
+   * @param e The exception
+   *
+   * @return {@code true} if the exception indicates cancellation
+   */
+
+  public static boolean isCancellation(
+    final Throwable e)
+  {
+    var current = e;
+    while (current != null) {
+      switch (current) {
+        case final InterruptedException ignored -> {
+          return true;
+        }
+        case final InterruptedIOException ignored -> {
+          return true;
+        }
+        case final ClosedByInterruptException ignored -> {
+          return true;
+        }
+        case final MException m when "error-cancelled".equals(m.errorCode()) -> {
+          return true;
+        }
+        default -> {
+          current = current.getCause();
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Interrupt the task and wait for its thread to terminate. The wait is not
+   * itself interruptible, but the interrupted status of the calling thread
+   * is preserved.
+   */
+
+  private static void cancelAndJoin(
+    final String name,
+    final FutureTask<?> task,
+    final Thread thread)
+  {
+    task.cancel(true);
+
+    var interrupted = false;
+    var warned = false;
+    while (true) {
+      try {
+        if (thread.join(STOP_WARNING)) {
+          break;
+        }
+        if (!warned) {
+          LOG.warn("Waiting for {} to stop.", name);
+          warned = true;
+        }
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static MException errorDeadline(
+    final String name,
+    final Duration timeout)
+  {
+    return new MException(
+      "The operation did not complete within the deadline.",
+      "error-deadline",
+      Map.ofEntries(
+        Map.entry("Operation", name),
+        Map.entry("Timeout", timeout.toString())
+      ),
+      Optional.of(
+        "Increase the timeout, or determine why the operation is not completing.")
+    );
+  }
+
+  private static MException rethrow(
+    final Throwable e)
+    throws MException, InterruptedException
+  {
+    switch (e) {
+      case final MException x -> throw x;
+      case final InterruptedException x -> throw x;
+      case final RuntimeException x -> throw x;
+      case final Error x -> throw x;
+      default -> {
+        return new MException(
+          Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()),
+          e,
+          "error-exception",
+          Map.of()
+        );
+      }
+    }
+  }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.jmulticlose.core.CloseableCollection;
+import com.io7m.jmulticlose.core.CloseableCollectionType;
+import com.io7m.jmulticlose.core.ClosingResourceFailedException;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.SequencedMap;
+
+/**
+ * A writer of Debian binary packages. The package is written directly as an
+ * {@code ar} archive containing {@code debian-binary}, a compressed control
+ * archive, and a compressed data archive, and so neither {@code dpkg-deb}
+ * nor {@code jpackage} are required.
+ *
+ * @see "https://manpages.debian.org/deb.5"
+ */
+
+public final class MNDebWriter
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNDebWriter.class);
+
+  private static final OpenOption[] OPEN_OPTIONS = {
+    StandardOpenOption.WRITE,
+    StandardOpenOption.CREATE,
+    StandardOpenOption.TRUNCATE_EXISTING,
+  };
+
+  private static final byte[] AR_MAGIC =
+    "!<arch>\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] DEBIAN_BINARY =
+    "2.0\n".getBytes(StandardCharsets.US_ASCII);
+
+  private MNDebWriter()
+  {
+
+  }
+
+  /**
+   * The result of writing the data archive.
+   *
+   * @param md5sums       The lines of the {@code md5sums} file
+   * @param installedSize The estimated installed size in kibibytes
+   */
+
+  private record DataSummary(
+    List<String> md5sums,
+    long installedSize)
+  {
+
+  }
+
+  /**
+   * Write a Debian package. The {@code Installed-Size} field is computed
+   * from the contents of {@code dataDirectory} and is placed immediately
+   * before the {@code Description} field. Fields with values that span
+   * multiple lines are continued according to the rules for the
+   * {@code control} file format.
+   *
+   * @param compression   The compression used for the control and data archives
+   * @param control       The fields of the {@code control} file, in order
+   * @param dataDirectory The directory containing the installed file tree
+   * @param outputFile    The output file
+   *
+   * @return The output file, along with its size and hash
+   *
+   * @throws IOException                    On errors
+   * @throws ClosingResourceFailedException On errors
+   */
+
+  public static MNativePackagerResult write(
+    final MNativeArchiveCompression compression,
+    final SequencedMap<String, String> control,
+    final Path dataDirectory,
+    final Path outputFile)
+    throws IOException, ClosingResourceFailedException
+  {
+    Objects.requireNonNull(compression, "compression");
+    Objects.requireNonNull(control, "control");
+    Objects.requireNonNull(dataDirectory, "dataDirectory");
+    Objects.requireNonNull(outputFile, "outputFile");
+
+    final var suffix = memberSuffix(compression);
+
+    LOG.info(
+      "Creating deb {} ({} level {})",
+      outputFile,
+      compression.codec(),
+      Integer.valueOf(compression.level())
+    );
+
+    final var timeThen = Instant.now();
+    final var name = outputFile.getFileName().toString();
+    final var dataFile =
+      outputFile.resolveSibling(name + ".data.tmp");
+    final var controlFile =
+      outputFile.resolveSibling(name + ".control.tmp");
+
+    try {
+      final var summary =
+        writeData(compression, dataDirectory, dataFile);
+
+      writeControl(
+        compression,
+        controlText(control, summary.installedSize()),
+        String.join("", summary.md5sums()),
+        controlFile
+      );
+
+      final MNDigestOutputStream digestOut;
+      try (var fileOut = Files.newOutputStream(outputFile, OPEN_OPTIONS)) {
+        digestOut = new MNDigestOutputStream(fileOut);
+        try (var out = new BufferedOutputStream(digestOut, 65536)) {
+          out.write(AR_MAGIC);
+          writeArMember(out, "debian-binary", DEBIAN_BINARY);
+          writeArMember(out, "control.tar." + suffix, controlFile);
+          writeArMember(out, "data.tar." + suffix, dataFile);
+        }
+      }
+
+      final var timeNow = Instant.now();
+      LOG.info("Created deb in {}", Duration.between(timeThen, timeNow));
+      return digestOut.result(outputFile);
+    } finally {
+      Files.deleteIfExists(dataFile);
+      Files.deleteIfExists(controlFile);
+    }
+  }
+
+  private static String memberSuffix(
+    final MNativeArchiveCompression compression)
+  {
+    return switch (compression.codec()) {
+      case TAR_XZ -> "xz";
+      case TAR_GZIP -> "gz";
+      case TAR_ZSTD -> "zst";
+      case ZIP -> {
+        throw new IllegalArgumentException(
+          "Debian packages cannot use %s compression."
+            .formatted(compression.codec())
+        );
+      }
+    };
+  }
+
+  /**
+   * Produce the text of a {@code control} file.
+   *
+   * @param control       The fields
+   * @param installedSize The installed size
+   *
+   * @return The text
+   */
+
+  static String controlText(
+    final SequencedMap<String, String> control,
+    final long installedSize)
+  {
+    final var installed = Long.toUnsignedString(installedSize);
+    final var text = new StringBuilder(256);
+    var sizeWritten = false;
+
+    for (final var field : control.entrySet()) {
+      final var fieldName = field.getKey();
+      if (!sizeWritten && "Description".equals(fieldName)) {
+        controlField(text, "Installed-Size", installed);
+        sizeWritten = true;
+      }
+      controlField(text, fieldName, field.getValue());
+    }
+
+    if (!sizeWritten) {
+      controlField(text, "Installed-Size", installed);
+    }
+    return text.toString();
+  }
+
+  private static void controlField(
+    final StringBuilder text,
+    final String fieldName,
+    final String value)
+  {
+    final var lines = value.strip().split("\n", -1);
+    if (lines[0].isBlank()) {
+      throw new IllegalArgumentException(
+        "The value of control field %s must begin with a non-empty line."
+          .formatted(fieldName)
+      );
+    }
+
+    text.append(fieldName);
+    text.append(": ");
+    text.append(lines[0].strip());
+    text.append('\n');
+
+    for (var index = 1; index < lines.length; ++index) {
+      final var line = lines[index].stripTrailing();
+      if (line.isBlank()) {
+        text.append(" .\n");
+      } else {
+        text.append(' ');
+        text.append(line);
+        text.append('\n');
+      }
+    }
+  }
+
+  private static TarArchiveOutputStream createTarStream(
+    final CloseableCollectionType<ClosingResourceFailedException> streams,
+    final MNativeArchiveCompression compression,
+    final Path outputFile)
+    throws IOException
+  {
+    final var fileOut =
+      streams.add(Files.newOutputStream(outputFile, OPEN_OPTIONS));
+    final var bufOut =
+      streams.add(new BufferedOutputStream(fileOut, 65536));
+    final var compressOut =
+      streams.add(MNArchives.compressor(
+        compression,
+        bufOut,
+        Runtime.getRuntime().availableProcessors()
+      ));
+    final var tarOut =
+      streams.add(new TarArchiveOutputStream(compressOut));
+
+    tarOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+    return tarOut;
+  }
+
+  private static void putDirectory(
+    final TarArchiveOutputStream tarOut,
+    final String name)
+    throws IOException
+  {
+    final var entry = new TarArchiveEntry(name, TarConstants.LF_DIR);
+    setEntryAttributes(entry, 0755);
+    tarOut.putArchiveEntry(entry);
+    tarOut.closeArchiveEntry();
+  }
+
+  private static void putFile(
+    final TarArchiveOutputStream tarOut,
+    final String name,
+    final byte[] data)
+    throws IOException
+  {
+    final var entry = new TarArchiveEntry(name);
+    entry.setSize(data.length);
+    setEntryAttributes(entry, 0644);
+    tarOut.putArchiveEntry(entry);
+    tarOut.write(data);
+    tarOut.closeArchiveEntry();
+  }
+
+  private static void setEntryAttributes(
+    final TarArchiveEntry entry,
+    final int mode)
+  {
+    MNArchives.setTarEntryAttributes(entry, mode);
+    entry.setUserName("root");
+    entry.setGroupName("root");
+  }
+
+  private static void writeControl(
+    final MNativeArchiveCompression compression,
+    final String control,
+    final String md5sums,
+    final Path outputFile)
+    throws IOException, ClosingResourceFailedException
+  {
+    try (final var streams = CloseableCollection.create()) {
+      final var tarOut = createTarStream(streams, compression, outputFile);
+      putDirectory(tarOut, "./");
+      putFile(tarOut, "./control", control.getBytes(StandardCharsets.UTF_8));
+      putFile(tarOut, "./md5sums", md5sums.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static DataSummary writeData(
+    final MNativeArchiveCompression compression,
+    final Path dataDirectory,
+    final Path outputFile)
+    throws IOException, ClosingResourceFailedException
+  {
+    final var md5sums = new ArrayList<String>();
+    final var md5 = md5();
+    var installedSize = 0L;
+
+    try (final var streams = CloseableCollection.create()) {
+      final var fileStream =
+        streams.add(Files.walk(dataDirectory));
+      final var fileList =
+        fileStream.sorted()
+          .toList();
+
+      final var tarOut = createTarStream(streams, compression, outputFile);
+      for (final var file : fileList) {
+        final var relative =
+          dataDirectory.relativize(file)
+            .toString()
+            .replace('\\', '/');
+
+        if (relative.isEmpty()) {
+          putDirectory(tarOut, "./");
+          continue;
+        }
+
+        final var entryName = "./" + relative;
+        LOG.debug("[deb] {}", entryName);
+
+        if (Files.isSymbolicLink(file)) {
+          final var entry =
+            new TarArchiveEntry(entryName, TarConstants.LF_SYMLINK);
+          entry.setLinkName(Files.readSymbolicLink(file).toString());
+          setEntryAttributes(entry, 0777);
+          tarOut.putArchiveEntry(entry);
+          tarOut.closeArchiveEntry();
+          ++installedSize;
+          continue;
+        }
+
+        if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+          putDirectory(tarOut, entryName + "/");
+          ++installedSize;
+          continue;
+        }
+
+        final var size = Files.size(file);
+        final var entry = new TarArchiveEntry(entryName);
+        entry.setSize(size);
+        setEntryAttributes(entry, isExecutable(file) ? 0755 : 0644);
+        tarOut.putArchiveEntry(entry);
+
+        md5.reset();
+        try (var in = Files.newInputStream(file)) {
+          final var buffer = new byte[65536];
+          while (true) {
+            final var r = in.read(buffer);
+            if (r == -1) {
+              break;
+            }
+            tarOut.write(buffer, 0, r);
+            md5.update(buffer, 0, r);
+          }
+        }
+        tarOut.closeArchiveEntry();
+
+        md5sums.add(
+          "%s  %s\n".formatted(
+            HexFormat.of().formatHex(md5.digest()),
+            relative
+          )
+        );
+        installedSize += (size + 1023L) / 1024L;
+      }
+    }
+
+    return new DataSummary(List.copyOf(md5sums), installedSize);
+  }
+
+  private static boolean isExecutable(
+    final Path file)
+    throws IOException
+  {
+    try {
+      return Files.getPosixFilePermissions(file)
+        .contains(PosixFilePermission.OWNER_EXECUTE);
+    } catch (final UnsupportedOperationException e) {
+      return false;
+    }
+  }
+
+  private static void writeArMember(
+    final OutputStream out,
+    final String name,
+    final byte[] data)
+    throws IOException
+  {
+    writeArHeader(out, name, data.length);
+    out.write(data);
+    writeArPadding(out, data.length);
+  }
+
+  private static void writeArMember(
+    final OutputStream out,
+    final String name,
+    final Path file)
+    throws IOException
+  {
+    final var size = Files.size(file);
+    writeArHeader(out, name, size);
+    Files.copy(file, out);
+    writeArPadding(out, size);
+  }
+
+  /**
+   * Write a member header in the common {@code ar} format. All members are
+   * given the source epoch as their modification time, and are owned by
+   * user and group 0.
+   */
+
+  private static void writeArHeader(
+    final OutputStream out,
+    final String name,
+    final long size)
+    throws IOException
+  {
+    final var header =
+      "%-16s%-12d%-6d%-6d%-8o%-10d`\n".formatted(
+        name,
+        Long.valueOf(MNArchives.sourceEpoch().getEpochSecond()),
+        Integer.valueOf(0),
+        Integer.valueOf(0),
+        Integer.valueOf(0100644),
+        Long.valueOf(size)
+      );
+
+    out.write(header.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static void writeArPadding(
+    final OutputStream out,
+    final long size)
+    throws IOException
+  {
+    if ((size & 1L) == 1L) {
+      out.write('\n');
+    }
+  }
+
+  private static MessageDigest md5()
+  {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.MHash;
+import com.io7m.montarre.api.MHashAlgorithm;
+import com.io7m.montarre.api.MHashValue;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * An output stream that calculates the SHA-256 hash and size of everything
+ * written to it.
+ */
+
+public final class MNDigestOutputStream extends FilterOutputStream
+{
+  private final MessageDigest digest;
+  private long size;
+
+  /**
+   * An output stream that calculates the SHA-256 hash and size of everything
+   * written to it.
+   *
+   * @param inOutput The underlying stream
+   */
+
+  public MNDigestOutputStream(
+    final OutputStream inOutput)
+  {
+    super(Objects.requireNonNull(inOutput, "output"));
+
+    try {
+      this.digest = MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Calculate the result for a file that was produced by an external tool,
+   * reading the file once.
+   *
+   * @param file The file
+   *
+   * @return The result
+   *
+   * @throws IOException On errors
+   */
+
+  public static MNativePackagerResult resultOfFile(
+    final Path file)
+    throws IOException
+  {
+    final var output = new MNDigestOutputStream(OutputStream.nullOutputStream());
+    try (var input = Files.newInputStream(file)) {
+      input.transferTo(output);
+    }
+    return output.result(file);
+  }
+
+  @Override
+  public void write(
+    final int b)
+    throws IOException
+  {
+    this.out.write(b);
+    this.digest.update((byte) b);
+    ++this.size;
+  }
+
+  @Override
+  public void write(
+    final byte[] buffer,
+    final int offset,
+    final int length)
+    throws IOException
+  {
+    this.out.write(buffer, offset, length);
+    this.digest.update(buffer, offset, length);
+    this.size += length;
+  }
+
+  /**
+   * Produce a result for the given file. This must be called at most once,
+   * after everything has been written.
+   *
+   * @param file The file that was written
+   *
+   * @return The result
+   */
+
+  public MNativePackagerResult result(
+    final Path file)
+  {
+    return MNativePackagerResult.builder()
+      .setFile(file)
+      .setSize(this.size)
+      .setHash(
+        new MHash(
+          new MHashAlgorithm("SHA-256"),
+          new MHashValue(HexFormat.of().formatHex(this.digest.digest()))
+        )
+      )
+      .build();
+  }
+}
@@ -0,0 +1,754 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.streamtime.core.STTransferStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * A resumable downloader. Partially downloaded files are resumed using HTTP
+ * range requests, and large files can optionally be downloaded as a set of
+ * concurrent range requests that are written into the temporary file in
+ * place. The SHA-256 hash of the file is verified before the temporary file
+ * is moved to the output file.
+ */
+
+public final class MNDownloader
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNDownloader.class);
+
+  private static final HexFormat HEX =
+    HexFormat.of();
+
+  private static final Pattern CONTENT_RANGE =
+    Pattern.compile("bytes\\s+([0-9]+)-([0-9]+)/([0-9]+|\\*)");
+
+  private static final int BUFFER_SIZE =
+    65536;
+
+  /**
+   * Segmented downloads are not used for files that would yield segments
+   * smaller than this size.
+   */
+
+  private static final long SEGMENT_SIZE_MINIMUM =
+    1_048_576L;
+
+  /**
+   * The amount of data a segment writes before its progress is saved.
+   */
+
+  private static final long SEGMENT_PROGRESS_INTERVAL =
+    4L * 1_048_576L;
+
+  private static final int ATTEMPTS =
+    5;
+
+  private final HttpClient httpClient;
+  private final URI uri;
+  private final Path outputFile;
+  private final Path outputFileTemp;
+  private final Path progressFile;
+  private final String hashExpected;
+  private final int segments;
+  private final Consumer<STTransferStatistics> statistics;
+  private final AtomicLong transferred;
+  private long transferredBase;
+  private long timeStart;
+  private long timeReported;
+  private OptionalLong sizeExpected;
+
+  /**
+   * A resumable downloader.
+   *
+   * @param inHttpClient     The HTTP client
+   * @param inURI            The source URI
+   * @param inOutputFile     The output file
+   * @param inOutputFileTemp The temporary output file
+   * @param inHashExpected   The expected SHA-256 hash of the file
+   * @param inSegments       The maximum number of concurrent range requests
+   * @param inStatistics     A receiver of transfer statistics
+   */
+
+  public MNDownloader(
+    final HttpClient inHttpClient,
+    final URI inURI,
+    final Path inOutputFile,
+    final Path inOutputFileTemp,
+    final String inHashExpected,
+    final int inSegments,
+    final Consumer<STTransferStatistics> inStatistics)
+  {
+    this.httpClient =
+      Objects.requireNonNull(inHttpClient, "httpClient");
+    this.uri =
+      Objects.requireNonNull(inURI, "uri");
+    this.outputFile =
+      Objects.requireNonNull(inOutputFile, "outputFile");
+    this.outputFileTemp =
+      Objects.requireNonNull(inOutputFileTemp, "outputFileTemp");
+    this.hashExpected =
+      Objects.requireNonNull(inHashExpected, "hashExpected");
+    this.statistics =
+      Objects.requireNonNull(inStatistics, "statistics");
+    this.segments =
+      Math.max(1, inSegments);
+    this.progressFile =
+      inOutputFileTemp.resolveSibling(
+        inOutputFileTemp.getFileName() + ".segments"
+      );
+    this.transferred =
+      new AtomicLong();
+    this.sizeExpected =
+      OptionalLong.empty();
+  }
+
+  /**
+   * Download the file. Transfers that fail due to I/O errors are retried,
+   * resuming from the data that has already been received.
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   */
+
+  public void execute()
+    throws MException, InterruptedException
+  {
+    if (Files.isRegularFile(this.outputFile)) {
+      try {
+        if (this.hashOf(this.outputFile).equalsIgnoreCase(this.hashExpected)) {
+          LOG.debug("{} is already present and valid.", this.outputFile);
+          return;
+        }
+      } catch (final IOException e) {
+        throw this.errorIO(e);
+      }
+    }
+
+    int attempt = 1;
+    while (true) {
+      try {
+        this.executeOnce();
+        this.verifyAndPromote();
+        return;
+      } catch (final IOException e) {
+        if (attempt >= ATTEMPTS) {
+          throw this.errorIO(e);
+        }
+        LOG.warn(
+          "Download of {} failed ({}); resuming (attempt {} of {}).",
+          this.uri,
+          e.toString(),
+          Integer.valueOf(attempt + 1),
+          Integer.valueOf(ATTEMPTS)
+        );
+        Thread.sleep(250L * attempt);
+        ++attempt;
+      }
+    }
+  }
+
+  private void executeOnce()
+    throws IOException, InterruptedException, MException
+  {
+    Files.createDirectories(this.outputFileTemp.toAbsolutePath().getParent());
+
+    if (this.segments > 1) {
+      final var lengthOpt = this.probeRangeSupport();
+      if (lengthOpt.isPresent()) {
+        final var length = lengthOpt.getAsLong();
+        if (length >= this.segments * SEGMENT_SIZE_MINIMUM) {
+          this.downloadSegmented(length);
+          return;
+        }
+      }
+    }
+
+    this.downloadSingle();
+  }
+
+  /**
+   * Determine if the server accepts range requests for the file.
+   *
+   * @return The length of the file, if range requests are supported
+   */
+
+  private OptionalLong probeRangeSupport()
+    throws IOException, InterruptedException
+  {
+    final var request =
+      HttpRequest.newBuilder(this.uri)
+        .method("HEAD", HttpRequest.BodyPublishers.noBody())
+        .build();
+
+    final var response =
+      this.httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+
+    if (response.statusCode() != 200) {
+      return OptionalLong.empty();
+    }
+
+    final var ranges =
+      response.headers()
+        .firstValue("Accept-Ranges")
+        .orElse("none");
+
+    if (!ranges.toLowerCase().contains("bytes")) {
+      LOG.debug("{} does not support range requests.", this.uri);
+      return OptionalLong.empty();
+    }
+
+    return response.headers().firstValueAsLong("Content-Length");
+  }
+
+  private void downloadSingle()
+    throws IOException, InterruptedException, MException
+  {
+    /*
+     * A progress file indicates that the temporary file was written by a
+     * segmented download and is therefore not necessarily contiguous.
+     */
+
+    if (Files.exists(this.progressFile)) {
+      Files.deleteIfExists(this.outputFileTemp);
+      Files.deleteIfExists(this.progressFile);
+    }
+
+    final long existing;
+    if (Files.isRegularFile(this.outputFileTemp)) {
+      existing = Files.size(this.outputFileTemp);
+    } else {
+      existing = 0L;
+    }
+
+    final var requestBuilder =
+      HttpRequest.newBuilder(this.uri)
+        .GET();
+
+    if (existing > 0L) {
+      LOG.info("Resuming download of {} at offset {}.", this.uri, existing);
+      requestBuilder.header("Range", "bytes=%d-".formatted(existing));
+    }
+
+    final var response =
+      this.httpClient.send(
+        requestBuilder.build(),
+        HttpResponse.BodyHandlers.ofInputStream()
+      );
+
+    try (var body = response.body()) {
+      final var status = response.statusCode();
+      final var length =
+        response.headers().firstValueAsLong("Content-Length");
+
+      switch (status) {
+        case 200 -> {
+          this.startStatistics(0L, length);
+          try (var channel = FileChannel.open(
+            this.outputFileTemp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE)) {
+            channel.truncate(0L);
+            this.transfer(body, channel, 0L);
+          }
+        }
+
+        case 206 -> {
+          final var start =
+            this.contentRangeStart(response);
+
+          if (start != existing) {
+            throw this.errorHTTP(
+              status,
+              "The server returned an unexpected range."
+            );
+          }
+
+          this.startStatistics(
+            existing,
+            length.isPresent()
+              ? OptionalLong.of(existing + length.getAsLong())
+              : length
+          );
+          try (var channel = FileChannel.open(
+            this.outputFileTemp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE)) {
+            channel.truncate(existing);
+            this.transfer(body, channel, existing);
+          }
+        }
+
+        case 416 -> {
+          /*
+           * The requested range is not satisfiable; the temporary file is
+           * most likely already complete. Verification will determine
+           * whether this is true.
+           */
+
+          LOG.debug("{} appears to be complete.", this.outputFileTemp);
+        }
+
+        default -> {
+          throw this.errorHTTP(status, "HTTP error.");
+        }
+      }
+    }
+
+    this.reportStatistics(true);
+  }
+
+  private void downloadSegmented(
+    final long length)
+    throws IOException, InterruptedException, MException
+  {
+    final var segmentSize =
+      (length + this.segments - 1) / this.segments;
+    final var progress =
+      this.loadProgress(length, segmentSize);
+
+    var done = 0L;
+    for (int index = 0; index < this.segments; ++index) {
+      done += progress.get(index);
+    }
+
+    LOG.info(
+      "Downloading {} in {} segments ({} of {} octets already present).",
+      this.uri,
+      Integer.valueOf(this.segments),
+      Long.valueOf(done),
+      Long.valueOf(length)
+    );
+
+    this.startStatistics(done, OptionalLong.of(length));
+
+    final var failures = new ArrayList<Throwable>();
+    try (var channel = FileChannel.open(
+      this.outputFileTemp,
+      StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE)) {
+
+      try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        final var futures = new ArrayList<Future<?>>(this.segments);
+        for (int index = 0; index < this.segments; ++index) {
+          final var segment = index;
+          final var start = segment * segmentSize;
+          final var end = Math.min(length, start + segmentSize);
+          if (start + progress.get(segment) >= end) {
+            continue;
+          }
+
+          futures.add(executor.submit(() -> {
+            this.downloadSegment(
+              channel,
+              progress,
+              segment,
+              start,
+              end,
+              length,
+              segmentSize
+            );
+            return null;
+          }));
+        }
+
+        /*
+         * Every segment is allowed to run to completion even if another
+         * segment fails, as any progress is saved and can be resumed.
+         */
+
+        for (final var future : futures) {
+          try {
+            future.get();
+          } catch (final ExecutionException e) {
+            failures.add(e.getCause());
+          }
+        }
+      } finally {
+        this.saveProgress(progress, length, segmentSize);
+      }
+    }
+
+    if (!failures.isEmpty()) {
+      final var first = failures.getFirst();
+      for (int index = 1; index < failures.size(); ++index) {
+        first.addSuppressed(failures.get(index));
+      }
+      switch (first) {
+        case final IOException e -> throw e;
+        case final MException e -> throw e;
+        case final InterruptedException e -> throw e;
+        default -> throw new IOException(first);
+      }
+    }
+
+    this.reportStatistics(true);
+  }
+
+  private void downloadSegment(
+    final FileChannel channel,
+    final AtomicLongArray progress,
+    final int segment,
+    final long start,
+    final long end,
+    final long length,
+    final long segmentSize)
+    throws IOException, InterruptedException, MException
+  {
+    final var offset =
+      start + progress.get(segment);
+
+    final var request =
+      HttpRequest.newBuilder(this.uri)
+        .header("Range", "bytes=%d-%d".formatted(offset, end - 1L))
+        .GET()
+        .build();
+
+    final var response =
+      this.httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+    try (var body = response.body()) {
+      final var status = response.statusCode();
+      if (status != 206) {
+        throw this.errorHTTP(
+          status,
+          "The server did not honour a range request."
+        );
+      }
+      if (this.contentRangeStart(response) != offset) {
+        throw this.errorHTTP(
+          status,
+          "The server returned an unexpected range."
+        );
+      }
+
+      final var buffer = new byte[BUFFER_SIZE];
+      var position = offset;
+      var unsaved = 0L;
+      while (position < end) {
+        final var wanted =
+          (int) Math.min(buffer.length, end - position);
+        final var r = body.read(buffer, 0, wanted);
+        if (r == -1) {
+          throw new IOException(
+            "Unexpected end of stream at offset %d (expected %d)"
+              .formatted(position, end)
+          );
+        }
+
+        writeFully(channel, buffer, r, position);
+        position += r;
+        progress.addAndGet(segment, r);
+        this.transferred.addAndGet(r);
+        this.reportStatistics(false);
+
+        unsaved += r;
+        if (unsaved >= SEGMENT_PROGRESS_INTERVAL) {
+          this.saveProgress(progress, length, segmentSize);
+          unsaved = 0L;
+        }
+      }
+    }
+  }
+
+  private void transfer(
+    final InputStream body,
+    final FileChannel channel,
+    final long offset)
+    throws IOException
+  {
+    final var buffer = new byte[BUFFER_SIZE];
+    var position = offset;
+    while (true) {
+      final var r = body.read(buffer);
+      if (r == -1) {
+        break;
+      }
+      writeFully(channel, buffer, r, position);
+      position += r;
+      this.transferred.addAndGet(r);
+      this.reportStatistics(false);
+    }
+  }
+
+  private static void writeFully(
+    final FileChannel channel,
+    final byte[] buffer,
+    final int count,
+    final long position)
+    throws IOException
+  {
+    final var data = ByteBuffer.wrap(buffer, 0, count);
+    var at = position;
+    while (data.hasRemaining()) {
+      at += channel.write(data, at);
+    }
+  }
+
+  private long contentRangeStart(
+    final HttpResponse<?> response)
+    throws MException
+  {
+    final var header =
+      response.headers()
+        .firstValue("Content-Range")
+        .orElse("");
+
+    final var matcher = CONTENT_RANGE.matcher(header.trim());
+    if (!matcher.matches()) {
+      throw this.errorHTTP(
+        response.statusCode(),
+        "The server returned an unparseable Content-Range header."
+      );
+    }
+    return Long.parseUnsignedLong(matcher.group(1));
+  }
+
+  /**
+   * Load the progress of a previous segmented download. If the progress
+   * does not match the current download, the download starts again. A
+   * temporary file left by a single stream download is contiguous, and so
+   * is reused as the initial progress of each segment.
+   */
+
+  private AtomicLongArray loadProgress(
+    final long length,
+    final long segmentSize)
+    throws IOException
+  {
+    final var progress = new AtomicLongArray(this.segments);
+
+    if (Files.isRegularFile(this.progressFile)) {
+      final var lines =
+        Files.readAllLines(this.progressFile, StandardCharsets.UTF_8);
+
+      if (lines.size() == this.segments + 1
+          && lines.getFirst().equals(progressHeader(length, this.segments))
+          && Files.isRegularFile(this.outputFileTemp)) {
+        for (int index = 0; index < this.segments; ++index) {
+          progress.set(index, Long.parseUnsignedLong(lines.get(index + 1)));
+        }
+        return progress;
+      }
+
+      LOG.debug("Discarding stale segment progress {}.", this.progressFile);
+      Files.deleteIfExists(this.progressFile);
+      Files.deleteIfExists(this.outputFileTemp);
+      return progress;
+    }
+
+    if (Files.isRegularFile(this.outputFileTemp)) {
+      final var existing = Files.size(this.outputFileTemp);
+      if (existing > length) {
+        Files.deleteIfExists(this.outputFileTemp);
+        return progress;
+      }
+      for (int index = 0; index < this.segments; ++index) {
+        final var start = index * segmentSize;
+        final var size = Math.min(length, start + segmentSize) - start;
+        progress.set(index, Math.clamp(existing - start, 0L, size));
+      }
+    }
+    return progress;
+  }
+
+  private synchronized void saveProgress(
+    final AtomicLongArray progress,
+    final long length,
+    final long segmentSize)
+    throws IOException
+  {
+    final var text = new StringBuilder(128);
+    text.append(progressHeader(length, this.segments));
+    text.append('\n');
+    for (int index = 0; index < this.segments; ++index) {
+      final var start = index * segmentSize;
+      final var size = Math.min(length, start + segmentSize) - start;
+      text.append(Math.min(progress.get(index), size));
+      text.append('\n');
+    }
+
+    final var tmp =
+      this.progressFile.resolveSibling(
+        this.progressFile.getFileName() + ".tmp"
+      );
+
+    Files.writeString(tmp, text, StandardCharsets.UTF_8);
+    Files.move(
+      tmp,
+      this.progressFile,
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE
+    );
+  }
+
+  private static String progressHeader(
+    final long length,
+    final int segments)
+  {
+    return "%d %d".formatted(length, segments);
+  }
+
+  private void verifyAndPromote()
+    throws IOException, MException
+  {
+    final var hashReceived = this.hashOf(this.outputFileTemp);
+    if (!hashReceived.equalsIgnoreCase(this.hashExpected)) {
+      Files.deleteIfExists(this.outputFileTemp);
+      Files.deleteIfExists(this.progressFile);
+
+      throw new MException(
+        "Hash mismatch.",
+        "error-hash-mismatch",
+        Map.ofEntries(
+          Map.entry("Hash (Expected)", this.hashExpected),
+          Map.entry("Hash (Received)", hashReceived),
+          Map.entry("Hash Algorithm", "SHA-256"),
+          Map.entry("URI", this.uri.toString()),
+          Map.entry("Output File", this.outputFile.toString())
+        )
+      );
+    }
+
+    Files.move(
+      this.outputFileTemp,
+      this.outputFile,
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE
+    );
+    Files.deleteIfExists(this.progressFile);
+  }
+
+  private String hashOf(
+    final Path file)
+    throws IOException
+  {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    try (var stream = Files.newInputStream(file)) {
+      final var buffer = new byte[BUFFER_SIZE];
+      while (true) {
+        final var r = stream.read(buffer);
+        if (r == -1) {
+          break;
+        }
+        digest.update(buffer, 0, r);
+      }
+    }
+    return HEX.formatHex(digest.digest());
+  }
+
+  private synchronized void startStatistics(
+    final long alreadyPresent,
+    final OptionalLong size)
+  {
+    this.transferredBase = alreadyPresent;
+    this.transferred.set(0L);
+    this.sizeExpected = size;
+    this.timeStart = System.nanoTime();
+    this.timeReported = this.timeStart;
+  }
+
+  private synchronized void reportStatistics(
+    final boolean force)
+  {
+    final var now = System.nanoTime();
+    if (!force && now - this.timeReported < 100_000_000L) {
+      return;
+    }
+    this.timeReported = now;
+
+    final var received =
+      this.transferred.get();
+    final var seconds =
+      Math.max(1.0e-9, (now - this.timeStart) / 1_000_000_000.0);
+
+    this.statistics.accept(
+      new STTransferStatistics(
+        this.sizeExpected,
+        this.transferredBase + received,
+        received / seconds
+      )
+    );
+  }
+
+  private MException errorHTTP(
+    final int status,
+    final String message)
+  {
+    return new MException(
+      message,
+      "error-http",
+      Map.ofEntries(
+        Map.entry("HTTP Status", Integer.toUnsignedString(status)),
+        Map.entry("URI", this.uri.toString()),
+        Map.entry("Output File", this.outputFile.toString())
+      )
+    );
+  }
+
+  private MException errorIO(
+    final IOException e)
+  {
+    return new MException(
+      "HTTP I/O error.",
+      e,
+      "error-http-io",
+      Map.ofEntries(
+        Map.entry("URI", this.uri.toString()),
+        Map.entry("Output File", this.outputFile.toString())
+      )
+    );
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.nativepack.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An exclusive lock that excludes both other threads in the current process
+ * and other processes.
+ *
+ * <p>File locks are held on behalf of an entire process, and an attempt to
+ * lock a file that is already locked by the same process fails rather than
+ * waiting. A file lock is therefore only taken while holding an in-process
+ * permit associated with the same file. The permit is not owned by any
+ * particular thread, so a lock may be released by a thread other than the
+ * one that acquired it. The permit for a file is discarded when no thread
+ * holds it or is waiting for it. The lock file itself is never deleted, as
+ * deleting a lock file would allow two processes to hold locks on two
+ * different files with the same name.</p>
+ */
+
+public final class MNFileLock implements AutoCloseable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNFileLock.class);
+
+  private static final ConcurrentHashMap<Path, Permit> LOCKS =
+    new ConcurrentHashMap<>();
+
+  private final Path file;
+  private final Permit permit;
+  private final FileChannel channel;
+  private final FileLock fileLock;
+  private final AtomicBoolean closed;
+
+  private MNFileLock(
+    final Path inFile,
+    final Permit inPermit,
+    final FileChannel inChannel,
+    final FileLock inFileLock)
+  {
+    this.file =
+      Objects.requireNonNull(inFile, "file");
+    this.permit =
+      Objects.requireNonNull(inPermit, "permit");
+    this.channel =
+      Objects.requireNonNull(inChannel, "channel");
+    this.fileLock =
+      Objects.requireNonNull(inFileLock, "fileLock");
+    this.closed =
+      new AtomicBoolean(false);
+  }
+
+  /**
+   * The in-process permit for a file. The number of users (threads holding
+   * or waiting for the permit) is only modified inside
+   * {@link ConcurrentHashMap#compute}, which allows the permit to be removed
+   * from the map exactly when it has no users.
+   */
+
+  private static final class Permit
+  {
+    private final Semaphore semaphore;
+    private volatile Thread holder;
+    private int users;
+
+    Permit()
+    {
+      this.semaphore = new Semaphore(1);
+    }
+  }
+
+  private static Permit permitEnter(
+    final Path file)
+  {
+    final var permit =
+      LOCKS.compute(file, (k, existing) -> {
+        final var p = existing == null ? new Permit() : existing;
+        ++p.users;
+        return p;
+      });
+
+    if (permit.holder == Thread.currentThread()) {
+      permitLeave(file, permit);
+      throw new IllegalStateException(
+        "Lock %s is already held by the current thread.".formatted(file)
+      );
+    }
+    return permit;
+  }
+
+  private static void permitLeave(
+    final Path file,
+    final Permit permit)
+  {
+    LOCKS.compute(file, (k, existing) -> {
+      --permit.users;
+      return permit.users == 0 ? null : permit;
+    });
+  }
+
+  private static void permitRelease(
+    final Path file,
+    final Permit permit)
+  {
+    permit.holder = null;
+    permit.semaphore.release();
+    permitLeave(file, permit);
+  }
+
+  private static FileChannel openChannel(
+    final Path file)
+    throws IOException
+  {
+    Files.createDirectories(file.getParent());
+    return FileChannel.open(
+      file,
+      StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE
+    );
+  }
+
+  /**
+   * Acquire the lock associated with the given file, waiting as long as
+   * necessary.
+   *
+   * @param file The lock file
+   *
+   * @return The held lock
+   *
+   * @throws IOException          On errors
+   * @throws InterruptedException On interruption
+   */
+
+  public static MNFileLock lock(
+    final Path file)
+    throws IOException, InterruptedException
+  {
+    final var path = file.toAbsolutePath().normalize();
+    final var permit = permitEnter(path);
+
+    try {
+      if (!permit.semaphore.tryAcquire()) {
+        LOG.debug("Waiting for another thread to release {}", path);
+        permit.semaphore.acquire();
+      }
+    } catch (final InterruptedException e) {
+      permitLeave(path, permit);
+      throw e;
+    }
+    permit.holder = Thread.currentThread();
+
+    try {
+      final var channel = openChannel(path);
+      try {
+        var fileLock = channel.tryLock();
+        if (fileLock == null) {
+          LOG.info("Waiting for another process to release {}", path);
+          fileLock = channel.lock();
+        }
+        return new MNFileLock(path, permit, channel, fileLock);
+      } catch (final IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    } catch (final IOException | RuntimeException e) {
+      permitRelease(path, permit);
+      throw e;
+    }
+  }
+
+  /**
+   * Acquire the lock associated with the given file if it is not held by
+   * any other thread or process.
+   *
+   * @param file The lock file
+   *
+   * @return The held lock, if the lock could be acquired immediately
+   *
+   * @throws IOException On errors
+   */
+
+  public static Optional<MNFileLock> tryLock(
+    final Path file)
+    throws IOException
+  {
+    final var path = file.toAbsolutePath().normalize();
+    final var permit = permitEnter(path);
+
+    if (!permit.semaphore.tryAcquire()) {
+      permitLeave(path, permit);
+      return Optional.empty();
+    }
+    permit.holder = Thread.currentThread();
+
+    try {
+      final var channel = openChannel(path);
+      try {
+        final var fileLock = channel.tryLock();
+        if (fileLock == null) {
+          channel.close();
+          permitRelease(path, permit);
+          return Optional.empty();
+        }
+        return Optional.of(
+          new MNFileLock(path, permit, channel, fileLock)
+        );
+      } catch (final IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    } catch (final IOException | RuntimeException e) {
+      permitRelease(path, permit);
+      throw e;
+    }
+  }
+
+  /**
+   * @return The number of files for which in-process permits currently exist
+   */
+
+  public static int permitCount()
+  {
+    return LOCKS.size();
+  }
+
+  /**
+   * @return The lock file
+   */
+
+  public Path file()
+  {
+    return this.file;
+  }
+
+  /**
+   * Release the lock. The lock may be released by any thread, and releasing
+   * a lock more than once has no effect.
+   *
+   * @throws IOException On errors
+   */
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    if (!this.closed.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      try {
+        this.fileLock.release();
+      } finally {
+        this.channel.close();
+      }
+    } finally {
+      permitRelease(this.file, this.permit);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.nativepack.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An output stream that compresses blocks in parallel, writing each
+ * compressed block as a separate gzip member. The gzip format permits
+ * multiple members, and so the output can be decoded by any standard gzip
+ * decoder.
+ */
+
+public final class MNGZIPParallelOutputStream
+  extends MNParallelBlockOutputStream
+{
+  private final int level;
+
+  /**
+   * Create a stream.
+   *
+   * @param inOutput    The underlying output stream
+   * @param inLevel     The deflate level in the range {@code [1, 9]}
+   * @param inBlockSize The size of uncompressed blocks
+   * @param inThreads   The maximum number of blocks compressed concurrently
+   */
+
+  public MNGZIPParallelOutputStream(
+    final OutputStream inOutput,
+    final int inLevel,
+    final int inBlockSize,
+    final int inThreads)
+  {
+    super(inOutput, inBlockSize, inThreads);
+
+    if (inLevel < Deflater.BEST_SPEED || inLevel > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException(
+        "Level %d must be in the range [1, 9].".formatted(
+          Integer.valueOf(inLevel))
+      );
+    }
+    this.level = inLevel;
+  }
+
+  @Override
+  protected byte[] compressBlock(
+    final byte[] data,
+    final int length)
+    throws IOException
+  {
+    final var bytes = new ByteArrayOutputStream(Math.max(64, length / 3));
+    try (var gzip = new LevelGZIPOutputStream(bytes, this.level)) {
+      gzip.write(data, 0, length);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static final class LevelGZIPOutputStream extends GZIPOutputStream
+  {
+    LevelGZIPOutputStream(
+      final OutputStream output,
+      final int level)
+      throws IOException
+    {
+      super(output, 65536);
+      this.def.setLevel(level);
+    }
+  }
+}
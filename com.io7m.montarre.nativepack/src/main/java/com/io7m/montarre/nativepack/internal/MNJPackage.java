@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeJPackageType;
+import com.io7m.montarre.api.natives.MNativeProcessOutput;
+import com.io7m.montarre.api.natives.MNativeProcessesType;
+import com.io7m.seltzer.api.SStructuredError;
+import com.io7m.seltzer.api.SStructuredErrorType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * A runner that executes {@code jpackage} as a child process, limiting the
+ * number of processes that may execute concurrently.
+ */
+
+public final class MNJPackage implements MNativeJPackageType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNJPackage.class);
+
+  private final Path executable;
+  private final Function<RDottedName, MNativeProcessOutput> outputs;
+  private final Semaphore permits;
+  private final int concurrency;
+
+  /**
+   * A runner that executes {@code jpackage} as a child process.
+   *
+   * @param inExecutable  The jpackage executable
+   * @param inOutputs     A function that yields an output capture for each
+   *                      execution by a given packager
+   * @param inConcurrency The maximum number of concurrent executions
+   */
+
+  public MNJPackage(
+    final Path inExecutable,
+    final Function<RDottedName, MNativeProcessOutput> inOutputs,
+    final int inConcurrency)
+  {
+    this.executable =
+      Objects.requireNonNull(inExecutable, "executable");
+    this.outputs =
+      Objects.requireNonNull(inOutputs, "outputs");
+
+    if (inConcurrency < 1) {
+      throw new IllegalArgumentException(
+        "Concurrency %d must be at least 1."
+          .formatted(Integer.valueOf(inConcurrency))
+      );
+    }
+
+    this.concurrency = inConcurrency;
+    this.permits = new Semaphore(inConcurrency, true);
+  }
+
+  /**
+   * @return The jpackage executable belonging to the current JDK
+   */
+
+  public static Path defaultExecutable()
+  {
+    final var name =
+      File.separatorChar == '\\' ? "jpackage.exe" : "jpackage";
+
+    return Path.of(System.getProperty("java.home"))
+      .resolve("bin")
+      .resolve(name)
+      .toAbsolutePath();
+  }
+
+  /**
+   * Determine whether the jpackage executable belonging to the current JDK
+   * is usable.
+   *
+   * @return The reason that jpackage is unusable, if any
+   */
+
+  public static Optional<SStructuredErrorType<String>> unsupportedReason()
+  {
+    final var file = defaultExecutable();
+    if (Files.isRegularFile(file) && Files.isExecutable(file)) {
+      return Optional.empty();
+    }
+
+    return Optional.of(
+      new SStructuredError<>(
+        "error-jpackage",
+        "The jpackage tool does not appear to be present in this JDK.",
+        Map.of("File", file.toString()),
+        Optional.of(
+          "Verify that you are using a JDK with the jdk.jpackage module installed and working."),
+        Optional.empty()
+      )
+    );
+  }
+
+  @Override
+  public void execute(
+    final MNativeProcessesType processes,
+    final RDottedName packager,
+    final List<String> arguments)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(processes, "processes");
+    Objects.requireNonNull(packager, "packager");
+    Objects.requireNonNull(arguments, "arguments");
+
+    final var commandLine = new ArrayList<String>(arguments.size() + 1);
+    commandLine.add(this.executable.toString());
+    commandLine.addAll(arguments);
+
+    if (!this.permits.tryAcquire()) {
+      LOG.info(
+        "Waiting for one of {} running jpackage processes to complete.",
+        Integer.valueOf(this.concurrency)
+      );
+      this.permits.acquire();
+    }
+
+    try {
+      final var output = this.outputs.apply(packager);
+      LOG.info("Executing jpackage tool.");
+
+      final var r =
+        processes.executeAndWait(System.getenv(), output, commandLine);
+
+      if (r != 0) {
+        final var attributes = new HashMap<>(output.errorAttributes());
+        attributes.put("Exit Code", Integer.toString(r));
+        attributes.put("Command", commandLine.toString());
+
+        throw new MException(
+          "The jpackage tool returned an error.",
+          "error-jpackage",
+          Map.copyOf(attributes)
+        );
+      }
+    } finally {
+      this.permits.release();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.nativepack.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Functions to select entries for eviction from size-limited caches using
+ * a least-recently-used policy.
+ */
+
+public final class MNLRU
+{
+  private MNLRU()
+  {
+
+  }
+
+  /**
+   * Select the entries that must be evicted in order for the total size of
+   * the given entries to be no greater than {@code sizeLimit}. Entries are
+   * evicted in order of least recent use. Pinned entries are never selected,
+   * and so the total size may remain above the limit if pinned entries
+   * account for too much of it.
+   *
+   * @param entries           The entries
+   * @param sizeOf            A function that returns the size of an entry
+   * @param leastRecentFirst  An ordering of entries by least recent use
+   * @param isPinned          A function that determines if an entry is pinned
+   * @param sizeLimit         The maximum total size
+   * @param <T>               The type of entries
+   *
+   * @return The entries to evict, in eviction order
+   */
+
+  public static <T> List<T> selectEvictions(
+    final Collection<T> entries,
+    final ToLongFunction<T> sizeOf,
+    final Comparator<? super T> leastRecentFirst,
+    final Predicate<T> isPinned,
+    final long sizeLimit)
+  {
+    Objects.requireNonNull(entries, "entries");
+    Objects.requireNonNull(sizeOf, "sizeOf");
+    Objects.requireNonNull(leastRecentFirst, "leastRecentFirst");
+    Objects.requireNonNull(isPinned, "isPinned");
+
+    var total = 0L;
+    for (final var entry : entries) {
+      total += sizeOf.applyAsLong(entry);
+    }
+
+    final var ordered = new ArrayList<>(entries);
+    ordered.sort(leastRecentFirst);
+
+    final var evictions = new ArrayList<T>();
+    for (final var entry : ordered) {
+      if (total <= sizeLimit) {
+        break;
+      }
+      if (isPinned.test(entry)) {
+        continue;
+      }
+      evictions.add(entry);
+      total -= sizeOf.applyAsLong(entry);
+    }
+    return List.copyOf(evictions);
+  }
+}
@@ -0,0 +1,608 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MHash;
+import com.io7m.montarre.api.MHashAlgorithm;
+import com.io7m.montarre.api.MHashValue;
+import com.io7m.montarre.api.natives.MNativeOutputCacheConfiguration;
+import com.io7m.montarre.api.natives.MNativePackagerFile;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import org.apache.commons.io.file.PathUtils;
+import org.apache.commons.io.file.StandardDeleteOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * A cache of packager outputs keyed by the SHA-256 hash of a description of
+ * everything that determines the output.
+ *
+ * <p>The cache directory contains one directory per output, named after the
+ * hash of the key, holding the read-only output files, and a properties file
+ * holding the metadata for each output. Outputs are copied into a staging
+ * directory and atomically moved into place, and so the existence of an
+ * output directory implies that the output is complete. Each output has an
+ * associated lock file that is held whilst the output is being added, used,
+ * or removed, and so the cache may be shared between processes.</p>
+ */
+
+public final class MNOutputCache
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNOutputCache.class);
+
+  private static final Pattern SHA256 =
+    Pattern.compile("[0-9a-f]{64}");
+
+  private final MNativeOutputCacheConfiguration configuration;
+  private final Path directory;
+  private final Path staging;
+
+  private MNOutputCache(
+    final MNativeOutputCacheConfiguration inConfiguration,
+    final Path inDirectory)
+  {
+    this.configuration =
+      Objects.requireNonNull(inConfiguration, "configuration");
+    this.directory =
+      Objects.requireNonNull(inDirectory, "directory");
+    this.staging =
+      this.directory.resolve("staging");
+  }
+
+  /**
+   * Open an output cache, creating it if necessary.
+   *
+   * @param configuration The configuration
+   *
+   * @return The cache
+   *
+   * @throws MException On errors
+   */
+
+  public static MNOutputCache open(
+    final MNativeOutputCacheConfiguration configuration)
+    throws MException
+  {
+    Objects.requireNonNull(configuration, "configuration");
+
+    final var directory =
+      configuration.directory()
+        .toAbsolutePath()
+        .normalize();
+
+    final var cache = new MNOutputCache(configuration, directory);
+    try {
+      Files.createDirectories(cache.staging);
+    } catch (final IOException e) {
+      throw errorIO(e, directory);
+    }
+    return cache;
+  }
+
+  /**
+   * @return The cache configuration
+   */
+
+  public MNativeOutputCacheConfiguration configuration()
+  {
+    return this.configuration;
+  }
+
+  /**
+   * Calculate a cache key from the given components. The key is the SHA-256
+   * hash of the components in their sorted order.
+   *
+   * @param components The key components
+   *
+   * @return The key
+   */
+
+  public static String key(
+    final SortedMap<String, String> components)
+  {
+    Objects.requireNonNull(components, "components");
+
+    final var text = new StringBuilder(256);
+    for (final var entry : components.entrySet()) {
+      text.append(entry.getKey());
+      text.append('=');
+      text.append(entry.getValue());
+      text.append('\n');
+    }
+
+    try {
+      final var digest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(
+        digest.digest(text.toString().getBytes(StandardCharsets.UTF_8))
+      );
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Find the output with the given key. If the output exists, it is linked
+   * (or copied, if linking is not possible) into the given directory.
+   *
+   * @param key             The key
+   * @param outputDirectory The directory that will contain the output
+   *
+   * @return The output, if present in the cache
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   */
+
+  public Optional<MNativePackagerResult> find(
+    final String key,
+    final Path outputDirectory)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(key, "key");
+    Objects.requireNonNull(outputDirectory, "outputDirectory");
+
+    final var entry = this.directory.resolve(checkKey(key));
+    try (var ignored = MNFileLock.lock(this.lockFile(key))) {
+      if (!Files.isDirectory(entry)) {
+        return Optional.empty();
+      }
+
+      final Properties properties;
+      try {
+        properties = readProperties(this.metadataFile(key));
+      } catch (final IOException e) {
+        LOG.warn("Output {} has unreadable metadata; ignoring it.", key);
+        return Optional.empty();
+      }
+
+      final var fileName =
+        properties.getProperty("file");
+      final var source =
+        entry.resolve(fileName);
+      final var target =
+        outputDirectory.resolve(fileName);
+
+      Files.createDirectories(outputDirectory);
+      linkOrCopy(source, target);
+
+      final var additionalFiles =
+        new ArrayList<MNativePackagerFile>();
+      final var additionalCount =
+        Integer.parseUnsignedInt(
+          properties.getProperty("additionalFiles", "0"));
+
+      for (int index = 0; index < additionalCount; ++index) {
+        final var prefix =
+          "additionalFile.%d.".formatted(Integer.valueOf(index));
+        final var additionalName =
+          properties.getProperty(prefix + "file");
+        final var additionalTarget =
+          outputDirectory.resolve(additionalName);
+
+        linkOrCopy(entry.resolve(additionalName), additionalTarget);
+        additionalFiles.add(
+          MNativePackagerFile.builder()
+            .setFile(additionalTarget)
+            .setSize(
+              Long.parseUnsignedLong(properties.getProperty(prefix + "size")))
+            .setHash(readHash(properties, prefix))
+            .build()
+        );
+      }
+
+      properties.setProperty(
+        "timeLastUsed",
+        OffsetDateTime.now(ZoneOffset.UTC).toString()
+      );
+      this.writeProperties(key, properties);
+
+      return Optional.of(
+        MNativePackagerResult.builder()
+          .setFile(target)
+          .setSize(Long.parseUnsignedLong(properties.getProperty("size")))
+          .setHash(readHash(properties, ""))
+          .setAdditionalFiles(additionalFiles)
+          .build()
+      );
+    } catch (final IOException e) {
+      throw errorIO(e, entry);
+    }
+  }
+
+  /**
+   * Add the given output to the cache, if an output with the given key is
+   * not already present. The output file is copied into the cache.
+   *
+   * @param key    The key
+   * @param result The output
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   */
+
+  public void put(
+    final String key,
+    final MNativePackagerResult result)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(key, "key");
+    Objects.requireNonNull(result, "result");
+
+    final var entry = this.directory.resolve(checkKey(key));
+    try (var ignored = MNFileLock.lock(this.lockFile(key))) {
+      if (Files.isDirectory(entry)) {
+        return;
+      }
+
+      final var stage =
+        this.staging.resolve(UUID.randomUUID().toString());
+      final var fileName =
+        result.file().getFileName().toString();
+
+      try {
+        Files.createDirectories(stage);
+        final var file = stage.resolve(fileName);
+        Files.copy(result.file(), file);
+        makeReadOnly(file);
+
+        final var properties = new Properties();
+        properties.setProperty("file", fileName);
+        properties.setProperty("size", Long.toUnsignedString(result.size()));
+        properties.setProperty("hashAlgorithm", result.hash().algorithm().name());
+        properties.setProperty("hashValue", result.hash().value().value());
+
+        /*
+         * Additional files are stored alongside the output file. The total
+         * size of all files is recorded separately so that the size used
+         * for eviction covers everything that the output occupies.
+         */
+
+        var totalSize = result.size();
+        final var additionalFiles = result.additionalFiles();
+        for (int index = 0; index < additionalFiles.size(); ++index) {
+          final var additional =
+            additionalFiles.get(index);
+          final var additionalName =
+            additional.file().getFileName().toString();
+          final var additionalFile =
+            stage.resolve(additionalName);
+          final var prefix =
+            "additionalFile.%d.".formatted(Integer.valueOf(index));
+
+          Files.copy(additional.file(), additionalFile);
+          makeReadOnly(additionalFile);
+
+          properties.setProperty(prefix + "file", additionalName);
+          properties.setProperty(
+            prefix + "size",
+            Long.toUnsignedString(additional.size())
+          );
+          properties.setProperty(
+            prefix + "hashAlgorithm",
+            additional.hash().algorithm().name()
+          );
+          properties.setProperty(
+            prefix + "hashValue",
+            additional.hash().value().value()
+          );
+          totalSize += additional.size();
+        }
+        properties.setProperty(
+          "additionalFiles",
+          Integer.toUnsignedString(additionalFiles.size())
+        );
+        properties.setProperty("totalSize", Long.toUnsignedString(totalSize));
+        properties.setProperty(
+          "timeLastUsed",
+          OffsetDateTime.now(ZoneOffset.UTC).toString()
+        );
+        this.writeProperties(key, properties);
+
+        Files.move(stage, entry, StandardCopyOption.ATOMIC_MOVE);
+      } catch (final IOException e) {
+        deleteQuietly(stage);
+        throw e;
+      }
+
+      LOG.info(
+        "Cached output {} ({} octets) as {}.",
+        fileName,
+        Long.valueOf(result.size()),
+        key
+      );
+    } catch (final IOException e) {
+      throw errorIO(e, entry);
+    }
+
+    if (this.configuration.sizeLimit() != Long.MAX_VALUE) {
+      this.prune(this.configuration.sizeLimit());
+    }
+  }
+
+  /**
+   * Remove the least recently used outputs until the cache is no larger
+   * than the given size. Outputs that are locked by other threads or
+   * processes are not removed.
+   *
+   * @param sizeLimit The size limit
+   *
+   * @return The keys of the removed outputs
+   *
+   * @throws MException On errors
+   */
+
+  public List<String> prune(
+    final long sizeLimit)
+    throws MException
+  {
+    final var evictions =
+      MNLRU.selectEvictions(
+        this.list(),
+        Entry::size,
+        Comparator.comparing(Entry::timeLastUsed),
+        e -> false,
+        sizeLimit
+      );
+
+    final var removed = new ArrayList<String>();
+    for (final var entry : evictions) {
+      try {
+        if (this.tryRemove(entry)) {
+          removed.add(entry.key());
+        }
+      } catch (final IOException e) {
+        throw errorIO(e, this.directory.resolve(entry.key()));
+      }
+    }
+    return List.copyOf(removed);
+  }
+
+  private List<Entry> list()
+    throws MException
+  {
+    final var results = new ArrayList<Entry>();
+
+    try (var stream = Files.list(this.directory)) {
+      final var candidates =
+        stream.filter(Files::isDirectory)
+          .filter(p -> SHA256.matcher(p.getFileName().toString()).matches())
+          .toList();
+
+      for (final var output : candidates) {
+        final var key = output.getFileName().toString();
+        try {
+          final var properties = readProperties(this.metadataFile(key));
+          results.add(
+            new Entry(
+              key,
+              Long.parseUnsignedLong(
+                properties.getProperty(
+                  "totalSize",
+                  properties.getProperty("size"))),
+              OffsetDateTime.parse(properties.getProperty("timeLastUsed"))
+            )
+          );
+        } catch (final IOException | RuntimeException e) {
+          LOG.warn("Output {} has unreadable metadata; ignoring it.", key);
+        }
+      }
+    } catch (final IOException e) {
+      throw errorIO(e, this.directory);
+    }
+    return List.copyOf(results);
+  }
+
+  private static MHash readHash(
+    final Properties properties,
+    final String prefix)
+  {
+    return new MHash(
+      new MHashAlgorithm(properties.getProperty(prefix + "hashAlgorithm")),
+      new MHashValue(properties.getProperty(prefix + "hashValue"))
+    );
+  }
+
+  private boolean tryRemove(
+    final Entry entry)
+    throws IOException
+  {
+    final var key = entry.key();
+    final var lockOpt = MNFileLock.tryLock(this.lockFile(key));
+    if (lockOpt.isEmpty()) {
+      LOG.debug("Output {} is locked; not removing it.", key);
+      return false;
+    }
+
+    try (var ignored = lockOpt.get()) {
+      final var output = this.directory.resolve(key);
+      if (!Files.isDirectory(output)) {
+        return false;
+      }
+
+      LOG.info(
+        "Removing cached output {} ({} octets, last used {}).",
+        key,
+        Long.valueOf(entry.size()),
+        entry.timeLastUsed()
+      );
+
+      /*
+       * Move the output out of the way first so that it cannot be
+       * observed in a partially deleted state.
+       */
+
+      final var target =
+        this.staging.resolve(UUID.randomUUID().toString());
+
+      Files.move(output, target, StandardCopyOption.ATOMIC_MOVE);
+      Files.deleteIfExists(this.metadataFile(key));
+      deleteQuietly(target);
+      return true;
+    }
+  }
+
+  private static void linkOrCopy(
+    final Path source,
+    final Path target)
+    throws IOException
+  {
+    Files.deleteIfExists(target);
+
+    try {
+      Files.createLink(target, source);
+      return;
+    } catch (final IOException | UnsupportedOperationException e) {
+      LOG.debug("Unable to link {}: {}", source, e.getMessage());
+    }
+
+    Files.copy(source, target);
+  }
+
+  private static void makeReadOnly(
+    final Path file)
+    throws IOException
+  {
+    try {
+      final var permissions =
+        new HashSet<>(Files.getPosixFilePermissions(file));
+      permissions.remove(PosixFilePermission.OWNER_WRITE);
+      permissions.remove(PosixFilePermission.GROUP_WRITE);
+      permissions.remove(PosixFilePermission.OTHERS_WRITE);
+      Files.setPosixFilePermissions(file, permissions);
+    } catch (final UnsupportedOperationException e) {
+      /*
+       * Nothing we can do about this. Non-POSIX filesystem.
+       */
+    }
+  }
+
+  private Path lockFile(
+    final String key)
+  {
+    return this.directory.resolve(key + ".lock");
+  }
+
+  private Path metadataFile(
+    final String key)
+  {
+    return this.directory.resolve(key + ".properties");
+  }
+
+  private void writeProperties(
+    final String key,
+    final Properties properties)
+    throws IOException
+  {
+    final var writer = new StringWriter();
+    properties.store(writer, "");
+
+    final var file =
+      this.metadataFile(key);
+    final var fileTemp =
+      this.staging.resolve(key + "-" + UUID.randomUUID() + ".properties");
+
+    Files.writeString(fileTemp, writer.toString(), StandardCharsets.UTF_8);
+    Files.move(
+      fileTemp,
+      file,
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE
+    );
+  }
+
+  private static Properties readProperties(
+    final Path file)
+    throws IOException
+  {
+    final var properties = new Properties();
+    properties.load(
+      new StringReader(Files.readString(file, StandardCharsets.UTF_8))
+    );
+    return properties;
+  }
+
+  private static void deleteQuietly(
+    final Path path)
+  {
+    try {
+      if (Files.exists(path)) {
+        PathUtils.deleteDirectory(path, StandardDeleteOption.OVERRIDE_READ_ONLY);
+      }
+    } catch (final IOException e) {
+      LOG.warn("Failed to delete {}: ", path, e);
+    }
+  }
+
+  private static String checkKey(
+    final String key)
+  {
+    if (!SHA256.matcher(key).matches()) {
+      throw new IllegalArgumentException(
+        "Key %s is not a SHA-256 hash.".formatted(key)
+      );
+    }
+    return key;
+  }
+
+  private static MException errorIO(
+    final IOException e,
+    final Path path)
+  {
+    return new MException(
+      "I/O error.",
+      e,
+      "error-io",
+      Map.ofEntries(Map.entry("Path", path.toString()))
+    );
+  }
+
+  private record Entry(
+    String key,
+    long size,
+    OffsetDateTime timeLastUsed)
+  {
+
+  }
+}
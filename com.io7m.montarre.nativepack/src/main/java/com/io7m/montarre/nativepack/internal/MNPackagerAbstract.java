@@ -33,12 +33,8 @@ import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
 
 /**
  * An abstract packager.
@@ -53,7 +49,6 @@ public abstract class MNPackagerAbstract
     StandardOpenOption.TRUNCATE_EXISTING,
   };
 
-  private final ConcurrentHashMap<String, Object> attributes;
   private final MNativePackagerServiceProviderType provider;
 
   protected MNPackagerAbstract(
@@ -61,8 +56,6 @@ public abstract class MNPackagerAbstract
   {
     this.provider =
       Objects.requireNonNull(inProvider, "provider");
-    this.attributes =
-      new ConcurrentHashMap<>();
   }
 
   private static int compareIconResources(
@@ -92,44 +85,11 @@ public abstract class MNPackagerAbstract
     return this.provider.name();
   }
 
-  protected final Map<String, String> takeAttributes()
-  {
-    return this.attributes.entrySet()
-      .stream()
-      .map(e -> Map.entry(e.getKey(), e.getValue().toString()))
-      .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-  }
-
-  protected final void setAttribute(
-    final String name,
-    final Object value)
-  {
-    this.attributes.put(
-      Objects.requireNonNull(name, "name"),
-      Objects.requireNonNull(value, "value")
-    );
-  }
-
-  protected final MException error(
-    final Throwable e)
+  protected final MNPackagerExecution createExecution(
+    final MNativeWorkspaceType workspace,
+    final MPackageReaderType packageV)
   {
-    return switch (e) {
-      case ExecutionException ee -> {
-        yield this.error(ee.getCause());
-      }
-      case MException ee -> {
-        yield ee;
-      }
-      default -> {
-        yield new MException(
-          Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()),
-          e,
-          "error-exception",
-          this.takeAttributes(),
-          Optional.empty()
-        );
-      }
-    };
+    return new MNPackagerExecution(this.name(), workspace, packageV);
   }
 
   protected final Optional<MResource> findLicense(
@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativeWorkspaceType;
+
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * The state of a single execution of a packager. Packagers are shared
+ * between concurrent executions, and so all state that is specific to
+ * an execution is held here rather than in the packager.
+ */
+
+public final class MNPackagerExecution
+{
+  private final RDottedName packager;
+  private final MNativeWorkspaceType workspace;
+  private final MPackageReaderType packageReader;
+  private final ConcurrentHashMap<String, Object> attributes;
+
+  /**
+   * The state of a single execution of a packager.
+   *
+   * @param inPackager      The packager
+   * @param inWorkspace     The workspace
+   * @param inPackageReader The package
+   */
+
+  public MNPackagerExecution(
+    final RDottedName inPackager,
+    final MNativeWorkspaceType inWorkspace,
+    final MPackageReaderType inPackageReader)
+  {
+    this.packager =
+      Objects.requireNonNull(inPackager, "packager");
+    this.workspace =
+      Objects.requireNonNull(inWorkspace, "workspace");
+    this.packageReader =
+      Objects.requireNonNull(inPackageReader, "packageReader");
+    this.attributes =
+      new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @return The packager
+   */
+
+  public RDottedName packager()
+  {
+    return this.packager;
+  }
+
+  /**
+   * @return The workspace
+   */
+
+  public MNativeWorkspaceType workspace()
+  {
+    return this.workspace;
+  }
+
+  /**
+   * @return The package
+   */
+
+  public MPackageReaderType packageReader()
+  {
+    return this.packageReader;
+  }
+
+  /**
+   * Set an attribute that will be included in any error produced by
+   * the execution.
+   *
+   * @param name  The attribute name
+   * @param value The attribute value
+   */
+
+  public void setAttribute(
+    final String name,
+    final Object value)
+  {
+    this.attributes.put(
+      Objects.requireNonNull(name, "name"),
+      Objects.requireNonNull(value, "value")
+    );
+  }
+
+  /**
+   * @return The current attributes
+   */
+
+  public Map<String, String> attributes()
+  {
+    return this.attributes.entrySet()
+      .stream()
+      .map(e -> Map.entry(e.getKey(), e.getValue().toString()))
+      .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+  }
+
+  /**
+   * Transform the given exception into an error that includes the current
+   * attributes.
+   *
+   * @param e The exception
+   *
+   * @return An error
+   */
+
+  public MException error(
+    final Throwable e)
+  {
+    return switch (e) {
+      case ExecutionException ee -> {
+        yield this.error(ee.getCause());
+      }
+      case MException ee -> {
+        yield ee;
+      }
+      case InterruptedException ee -> {
+        yield this.errorCancelled(ee);
+      }
+      case InterruptedIOException ee -> {
+        yield this.errorCancelled(ee);
+      }
+      case ClosedByInterruptException ee -> {
+        yield this.errorCancelled(ee);
+      }
+      default -> {
+        yield new MException(
+          Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()),
+          e,
+          "error-exception",
+          this.attributes(),
+          Optional.empty()
+        );
+      }
+    };
+  }
+
+  private MException errorCancelled(
+    final Throwable e)
+  {
+    Thread.currentThread().interrupt();
+    return new MException(
+      "The packager was cancelled.",
+      e,
+      "error-cancelled",
+      this.attributes(),
+      Optional.empty()
+    );
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.nativepack.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An output stream that splits its input into fixed-size blocks, compresses
+ * the blocks in parallel, and writes the compressed blocks to the underlying
+ * stream in order. Subclasses compress each block into a self-contained unit
+ * (such as a complete XZ stream or gzip member), and may rewrite each unit
+ * as it is written so that the output forms a single container (such as one
+ * multi-block XZ stream).
+ *
+ * <p>Each block is compressed independently, and so the output depends only
+ * on the input, the compression options, and the block size; it does not
+ * depend on the number of threads or on the order in which blocks finish
+ * compressing. Calling {@link #flush()} does not end the current block, as
+ * doing so would make the output depend on the pattern of writes.</p>
+ */
+
+public abstract class MNParallelBlockOutputStream extends OutputStream
+{
+  private final OutputStream output;
+  private final ExecutorService executor;
+  private final ArrayDeque<Future<byte[]>> pending;
+  private final int window;
+  private byte[] block;
+  private int blockUsed;
+  private boolean written;
+  private boolean closed;
+
+  /**
+   * Create a stream.
+   *
+   * @param inOutput    The underlying output stream
+   * @param inBlockSize The size of uncompressed blocks
+   * @param inThreads   The maximum number of blocks compressed concurrently
+   */
+
+  protected MNParallelBlockOutputStream(
+    final OutputStream inOutput,
+    final int inBlockSize,
+    final int inThreads)
+  {
+    this.output =
+      Objects.requireNonNull(inOutput, "output");
+
+    if (inBlockSize < 1) {
+      throw new IllegalArgumentException(
+        "Block size %d must be positive.".formatted(Integer.valueOf(inBlockSize))
+      );
+    }
+
+    this.window =
+      Math.max(1, inThreads);
+    this.executor =
+      Executors.newVirtualThreadPerTaskExecutor();
+    this.pending =
+      new ArrayDeque<>(this.window);
+    this.block =
+      new byte[inBlockSize];
+    this.blockUsed =
+      0;
+  }
+
+  /**
+   * Compress a block. This method is called concurrently from multiple
+   * threads, and must produce output that depends only on its arguments.
+   *
+   * @param data   The block data
+   * @param length The number of bytes of data in the block
+   *
+   * @return The compressed block
+   *
+   * @throws IOException On errors
+   */
+
+  protected abstract byte[] compressBlock(
+    byte[] data,
+    int length)
+    throws IOException;
+
+  /**
+   * Write a compressed block to the underlying stream. Blocks are written
+   * in order, from a single thread. By default, the block is written
+   * unchanged.
+   *
+   * @param out        The underlying stream
+   * @param compressed The compressed block
+   *
+   * @throws IOException On errors
+   */
+
+  protected void writeBlock(
+    final OutputStream out,
+    final byte[] compressed)
+    throws IOException
+  {
+    out.write(compressed);
+  }
+
+  /**
+   * Write any data that must follow the last block. By default, nothing
+   * is written.
+   *
+   * @param out The underlying stream
+   *
+   * @throws IOException On errors
+   */
+
+  protected void writeTrailer(
+    final OutputStream out)
+    throws IOException
+  {
+
+  }
+
+  private void submitBlock()
+    throws IOException
+  {
+    while (this.pending.size() >= this.window) {
+      this.writeNext();
+    }
+
+    final var data = this.block;
+    final var length = this.blockUsed;
+    this.pending.add(this.executor.submit(() -> this.compressBlock(data, length)));
+    this.written = true;
+
+    this.block = new byte[data.length];
+    this.blockUsed = 0;
+  }
+
+  private void writeNext()
+    throws IOException
+  {
+    final var next = this.pending.poll();
+    try {
+      this.writeBlock(this.output, next.get());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof final IOException io) {
+        throw io;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  @Override
+  public final void write(
+    final int b)
+    throws IOException
+  {
+    this.checkNotClosed();
+
+    this.block[this.blockUsed++] = (byte) b;
+    if (this.blockUsed == this.block.length) {
+      this.submitBlock();
+    }
+  }
+
+  @Override
+  public final void write(
+    final byte[] buffer,
+    final int offset,
+    final int length)
+    throws IOException
+  {
+    Objects.checkFromIndexSize(offset, length, buffer.length);
+    this.checkNotClosed();
+
+    var inputOffset = offset;
+    var remaining = length;
+    while (remaining > 0) {
+      final var count =
+        Math.min(remaining, this.block.length - this.blockUsed);
+      System.arraycopy(buffer, inputOffset, this.block, this.blockUsed, count);
+      this.blockUsed += count;
+      inputOffset += count;
+      remaining -= count;
+
+      if (this.blockUsed == this.block.length) {
+        this.submitBlock();
+      }
+    }
+  }
+
+  /**
+   * Write any blocks that have finished compressing to the underlying
+   * stream. Data in the current incomplete block is not written.
+   *
+   * @throws IOException On errors
+   */
+
+  @Override
+  public final void flush()
+    throws IOException
+  {
+    this.checkNotClosed();
+
+    while (!this.pending.isEmpty() && this.pending.peek().isDone()) {
+      this.writeNext();
+    }
+    this.output.flush();
+  }
+
+  private void checkNotClosed()
+    throws IOException
+  {
+    if (this.closed) {
+      throw new IOException("Stream is closed.");
+    }
+  }
+
+  /**
+   * Compress the current block, write all remaining blocks and the
+   * trailer, and close the underlying stream. If no data was written, a single empty block is
+   * compressed so that the output is still a valid file.
+   *
+   * @throws IOException On errors
+   */
+
+  @Override
+  public final void close()
+    throws IOException
+  {
+    if (this.closed) {
+      return;
+    }
+
+    try {
+      if (this.blockUsed > 0 || !this.written) {
+        this.submitBlock();
+      }
+      while (!this.pending.isEmpty()) {
+        this.writeNext();
+      }
+      this.writeTrailer(this.output);
+    } finally {
+      this.closed = true;
+      for (final var future : this.pending) {
+        future.cancel(true);
+      }
+      this.pending.clear();
+      this.executor.shutdownNow();
+      this.output.close();
+    }
+  }
+}
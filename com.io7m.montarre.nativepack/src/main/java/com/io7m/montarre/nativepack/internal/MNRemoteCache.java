@@ -0,0 +1,538 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MHash;
+import com.io7m.montarre.api.MHashAlgorithm;
+import com.io7m.montarre.api.MHashValue;
+import com.io7m.montarre.api.natives.MNativePackagerFile;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import com.io7m.montarre.api.natives.MNativeRemoteCacheConfiguration;
+import com.io7m.streamtime.core.STTransferStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * A client for a remote cache.
+ *
+ * <p>The remote cache is strictly an optimization: failing to reach the
+ * cache, or receiving content from the cache that does not match the
+ * expected hash, is logged and treated as if the content was not present in
+ * the cache.</p>
+ *
+ * @see MNCacheServer
+ */
+
+public final class MNRemoteCache
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNRemoteCache.class);
+
+  private static final Pattern SHA256 =
+    Pattern.compile("[0-9a-f]{64}");
+  private static final String SHA256_NAME =
+    "SHA-256";
+
+  private final HttpClient httpClient;
+  private final MNativeRemoteCacheConfiguration configuration;
+  private final URI base;
+
+  /**
+   * A client for a remote cache.
+   *
+   * @param inHttpClient    The HTTP client
+   * @param inConfiguration The remote cache configuration
+   */
+
+  public MNRemoteCache(
+    final HttpClient inHttpClient,
+    final MNativeRemoteCacheConfiguration inConfiguration)
+  {
+    this.httpClient =
+      Objects.requireNonNull(inHttpClient, "httpClient");
+    this.configuration =
+      Objects.requireNonNull(inConfiguration, "configuration");
+
+    final var uri = this.configuration.uri();
+    if (uri.getPath() == null || uri.getPath().endsWith("/")) {
+      this.base = uri;
+    } else {
+      this.base = URI.create(uri + "/");
+    }
+  }
+
+  /**
+   * @return The remote cache configuration
+   */
+
+  public MNativeRemoteCacheConfiguration configuration()
+  {
+    return this.configuration;
+  }
+
+  private URI blobURI(
+    final String hash)
+  {
+    return this.base.resolve("blobs/sha256/" + checkHash(hash));
+  }
+
+  private URI outputURI(
+    final String key)
+  {
+    return this.base.resolve("outputs/" + checkHash(key));
+  }
+
+  /**
+   * Fetch the blob with the given SHA-256 hash. The content of the blob is
+   * verified against the hash.
+   *
+   * @param hash       The hash
+   * @param output     The output file
+   * @param outputTemp The temporary output file
+   * @param segments   The number of concurrent download segments
+   * @param statistics A receiver of download statistics
+   *
+   * @return {@code true} if the blob was fetched
+   *
+   * @throws InterruptedException On interruption
+   */
+
+  public boolean fetchBlob(
+    final String hash,
+    final Path output,
+    final Path outputTemp,
+    final int segments,
+    final Consumer<STTransferStatistics> statistics)
+    throws InterruptedException
+  {
+    Objects.requireNonNull(output, "output");
+    Objects.requireNonNull(outputTemp, "outputTemp");
+    Objects.requireNonNull(statistics, "statistics");
+
+    final var uri = this.blobURI(hash);
+    try {
+      if (!this.exists(uri)) {
+        LOG.debug("Blob {} is not present in the remote cache.", hash);
+        return false;
+      }
+
+      LOG.info("Fetching {} from the remote cache.", hash);
+      new MNDownloader(
+        this.httpClient,
+        uri,
+        output,
+        outputTemp,
+        hash,
+        segments,
+        statistics
+      ).execute();
+      return true;
+    } catch (final MException e) {
+      LOG.warn(
+        "Failed to fetch {} from the remote cache: {}",
+        hash,
+        e.getMessage()
+      );
+      return false;
+    } catch (final IOException e) {
+      LOG.warn("Failed to contact the remote cache: {}", e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Upload the given file as a blob, if pushing is enabled and the remote
+   * cache does not already contain the blob.
+   *
+   * @param hash The SHA-256 hash of the file
+   * @param file The file
+   *
+   * @return {@code true} if the remote cache now contains the blob
+   *
+   * @throws InterruptedException On interruption
+   */
+
+  public boolean pushBlob(
+    final String hash,
+    final Path file)
+    throws InterruptedException
+  {
+    Objects.requireNonNull(file, "file");
+
+    final var uri = this.blobURI(hash);
+    if (!this.configuration.push()) {
+      return false;
+    }
+
+    try {
+      if (this.exists(uri)) {
+        return true;
+      }
+
+      LOG.info("Uploading {} to the remote cache.", hash);
+      final var response =
+        this.httpClient.send(
+          HttpRequest.newBuilder(uri)
+            .PUT(HttpRequest.BodyPublishers.ofFile(file))
+            .build(),
+          HttpResponse.BodyHandlers.discarding()
+        );
+
+      if (!isSuccess(response.statusCode())) {
+        LOG.warn(
+          "The remote cache refused blob {} (HTTP status {}).",
+          hash,
+          Integer.valueOf(response.statusCode())
+        );
+        return false;
+      }
+      return true;
+    } catch (final IOException e) {
+      LOG.warn(
+        "Failed to upload {} to the remote cache: {}",
+        hash,
+        e.getMessage()
+      );
+      return false;
+    }
+  }
+
+  /**
+   * Fetch the output with the given key into the given directory.
+   *
+   * @param key             The output cache key
+   * @param outputDirectory The directory that will contain the output
+   *
+   * @return The output, if present in the remote cache
+   *
+   * @throws InterruptedException On interruption
+   */
+
+  public Optional<MNativePackagerResult> fetchOutput(
+    final String key,
+    final Path outputDirectory)
+    throws InterruptedException
+  {
+    Objects.requireNonNull(outputDirectory, "outputDirectory");
+
+    final var uri = this.outputURI(key);
+    final Properties properties;
+    try {
+      final var response =
+        this.httpClient.send(
+          HttpRequest.newBuilder(uri).GET().build(),
+          HttpResponse.BodyHandlers.ofString()
+        );
+
+      if (response.statusCode() == 404) {
+        LOG.debug("Output {} is not present in the remote cache.", key);
+        return Optional.empty();
+      }
+      if (!isSuccess(response.statusCode())) {
+        LOG.warn(
+          "Failed to fetch output {} from the remote cache (HTTP status {}).",
+          key,
+          Integer.valueOf(response.statusCode())
+        );
+        return Optional.empty();
+      }
+
+      properties = new Properties();
+      properties.load(new StringReader(response.body()));
+    } catch (final IOException | IllegalArgumentException e) {
+      LOG.warn(
+        "Failed to fetch output {} from the remote cache: {}",
+        key,
+        e.getMessage()
+      );
+      return Optional.empty();
+    }
+
+    try {
+      Files.createDirectories(outputDirectory);
+    } catch (final IOException e) {
+      LOG.warn("Failed to create {}: {}", outputDirectory, e.getMessage());
+      return Optional.empty();
+    }
+
+    final var mainOpt =
+      this.fetchFile(key, properties, "", outputDirectory);
+    if (mainOpt.isEmpty()) {
+      return Optional.empty();
+    }
+
+    final int additionalCount;
+    try {
+      additionalCount =
+        Integer.parseUnsignedInt(
+          properties.getProperty("additionalFiles", "0"));
+    } catch (final NumberFormatException e) {
+      LOG.warn("The remote cache returned an invalid output {}.", key);
+      return Optional.empty();
+    }
+
+    final var additionalFiles = new ArrayList<MNativePackagerFile>();
+    for (int index = 0; index < additionalCount; ++index) {
+      final var additionalOpt =
+        this.fetchFile(
+          key,
+          properties,
+          "additionalFile.%d.".formatted(Integer.valueOf(index)),
+          outputDirectory
+        );
+      if (additionalOpt.isEmpty()) {
+        return Optional.empty();
+      }
+      additionalFiles.add(additionalOpt.get());
+    }
+
+    final var main = mainOpt.get();
+    return Optional.of(
+      MNativePackagerResult.builder()
+        .setFile(main.file())
+        .setSize(main.size())
+        .setHash(main.hash())
+        .setAdditionalFiles(additionalFiles)
+        .build()
+    );
+  }
+
+  private Optional<MNativePackagerFile> fetchFile(
+    final String key,
+    final Properties properties,
+    final String prefix,
+    final Path outputDirectory)
+    throws InterruptedException
+  {
+    final var fileName =
+      properties.getProperty(prefix + "file", "");
+    final var hashAlgorithm =
+      properties.getProperty(prefix + "hashAlgorithm", "");
+    final var hashValue =
+      properties.getProperty(prefix + "hashValue", "");
+
+    if (!isPlainFileName(fileName)
+        || !SHA256_NAME.equals(hashAlgorithm)
+        || !SHA256.matcher(hashValue).matches()) {
+      LOG.warn("The remote cache returned an invalid output {}.", key);
+      return Optional.empty();
+    }
+
+    final var file =
+      outputDirectory.resolve(fileName);
+    final var fileTemp =
+      outputDirectory.resolve(fileName + ".tmp");
+
+    if (!this.fetchBlob(hashValue, file, fileTemp, 1, s -> { })) {
+      return Optional.empty();
+    }
+
+    /*
+     * The content of the file has been verified against the hash, and so
+     * the size is taken from the file rather than from the reference.
+     */
+
+    final long size;
+    try {
+      size = Files.size(file);
+    } catch (final IOException e) {
+      LOG.warn("Failed to read {}: {}", file, e.getMessage());
+      return Optional.empty();
+    }
+
+    return Optional.of(
+      MNativePackagerFile.builder()
+        .setFile(file)
+        .setSize(size)
+        .setHash(
+          new MHash(
+            new MHashAlgorithm(hashAlgorithm),
+            new MHashValue(hashValue)
+          ))
+        .build()
+    );
+  }
+
+  /**
+   * Upload the given output, if pushing is enabled. The output file and any
+   * additional files are uploaded as blobs, and then a reference from the
+   * key to the blobs is uploaded.
+   *
+   * @param key    The output cache key
+   * @param result The output
+   *
+   * @throws InterruptedException On interruption
+   */
+
+  public void pushOutput(
+    final String key,
+    final MNativePackagerResult result)
+    throws InterruptedException
+  {
+    Objects.requireNonNull(result, "result");
+
+    final var uri = this.outputURI(key);
+    if (!this.configuration.push()) {
+      return;
+    }
+
+    final var hash = result.hash();
+    if (!SHA256_NAME.equals(hash.algorithm().name())) {
+      LOG.debug("Output {} is not hashed with SHA-256; not uploading.", key);
+      return;
+    }
+    if (!this.pushBlob(hash.value().value(), result.file())) {
+      return;
+    }
+
+    final var additionalFiles = result.additionalFiles();
+    for (final var additional : additionalFiles) {
+      final var additionalHash = additional.hash();
+      if (!SHA256_NAME.equals(additionalHash.algorithm().name())) {
+        LOG.debug("Output {} is not hashed with SHA-256; not uploading.", key);
+        return;
+      }
+      if (!this.pushBlob(additionalHash.value().value(), additional.file())) {
+        return;
+      }
+    }
+
+    final var properties = new Properties();
+    properties.setProperty(
+      "file", result.file().getFileName().toString());
+    properties.setProperty(
+      "size", Long.toUnsignedString(result.size()));
+    properties.setProperty(
+      "hashAlgorithm", hash.algorithm().name());
+    properties.setProperty(
+      "hashValue", hash.value().value());
+    properties.setProperty(
+      "additionalFiles", Integer.toUnsignedString(additionalFiles.size()));
+
+    for (int index = 0; index < additionalFiles.size(); ++index) {
+      final var additional =
+        additionalFiles.get(index);
+      final var prefix =
+        "additionalFile.%d.".formatted(Integer.valueOf(index));
+
+      properties.setProperty(
+        prefix + "file", additional.file().getFileName().toString());
+      properties.setProperty(
+        prefix + "size", Long.toUnsignedString(additional.size()));
+      properties.setProperty(
+        prefix + "hashAlgorithm", additional.hash().algorithm().name());
+      properties.setProperty(
+        prefix + "hashValue", additional.hash().value().value());
+    }
+
+    try {
+      final var writer = new StringWriter();
+      properties.store(writer, "");
+
+      final var response =
+        this.httpClient.send(
+          HttpRequest.newBuilder(uri)
+            .PUT(HttpRequest.BodyPublishers.ofString(writer.toString()))
+            .build(),
+          HttpResponse.BodyHandlers.discarding()
+        );
+
+      if (!isSuccess(response.statusCode())) {
+        LOG.warn(
+          "The remote cache refused output {} (HTTP status {}).",
+          key,
+          Integer.valueOf(response.statusCode())
+        );
+        return;
+      }
+      LOG.info("Uploaded output {} to the remote cache.", key);
+    } catch (final IOException e) {
+      LOG.warn(
+        "Failed to upload output {} to the remote cache: {}",
+        key,
+        e.getMessage()
+      );
+    }
+  }
+
+  private boolean exists(
+    final URI uri)
+    throws IOException, InterruptedException
+  {
+    final var response =
+      this.httpClient.send(
+        HttpRequest.newBuilder(uri)
+          .method("HEAD", HttpRequest.BodyPublishers.noBody())
+          .build(),
+        HttpResponse.BodyHandlers.discarding()
+      );
+
+    final var status = response.statusCode();
+    if (status == 404) {
+      return false;
+    }
+    if (isSuccess(status)) {
+      return true;
+    }
+    throw new IOException("HTTP status %d for %s".formatted(status, uri));
+  }
+
+  private static boolean isSuccess(
+    final int status)
+  {
+    return status >= 200 && status < 300;
+  }
+
+  private static boolean isPlainFileName(
+    final String name)
+  {
+    if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+      return false;
+    }
+    return !name.contains("/") && !name.contains("\\");
+  }
+
+  private static String checkHash(
+    final String hash)
+  {
+    Objects.requireNonNull(hash, "hash");
+    if (!SHA256.matcher(hash).matches()) {
+      throw new IllegalArgumentException(
+        "%s is not a SHA-256 hash.".formatted(hash)
+      );
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.MArchiveFormat;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Functions to unpack Java runtime archives.
+ */
+
+public final class MNRuntimeArchives
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNRuntimeArchives.class);
+
+  private static final Instant SOURCE_EPOCH =
+    Instant.parse("2024-10-14T00:00:00+00:00");
+  private static final FileTime SOURCE_EPOCH_FILETIME =
+    FileTime.from(SOURCE_EPOCH);
+
+  private static final OpenOption[] OPEN_OPTIONS = {
+    StandardOpenOption.WRITE,
+    StandardOpenOption.CREATE,
+    StandardOpenOption.TRUNCATE_EXISTING,
+  };
+
+  private MNRuntimeArchives()
+  {
+
+  }
+
+  /**
+   * Unpack a Java runtime archive. The root directory of tar archives is
+   * stripped.
+   *
+   * @param format          The archive format
+   * @param source          The archive
+   * @param outputDirectory The output directory
+   *
+   * @throws IOException On errors
+   */
+
+  public static void unpack(
+    final MArchiveFormat format,
+    final Path source,
+    final Path outputDirectory)
+    throws IOException
+  {
+    Objects.requireNonNull(format, "format");
+    Objects.requireNonNull(source, "source");
+    Objects.requireNonNull(outputDirectory, "outputDirectory");
+
+    switch (format) {
+      case ZIP -> unpackZip(source, outputDirectory);
+      case TAR_GZ -> unpackTarGZ(source, outputDirectory, true);
+      case TAR_XZ -> unpackTarXZ(source, outputDirectory, true);
+    }
+  }
+
+  private static void unpackZip(
+    final Path source,
+    final Path outputDirectory)
+    throws IOException
+  {
+    LOG.info("Unpacking zip %s…".formatted(source));
+
+    try (var stream = Files.newInputStream(source);
+         var buffered = new BufferedInputStream(stream, 65536);
+         var zipStream = new ZipInputStream(buffered)) {
+      unpackZipStream(zipStream, outputDirectory);
+    }
+  }
+
+  private static void unpackZipStream(
+    final ZipInputStream zipStream,
+    final Path outputDirectory)
+    throws IOException
+  {
+    while (true) {
+      final var entry = zipStream.getNextEntry();
+      if (entry == null) {
+        break;
+      }
+
+      LOG.info("Unpack: %s".formatted(entry.getName()));
+      if (entry.getName().contains("..")) {
+        LOG.warn(
+          "Refusing to unpack an entry with '..' in the name ({})",
+          entry.getName()
+        );
+        continue;
+      }
+
+      final var outFile = outputDirectory.resolve(entry.getName());
+      if (entry.isDirectory()) {
+        Files.createDirectories(outFile);
+        setFakeTime(outFile);
+        continue;
+      }
+
+      Files.createDirectories(outFile.getParent());
+      setFakeTime(outFile.getParent());
+
+      try (final var outStream =
+             Files.newOutputStream(outFile, OPEN_OPTIONS)) {
+        zipStream.transferTo(outStream);
+        outStream.flush();
+        setFakeTime(outFile);
+      }
+    }
+  }
+
+  private static void setFakeTime(
+    final Path outFile)
+    throws IOException
+  {
+    Files.setLastModifiedTime(
+      outFile,
+      SOURCE_EPOCH_FILETIME
+    );
+  }
+
+  private static void unpackTarGZ(
+    final Path source,
+    final Path outputDirectory,
+    final boolean stripRoot)
+    throws IOException
+  {
+    LOG.info("Unpacking tar.gz %s…".formatted(source));
+
+    try (var stream = Files.newInputStream(source);
+         var buffered = new BufferedInputStream(stream, 65536);
+         var gzip = new GZIPInputStream(buffered)) {
+      unpackTar(gzip, outputDirectory, stripRoot);
+    }
+  }
+
+  private static void unpackTarXZ(
+    final Path source,
+    final Path outputDirectory,
+    final boolean stripRoot)
+    throws IOException
+  {
+    LOG.info("Unpacking tar.xz %s…".formatted(source));
+
+    /*
+     * Archives produced by multithreaded XZ encoders consist of many
+     * independent blocks, and these can be decoded in parallel.
+     */
+
+    final var threads =
+      Runtime.getRuntime().availableProcessors();
+
+    try (var xz = MNXZParallelInputStream.open(source, threads)) {
+      unpackTar(xz, outputDirectory, stripRoot);
+    }
+  }
+
+  private static void unpackTar(
+    final InputStream stream,
+    final Path outputDirectory,
+    final boolean stripRoot)
+    throws IOException
+  {
+    final var tar =
+      new TarArchiveInputStream(stream);
+
+    while (true) {
+      final var entry = tar.getNextEntry();
+      if (entry == null) {
+        break;
+      }
+
+      LOG.info("Unpack: %s".formatted(entry.getName()));
+
+      if (entry.getName().contains("..")) {
+        LOG.warn(
+          "Refusing to unpack an entry with '..' in the name ({})",
+          entry.getName()
+        );
+        continue;
+      }
+
+      final String usedName;
+      if (stripRoot) {
+        usedName =
+          Stream.of(entry.getName().split("/"))
+            .skip(1L)
+            .collect(Collectors.joining("/"));
+      } else {
+        usedName = entry.getName();
+      }
+
+      if (Objects.equals(usedName, "")) {
+        Files.createDirectories(outputDirectory);
+        setFakeTime(outputDirectory);
+        continue;
+      }
+
+      final var outFile = outputDirectory.resolve(usedName);
+      if (entry.isDirectory()) {
+        Files.createDirectories(outFile);
+        setPermissions(outFile, entry.getMode());
+        setFakeTime(outFile);
+        continue;
+      }
+
+      Files.createDirectories(outFile.getParent());
+      try (final var outStream =
+             Files.newOutputStream(outFile, OPEN_OPTIONS)) {
+        tar.transferTo(outStream);
+        outStream.flush();
+        setPermissions(outFile, entry.getMode());
+        setFakeTime(outFile);
+      }
+    }
+  }
+
+  private static void setPermissions(
+    final Path outFile,
+    final int mode)
+    throws IOException
+  {
+    try {
+      Files.setPosixFilePermissions(outFile, modeToPermissions(mode));
+    } catch (final UnsupportedOperationException e) {
+      // Nothing we can do about this. Non-POSIX filesystem.
+    }
+  }
+
+  private static Set<PosixFilePermission> modeToPermissions(
+    final int mode)
+  {
+    final var set = new HashSet<PosixFilePermission>();
+    set.add(PosixFilePermission.OWNER_WRITE);
+    set.add(PosixFilePermission.OWNER_READ);
+    set.add(PosixFilePermission.GROUP_READ);
+
+    if (bitIsSet(mode, 0b001_000_000)) {
+      set.add(PosixFilePermission.OWNER_EXECUTE);
+    }
+
+    return Set.copyOf(set);
+  }
+
+  private static boolean bitIsSet(
+    final int mode,
+    final int x)
+  {
+    return (mode & x) == x;
+  }
+}
@@ -0,0 +1,845 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.MArchiveFormat;
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativePlatformRuntime;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreConfiguration;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreEntry;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreType;
+import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
+import com.io7m.streamtime.core.STTransferStatistics;
+import org.apache.commons.io.file.PathUtils;
+import org.apache.commons.io.file.StandardDeleteOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * A store of extracted Java runtimes keyed by the SHA-256 hash of their
+ * archives.
+ *
+ * <p>The store directory contains one read-only directory per runtime, named
+ * after the hash of the runtime archive, and a properties file holding the
+ * metadata for each runtime. Runtimes are extracted into a staging directory
+ * and atomically moved into place, and so the existence of a runtime
+ * directory implies that the runtime is complete. Every file and directory
+ * in a runtime is read-only once it has been moved into place.</p>
+ *
+ * <p>Everything in the staging directory is named after the runtime to
+ * which it belongs, and is only created whilst holding the lock for that
+ * runtime. Anything found in the staging directory for a runtime when its
+ * lock is taken was therefore left behind by a process that crashed or was
+ * killed, and is removed.</p>
+ *
+ * <p>The store may be shared between processes. Each runtime has an
+ * associated lock file that is held exclusively whilst the runtime is being
+ * fetched or removed, so a process that finds another process fetching a
+ * runtime waits for it and then uses the result. Each runtime also has an
+ * associated use file on which every process using the runtime holds a
+ * shared lock; runtimes are only removed if an exclusive lock can be taken
+ * on the use file.</p>
+ */
+
+public final class MNRuntimeStore implements MNativeRuntimeStoreType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNRuntimeStore.class);
+
+  private static final Pattern SHA256 =
+    Pattern.compile("[0-9a-f]{64}");
+
+  /**
+   * The runtime directories in use by the current process. A process holds
+   * a single shared lock on the use file of a runtime regardless of how many
+   * workspaces are using the runtime. Access is synchronized on the map.
+   */
+
+  private static final HashMap<Path, RuntimeUse> USES =
+    new HashMap<>();
+
+  private final MNativeRuntimeStoreConfiguration configuration;
+  private final Path directory;
+  private final Path downloads;
+  private final Path staging;
+
+  private MNRuntimeStore(
+    final MNativeRuntimeStoreConfiguration inConfiguration,
+    final Path inDirectory)
+  {
+    this.configuration =
+      Objects.requireNonNull(inConfiguration, "configuration");
+    this.directory =
+      Objects.requireNonNull(inDirectory, "directory");
+    this.downloads =
+      this.directory.resolve("downloads");
+    this.staging =
+      this.directory.resolve("staging");
+  }
+
+  /**
+   * Open a runtime store, creating it if necessary.
+   *
+   * @param configuration The configuration
+   *
+   * @return The store
+   *
+   * @throws MException On errors
+   */
+
+  public static MNRuntimeStore open(
+    final MNativeRuntimeStoreConfiguration configuration)
+    throws MException
+  {
+    Objects.requireNonNull(configuration, "configuration");
+
+    final var directory =
+      configuration.directory()
+        .toAbsolutePath()
+        .normalize();
+
+    final var store = new MNRuntimeStore(configuration, directory);
+    try {
+      Files.createDirectories(store.downloads);
+      Files.createDirectories(store.staging);
+    } catch (final IOException e) {
+      throw errorIO(e, directory);
+    }
+    return store;
+  }
+
+  @Override
+  public MNativeRuntimeStoreConfiguration configuration()
+  {
+    return this.configuration;
+  }
+
+  /**
+   * Acquire the runtime described by the given workspace configuration,
+   * downloading and extracting it if it is not already present. The runtime
+   * is marked as being in use until {@link #release(Path)} is called. The
+   * workspace configuration must specify a runtime download. If the
+   * workspace configuration specifies a remote cache, the runtime archive is
+   * fetched from the remote cache in preference to the original source.
+   *
+   * @param httpClient    The HTTP client used for downloads
+   * @param workspace     The workspace configuration
+   * @param statistics    A receiver of download statistics
+   *
+   * @return The runtime directory
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   */
+
+  public Path acquire(
+    final HttpClient httpClient,
+    final MNativeWorkspaceConfiguration workspace,
+    final Consumer<STTransferStatistics> statistics)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(httpClient, "httpClient");
+    Objects.requireNonNull(workspace, "workspace");
+    Objects.requireNonNull(statistics, "statistics");
+
+    return this.acquire(
+      httpClient,
+      workspace,
+      workspace.javaRuntimeDownloadURI()
+        .orElseThrow(MNRuntimeStore::noDownload),
+      workspace.javaRuntimeDownloadFormat()
+        .orElseThrow(MNRuntimeStore::noDownload),
+      workspace.javaRuntimeDownloadSHA256()
+        .orElseThrow(MNRuntimeStore::noDownload),
+      statistics
+    );
+  }
+
+  /**
+   * Acquire the given platform runtime in the same manner as
+   * {@link #acquire(HttpClient, MNativeWorkspaceConfiguration, Consumer)}.
+   * The runtime is not required to be executable on the current platform;
+   * the store does not inspect the contents of runtimes.
+   *
+   * @param httpClient The HTTP client used for downloads
+   * @param workspace  The workspace configuration
+   * @param platform   The platform runtime
+   * @param statistics A receiver of download statistics
+   *
+   * @return The runtime directory
+   *
+   * @throws MException           On errors
+   * @throws InterruptedException On interruption
+   */
+
+  public Path acquirePlatform(
+    final HttpClient httpClient,
+    final MNativeWorkspaceConfiguration workspace,
+    final MNativePlatformRuntime platform,
+    final Consumer<STTransferStatistics> statistics)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(httpClient, "httpClient");
+    Objects.requireNonNull(workspace, "workspace");
+    Objects.requireNonNull(platform, "platform");
+    Objects.requireNonNull(statistics, "statistics");
+
+    return this.acquire(
+      httpClient,
+      workspace,
+      platform.downloadURI(),
+      platform.downloadFormat(),
+      platform.downloadSHA256(),
+      statistics
+    );
+  }
+
+  private Path acquire(
+    final HttpClient httpClient,
+    final MNativeWorkspaceConfiguration workspace,
+    final URI source,
+    final MArchiveFormat format,
+    final String hashText,
+    final Consumer<STTransferStatistics> statistics)
+    throws MException, InterruptedException
+  {
+    final var hash =
+      checkHash(hashText);
+    final var runtime =
+      this.directory.resolve(hash);
+    final var remoteCache =
+      workspace.remoteCache()
+        .map(c -> new MNRemoteCache(httpClient, c));
+
+    /*
+     * The existence of the runtime is checked whilst holding the lock, and
+     * so a process that waited for another process to fetch the runtime
+     * will simply use the existing runtime.
+     */
+
+    try (var ignored = MNFileLock.lock(this.lockFile(hash))) {
+      this.sweepStaging(hash);
+
+      if (Files.isDirectory(runtime)) {
+        LOG.debug("Runtime {} is already present.", hash);
+        this.writeMetadata(
+          hash,
+          source,
+          format,
+          this.readMetadataSize(hash, runtime)
+        );
+      } else {
+        this.fetch(
+          httpClient,
+          source,
+          format,
+          workspace.javaRuntimeDownloadSegments(),
+          statistics,
+          remoteCache,
+          hash,
+          runtime
+        );
+      }
+      this.markInUse(hash, runtime);
+    } catch (final IOException e) {
+      throw errorIO(e, runtime);
+    }
+
+    if (this.configuration.sizeLimit() != Long.MAX_VALUE) {
+      this.prune();
+    }
+    return runtime;
+  }
+
+  /**
+   * Indicate that a runtime previously returned by
+   * {@link #acquire(HttpClient, MNativeWorkspaceConfiguration, Consumer)}
+   * is no longer in use.
+   *
+   * @param runtime The runtime directory
+   */
+
+  public void release(
+    final Path runtime)
+  {
+    synchronized (USES) {
+      final var use = USES.get(runtime);
+      if (use == null) {
+        return;
+      }
+
+      use.count = use.count - 1;
+      if (use.count == 0) {
+        USES.remove(runtime);
+        try {
+          use.channel.close();
+        } catch (final IOException e) {
+          LOG.warn("Failed to release runtime {}: ", runtime, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Mark the given runtime as being in use by the current process. This
+   * must be called whilst holding the lock associated with the runtime,
+   * which guarantees that no other process holds an exclusive lock on the
+   * use file.
+   */
+
+  private void markInUse(
+    final String hash,
+    final Path runtime)
+    throws IOException
+  {
+    synchronized (USES) {
+      final var existing = USES.get(runtime);
+      if (existing != null) {
+        existing.count = existing.count + 1;
+        return;
+      }
+
+      final var channel =
+        FileChannel.open(
+          this.useFile(hash),
+          StandardOpenOption.CREATE,
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE
+        );
+
+      try {
+        channel.lock(0L, Long.MAX_VALUE, true);
+      } catch (final IOException e) {
+        channel.close();
+        throw e;
+      }
+
+      final var use = new RuntimeUse(channel);
+      use.count = 1;
+      USES.put(runtime, use);
+    }
+  }
+
+  private static boolean isInUseLocally(
+    final Path runtime)
+  {
+    synchronized (USES) {
+      return USES.containsKey(runtime);
+    }
+  }
+
+  private Path lockFile(
+    final String hash)
+  {
+    return this.directory.resolve(hash + ".lock");
+  }
+
+  private Path useFile(
+    final String hash)
+  {
+    return this.directory.resolve(hash + ".use");
+  }
+
+  private static IllegalArgumentException noDownload()
+  {
+    return new IllegalArgumentException(
+      "The workspace configuration does not specify a Java runtime download."
+    );
+  }
+
+  private void fetch(
+    final HttpClient httpClient,
+    final URI source,
+    final MArchiveFormat format,
+    final int segments,
+    final Consumer<STTransferStatistics> statistics,
+    final Optional<MNRemoteCache> remoteCache,
+    final String hash,
+    final Path runtime)
+    throws MException, InterruptedException, IOException
+  {
+    final var archive =
+      this.downloads.resolve(hash);
+    final var archiveTemp =
+      this.downloads.resolve(hash + ".tmp");
+
+    /*
+     * Prefer the remote cache, if one is configured, and fall back to the
+     * original source. Runtimes downloaded from the original source are
+     * uploaded to the remote cache for the benefit of other machines.
+     */
+
+    var fetched = false;
+    if (remoteCache.isPresent()) {
+      fetched = remoteCache.get()
+        .fetchBlob(hash, archive, archiveTemp, segments, statistics);
+    }
+
+    if (!fetched) {
+      LOG.info("Downloading Java runtime {} from {}", hash, source);
+
+      new MNDownloader(
+        httpClient,
+        source,
+        archive,
+        archiveTemp,
+        hash,
+        segments,
+        statistics
+      ).execute();
+
+      if (remoteCache.isPresent()) {
+        remoteCache.get().pushBlob(hash, archive);
+      }
+    }
+
+    final var stage =
+      this.stagingFile(hash, "");
+
+    try {
+      MNRuntimeArchives.unpack(format, archive, stage);
+      Files.createDirectories(stage);
+
+      final var size = makeReadOnly(stage);
+      this.writeMetadata(hash, source, format, size);
+
+      /*
+       * Moving a directory to a new parent requires write permission on
+       * the directory itself, so the root of the runtime is only made
+       * read-only once it is in place.
+       */
+
+      Files.move(stage, runtime, StandardCopyOption.ATOMIC_MOVE);
+      setWritable(runtime, false);
+      Files.deleteIfExists(archive);
+    } catch (final IOException e) {
+      deleteQuietly(stage);
+      throw e;
+    }
+
+    LOG.info("Java runtime {} is available at {}", hash, runtime);
+  }
+
+  /**
+   * Remove write permissions from every file and directory in the runtime
+   * other than the root directory. Directories are processed after their
+   * contents, as nothing can be changed inside a read-only directory.
+   *
+   * @return The total size of the files in the runtime
+   */
+
+  private static long makeReadOnly(
+    final Path root)
+    throws IOException
+  {
+    var size = 0L;
+
+    final List<Path> paths;
+    try (var stream = Files.walk(root)) {
+      paths = stream.sorted(Comparator.reverseOrder()).toList();
+    }
+
+    for (final var path : paths) {
+      if (Files.isSymbolicLink(path)) {
+        continue;
+      }
+      if (Files.isRegularFile(path)) {
+        size += Files.size(path);
+      }
+      if (!path.equals(root)) {
+        setWritable(path, false);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Make every directory in the given tree writable so that the tree can be
+   * deleted.
+   */
+
+  private static void makeWritable(
+    final Path root)
+    throws IOException
+  {
+    if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
+
+    setWritable(root, true);
+    try (var stream = Files.walk(root)) {
+      final var directories =
+        stream.filter(p -> Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS))
+          .toList();
+      for (final var directory : directories) {
+        setWritable(directory, true);
+      }
+    }
+  }
+
+  private static void setWritable(
+    final Path path,
+    final boolean writable)
+    throws IOException
+  {
+    try {
+      final var permissions =
+        new HashSet<>(Files.getPosixFilePermissions(path));
+      if (writable) {
+        permissions.add(PosixFilePermission.OWNER_WRITE);
+      } else {
+        permissions.remove(PosixFilePermission.OWNER_WRITE);
+        permissions.remove(PosixFilePermission.GROUP_WRITE);
+        permissions.remove(PosixFilePermission.OTHERS_WRITE);
+      }
+      Files.setPosixFilePermissions(path, permissions);
+    } catch (final UnsupportedOperationException e) {
+      // Nothing we can do about this. Non-POSIX filesystem.
+    }
+  }
+
+  /**
+   * @return A new path in the staging directory belonging to the given
+   * runtime
+   */
+
+  private Path stagingFile(
+    final String hash,
+    final String suffix)
+  {
+    return this.staging.resolve(hash + "-" + UUID.randomUUID() + suffix);
+  }
+
+  /**
+   * Remove anything in the staging directory belonging to the given
+   * runtime. This must be called whilst holding the lock associated with
+   * the runtime.
+   */
+
+  private void sweepStaging(
+    final String hash)
+    throws IOException
+  {
+    final List<Path> stale;
+    try (var stream = Files.list(this.staging)) {
+      stale = stream.filter(p -> p.getFileName().toString().startsWith(hash + "-"))
+        .toList();
+    }
+
+    for (final var path : stale) {
+      LOG.info("Removing stale staging file {}", path);
+      deleteQuietly(path);
+    }
+  }
+
+  private Path metadataFile(
+    final String hash)
+  {
+    return this.directory.resolve(hash + ".properties");
+  }
+
+  private void writeMetadata(
+    final String hash,
+    final URI source,
+    final MArchiveFormat format,
+    final long size)
+    throws IOException
+  {
+    final var properties = new Properties();
+    properties.setProperty("source", source.toString());
+    properties.setProperty("format", format.name());
+    properties.setProperty("size", Long.toUnsignedString(size));
+    properties.setProperty(
+      "timeLastUsed",
+      OffsetDateTime.now(ZoneOffset.UTC).toString()
+    );
+
+    final var writer = new StringWriter();
+    properties.store(writer, "");
+
+    final var file =
+      this.metadataFile(hash);
+    final var fileTemp =
+      this.stagingFile(hash, ".properties");
+
+    Files.writeString(fileTemp, writer.toString(), StandardCharsets.UTF_8);
+    Files.move(
+      fileTemp,
+      file,
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE
+    );
+  }
+
+  private long readMetadataSize(
+    final String hash,
+    final Path runtime)
+    throws IOException
+  {
+    final var file = this.metadataFile(hash);
+    if (Files.isRegularFile(file)) {
+      final var properties = readProperties(file);
+      final var size = properties.getProperty("size");
+      if (size != null) {
+        return Long.parseUnsignedLong(size);
+      }
+    }
+
+    var size = 0L;
+    try (var stream = Files.walk(runtime)) {
+      for (final var path : stream.filter(Files::isRegularFile).toList()) {
+        size += Files.size(path);
+      }
+    }
+    return size;
+  }
+
+  private static Properties readProperties(
+    final Path file)
+    throws IOException
+  {
+    final var properties = new Properties();
+    properties.load(
+      new StringReader(Files.readString(file, StandardCharsets.UTF_8))
+    );
+    return properties;
+  }
+
+  @Override
+  public List<MNativeRuntimeStoreEntry> list()
+    throws MException
+  {
+    final var results = new ArrayList<MNativeRuntimeStoreEntry>();
+
+    try (var stream = Files.list(this.directory)) {
+      final var candidates =
+        stream.filter(Files::isDirectory)
+          .filter(p -> SHA256.matcher(p.getFileName().toString()).matches())
+          .toList();
+
+      for (final var runtime : candidates) {
+        final var hash = runtime.getFileName().toString();
+        final var file = this.metadataFile(hash);
+        if (!Files.isRegularFile(file)) {
+          LOG.warn("Runtime {} has no metadata file; ignoring it.", runtime);
+          continue;
+        }
+
+        try {
+          final var properties = readProperties(file);
+          results.add(
+            MNativeRuntimeStoreEntry.builder()
+              .setSha256(hash)
+              .setDirectory(runtime)
+              .setSource(URI.create(properties.getProperty("source")))
+              .setFormat(MArchiveFormat.valueOf(properties.getProperty("format")))
+              .setSize(Long.parseUnsignedLong(properties.getProperty("size")))
+              .setTimeLastUsed(
+                OffsetDateTime.parse(properties.getProperty("timeLastUsed")))
+              .build()
+          );
+        } catch (final RuntimeException e) {
+          LOG.warn("Runtime {} has unparseable metadata; ignoring it.", runtime);
+        }
+      }
+    } catch (final IOException e) {
+      throw errorIO(e, this.directory);
+    }
+
+    results.sort(
+      Comparator.comparing(MNativeRuntimeStoreEntry::timeLastUsed)
+        .reversed()
+    );
+    return List.copyOf(results);
+  }
+
+  @Override
+  public List<MNativeRuntimeStoreEntry> prune(
+    final long sizeLimit)
+    throws MException
+  {
+    final var evictions =
+      MNLRU.selectEvictions(
+        this.list(),
+        MNativeRuntimeStoreEntry::size,
+        Comparator.comparing(MNativeRuntimeStoreEntry::timeLastUsed),
+        e -> isInUseLocally(e.directory()),
+        sizeLimit
+      );
+
+    final var removed = new ArrayList<MNativeRuntimeStoreEntry>();
+    for (final var entry : evictions) {
+      final var runtime =
+        entry.directory();
+      final var hash =
+        entry.sha256();
+
+      try {
+        if (this.tryRemove(entry, runtime, hash)) {
+          removed.add(entry);
+        }
+      } catch (final IOException e) {
+        throw errorIO(e, runtime);
+      }
+    }
+    return List.copyOf(removed);
+  }
+
+  private boolean tryRemove(
+    final MNativeRuntimeStoreEntry entry,
+    final Path runtime,
+    final String hash)
+    throws IOException
+  {
+    /*
+     * A runtime that is locked is being fetched or removed by someone else,
+     * and a runtime whose use file cannot be locked exclusively is in use
+     * by another process. Neither can be removed.
+     */
+
+    final var lockOpt = MNFileLock.tryLock(this.lockFile(hash));
+    if (lockOpt.isEmpty()) {
+      LOG.debug("Runtime {} is locked; not removing it.", hash);
+      return false;
+    }
+
+    try (var ignored = lockOpt.get()) {
+      this.sweepStaging(hash);
+
+      if (isInUseLocally(runtime) || !Files.isDirectory(runtime)) {
+        return false;
+      }
+
+      try (var channel = FileChannel.open(
+        this.useFile(hash),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE)) {
+        final var useLock = channel.tryLock();
+        if (useLock == null) {
+          LOG.debug("Runtime {} is in use by another process.", hash);
+          return false;
+        }
+
+        LOG.info(
+          "Removing Java runtime {} ({} octets, last used {}).",
+          entry.sha256(),
+          Long.valueOf(entry.size()),
+          entry.timeLastUsed()
+        );
+
+        /*
+         * Move the runtime out of the way first so that it cannot be
+         * observed in a partially deleted state.
+         */
+
+        final var target =
+          this.stagingFile(hash, "");
+
+        setWritable(runtime, true);
+        Files.move(runtime, target, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(this.metadataFile(hash));
+        deleteQuietly(target);
+        return true;
+      }
+    }
+  }
+
+  private static void deleteQuietly(
+    final Path path)
+  {
+    try {
+      if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+        makeWritable(path);
+        PathUtils.delete(path, StandardDeleteOption.OVERRIDE_READ_ONLY);
+      }
+    } catch (final IOException e) {
+      LOG.warn("Failed to delete {}: ", path, e);
+    }
+  }
+
+  private static String checkHash(
+    final String hash)
+    throws MException
+  {
+    final var normalized = hash.toLowerCase(Locale.ROOT);
+    if (!SHA256.matcher(normalized).matches()) {
+      throw new MException(
+        "The given value is not a valid SHA-256 hash.",
+        "error-hash-invalid",
+        Map.ofEntries(
+          Map.entry("Hash", hash),
+          Map.entry("Hash Algorithm", "SHA-256")
+        )
+      );
+    }
+    return normalized;
+  }
+
+  private static final class RuntimeUse
+  {
+    private final FileChannel channel;
+    private int count;
+
+    RuntimeUse(
+      final FileChannel inChannel)
+    {
+      this.channel = Objects.requireNonNull(inChannel, "channel");
+    }
+  }
+
+  private static MException errorIO(
+    final IOException e,
+    final Path path)
+  {
+    return new MException(
+      "I/O error.",
+      e,
+      "error-io",
+      Map.ofEntries(Map.entry("Path", path.toString()))
+    );
+  }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import org.apache.commons.io.file.PathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Functions to materialize a copy of a directory tree as cheaply as the
+ * underlying filesystem allows.
+ *
+ * <p>The methods are tried in order: reflinks (copy-on-write clones, where
+ * the filesystem supports them), then hard links (where the source and
+ * target are on the same filesystem), then a parallel copy. Symbolic links
+ * are recreated rather than followed, and POSIX permissions are preserved.</p>
+ *
+ * <p>Reflinks and hard links share data with the source tree. Hard links
+ * additionally share permissions and timestamps, and so hard links must
+ * only be permitted when neither tree will be modified in place after the
+ * target has been materialized.</p>
+ */
+
+public final class MNTreeMaterializer
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNTreeMaterializer.class);
+
+  private MNTreeMaterializer()
+  {
+
+  }
+
+  /**
+   * A method used to materialize a tree.
+   */
+
+  public enum Method
+  {
+    /**
+     * Files are cloned using copy-on-write reflinks.
+     */
+
+    REFLINK,
+
+    /**
+     * Files are hard links to the source files.
+     */
+
+    HARDLINK,
+
+    /**
+     * Files are copied.
+     */
+
+    COPY
+  }
+
+  /**
+   * Materialize {@code source} at {@code target} using every method, and
+   * one thread per available processor for copying.
+   *
+   * @param source The source directory
+   * @param target The target directory, which must not exist
+   *
+   * @return The weakest method that was used for any file
+   *
+   * @throws IOException On errors
+   */
+
+  public static Method materialize(
+    final Path source,
+    final Path target)
+    throws IOException
+  {
+    return materialize(
+      source,
+      target,
+      EnumSet.allOf(Method.class),
+      Runtime.getRuntime().availableProcessors()
+    );
+  }
+
+  /**
+   * Materialize {@code source} at {@code target}.
+   *
+   * @param source  The source directory
+   * @param target  The target directory, which must not exist
+   * @param methods The permitted methods
+   * @param threads The number of threads used for copying
+   *
+   * @return The weakest method that was used for any file
+   *
+   * @throws IOException On errors
+   */
+
+  public static Method materialize(
+    final Path source,
+    final Path target,
+    final Set<Method> methods,
+    final int threads)
+    throws IOException
+  {
+    Objects.requireNonNull(source, "source");
+    Objects.requireNonNull(target, "target");
+    Objects.requireNonNull(methods, "methods");
+
+    if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+      throw new FileAlreadyExistsException(target.toString());
+    }
+
+    final var sourceRoot =
+      source.toAbsolutePath().normalize();
+    final var targetRoot =
+      target.toAbsolutePath().normalize();
+
+    Files.createDirectories(targetRoot.getParent());
+
+    if (methods.contains(Method.REFLINK) && reflink(sourceRoot, targetRoot)) {
+      LOG.debug("Materialized {} at {} using reflinks.", source, target);
+      return Method.REFLINK;
+    }
+
+    final var structure =
+      createStructure(sourceRoot, targetRoot);
+    final var files =
+      structure.files();
+
+    var linked = 0;
+    if (methods.contains(Method.HARDLINK)) {
+      linked = hardlink(sourceRoot, targetRoot, files);
+    }
+
+    final var remaining =
+      files.subList(linked, files.size());
+
+    if (!remaining.isEmpty()) {
+      if (!methods.contains(Method.COPY)) {
+        throw new IOException(
+          "Unable to materialize %s at %s using any of %s."
+            .formatted(source, target, methods)
+        );
+      }
+      copy(sourceRoot, targetRoot, remaining, Math.max(1, threads));
+    }
+
+    for (final var directory : structure.directories().reversed()) {
+      copyPermissions(
+        resolve(sourceRoot, directory),
+        resolve(targetRoot, directory)
+      );
+    }
+
+    LOG.debug(
+      "Materialized {} at {} ({} files linked, {} files copied).",
+      source,
+      target,
+      Integer.valueOf(linked),
+      Integer.valueOf(remaining.size())
+    );
+    return remaining.isEmpty() ? Method.HARDLINK : Method.COPY;
+  }
+
+  /**
+   * Attempt to clone the whole tree with reflinks. Java has no API for
+   * cloning files, so GNU cp is used where it is available. A failed
+   * attempt removes anything that was partially created.
+   */
+
+  private static boolean reflink(
+    final Path source,
+    final Path target)
+    throws IOException
+  {
+    final var os =
+      System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+
+    if (!os.contains("linux")) {
+      return false;
+    }
+
+    final var process =
+      new ProcessBuilder(
+        "cp",
+        "-R",
+        "--reflink=always",
+        "--no-target-directory",
+        "--",
+        source.toString(),
+        target.toString()
+      ).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+        .redirectError(ProcessBuilder.Redirect.DISCARD);
+
+    final int exitCode;
+    try {
+      exitCode = process.start().waitFor();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      deleteIfPresent(target);
+      throw new InterruptedIOException(e.getMessage());
+    } catch (final IOException e) {
+      LOG.debug("Unable to execute cp: {}", e.getMessage());
+      return false;
+    }
+
+    if (exitCode == 0) {
+      return true;
+    }
+
+    LOG.debug("Reflinks are unavailable for {}.", target);
+    deleteIfPresent(target);
+    return false;
+  }
+
+  private static void deleteIfPresent(
+    final Path target)
+    throws IOException
+  {
+    if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+      PathUtils.deleteDirectory(target);
+    }
+  }
+
+  private record Structure(
+    List<Path> directories,
+    List<Path> files)
+  {
+
+  }
+
+  /**
+   * Create all directories and symbolic links, and return the directories
+   * and regular files (relative to the source) that remain to be
+   * materialized. Directory permissions are applied last, so that read-only
+   * directories can still be populated.
+   */
+
+  private static Structure createStructure(
+    final Path source,
+    final Path target)
+    throws IOException
+  {
+    final List<Path> paths;
+    try (var stream = Files.walk(source)) {
+      paths = stream.sorted().toList();
+    }
+
+    final var directories = new ArrayList<Path>();
+    final var files = new ArrayList<Path>(paths.size());
+    for (final var path : paths) {
+      final var relative =
+        source.relativize(path);
+      final var output =
+        resolve(target, relative);
+
+      if (Files.isSymbolicLink(path)) {
+        Files.createSymbolicLink(output, Files.readSymbolicLink(path));
+      } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        Files.createDirectories(output);
+        directories.add(relative);
+      } else {
+        files.add(relative);
+      }
+    }
+    return new Structure(directories, files);
+  }
+
+  /**
+   * Hard link as many files as possible, stopping at the first file that
+   * cannot be linked, and return the number of files that were linked.
+   */
+
+  private static int hardlink(
+    final Path source,
+    final Path target,
+    final List<Path> files)
+  {
+    var index = 0;
+    for (final var file : files) {
+      try {
+        Files.createLink(resolve(target, file), resolve(source, file));
+      } catch (final IOException | UnsupportedOperationException e) {
+        LOG.debug("Hard links are unavailable for {}: {}", file, e.toString());
+        return index;
+      }
+      ++index;
+    }
+    return index;
+  }
+
+  private static void copy(
+    final Path source,
+    final Path target,
+    final List<Path> files,
+    final int threads)
+    throws IOException
+  {
+    final var results = new ArrayList<Future<?>>(files.size());
+    try (var executor = Executors.newFixedThreadPool(threads)) {
+      for (final var file : files) {
+        results.add(executor.submit(() -> {
+          Files.copy(
+            resolve(source, file),
+            resolve(target, file),
+            StandardCopyOption.COPY_ATTRIBUTES
+          );
+          return null;
+        }));
+      }
+
+      for (final var result : results) {
+        result.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof final IOException io) {
+        throw io;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static void copyPermissions(
+    final Path source,
+    final Path target)
+    throws IOException
+  {
+    final var view =
+      Files.getFileAttributeView(
+        source,
+        PosixFileAttributeView.class,
+        LinkOption.NOFOLLOW_LINKS
+      );
+
+    if (view != null) {
+      Files.setPosixFilePermissions(
+        target,
+        view.readAttributes().permissions()
+      );
+    }
+  }
+
+  private static Path resolve(
+    final Path root,
+    final Path relative)
+  {
+    var result = root;
+    for (final var name : relative) {
+      result = result.resolve(name.toString());
+    }
+    return result;
+  }
+}
@@ -17,44 +17,55 @@
 
 package com.io7m.montarre.nativepack.internal;
 
-import com.io7m.jdownload.core.JDownloadErrorChecksumMismatch;
-import com.io7m.jdownload.core.JDownloadErrorHTTP;
-import com.io7m.jdownload.core.JDownloadErrorIO;
-import com.io7m.jdownload.core.JDownloadErrorType;
-import com.io7m.jdownload.core.JDownloadRequests;
-import com.io7m.jdownload.core.JDownloadSucceeded;
+import com.io7m.anethum.api.SerializationException;
 import com.io7m.jmulticlose.core.CloseableCollection;
 import com.io7m.jmulticlose.core.CloseableCollectionType;
 import com.io7m.jmulticlose.core.ClosingResourceFailedException;
+import com.io7m.lanark.core.RDottedName;
 import com.io7m.montarre.api.MArchitectureName;
 import com.io7m.montarre.api.MException;
 import com.io7m.montarre.api.MOperatingSystemName;
+import com.io7m.montarre.api.MPlatform;
 import com.io7m.montarre.api.http.MHTTPClientFactoryType;
 import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.api.natives.MNativeArchiveCompressionAdaptive;
+import com.io7m.montarre.api.natives.MNativeJPackageType;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import com.io7m.montarre.api.natives.MNativePackagerServiceType;
+import com.io7m.montarre.api.natives.MNativeProcessOutput;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreConfiguration;
 import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
+import com.io7m.montarre.api.natives.MNativeWorkspaceRetention;
 import com.io7m.montarre.api.natives.MNativeWorkspaceType;
+import com.io7m.montarre.nativepack.MNTreeDigests;
+import com.io7m.montarre.xml.MPackageDeclarationSerializers;
 import com.io7m.streamtime.core.STTransferStatistics;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.file.PathUtils;
+import org.apache.commons.io.file.StandardDeleteOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.net.http.HttpClient;
 import java.nio.file.Files;
-import java.nio.file.OpenOption;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.FileTime;
-import java.nio.file.attribute.PosixFilePermission;
-import java.time.Instant;
-import java.util.HashSet;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 import java.util.HexFormat;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Flow;
@@ -62,9 +73,6 @@ import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.ZipInputStream;
 
 /**
  * A workspace.
@@ -75,36 +83,33 @@ public final class MNWorkspace implements MNativeWorkspaceType
   private static final Logger LOG =
     LoggerFactory.getLogger(MNWorkspace.class);
 
-  private static final Instant SOURCE_EPOCH =
-    Instant.parse("2024-10-14T00:00:00+00:00");
-  private static final FileTime SOURCE_EPOCH_FILETIME =
-    FileTime.from(SOURCE_EPOCH);
-  private static final HexFormat HEX =
-    HexFormat.of();
-
-  private static final OpenOption[] OPEN_OPTIONS = {
-    StandardOpenOption.WRITE,
-    StandardOpenOption.CREATE,
-    StandardOpenOption.TRUNCATE_EXISTING,
-  };
-
   private final MNativeWorkspaceConfiguration configuration;
-  private final MPackageReaderType packageReader;
+  private final Optional<MPackageReaderType> packageReader;
   private final CloseableCollectionType<ClosingResourceFailedException> resources;
   private final SubmissionPublisher<STTransferStatistics> javaRuntimeDownload;
   private final ExecutorService executor;
   private final ReentrantLock javaRuntimeDownloadLock;
-  private final Path jdkDir;
   private final HttpClient httpClient;
-  private final Path jdkArchiveTemp;
-  private final Path jdkArchive;
-  private final Path jdkOK;
   private final MOperatingSystemName operatingSystem;
   private final MArchitectureName architecture;
+  private final ReentrantLock runLock;
+  private final MNJPackage jpackage;
+  private final ReentrantLock outputCacheLock;
+  private final Optional<MNRemoteCache> remoteCache;
+  private final ReentrantLock platformRuntimesLock;
+  private final ReentrantLock runtimeStoreLock;
+  private final HashMap<MPlatform, Path> platformRuntimes;
+  private final InheritableThreadLocal<Set<Path>> workDirectoriesTracked;
+  private final InheritableThreadLocal<String> packageLogDirectory;
+  private MNRuntimeStore runtimeStore;
+  private Path runtime;
+  private Path runDirectory;
+  private MNFileLock runFileLock;
+  private MNOutputCache outputCache;
 
   private MNWorkspace(
     final MNativeWorkspaceConfiguration inConfiguration,
-    final MPackageReaderType inPackageReader,
+    final Optional<MPackageReaderType> inPackageReader,
     final MHTTPClientFactoryType inHttpClients,
     final MOperatingSystemName inOperatingSystem,
     final MArchitectureName inArchitecture)
@@ -118,19 +123,6 @@ public final class MNWorkspace implements MNativeWorkspaceType
     this.architecture =
       Objects.requireNonNull(inArchitecture, "architecture");
 
-    this.jdkOK =
-      this.configuration.baseDirectory()
-        .resolve("jdk-ok");
-    this.jdkDir =
-      this.configuration.baseDirectory()
-        .resolve("jdk");
-    this.jdkArchive =
-      this.configuration.baseDirectory()
-        .resolve("jdk-archive");
-    this.jdkArchiveTemp =
-      this.configuration.baseDirectory()
-        .resolve("jdk-archive.tmp");
-
     this.resources =
       CloseableCollection.create();
     this.executor =
@@ -142,6 +134,10 @@ public final class MNWorkspace implements MNativeWorkspaceType
     // Prefer shutdownNow() to close() in order to interrupt operations
     this.resources.add(this.httpClient::shutdownNow);
 
+    this.remoteCache =
+      this.configuration.remoteCache()
+        .map(c -> new MNRemoteCache(this.httpClient, c));
+
     this.javaRuntimeDownload =
       this.resources.add(new SubmissionPublisher<>(
         Runnable::run,
@@ -149,6 +145,26 @@ public final class MNWorkspace implements MNativeWorkspaceType
       ));
     this.javaRuntimeDownloadLock =
       new ReentrantLock();
+    this.runLock =
+      new ReentrantLock();
+    this.outputCacheLock =
+      new ReentrantLock();
+    this.platformRuntimesLock =
+      new ReentrantLock();
+    this.runtimeStoreLock =
+      new ReentrantLock();
+    this.platformRuntimes =
+      new HashMap<>();
+    this.workDirectoriesTracked =
+      new InheritableThreadLocal<>();
+    this.packageLogDirectory =
+      new InheritableThreadLocal<>();
+    this.jpackage =
+      new MNJPackage(
+        MNJPackage.defaultExecutable(),
+        this::processOutput,
+        this.configuration.jpackageConcurrency()
+      );
   }
 
   /**
@@ -156,7 +172,7 @@ public final class MNWorkspace implements MNativeWorkspaceType
    *
    * @param configuration The configuration
    * @param httpClients   The HTTP clients
-   * @param packageReader The current package
+   * @param packageReader The current package, if any
    *
    * @return A workspace
    */
@@ -164,19 +180,43 @@ public final class MNWorkspace implements MNativeWorkspaceType
   public static MNativeWorkspaceType open(
     final MNativeWorkspaceConfiguration configuration,
     final MHTTPClientFactoryType httpClients,
-    final MPackageReaderType packageReader)
+    final Optional<MPackageReaderType> packageReader)
   {
     Objects.requireNonNull(configuration, "configuration");
     Objects.requireNonNull(httpClients, "httpClients");
     Objects.requireNonNull(packageReader, "packageReader");
 
-    return new MNWorkspace(
+    final var workspace = new MNWorkspace(
       configuration,
       packageReader,
       httpClients,
       MOperatingSystemName.infer(System.getProperty("os.name")),
       MArchitectureName.infer(System.getProperty("os.arch"))
     );
+
+    /*
+     * Old runs are collected in the background so that packaging is not
+     * delayed. The executor waits for the collection to finish when the
+     * workspace is closed.
+     */
+
+    configuration.workRetention().ifPresent(retention -> {
+      workspace.executor.execute(() -> workspace.collectGarbage(retention));
+    });
+    return workspace;
+  }
+
+  private void collectGarbage(
+    final MNativeWorkspaceRetention retention)
+  {
+    try {
+      MNWorkspaceCollector.collect(
+        this.configuration.baseDirectory(),
+        retention
+      );
+    } catch (final MException e) {
+      LOG.warn("Failed to remove old work directories: ", e);
+    }
   }
 
   @Override
@@ -189,25 +229,59 @@ public final class MNWorkspace implements MNativeWorkspaceType
   public CompletableFuture<Path> javaRuntime()
   {
     final var future = new CompletableFuture<Path>();
-    this.executor.execute(() -> {
+
+    /*
+     * An unverified runtime directory requires no I/O beyond checking that
+     * the directory exists, so there is no reason to go via the executor.
+     */
+
+    if (this.configuration.javaRuntimeDirectory().isPresent()
+        && this.configuration.javaRuntimeDirectorySHA256().isEmpty()) {
+      try {
+        future.complete(this.opJavaRuntimeDownload());
+      } catch (final Throwable e) {
+        future.completeExceptionally(e);
+      }
+      return future;
+    }
+
+    final var task = this.executor.submit(() -> {
       try {
         future.complete(this.opJavaRuntimeDownload());
       } catch (final Throwable e) {
         future.completeExceptionally(e);
       }
     });
+
+    /*
+     * Cancelling a CompletableFuture does not interrupt anything by itself,
+     * so cancellation is forwarded to the task that is doing the work.
+     */
+
+    future.whenComplete((path, exception) -> {
+      if (future.isCancelled()) {
+        task.cancel(true);
+      }
+    });
     return future;
   }
 
+  @Override
+  public Path awaitJavaRuntime()
+    throws MException, InterruptedException
+  {
+    return MNDeadlines.execute(
+      "Obtaining the Java runtime",
+      this.configuration.javaRuntimeTimeout(),
+      this::opJavaRuntimeDownload
+    );
+  }
+
   @Override
   public Path createWorkDirectory()
     throws MException
   {
-    final var newDirectory =
-      this.configuration.baseDirectory()
-        .resolve("work")
-        .resolve(UUID.randomUUID().toString());
-
+    final var newDirectory = this.workDirectoryPath();
     try {
       Files.createDirectories(newDirectory);
     } catch (final IOException e) {
@@ -221,304 +295,605 @@ public final class MNWorkspace implements MNativeWorkspaceType
     return newDirectory;
   }
 
+  /**
+   * Choose a new work directory, without creating it. The directory is
+   * tracked so that it is deleted if the packager is cancelled after
+   * something has created it.
+   */
+
+  private Path workDirectoryPath()
+    throws MException
+  {
+    final var newDirectory =
+      this.runDirectory()
+        .resolve(UUID.randomUUID().toString());
+
+    final var tracked = this.workDirectoriesTracked.get();
+    if (tracked != null) {
+      tracked.add(newDirectory);
+    }
+    return newDirectory;
+  }
+
+  /**
+   * Create the run directory for this workspace if it does not already
+   * exist. The lock for the run is taken before the directory is created,
+   * and is held until the workspace is closed, so the run cannot be removed
+   * whilst the workspace is using it.
+   */
+
+  private Path runDirectory()
+    throws MException
+  {
+    this.runLock.lock();
+    try {
+      if (this.runDirectory != null) {
+        return this.runDirectory;
+      }
+
+      final var newRun =
+        MNWorkspaceCollector.runsDirectory(this.configuration.baseDirectory())
+          .resolve(UUID.randomUUID().toString());
+
+      try {
+        final var lockFile =
+          MNWorkspaceCollector.lockFile(newRun);
+
+        this.runFileLock =
+          MNFileLock.tryLock(lockFile)
+            .orElseThrow(() -> new IOException("Already locked: " + lockFile));
+
+        Files.createDirectories(newRun);
+      } catch (final IOException e) {
+        throw new MException(
+          "I/O error.",
+          e,
+          "error-io",
+          Map.ofEntries(Map.entry("Directory", newRun.toString()))
+        );
+      }
+
+      this.runDirectory = newRun;
+      return newRun;
+    } finally {
+      this.runLock.unlock();
+    }
+  }
+
   private Path opJavaRuntimeDownload()
     throws InterruptedException, MException
   {
-    this.javaRuntimeDownloadLock.lock();
+    this.javaRuntimeDownloadLock.lockInterruptibly();
 
     try {
-      if (Files.isRegularFile(this.jdkOK)) {
-        return this.jdkDir;
+      if (this.runtime != null) {
+        return this.runtime;
       }
 
-      LOG.info(
-        "Downloading JDK from {}",
-        this.configuration.javaRuntimeDownloadURI()
-      );
+      final var directoryOpt = this.configuration.javaRuntimeDirectory();
+      if (directoryOpt.isPresent()) {
+        this.runtime = this.checkRuntimeDirectory(directoryOpt.get());
+        LOG.info("Using Java runtime {}", this.runtime);
+        return this.runtime;
+      }
 
-      final var request =
-        JDownloadRequests.builder(
-            this.httpClient,
-            this.configuration.javaRuntimeDownloadURI(),
-            this.jdkArchive,
-            this.jdkArchiveTemp
-          )
-          .setChecksumStatically(
-            "SHA-256",
-            HEX.parseHex(this.configuration.javaRuntimeDownloadSHA256())
-          )
-          .setTransferStatisticsReceiver(this.javaRuntimeDownload::submit)
-          .build();
+      this.runtime = this.runtimeStore().acquire(
+        this.httpClient,
+        this.configuration,
+        this.javaRuntimeDownload::submit
+      );
 
-      final var result = request.execute();
-      return switch (result) {
-        case final JDownloadErrorType error -> {
-          throw this.downloadError(error);
-        }
-        case final JDownloadSucceeded ignored -> {
-          yield this.unpackJDK();
-        }
-      };
+      LOG.info("Using Java runtime {}", this.runtime);
+      return this.runtime;
     } finally {
       this.javaRuntimeDownloadLock.unlock();
     }
   }
 
-  private Path unpackJDK()
+  private MNRuntimeStore runtimeStore()
     throws MException
   {
+    this.runtimeStoreLock.lock();
     try {
-      switch (this.configuration.javaRuntimeDownloadFormat()) {
-        case ZIP -> {
-          this.unpackZip(this.jdkArchive, this.jdkDir);
-          Files.writeString(this.jdkOK, "OK", OPEN_OPTIONS);
-        }
-        case TAR_GZ -> {
-          this.unpackTarGZ(this.jdkArchive, this.jdkDir, true);
-          Files.writeString(this.jdkOK, "OK", OPEN_OPTIONS);
-        }
+      if (this.runtimeStore == null) {
+        this.runtimeStore = MNRuntimeStore.open(
+          this.configuration.javaRuntimeStore()
+            .orElseGet(() -> {
+              return MNativeRuntimeStoreConfiguration.builder()
+                .setDirectory(
+                  this.configuration.baseDirectory().resolve("runtimes"))
+                .build();
+            })
+        );
       }
-      return this.jdkDir;
-    } catch (final IOException e) {
-      throw new MException(
-        "I/O error.",
-        e,
-        "error-io",
-        Map.ofEntries(
-          Map.entry("Archive", this.jdkArchive.toString()),
-          Map.entry("Output Directory", this.jdkDir.toString())
-        )
-      );
+      return this.runtimeStore;
+    } finally {
+      this.runtimeStoreLock.unlock();
     }
   }
 
-  private MException downloadError(
-    final JDownloadErrorType error)
+  @Override
+  public Optional<Path> platformRuntime(
+    final MPlatform platform)
+    throws MException, InterruptedException
   {
-    return switch (error) {
-      case final JDownloadErrorChecksumMismatch mismatch -> {
-        yield new MException(
-          "Hash mismatch.",
-          "error-hash-mismatch",
-          Map.ofEntries(
-            Map.entry("Hash (Expected)", mismatch.hashExpected()),
-            Map.entry("Hash (Received)", mismatch.hashReceived()),
-            Map.entry("Hash Algorithm", mismatch.algorithm()),
-            Map.entry("URI", mismatch.uri().toString()),
-            Map.entry("Output File", mismatch.outputFile().toString())
-          )
-        );
+    Objects.requireNonNull(platform, "platform");
+
+    final var platformRuntimeOpt =
+      this.configuration.platformRuntimes()
+        .stream()
+        .filter(r -> Objects.equals(r.platform(), platform))
+        .findFirst();
+
+    if (platformRuntimeOpt.isEmpty()) {
+      return Optional.empty();
+    }
+
+    this.platformRuntimesLock.lock();
+    try {
+      final var existing = this.platformRuntimes.get(platform);
+      if (existing != null) {
+        return Optional.of(existing);
       }
-      case final JDownloadErrorHTTP http -> {
-        yield new MException(
-          "HTTP error.",
-          "error-http",
-          Map.ofEntries(
-            Map.entry("HTTP Status", Integer.toUnsignedString(http.status())),
-            Map.entry("URI", http.uri().toString()),
-            Map.entry("Output File", http.outputFile().toString())
-          )
+
+      final var path =
+        this.runtimeStore().acquirePlatform(
+          this.httpClient,
+          this.configuration,
+          platformRuntimeOpt.get(),
+          this.javaRuntimeDownload::submit
         );
-      }
-      case final JDownloadErrorIO io -> {
-        yield new MException(
-          "HTTP I/O error.",
-          io.exception(),
-          "error-http-io",
+
+      LOG.info("Using Java runtime {} for platform {}", path, platform);
+      this.platformRuntimes.put(platform, path);
+      return Optional.of(path);
+    } finally {
+      this.platformRuntimesLock.unlock();
+    }
+  }
+
+  private Path checkRuntimeDirectory(
+    final Path directory)
+    throws MException, InterruptedException
+  {
+    final var path =
+      directory.toAbsolutePath().normalize();
+
+    if (!Files.isDirectory(path)) {
+      throw new MException(
+        "The Java runtime directory does not exist.",
+        "error-java-runtime-missing",
+        Map.ofEntries(Map.entry("Directory", path.toString()))
+      );
+    }
+
+    final var expectedOpt =
+      this.configuration.javaRuntimeDirectorySHA256();
+
+    if (expectedOpt.isPresent()) {
+      final var expected = expectedOpt.get();
+      LOG.info("Verifying Java runtime {}", path);
+
+      final var received = MNTreeDigests.sha256(path);
+      if (!received.equalsIgnoreCase(expected)) {
+        throw new MException(
+          "Hash mismatch.",
+          "error-hash-mismatch",
           Map.ofEntries(
-            Map.entry("URI", io.uri().toString()),
-            Map.entry("Output File", io.outputFile().toString())
+            Map.entry("Hash (Expected)", expected),
+            Map.entry("Hash (Received)", received),
+            Map.entry("Hash Algorithm", "SHA-256 (Tree)"),
+            Map.entry("Directory", path.toString())
           )
         );
       }
-    };
+    }
+    return path;
   }
 
   @Override
-  public void close()
-    throws MException
+  public Optional<MNativeArchiveCompression> archiveCompression(
+    final RDottedName packager)
   {
-    try {
-      this.resources.close();
-      this.executor.awaitTermination(30L, TimeUnit.SECONDS);
-    } catch (final Exception e) {
-      throw new MException(
-        Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()),
-        e,
-        "error-resource-close"
-      );
+    Objects.requireNonNull(packager, "packager");
+
+    final var specific =
+      this.configuration.archiveCompressionByPackager().get(packager);
+    if (specific != null) {
+      return Optional.of(specific);
     }
+    return this.configuration.archiveCompression();
   }
 
   @Override
-  public MOperatingSystemName operatingSystem()
+  public Optional<MNativeArchiveCompressionAdaptive> archiveCompressionAdaptive(
+    final RDottedName packager)
   {
-    return this.operatingSystem;
+    Objects.requireNonNull(packager, "packager");
+
+    if (this.configuration.archiveCompressionByPackager().containsKey(packager)) {
+      return Optional.empty();
+    }
+    return this.configuration.archiveCompressionAdaptive();
   }
 
   @Override
-  public MArchitectureName architecture()
+  public MNativeProcessOutput processOutput(
+    final RDottedName packager)
   {
-    return this.architecture;
+    Objects.requireNonNull(packager, "packager");
+
+    /*
+     * Packagers executed for a package log into a directory named after
+     * that package, as a single workspace may be producing packages for
+     * several packages concurrently.
+     */
+
+    final var packageLog =
+      Optional.ofNullable(this.packageLogDirectory.get());
+
+    return new MNativeProcessOutput(
+      this.configuration.processOutputLineLimit(),
+      this.configuration.processOutputOctetLimit(),
+      this.configuration.processLogDirectory()
+        .map(d -> packageLog.map(d::resolve).orElse(d))
+        .map(d -> d.resolve(packager.value() + ".log"))
+    );
   }
 
-  private void unpackZip(
-    final Path source,
-    final Path outputDirectory)
-    throws IOException
+  @Override
+  public MNativeJPackageType jpackage()
   {
-    LOG.info("Unpacking zip %s…".formatted(source));
-
-    final var data =
-      Files.readAllBytes(source);
-    final var stream =
-      new ByteArrayInputStream(data);
-    final var zipStream =
-      new ZipInputStream(stream);
-
-    while (true) {
-      final var entry = zipStream.getNextEntry();
-      if (entry == null) {
-        break;
-      }
+    return this.jpackage;
+  }
+
+  @Override
+  public MNativePackagerResult executePackager(
+    final MNativePackagerServiceType packager)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(packager, "packager");
 
-      LOG.info("Unpack: %s".formatted(entry.getName()));
-      if (entry.getName().contains("..")) {
-        LOG.warn(
-          "Refusing to unpack an entry with '..' in the name ({})",
-          entry.getName()
+    return this.executePackager(
+      packager,
+      this.packageReader.orElseThrow(() -> {
+        return new IllegalStateException(
+          "The workspace is not associated with a package."
         );
-        continue;
-      }
+      })
+    );
+  }
 
-      final var outFile = outputDirectory.resolve(entry.getName());
-      if (entry.isDirectory()) {
-        Files.createDirectories(outFile);
-        setFakeTime(outFile);
-        continue;
-      }
+  @Override
+  public MNativePackagerResult executePackager(
+    final MNativePackagerServiceType packager,
+    final MPackageReaderType packageReader)
+    throws MException, InterruptedException
+  {
+    Objects.requireNonNull(packager, "packager");
+    Objects.requireNonNull(packageReader, "packageReader");
 
-      Files.createDirectories(outFile.getParent());
-      setFakeTime(outFile.getParent());
+    final var previousLog = this.packageLogDirectory.get();
+    this.packageLogDirectory.set(packageLogName(packageReader));
 
-      try (final var outStream =
-             Files.newOutputStream(outFile, OPEN_OPTIONS)) {
-        zipStream.transferTo(outStream);
-        outStream.flush();
-        setFakeTime(outFile);
-      }
+    try {
+      return MNDeadlines.execute(
+        "Packager %s".formatted(packager.name()),
+        this.configuration.packagerTimeout(),
+        () -> this.executePackagerTracked(packager, packageReader)
+      );
+    } finally {
+      this.packageLogDirectory.set(previousLog);
     }
   }
 
-  private static void setFakeTime(
-    final Path outFile)
-    throws IOException
+  private static String packageLogName(
+    final MPackageReaderType packageReader)
   {
-    Files.setLastModifiedTime(
-      outFile,
-      SOURCE_EPOCH_FILETIME
+    final var metadata =
+      packageReader.packageDeclaration().metadata();
+
+    return "%s-%s".formatted(
+      metadata.names().packageName().name().value(),
+      metadata.version().version()
     );
   }
 
-  private void unpackTarGZ(
-    final Path source,
-    final Path outputDirectory,
-    final boolean stripRoot)
-    throws IOException
+  /**
+   * Execute the given packager, recording the work directories that it
+   * creates on any thread that it starts. If the packager is cancelled,
+   * the work directories are deleted, as they can only contain partial
+   * output.
+   */
+
+  private MNativePackagerResult executePackagerTracked(
+    final MNativePackagerServiceType packager,
+    final MPackageReaderType packageReader)
+    throws MException, InterruptedException
   {
-    LOG.info("Unpacking tar.gz %s…".formatted(source));
-
-    final var data =
-      Files.readAllBytes(source);
-    final var stream =
-      new ByteArrayInputStream(data);
-    final var gzip =
-      new GZIPInputStream(stream);
-    final var tar =
-      new TarArchiveInputStream(gzip);
-
-    while (true) {
-      final var entry = tar.getNextEntry();
-      if (entry == null) {
-        break;
+    final var created = ConcurrentHashMap.<Path>newKeySet();
+    this.workDirectoriesTracked.set(created);
+
+    try {
+      return this.executePackagerCached(packager, packageReader);
+    } catch (final MException | InterruptedException | RuntimeException e) {
+      if (Thread.currentThread().isInterrupted()
+          || MNDeadlines.isCancellation(e)) {
+        deleteWorkDirectories(packager, created);
       }
+      throw e;
+    } finally {
+      this.workDirectoriesTracked.remove();
+    }
+  }
 
-      LOG.info("Unpack: %s".formatted(entry.getName()));
+  private static void deleteWorkDirectories(
+    final MNativePackagerServiceType packager,
+    final Set<Path> directories)
+  {
+    LOG.info(
+      "Packager {} was cancelled; deleting {} work directories.",
+      packager.name(),
+      Integer.valueOf(directories.size())
+    );
 
-      if (entry.getName().contains("..")) {
-        LOG.warn(
-          "Refusing to unpack an entry with '..' in the name ({})",
-          entry.getName()
-        );
-        continue;
-      }
+    for (final var directory : directories) {
+      deleteWorkDirectory(directory);
+    }
+  }
 
-      final String usedName;
-      if (stripRoot) {
-        usedName =
-          Stream.of(entry.getName().split("/"))
-            .skip(1L)
-            .collect(Collectors.joining("/"));
-      } else {
-        usedName = entry.getName();
-      }
+  private static void deleteWorkDirectory(
+    final Path directory)
+  {
+    if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+      return;
+    }
 
-      if (Objects.equals(usedName, "")) {
-        Files.createDirectories(outputDirectory);
-        setFakeTime(outputDirectory);
-        continue;
-      }
+    try {
+      PathUtils.deleteDirectory(
+        directory,
+        StandardDeleteOption.OVERRIDE_READ_ONLY
+      );
+    } catch (final IOException e) {
+      LOG.warn("Failed to delete work directory {}: ", directory, e);
+    }
+  }
+
+  private MNativePackagerResult executePackagerCached(
+    final MNativePackagerServiceType packager,
+    final MPackageReaderType packageReader)
+    throws MException, InterruptedException
+  {
+    final var localCache = this.outputCache();
+    if (localCache.isEmpty() && this.remoteCache.isEmpty()) {
+      return packager.execute(this, packageReader);
+    }
+
+    final var keyOpt = this.outputCacheKey(packager, packageReader);
+    if (keyOpt.isEmpty()) {
+      LOG.info(
+        "The Java runtime has no known hash; not caching the output of {}.",
+        packager.name()
+      );
+      return packager.execute(this, packageReader);
+    }
 
-      final var outFile = outputDirectory.resolve(usedName);
-      if (entry.isDirectory()) {
-        Files.createDirectories(outFile);
-        setPermissions(outFile, entry.getMode());
-        setFakeTime(outFile);
-        continue;
+    /*
+     * The caches create the output directory only when they actually have
+     * the output, so a miss does not leave an empty work directory behind.
+     */
+
+    final var key = keyOpt.get();
+    final var outputDirectory = this.workDirectoryPath();
+    if (localCache.isPresent()) {
+      final var cached =
+        localCache.get().find(key, outputDirectory);
+      if (cached.isPresent()) {
+        LOG.info("Using cached output {} for {}.", key, packager.name());
+        return cached.get();
       }
+    }
 
-      Files.createDirectories(outFile.getParent());
-      try (final var outStream =
-             Files.newOutputStream(outFile, OPEN_OPTIONS)) {
-        tar.transferTo(outStream);
-        outStream.flush();
-        setPermissions(outFile, entry.getMode());
-        setFakeTime(outFile);
+    if (this.remoteCache.isPresent()) {
+      final var fetched =
+        this.remoteCache.get().fetchOutput(key, outputDirectory);
+      if (fetched.isPresent()) {
+        LOG.info(
+          "Using remotely cached output {} for {}.",
+          key,
+          packager.name()
+        );
+        if (localCache.isPresent()) {
+          localCache.get().put(key, fetched.get());
+        }
+        return fetched.get();
       }
+
+      /*
+       * A failed fetch may have left part of the output behind.
+       */
+
+      deleteWorkDirectory(outputDirectory);
     }
+
+    final var result = packager.execute(this, packageReader);
+    if (localCache.isPresent()) {
+      localCache.get().put(key, result);
+    }
+    if (this.remoteCache.isPresent()) {
+      this.remoteCache.get().pushOutput(key, result);
+    }
+    return result;
   }
 
-  private static void setPermissions(
-    final Path outFile,
-    final int mode)
-    throws IOException
+  private Optional<MNOutputCache> outputCache()
+    throws MException
   {
+    final var configurationOpt = this.configuration.outputCache();
+    if (configurationOpt.isEmpty()) {
+      return Optional.empty();
+    }
+
+    this.outputCacheLock.lock();
     try {
-      Files.setPosixFilePermissions(outFile, modeToPermissions(mode));
-    } catch (final UnsupportedOperationException e) {
-      // Nothing we can do about this. Non-POSIX filesystem.
+      if (this.outputCache == null) {
+        this.outputCache = MNOutputCache.open(configurationOpt.get());
+      }
+      return Optional.of(this.outputCache);
+    } finally {
+      this.outputCacheLock.unlock();
+    }
+  }
+
+  /**
+   * Calculate the output cache key for the given packager. The key covers
+   * everything that determines the output of a packager: the package
+   * declaration (which includes the hash of every file in the package), the
+   * packager and its version, the Java runtime, the platform, the JDK that
+   * supplies tools such as {@code jpackage}, and the compression settings.
+   */
+
+  private Optional<String> outputCacheKey(
+    final MNativePackagerServiceType packager,
+    final MPackageReaderType packageReader)
+    throws MException
+  {
+    final var runtimeHash =
+      this.configuration.javaRuntimeDownloadSHA256()
+        .map(h -> "archive:" + h.toLowerCase(Locale.ROOT))
+        .or(() -> {
+          return this.configuration.javaRuntimeDirectorySHA256()
+            .map(h -> "tree:" + h.toLowerCase(Locale.ROOT));
+        });
+
+    if (runtimeHash.isEmpty()) {
+      return Optional.empty();
+    }
+
+    final var name = packager.name();
+    final var components = new TreeMap<String, String>();
+    components.put("format", "2");
+    components.put("package", packageDigest(packageReader));
+    components.put("packager", name.value());
+    components.put("packagerVersion", packager.version());
+    components.put(
+      "packagerVersionConfigured",
+      this.configuration.packagerVersion()
+    );
+    components.put("runtime", runtimeHash.get());
+    components.put("operatingSystem", this.operatingSystem.name());
+    components.put("architecture", this.architecture.name());
+    components.put("toolJDK", Runtime.version().toString());
+    components.put(
+      "platformRuntimes",
+      this.configuration.platformRuntimes()
+        .stream()
+        .map(r -> {
+          return "%s=%s".formatted(
+            r.platform(),
+            r.downloadSHA256().toLowerCase(Locale.ROOT)
+          );
+        })
+        .sorted()
+        .collect(Collectors.joining(","))
+    );
+    components.put(
+      "archiveCompression",
+      this.archiveCompression(name).map(Object::toString).orElse("")
+    );
+    components.put(
+      "archiveCompressionAdaptive",
+      this.archiveCompressionAdaptive(name).map(Object::toString).orElse("")
+    );
+    return Optional.of(MNOutputCache.key(components));
+  }
+
+  private static String packageDigest(
+    final MPackageReaderType packageReader)
+    throws MException
+  {
+    try (var output = new ByteArrayOutputStream()) {
+      new MPackageDeclarationSerializers()
+        .serialize(
+          URI.create("urn:unavailable"),
+          output,
+          packageReader.packageDeclaration()
+        );
+
+      return HexFormat.of().formatHex(
+        MessageDigest.getInstance("SHA-256").digest(output.toByteArray())
+      );
+    } catch (final SerializationException | IOException e) {
+      throw new MException(e.getMessage(), e, "error-serialization");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
     }
   }
 
-  private static Set<PosixFilePermission> modeToPermissions(
-    final int mode)
+  @Override
+  public void close()
+    throws MException
   {
-    final var set = new HashSet<PosixFilePermission>();
-    set.add(PosixFilePermission.OWNER_WRITE);
-    set.add(PosixFilePermission.OWNER_READ);
-    set.add(PosixFilePermission.GROUP_READ);
+    try {
+      this.resources.close();
+      this.executor.awaitTermination(30L, TimeUnit.SECONDS);
+
+      this.javaRuntimeDownloadLock.lock();
+      try {
+        if (this.runtime != null && this.runtimeStore != null) {
+          this.runtimeStore.release(this.runtime);
+          this.runtime = null;
+        }
+      } finally {
+        this.javaRuntimeDownloadLock.unlock();
+      }
+
+      this.platformRuntimesLock.lock();
+      try {
+        for (final var path : this.platformRuntimes.values()) {
+          this.runtimeStore.release(path);
+        }
+        this.platformRuntimes.clear();
+      } finally {
+        this.platformRuntimesLock.unlock();
+      }
+
+      /*
+       * The run lock may have been acquired on any thread that created a
+       * work directory, and is released here on the closing thread.
+       */
+
+      this.runLock.lock();
+      try {
+        final var lock = this.runFileLock;
+        this.runFileLock = null;
+        if (lock != null) {
+          lock.close();
+        }
+      } finally {
+        this.runLock.unlock();
+      }
 
-    if (bitIsSet(mode, 0b001_000_000)) {
-      set.add(PosixFilePermission.OWNER_EXECUTE);
+      this.configuration.workRetention()
+        .ifPresent(this::collectGarbage);
+    } catch (final Exception e) {
+      throw new MException(
+        Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()),
+        e,
+        "error-resource-close"
+      );
     }
+  }
 
-    return Set.copyOf(set);
+  @Override
+  public MOperatingSystemName operatingSystem()
+  {
+    return this.operatingSystem;
   }
 
-  private static boolean bitIsSet(
-    final int mode,
-    final int x)
+  @Override
+  public MArchitectureName architecture()
   {
-    return (mode & x) == x;
+    return this.architecture;
   }
 }
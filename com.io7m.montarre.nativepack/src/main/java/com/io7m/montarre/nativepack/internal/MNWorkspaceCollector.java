@@ -0,0 +1,334 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeWorkspaceRetention;
+import com.io7m.montarre.api.natives.MNativeWorkspaceRun;
+import org.apache.commons.io.file.PathUtils;
+import org.apache.commons.io.file.StandardDeleteOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Functions to remove the runs of a workspace that are not retained by a
+ * retention policy.
+ *
+ * <p>The {@code work} directory of a workspace contains one directory per
+ * run. Each run directory has an associated lock file that is held by the
+ * workspace that created the run for as long as the workspace is open, and
+ * so a run is only removed if its lock can be taken. The lock file of a run
+ * is removed along with the run; this is safe because run names are never
+ * reused, and the collector never waits for the lock of a run.</p>
+ */
+
+public final class MNWorkspaceCollector
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNWorkspaceCollector.class);
+
+  private static final String LOCK_SUFFIX =
+    ".lock";
+
+  private MNWorkspaceCollector()
+  {
+
+  }
+
+  /**
+   * @param baseDirectory The workspace base directory
+   *
+   * @return The directory that holds runs
+   */
+
+  public static Path runsDirectory(
+    final Path baseDirectory)
+  {
+    return baseDirectory.resolve("work");
+  }
+
+  /**
+   * @param run The run directory
+   *
+   * @return The lock file associated with the run
+   */
+
+  public static Path lockFile(
+    final Path run)
+  {
+    return run.resolveSibling(run.getFileName() + LOCK_SUFFIX);
+  }
+
+  /**
+   * List the runs in the given workspace base directory, most recently
+   * modified first.
+   *
+   * @param baseDirectory The workspace base directory
+   *
+   * @return The runs
+   *
+   * @throws MException On errors
+   */
+
+  public static List<MNativeWorkspaceRun> list(
+    final Path baseDirectory)
+    throws MException
+  {
+    Objects.requireNonNull(baseDirectory, "baseDirectory");
+
+    final var directory =
+      runsDirectory(baseDirectory.toAbsolutePath().normalize());
+
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+
+    final var results = new ArrayList<MNativeWorkspaceRun>();
+    try (var stream = Files.list(directory)) {
+      final var candidates =
+        stream.filter(p -> Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS))
+          .sorted()
+          .toList();
+
+      for (final var run : candidates) {
+        try {
+          results.add(
+            MNativeWorkspaceRun.builder()
+              .setDirectory(run)
+              .setSize(sizeOf(run))
+              .setTimeLastModified(
+                OffsetDateTime.ofInstant(
+                  Files.getLastModifiedTime(run).toInstant(),
+                  ZoneOffset.UTC
+                )
+              )
+              .build()
+          );
+        } catch (final NoSuchFileException e) {
+          // The run was removed concurrently.
+        }
+      }
+    } catch (final IOException e) {
+      throw errorIO(e, directory);
+    }
+
+    results.sort(
+      Comparator.comparing(MNativeWorkspaceRun::timeLastModified)
+        .reversed()
+    );
+    return List.copyOf(results);
+  }
+
+  private static long sizeOf(
+    final Path run)
+    throws IOException
+  {
+    final List<Path> paths;
+    try (var stream = Files.walk(run)) {
+      paths = stream.toList();
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    var size = 0L;
+    for (final var path : paths) {
+      if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+        try {
+          size += Files.size(path);
+        } catch (final NoSuchFileException e) {
+          // The file was removed concurrently.
+        }
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Select the runs that are not retained by the given policy.
+   *
+   * @param runs      The runs, most recently modified first
+   * @param retention The retention policy
+   * @param timeNow   The current time
+   *
+   * @return The runs to remove, in removal order
+   */
+
+  public static List<MNativeWorkspaceRun> selectEvictions(
+    final List<MNativeWorkspaceRun> runs,
+    final MNativeWorkspaceRetention retention,
+    final OffsetDateTime timeNow)
+  {
+    Objects.requireNonNull(runs, "runs");
+    Objects.requireNonNull(retention, "retention");
+    Objects.requireNonNull(timeNow, "timeNow");
+
+    final var evictions =
+      new LinkedHashSet<MNativeWorkspaceRun>();
+    final var maximumRuns =
+      retention.maximumRuns().orElse(Integer.MAX_VALUE);
+
+    for (int index = runs.size() - 1; index >= 0; --index) {
+      final var run = runs.get(index);
+      if (index >= maximumRuns) {
+        evictions.add(run);
+        continue;
+      }
+
+      final var maximumAge = retention.maximumAge();
+      if (maximumAge.isPresent()) {
+        final var oldest = timeNow.minus(maximumAge.get());
+        if (run.timeLastModified().isBefore(oldest)) {
+          evictions.add(run);
+        }
+      }
+    }
+
+    final var maximumSize = retention.maximumSize();
+    if (maximumSize.isPresent()) {
+      final var remaining =
+        runs.stream()
+          .filter(r -> !evictions.contains(r))
+          .toList();
+
+      evictions.addAll(
+        MNLRU.selectEvictions(
+          remaining,
+          MNativeWorkspaceRun::size,
+          Comparator.comparing(MNativeWorkspaceRun::timeLastModified),
+          r -> false,
+          maximumSize.getAsLong()
+        )
+      );
+    }
+    return List.copyOf(evictions);
+  }
+
+  /**
+   * Remove the runs in the given workspace base directory that are not
+   * retained by the given policy. Runs that are in use by any workspace in
+   * any process are not removed.
+   *
+   * @param baseDirectory The workspace base directory
+   * @param retention     The retention policy
+   *
+   * @return The removed runs
+   *
+   * @throws MException On errors
+   */
+
+  public static List<MNativeWorkspaceRun> collect(
+    final Path baseDirectory,
+    final MNativeWorkspaceRetention retention)
+    throws MException
+  {
+    Objects.requireNonNull(baseDirectory, "baseDirectory");
+    Objects.requireNonNull(retention, "retention");
+
+    final var evictions =
+      selectEvictions(
+        list(baseDirectory),
+        retention,
+        OffsetDateTime.now(ZoneOffset.UTC)
+      );
+
+    final var removed = new ArrayList<MNativeWorkspaceRun>();
+    var total = 0L;
+    for (final var run : evictions) {
+      try {
+        if (tryRemove(run)) {
+          removed.add(run);
+          total += run.size();
+        }
+      } catch (final IOException e) {
+        throw errorIO(e, run.directory());
+      }
+    }
+
+    if (!removed.isEmpty()) {
+      LOG.info(
+        "Removed {} work directories, reclaiming {} octets.",
+        Integer.valueOf(removed.size()),
+        Long.valueOf(total)
+      );
+    }
+    return List.copyOf(removed);
+  }
+
+  private static boolean tryRemove(
+    final MNativeWorkspaceRun run)
+    throws IOException
+  {
+    final var directory =
+      run.directory();
+    final var lock =
+      lockFile(directory);
+
+    final var lockOpt = MNFileLock.tryLock(lock);
+    if (lockOpt.isEmpty()) {
+      LOG.debug("Run {} is in use; not removing it.", directory);
+      return false;
+    }
+
+    try (var ignored = lockOpt.get()) {
+      if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+        return false;
+      }
+
+      LOG.debug(
+        "Removing run {} ({} octets, last modified {}).",
+        directory,
+        Long.valueOf(run.size()),
+        run.timeLastModified()
+      );
+
+      PathUtils.deleteDirectory(
+        directory,
+        StandardDeleteOption.OVERRIDE_READ_ONLY
+      );
+      Files.deleteIfExists(lock);
+      return true;
+    }
+  }
+
+  private static MException errorIO(
+    final IOException e,
+    final Path path)
+  {
+    return new MException(
+      "I/O error.",
+      e,
+      "error-io",
+      Map.ofEntries(Map.entry("Path", path.toString()))
+    );
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal;
+
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An input stream that decodes the blocks of a multi-block XZ file in
+ * parallel, and yields the decompressed bytes in order.
+ */
+
+public final class MNXZParallelInputStream extends InputStream
+{
+  private final Path file;
+  private final int blockCount;
+  private final ExecutorService executor;
+  private final ArrayDeque<Future<byte[]>> pending;
+  private final int window;
+  private int blockNext;
+  private byte[] current;
+  private int currentOffset;
+  private boolean closed;
+
+  private MNXZParallelInputStream(
+    final Path inFile,
+    final int inBlockCount,
+    final int inThreads)
+  {
+    this.file =
+      Objects.requireNonNull(inFile, "file");
+    this.blockCount =
+      inBlockCount;
+    this.window =
+      Math.max(1, inThreads);
+    this.executor =
+      Executors.newVirtualThreadPerTaskExecutor();
+    this.pending =
+      new ArrayDeque<>(this.window);
+    this.current =
+      new byte[0];
+    this.currentOffset =
+      0;
+    this.blockNext =
+      0;
+  }
+
+  /**
+   * Open an XZ file for reading. If the file contains more than one block,
+   * blocks are decoded in parallel using at most {@code threads} concurrent
+   * decoders. Files consisting of a single block are decoded sequentially.
+   *
+   * @param file    The file
+   * @param threads The maximum number of blocks decoded concurrently
+   *
+   * @return A stream of decompressed bytes
+   *
+   * @throws IOException On errors
+   */
+
+  public static InputStream open(
+    final Path file,
+    final int threads)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+
+    final int blocks;
+    final long largestBlock;
+    try (var stream = openSeekable(file)) {
+      blocks = stream.getBlockCount();
+      largestBlock = stream.getLargestBlockSize();
+    }
+
+    if (blocks <= 1 || threads <= 1 || largestBlock > Integer.MAX_VALUE) {
+      return new XZInputStream(
+        new BufferedInputStream(Files.newInputStream(file), 65536)
+      );
+    }
+
+    return new MNXZParallelInputStream(file, blocks, threads);
+  }
+
+  private static SeekableXZInputStream openSeekable(
+    final Path file)
+    throws IOException
+  {
+    final var input = new SeekableFileInputStream(file.toFile());
+    try {
+      return new SeekableXZInputStream(input);
+    } catch (final IOException e) {
+      input.close();
+      throw e;
+    }
+  }
+
+  private byte[] decodeBlock(
+    final int block)
+    throws IOException
+  {
+    try (var stream = openSeekable(this.file)) {
+      stream.seekToBlock(block);
+      final var data = new byte[Math.toIntExact(stream.getBlockSize(block))];
+      int offset = 0;
+      while (offset < data.length) {
+        final var r = stream.read(data, offset, data.length - offset);
+        if (r == -1) {
+          throw new IOException(
+            "Unexpected end of XZ block %d in %s".formatted(block, this.file)
+          );
+        }
+        offset += r;
+      }
+      return data;
+    }
+  }
+
+  private void schedule()
+  {
+    while (this.pending.size() < this.window
+           && this.blockNext < this.blockCount) {
+      final var block = this.blockNext;
+      this.pending.add(this.executor.submit(() -> this.decodeBlock(block)));
+      ++this.blockNext;
+    }
+  }
+
+  private boolean fill()
+    throws IOException
+  {
+    while (this.currentOffset >= this.current.length) {
+      this.schedule();
+
+      final var next = this.pending.poll();
+      if (next == null) {
+        return false;
+      }
+
+      try {
+        this.current = next.get();
+        this.currentOffset = 0;
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      } catch (final ExecutionException e) {
+        if (e.getCause() instanceof final IOException io) {
+          throw io;
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int read()
+    throws IOException
+  {
+    this.checkNotClosed();
+
+    if (!this.fill()) {
+      return -1;
+    }
+    return this.current[this.currentOffset++] & 0xff;
+  }
+
+  @Override
+  public int read(
+    final byte[] buffer,
+    final int offset,
+    final int length)
+    throws IOException
+  {
+    Objects.checkFromIndexSize(offset, length, buffer.length);
+    this.checkNotClosed();
+
+    if (length == 0) {
+      return 0;
+    }
+    if (!this.fill()) {
+      return -1;
+    }
+
+    final var count =
+      Math.min(length, this.current.length - this.currentOffset);
+    System.arraycopy(this.current, this.currentOffset, buffer, offset, count);
+    this.currentOffset += count;
+    return count;
+  }
+
+  @Override
+  public int available()
+  {
+    return this.current.length - this.currentOffset;
+  }
+
+  private void checkNotClosed()
+    throws IOException
+  {
+    if (this.closed) {
+      throw new IOException("Stream is closed.");
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    if (!this.closed) {
+      this.closed = true;
+      for (final var future : this.pending) {
+        future.cancel(true);
+      }
+      this.pending.clear();
+      this.executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.nativepack.internal;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * An output stream that compresses blocks in parallel, and writes the
+ * compressed blocks as a single multi-block XZ stream. Each block is
+ * compressed as a complete, independent XZ stream, and the block is then
+ * taken out of that stream and written along with an index that covers
+ * every block. A single stream is written because some decoders (such as
+ * the one used by {@code dpkg-deb}) stop at the end of the first stream
+ * of a file containing concatenated streams.
+ */
+
+public final class MNXZParallelOutputStream
+  extends MNParallelBlockOutputStream
+{
+  private static final VarHandle LE_INT =
+    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private static final int HEADER_SIZE = 12;
+  private static final int FOOTER_SIZE = 12;
+  private static final byte[] FOOTER_MAGIC = {(byte) 'Y', (byte) 'Z'};
+
+  private final LZMA2Options options;
+  private final ArrayList<IndexRecord> records;
+  private byte[] streamFlags;
+
+  /**
+   * Create a stream.
+   *
+   * @param inOutput    The underlying output stream
+   * @param inPreset    The XZ preset level in the range {@code [0, 9]}
+   * @param inBlockSize The size of uncompressed blocks
+   * @param inThreads   The maximum number of blocks compressed concurrently
+   *
+   * @throws UnsupportedOptionsException If the preset is invalid
+   */
+
+  public MNXZParallelOutputStream(
+    final OutputStream inOutput,
+    final int inPreset,
+    final int inBlockSize,
+    final int inThreads)
+    throws UnsupportedOptionsException
+  {
+    super(inOutput, inBlockSize, inThreads);
+    this.options = new LZMA2Options(inPreset);
+    this.records = new ArrayList<>();
+
+    /*
+     * Each block is compressed independently, so a dictionary larger than
+     * a block can never be used. The higher presets specify dictionaries of
+     * up to 64MiB, and the memory used by an encoder grows with the size of
+     * its dictionary, so the dictionary is limited to the block size.
+     */
+
+    this.options.setDictSize(
+      Math.max(
+        LZMA2Options.DICT_SIZE_MIN,
+        Math.min(this.options.getDictSize(), inBlockSize)
+      )
+    );
+  }
+
+  /**
+   * @return The memory in KiB used by each block encoder
+   */
+
+  public int encoderMemoryUsage()
+  {
+    return this.options.getEncoderMemoryUsage();
+  }
+
+  @Override
+  protected byte[] compressBlock(
+    final byte[] data,
+    final int length)
+    throws IOException
+  {
+    final var bytes = new ByteArrayOutputStream(Math.max(64, length / 4));
+    try (var xz = new XZOutputStream(bytes, this.options, XZ.CHECK_CRC64)) {
+      xz.write(data, 0, length);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Write the block contained in the given single-block XZ stream. The
+   * header of the first stream is written as the header of the output.
+   */
+
+  @Override
+  protected void writeBlock(
+    final OutputStream out,
+    final byte[] compressed)
+    throws IOException
+  {
+    final var length =
+      compressed.length;
+    final var backwardSize =
+      Integer.toUnsignedLong(
+        (int) LE_INT.get(compressed, length - FOOTER_SIZE + 4));
+    final var indexSize =
+      Math.toIntExact((backwardSize + 1L) * 4L);
+    final var indexStart =
+      length - FOOTER_SIZE - indexSize;
+
+    if (this.streamFlags == null) {
+      this.streamFlags =
+        Arrays.copyOfRange(compressed, 6, 8);
+      out.write(compressed, 0, HEADER_SIZE);
+    }
+
+    /*
+     * The index of a single-block stream is the indicator byte, the number
+     * of records (always one), and the unpadded and uncompressed sizes of
+     * the block.
+     */
+
+    final var index =
+      new ByteArrayInputStream(compressed, indexStart, indexSize);
+
+    if (index.read() != 0 || readVarInt(index) != 1L) {
+      throw new IOException("Unexpected XZ index in compressed block.");
+    }
+
+    this.records.add(
+      new IndexRecord(readVarInt(index), readVarInt(index))
+    );
+    out.write(compressed, HEADER_SIZE, indexStart - HEADER_SIZE);
+  }
+
+  @Override
+  protected void writeTrailer(
+    final OutputStream out)
+    throws IOException
+  {
+    final var index = new ByteArrayOutputStream();
+    index.write(0);
+    writeVarInt(index, this.records.size());
+    for (final var record : this.records) {
+      writeVarInt(index, record.unpaddedSize());
+      writeVarInt(index, record.uncompressedSize());
+    }
+    while (index.size() % 4 != 0) {
+      index.write(0);
+    }
+
+    final var indexBytes = index.toByteArray();
+    final var indexCRC = new CRC32();
+    indexCRC.update(indexBytes);
+    out.write(indexBytes);
+    writeInt(out, (int) indexCRC.getValue());
+
+    final var footer = new byte[6];
+    LE_INT.set(footer, 0, (indexBytes.length + 4) / 4 - 1);
+    footer[4] = this.streamFlags[0];
+    footer[5] = this.streamFlags[1];
+
+    final var footerCRC = new CRC32();
+    footerCRC.update(footer);
+    writeInt(out, (int) footerCRC.getValue());
+    out.write(footer);
+    out.write(FOOTER_MAGIC);
+  }
+
+  private static void writeInt(
+    final OutputStream out,
+    final int value)
+    throws IOException
+  {
+    final var bytes = new byte[4];
+    LE_INT.set(bytes, 0, value);
+    out.write(bytes);
+  }
+
+  private static long readVarInt(
+    final ByteArrayInputStream in)
+    throws IOException
+  {
+    long value = 0L;
+    for (int shift = 0; shift < 63; shift += 7) {
+      final var b = in.read();
+      if (b == -1) {
+        throw new IOException("Truncated XZ index in compressed block.");
+      }
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid XZ index in compressed block.");
+  }
+
+  private static void writeVarInt(
+    final ByteArrayOutputStream out,
+    final long value)
+  {
+    var remaining = value;
+    while (remaining >= 0x80L) {
+      out.write((int) (remaining & 0x7fL) | 0x80);
+      remaining >>>= 7;
+    }
+    out.write((int) remaining);
+  }
+
+  private record IndexRecord(
+    long unpaddedSize,
+    long uncompressedSize)
+  {
+
+  }
+}
@@ -24,12 +24,15 @@ import com.io7m.montarre.api.MOperatingSystemName;
 import com.io7m.montarre.api.MPackageDeclaration;
 import com.io7m.montarre.api.MShortName;
 import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
 import com.io7m.montarre.api.natives.MNativePackagerServiceProviderType;
 import com.io7m.montarre.api.natives.MNativePackagerServiceType;
+import com.io7m.montarre.api.natives.MNativeProcessesType;
 import com.io7m.montarre.api.natives.MNativeWorkspaceType;
 import com.io7m.montarre.nativepack.internal.MNArchives;
+import com.io7m.montarre.nativepack.internal.MNJPackage;
 import com.io7m.montarre.nativepack.internal.MNPackagerAbstract;
-import com.io7m.seltzer.api.SStructuredError;
 import com.io7m.seltzer.api.SStructuredErrorType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,10 +41,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.spi.ToolProvider;
 
 import static com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy.IGNORE;
 import static com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy.MERGE;
@@ -57,18 +58,31 @@ public final class MNPackagerAppImage
   private static final Logger LOG =
     LoggerFactory.getLogger(MNPackagerAppImage.class);
 
-  private Path appImageRoot;
+  /**
+   * The name of the auxiliary tree that holds the unpacked app-image.
+   *
+   * @see MNativePackagerResult#auxiliaryTrees()
+   */
+
+  public static final String APP_IMAGE_TREE = "app-image";
+
+  private final MNativeProcessesType processes;
 
   /**
    * A native packager that produces jpackage "app-images".
    *
-   * @param inProvider The provider
+   * @param inProvider  The provider
+   * @param inProcesses The processes
    */
 
   public MNPackagerAppImage(
-    final MNativePackagerServiceProviderType inProvider)
+    final MNativePackagerServiceProviderType inProvider,
+    final MNativeProcessesType inProcesses)
   {
     super(inProvider);
+
+    this.processes =
+      Objects.requireNonNull(inProcesses, "processes");
   }
 
   private void executeJPackage(
@@ -77,9 +91,8 @@ public final class MNPackagerAppImage
     final MMetadataType metadata,
     final Path appDirectory,
     final Path buildDirectory,
-    final Optional<Path> iconFile,
-    final ToolProvider tool)
-    throws MException
+    final Optional<Path> iconFile)
+    throws MException, InterruptedException
   {
     final var arguments = new ArrayList<String>();
     arguments.add("--verbose");
@@ -123,44 +136,19 @@ public final class MNPackagerAppImage
       arguments.add(iconFile.get().toString());
     }
 
-    LOG.info("Executing jpackage tool.");
-    final var r =
-      tool.run(System.out, System.err, arguments.toArray(new String[0]));
-
-    if (r != 0) {
-      throw new MException(
-        "The jpackage tool returned an error.",
-        "error-jpackage",
-        Map.of("Exit Code", Integer.toString(r))
-      );
-    }
+    workspace.jpackage()
+      .execute(this.processes, this.name(), arguments);
   }
 
   @Override
   public Optional<SStructuredErrorType<String>> unsupportedReason(
     final Optional<MPackageDeclaration> packageV)
   {
-    final var toolOpt =
-      ToolProvider.findFirst("jpackage");
-
-    if (toolOpt.isEmpty()) {
-      return Optional.of(
-        new SStructuredError<>(
-          "error-jpackage",
-          "The jpackage tool does not appear to be present in this JDK.",
-          Map.of(),
-          Optional.of(
-            "Verify that you are using a JDK with the jdk.jpackage module installed and working."),
-          Optional.empty()
-        )
-      );
-    }
-
-    return Optional.empty();
+    return MNJPackage.unsupportedReason();
   }
 
   @Override
-  public Path execute(
+  public MNativePackagerResult execute(
     final MNativeWorkspaceType workspace,
     final MPackageReaderType packageV)
     throws MException
@@ -168,9 +156,8 @@ public final class MNPackagerAppImage
     Objects.requireNonNull(workspace, "workspace");
     Objects.requireNonNull(packageV, "packageV");
 
-    final var tool =
-      ToolProvider.findFirst("jpackage")
-        .orElseThrow(() -> new IllegalStateException("jpackage tool missing."));
+    final var execution =
+      this.createExecution(workspace, packageV);
 
     try {
       final var directory =
@@ -182,16 +169,15 @@ public final class MNPackagerAppImage
       final var buildDirectory =
         outputDirectory.resolve("build");
 
-      this.setAttribute("Directory", appDirectory);
+      execution.setAttribute("Directory", appDirectory);
       Files.createDirectories(appDirectory);
-      this.setAttribute("Directory", outputDirectory);
+      execution.setAttribute("Directory", outputDirectory);
       Files.createDirectories(outputDirectory);
-      this.setAttribute("Directory", buildDirectory);
+      execution.setAttribute("Directory", buildDirectory);
       Files.createDirectories(buildDirectory);
 
       final var jdkPath =
-        workspace.javaRuntime()
-          .get();
+        workspace.awaitJavaRuntime();
 
       LOG.info("Unpacking application to {}.", appDirectory);
       packageV.unpackInto(
@@ -215,33 +201,30 @@ public final class MNPackagerAppImage
         metadata,
         appDirectory,
         buildDirectory,
-        iconFile,
-        tool
+        iconFile
       );
 
-      this.appImageRoot =
+      final var appImageRoot =
         buildDirectory.resolve(metadata.names().shortName().name());
 
-      return this.packOutput(
-        workspace,
-        outputDirectory,
-        metadata.names().shortName(),
-        this.archiveName(workspace, metadata)
-      );
+      final var result =
+        this.packOutput(
+          workspace,
+          appImageRoot,
+          outputDirectory,
+          metadata.names().shortName(),
+          this.archiveName(workspace, metadata)
+        );
+
+      return MNativePackagerResult.builder()
+        .from(result)
+        .putAuxiliaryTrees(APP_IMAGE_TREE, appImageRoot)
+        .build();
     } catch (final Exception e) {
-      throw this.error(e);
+      throw execution.error(e);
     }
   }
 
-  /**
-   * @return The app image root directory
-   */
-
-  public Path appImageRoot()
-  {
-    return this.appImageRoot;
-  }
-
   private String archiveName(
     final MNativeWorkspaceType workspace,
     final MMetadataType metadata)
@@ -254,28 +237,40 @@ public final class MNPackagerAppImage
     );
   }
 
-  private Path packOutput(
+  private MNativePackagerResult packOutput(
     final MNativeWorkspaceType workspace,
+    final Path appImageRoot,
     final Path outDirectory,
     final MShortName shortName,
     final String baseName)
     throws IOException, ClosingResourceFailedException
   {
-    if (Objects.equals(
-      workspace.operatingSystem(),
-      MOperatingSystemName.windows())) {
-      return MNArchives.packZip(
-        this.appImageRoot,
-        outDirectory.resolve(baseName + ".zip"),
-        shortName
+    final var compression =
+      MNArchives.compressionFor(
+        workspace,
+        this.name(),
+        appImageRoot,
+        defaultCompression(workspace)
       );
-    }
 
-    return MNArchives.packTar(
-      this.appImageRoot,
-      outDirectory.resolve(baseName + ".txz"),
+    return MNArchives.pack(
+      compression,
+      appImageRoot,
+      outDirectory.resolve(
+        baseName + "." + compression.codec().fileExtension()),
       entry -> entry.startsWith("bin/"),
       shortName
     );
   }
+
+  private static MNativeArchiveCompression defaultCompression(
+    final MNativeWorkspaceType workspace)
+  {
+    if (Objects.equals(
+      workspace.operatingSystem(),
+      MOperatingSystemName.windows())) {
+      return MNArchives.defaultZipCompression();
+    }
+    return MNArchives.defaultTarCompression();
+  }
 }
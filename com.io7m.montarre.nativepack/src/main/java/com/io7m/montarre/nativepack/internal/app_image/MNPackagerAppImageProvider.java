@@ -57,6 +57,6 @@ public final class MNPackagerAppImageProvider
   public MNativePackagerServiceType create(
     final MNativeProcessesType processes)
   {
-    return new MNPackagerAppImage(this);
+    return new MNPackagerAppImage(this, processes);
   }
 }
@@ -18,15 +18,19 @@
 package com.io7m.montarre.nativepack.internal.deb;
 
 import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MLink;
 import com.io7m.montarre.api.MLinkRole;
 import com.io7m.montarre.api.MMetadataType;
 import com.io7m.montarre.api.MPackageDeclaration;
 import com.io7m.montarre.api.MShortName;
 import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
 import com.io7m.montarre.api.natives.MNativePackagerServiceProviderType;
 import com.io7m.montarre.api.natives.MNativePackagerServiceType;
 import com.io7m.montarre.api.natives.MNativeProcessesType;
 import com.io7m.montarre.api.natives.MNativeWorkspaceType;
+import com.io7m.montarre.nativepack.internal.MNDigestOutputStream;
+import com.io7m.montarre.nativepack.internal.MNJPackage;
 import com.io7m.montarre.nativepack.internal.MNPackagerAbstract;
 import com.io7m.seltzer.api.SStructuredError;
 import com.io7m.seltzer.api.SStructuredErrorType;
@@ -43,8 +47,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.spi.ToolProvider;
 
 import static com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy.IGNORE;
 import static com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy.MERGE;
@@ -84,27 +86,14 @@ public final class MNPackagerDeb
     final Optional<MPackageDeclaration> packageV)
     throws InterruptedException
   {
-    final var toolOpt =
-      ToolProvider.findFirst("jpackage");
-
-    if (toolOpt.isEmpty()) {
-      return Optional.of(
-        new SStructuredError<>(
-          "error-jpackage",
-          "The jpackage tool does not appear to be present in this JDK.",
-          Map.of(),
-          Optional.of(
-            "Verify that you are using a JDK with the jdk.jpackage module installed and working."),
-          Optional.empty()
-        )
-      );
+    final var jpackageReason = MNJPackage.unsupportedReason();
+    if (jpackageReason.isPresent()) {
+      return jpackageReason;
     }
 
     try {
-      final var r = this.processes.executeAndWait(
+      final var r = this.processes.probe(
         System.getenv(),
-        new ConcurrentLinkedQueue<>(),
-        new ConcurrentLinkedQueue<>(),
         List.of(
           "dpkg",
           "--version"
@@ -130,7 +119,7 @@ public final class MNPackagerDeb
   }
 
   @Override
-  public Path execute(
+  public MNativePackagerResult execute(
     final MNativeWorkspaceType workspace,
     final MPackageReaderType packageV)
     throws MException
@@ -138,9 +127,8 @@ public final class MNPackagerDeb
     Objects.requireNonNull(workspace, "workspace");
     Objects.requireNonNull(packageV, "packageV");
 
-    final var tool =
-      ToolProvider.findFirst("jpackage")
-        .orElseThrow(() -> new IllegalStateException("jpackage tool missing."));
+    final var execution =
+      this.createExecution(workspace, packageV);
 
     try {
       final var directory =
@@ -152,16 +140,15 @@ public final class MNPackagerDeb
       final var buildDirectory =
         outputDirectory.resolve("build");
 
-      this.setAttribute("Directory", appDirectory);
+      execution.setAttribute("Directory", appDirectory);
       Files.createDirectories(appDirectory);
-      this.setAttribute("Directory", outputDirectory);
+      execution.setAttribute("Directory", outputDirectory);
       Files.createDirectories(outputDirectory);
-      this.setAttribute("Directory", buildDirectory);
+      execution.setAttribute("Directory", buildDirectory);
       Files.createDirectories(buildDirectory);
 
       final var jdkPath =
-        workspace.javaRuntime()
-          .get();
+        workspace.awaitJavaRuntime();
 
       LOG.info("Unpacking application to {}.", appDirectory);
       packageV.unpackInto(
@@ -182,38 +169,40 @@ public final class MNPackagerDeb
       final var metadata =
         packageV.packageDeclaration().metadata();
 
-      executeJPackage(
+      this.executeJPackage(
+        workspace,
         jdkPath,
         metadata.names().shortName(),
         metadata,
         appDirectory,
         buildDirectory,
         iconFile,
-        licenseFile,
-        tool
+        licenseFile
       );
 
-      return this.findOutput(
-        workspace,
-        metadata.names().shortName(),
-        metadata.version().version(),
-        buildDirectory
+      return MNDigestOutputStream.resultOfFile(
+        this.findOutput(
+          workspace,
+          metadata.names().shortName(),
+          metadata.version().version(),
+          buildDirectory
+        )
       );
     } catch (final Exception e) {
-      throw this.error(e);
+      throw execution.error(e);
     }
   }
 
-  private static void executeJPackage(
+  private void executeJPackage(
+    final MNativeWorkspaceType workspace,
     final Path jdkPath,
     final MShortName shortName,
     final MMetadataType metadata,
     final Path appDirectory,
     final Path buildDirectory,
     final Optional<Path> iconFile,
-    final Optional<Path> licenseFile,
-    final ToolProvider tool)
-    throws MException
+    final Optional<Path> licenseFile)
+    throws MException, InterruptedException
   {
     final var arguments = new ArrayList<String>();
     arguments.add("--verbose");
@@ -237,6 +226,14 @@ public final class MNPackagerDeb
     arguments.add(metadata.description().text().text());
     arguments.add("--linux-package-name");
     arguments.add(metadata.names().shortName().name());
+    arguments.add("--vendor");
+    arguments.add(metadata.vendor().name().name());
+
+    final var maintainerEmail = maintainerEmail(metadata);
+    if (maintainerEmail.isPresent()) {
+      arguments.add("--linux-deb-maintainer");
+      arguments.add(maintainerEmail.get());
+    }
 
     arguments.add("--about-url");
     arguments.add(
@@ -259,17 +256,31 @@ public final class MNPackagerDeb
       arguments.add(licenseFile.get().toString());
     }
 
-    LOG.info("Executing jpackage tool.");
-    final var r =
-      tool.run(System.out, System.err, arguments.toArray(new String[0]));
+    workspace.jpackage()
+      .execute(this.processes, this.name(), arguments);
+  }
 
-    if (r != 0) {
-      throw new MException(
-        "The jpackage tool returned an error.",
-        "error-jpackage",
-        Map.of("Exit Code", Integer.toString(r))
-      );
-    }
+  /**
+   * Find the email address of the package maintainer. This is the address
+   * of the first {@code mailto:} link with the {@link MLinkRole#CONTACT}
+   * role.
+   *
+   * @param metadata The metadata
+   *
+   * @return The email address, if any
+   */
+
+  static Optional<String> maintainerEmail(
+    final MMetadataType metadata)
+  {
+    return metadata.links()
+      .stream()
+      .filter(k -> k.role() == MLinkRole.CONTACT)
+      .map(MLink::target)
+      .filter(u -> "mailto".equalsIgnoreCase(u.getScheme()))
+      .map(u -> u.getSchemeSpecificPart().split("\\?", 2)[0].strip())
+      .filter(a -> !a.isEmpty())
+      .findFirst();
   }
 
   private Path findOutput(
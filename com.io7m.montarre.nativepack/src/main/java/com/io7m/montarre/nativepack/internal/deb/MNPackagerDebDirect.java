@@ -0,0 +1,464 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.nativepack.internal.deb;
+
+import com.io7m.montarre.api.MArchitectureName;
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MJavaInfoType;
+import com.io7m.montarre.api.MLanguageCode;
+import com.io7m.montarre.api.MLinkRole;
+import com.io7m.montarre.api.MMetadataType;
+import com.io7m.montarre.api.MOperatingSystemName;
+import com.io7m.montarre.api.MPackageDeclaration;
+import com.io7m.montarre.api.MParagraph;
+import com.io7m.montarre.api.MShortName;
+import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import com.io7m.montarre.api.natives.MNativePackagerServiceProviderType;
+import com.io7m.montarre.api.natives.MNativePackagerServiceType;
+import com.io7m.montarre.api.natives.MNativeWorkspaceType;
+import com.io7m.montarre.nativepack.internal.MNArchives;
+import com.io7m.montarre.nativepack.internal.MNDebWriter;
+import com.io7m.montarre.nativepack.internal.MNPackagerAbstract;
+import com.io7m.montarre.nativepack.internal.MNTreeMaterializer;
+import com.io7m.montarre.nativepack.internal.flatpak.MNDesktopFile;
+import com.io7m.seltzer.api.SStructuredError;
+import com.io7m.seltzer.api.SStructuredErrorType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SequencedMap;
+
+import static com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy.IGNORE;
+import static com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy.MERGE;
+
+/**
+ * A native packager that produces Debian packages. Packages are written
+ * directly by {@link MNDebWriter}, and so neither {@code jpackage} nor
+ * {@code dpkg} are required on the host. Unlike {@link MNPackagerDeb},
+ * the application is started by a shell script rather than by a native
+ * launcher.
+ */
+
+public final class MNPackagerDebDirect
+  extends MNPackagerAbstract
+  implements MNativePackagerServiceType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNPackagerDebDirect.class);
+
+  private static final String ERROR_MAINTAINER =
+    "Debian packages require a maintainer email address.";
+  private static final String REMEDIATE_MAINTAINER =
+    "Add a CONTACT link with a mailto: URI to the package metadata.";
+
+  private static final Map<MArchitectureName, String> ARCHITECTURES =
+    Map.ofEntries(
+      Map.entry(MArchitectureName.x86_64(), "amd64"),
+      Map.entry(MArchitectureName.x86_32(), "i386"),
+      Map.entry(MArchitectureName.aarch_64(), "arm64"),
+      Map.entry(MArchitectureName.arm_32(), "armhf"),
+      Map.entry(MArchitectureName.ppcle_64(), "ppc64el"),
+      Map.entry(MArchitectureName.s390_64(), "s390x"),
+      Map.entry(MArchitectureName.riscv_64(), "riscv64"),
+      Map.entry(MArchitectureName.loongarch_64(), "loong64")
+    );
+
+  /**
+   * A native packager that produces Debian packages without jpackage.
+   *
+   * @param inProvider The provider
+   */
+
+  public MNPackagerDebDirect(
+    final MNativePackagerServiceProviderType inProvider)
+  {
+    super(inProvider);
+  }
+
+  @Override
+  public Optional<SStructuredErrorType<String>> unsupportedReason(
+    final Optional<MPackageDeclaration> packageV)
+  {
+    if (packageV.isEmpty()) {
+      return Optional.empty();
+    }
+
+    final var metadata = packageV.get().metadata();
+    if (MNPackagerDeb.maintainerEmail(metadata).isEmpty()) {
+      return Optional.of(
+        new SStructuredError<>(
+          "error-deb-maintainer",
+          ERROR_MAINTAINER,
+          Map.of(),
+          Optional.of(REMEDIATE_MAINTAINER),
+          Optional.empty()
+        )
+      );
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public MNativePackagerResult execute(
+    final MNativeWorkspaceType workspace,
+    final MPackageReaderType packageV)
+    throws MException
+  {
+    Objects.requireNonNull(workspace, "workspace");
+    Objects.requireNonNull(packageV, "packageV");
+
+    final var execution =
+      this.createExecution(workspace, packageV);
+
+    try {
+      execution.setAttribute("Operating System", workspace.operatingSystem());
+      if (!Objects.equals(
+        workspace.operatingSystem(),
+        MOperatingSystemName.linux())) {
+        throw new MException(
+          "Debian packages can only be produced for Linux.",
+          "error-deb-os",
+          execution.attributes(),
+          Optional.of("Set the workspace operating system to linux.")
+        );
+      }
+
+      execution.setAttribute("Architecture", workspace.architecture());
+      final var debArchitecture =
+        ARCHITECTURES.get(workspace.architecture());
+      if (debArchitecture == null) {
+        throw new MException(
+          "The architecture has no corresponding Debian architecture.",
+          "error-deb-architecture",
+          execution.attributes(),
+          Optional.empty()
+        );
+      }
+
+      final var declaration =
+        packageV.packageDeclaration();
+      final var metadata =
+        declaration.metadata();
+      final var shortName =
+        metadata.names().shortName();
+
+      final var maintainerEmail =
+        MNPackagerDeb.maintainerEmail(metadata);
+      if (maintainerEmail.isEmpty()) {
+        throw new MException(
+          ERROR_MAINTAINER,
+          "error-deb-maintainer",
+          execution.attributes(),
+          Optional.of(REMEDIATE_MAINTAINER)
+        );
+      }
+
+      final var directory =
+        workspace.createWorkDirectory();
+      final var dataDirectory =
+        directory.resolve("data");
+      final var installDirectory =
+        dataDirectory.resolve("opt")
+          .resolve(shortName.name());
+      final var outputDirectory =
+        directory.resolve("output");
+
+      execution.setAttribute("Directory", installDirectory);
+      Files.createDirectories(installDirectory);
+      execution.setAttribute("Directory", outputDirectory);
+      Files.createDirectories(outputDirectory);
+
+      final var jdkPath =
+        workspace.awaitJavaRuntime();
+
+      LOG.info("Unpacking application to {}.", installDirectory);
+      packageV.unpackInto(
+        installDirectory,
+        module -> {
+          if (workspace.matchesModule(module)) {
+            return MERGE;
+          } else {
+            return IGNORE;
+          }
+        });
+
+      LOG.info("Copying runtime to {}.", installDirectory);
+      MNTreeMaterializer.materialize(
+        jdkPath,
+        installDirectory.resolve("runtime")
+      );
+
+      this.writeDataFiles(
+        workspace,
+        packageV,
+        directory,
+        dataDirectory,
+        declaration
+      );
+
+      final var version =
+        metadata.version().version();
+      final var outputFile =
+        outputDirectory.resolve(
+          "%s-%s-%s-%s.deb".formatted(
+            shortName,
+            version,
+            workspace.architecture(),
+            workspace.operatingSystem()
+          )
+        );
+
+      return MNDebWriter.write(
+        MNArchives.compressionFor(
+          workspace,
+          this.name(),
+          dataDirectory,
+          MNArchives.defaultTarCompression()
+        ),
+        controlFields(metadata, maintainerEmail.get(), debArchitecture),
+        dataDirectory,
+        outputFile
+      );
+    } catch (final Exception e) {
+      throw execution.error(e);
+    }
+  }
+
+  private void writeDataFiles(
+    final MNativeWorkspaceType workspace,
+    final MPackageReaderType packageV,
+    final Path directory,
+    final Path dataDirectory,
+    final MPackageDeclaration declaration)
+    throws IOException, MException
+  {
+    final var metadata =
+      declaration.metadata();
+    final var shortName =
+      metadata.names().shortName();
+    final var name =
+      shortName.name();
+
+    final var binDirectory =
+      dataDirectory.resolve("opt")
+        .resolve(name)
+        .resolve("bin");
+    final var launcher =
+      binDirectory.resolve(name);
+
+    Files.createDirectories(binDirectory);
+    Files.writeString(
+      launcher,
+      launcherText(metadata.javaInfo(), shortName),
+      this.writeReplaceOptions()
+    );
+    setExecutable(launcher);
+
+    final var usrBin =
+      dataDirectory.resolve("usr")
+        .resolve("bin");
+    Files.createDirectories(usrBin);
+    Files.createSymbolicLink(
+      usrBin.resolve(name),
+      Path.of("/opt", name, "bin", name)
+    );
+
+    final var licenseFile =
+      this.unpackLicense(packageV, directory);
+    if (licenseFile.isPresent()) {
+      final var docDirectory =
+        dataDirectory.resolve("usr")
+          .resolve("share")
+          .resolve("doc")
+          .resolve(name);
+      Files.createDirectories(docDirectory);
+      Files.copy(licenseFile.get(), docDirectory.resolve("copyright"));
+    }
+
+    /*
+     * The desktop file names the icon by the package name, and so the icon
+     * is installed under the same name.
+     */
+
+    final var packageName =
+      metadata.names().packageName();
+
+    final var iconFile =
+      this.unpackIcon(workspace, packageV, directory);
+    if (iconFile.isPresent()) {
+      final var pixmaps =
+        dataDirectory.resolve("usr")
+          .resolve("share")
+          .resolve("pixmaps");
+      Files.createDirectories(pixmaps);
+      Files.copy(iconFile.get(), pixmaps.resolve(packageName + ".png"));
+    }
+
+    final var applications =
+      dataDirectory.resolve("usr")
+        .resolve("share")
+        .resolve("applications");
+    Files.createDirectories(applications);
+    Files.writeString(
+      applications.resolve(packageName + ".desktop"),
+      MNDesktopFile.createDesktopFileText(declaration, "/usr/bin/" + name),
+      this.writeReplaceOptions()
+    );
+  }
+
+  private static void setExecutable(
+    final Path file)
+    throws IOException
+  {
+    try {
+      Files.setPosixFilePermissions(
+        file,
+        PosixFilePermissions.fromString("rwxr-xr-x")
+      );
+    } catch (final UnsupportedOperationException e) {
+      LOG.warn("Unable to mark {} as executable.", file);
+    }
+  }
+
+  /**
+   * Generate the text of the launcher installed in {@code /opt/name/bin}.
+   * The launcher always uses the runtime included in the package.
+   *
+   * @param javaInfo  The Java info
+   * @param shortName The short name
+   *
+   * @return The text
+   */
+
+  static String launcherText(
+    final MJavaInfoType javaInfo,
+    final MShortName shortName)
+  {
+    final var home = "/opt/" + shortName.name();
+    return String.join(
+      "\n",
+      List.of(
+        "#!/bin/sh",
+        "",
+        "exec \"%s/runtime/bin/java\" \\".formatted(home),
+        "  -p \"%s/lib\" \\".formatted(home),
+        "  -m %s \\".formatted(javaInfo.mainModule()),
+        "  \"$@\"",
+        ""
+      )
+    );
+  }
+
+  /**
+   * Produce the fields of the {@code control} file.
+   *
+   * @param metadata        The metadata
+   * @param maintainerEmail The email address of the maintainer
+   * @param architecture    The Debian architecture name
+   *
+   * @return The fields
+   */
+
+  static SequencedMap<String, String> controlFields(
+    final MMetadataType metadata,
+    final String maintainerEmail,
+    final String architecture)
+  {
+    final var fields = new LinkedHashMap<String, String>();
+    fields.put("Package", metadata.names().shortName().name().replace('_', '-'));
+    fields.put("Version", metadata.version().version().toString());
+    fields.put("Architecture", architecture);
+    fields.put(
+      "Maintainer",
+      "%s <%s>".formatted(metadata.vendor().name().name(), maintainerEmail)
+    );
+    fields.put("Section", "misc");
+    fields.put("Priority", "optional");
+
+    metadata.links()
+      .stream()
+      .filter(k -> k.role() == MLinkRole.HOME_PAGE)
+      .findFirst()
+      .ifPresent(link -> fields.put("Homepage", link.target().toString()));
+
+    fields.put("Description", description(metadata));
+    return fields;
+  }
+
+  /**
+   * The first line of a Debian description is the synopsis, and the
+   * remaining lines are the extended description. The English long
+   * description is used if there is one.
+   */
+
+  private static String description(
+    final MMetadataType metadata)
+  {
+    final var lines = new ArrayList<String>();
+    final var text = metadata.description().text();
+    lines.add(normalizeSpace(text.text()));
+
+    final var longDescription =
+      metadata.longDescriptionsByLanguage()
+        .get(new MLanguageCode("en"));
+
+    if (longDescription != null) {
+      final var paragraphs =
+        longDescription.descriptions()
+          .stream()
+          .map(MParagraph::text)
+          .map(MNPackagerDebDirect::normalizeSpace)
+          .filter(s -> !s.equals(lines.get(0)))
+          .toList();
+
+      for (final var paragraph : paragraphs) {
+        if (lines.size() > 1) {
+          lines.add("");
+        }
+        lines.add(paragraph);
+      }
+
+      final var features = longDescription.features();
+      if (!features.isEmpty()) {
+        if (lines.size() > 1) {
+          lines.add("");
+        }
+        for (final var feature : features) {
+          lines.add(" * " + normalizeSpace(feature.text()));
+        }
+      }
+    }
+    return String.join("\n", lines);
+  }
+
+  private static String normalizeSpace(
+    final String text)
+  {
+    return text.strip().replaceAll("\\s+", " ");
+  }
+}
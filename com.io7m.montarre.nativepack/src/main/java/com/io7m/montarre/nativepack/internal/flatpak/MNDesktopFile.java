@@ -39,7 +39,7 @@ public final class MNDesktopFile
   }
 
   /**
-   * Generate the lines of a desktop file.
+   * Generate the lines of a desktop file for a Flatpak package.
    *
    * @param packageV The package
    *
@@ -48,6 +48,25 @@ public final class MNDesktopFile
 
   public static List<String> createDesktopFile(
     final MPackageDeclaration packageV)
+  {
+    return createDesktopFile(
+      packageV,
+      "/app/bin/%s".formatted(packageV.metadata().names().shortName())
+    );
+  }
+
+  /**
+   * Generate the lines of a desktop file.
+   *
+   * @param packageV   The package
+   * @param executable The absolute path of the application's executable
+   *
+   * @return The lines of the file
+   */
+
+  public static List<String> createDesktopFile(
+    final MPackageDeclaration packageV,
+    final String executable)
   {
     final var anyIcons =
       packageV.manifest()
@@ -65,7 +84,7 @@ public final class MNDesktopFile
     lines.add("[Desktop Entry]");
     lines.add("Type=Application");
     lines.add("Name=%s".formatted(metadata.names().humanName()));
-    lines.add("Exec=/app/bin/%s".formatted(metadata.names().shortName()));
+    lines.add("Exec=%s".formatted(executable));
 
     if (anyIcons) {
       lines.add("Icon=%s".formatted(metadata.names().packageName()));
@@ -94,4 +113,20 @@ public final class MNDesktopFile
   {
     return String.join("\n", createDesktopFile(packageV));
   }
+
+  /**
+   * Generate the text of a desktop file.
+   *
+   * @param packageV   The package
+   * @param executable The absolute path of the application's executable
+   *
+   * @return The text of the file
+   */
+
+  public static String createDesktopFileText(
+    final MPackageDeclaration packageV,
+    final String executable)
+  {
+    return String.join("\n", createDesktopFile(packageV, executable));
+  }
 }
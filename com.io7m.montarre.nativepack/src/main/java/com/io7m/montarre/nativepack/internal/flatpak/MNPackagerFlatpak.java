@@ -24,16 +24,18 @@ import com.io7m.montarre.api.MFlatpakRuntimeRole;
 import com.io7m.montarre.api.MPackageDeclaration;
 import com.io7m.montarre.api.MResource;
 import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
 import com.io7m.montarre.api.natives.MNativePackagerServiceProviderType;
 import com.io7m.montarre.api.natives.MNativePackagerServiceType;
 import com.io7m.montarre.api.natives.MNativeProcessesType;
 import com.io7m.montarre.api.natives.MNativeWorkspaceType;
+import com.io7m.montarre.nativepack.internal.MNDigestOutputStream;
 import com.io7m.montarre.nativepack.internal.MNPackagerAbstract;
+import com.io7m.montarre.nativepack.internal.MNTreeMaterializer;
 import com.io7m.montarre.nativepack.internal.app_image.MNPackagerAppImage;
 import com.io7m.montarre.nativepack.internal.app_image.MNPackagerAppImageProvider;
 import com.io7m.seltzer.api.SStructuredError;
 import com.io7m.seltzer.api.SStructuredErrorType;
-import org.apache.commons.io.file.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,7 +47,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A native packager that produces Flatpak packages.
@@ -85,7 +86,7 @@ public final class MNPackagerFlatpak
     final var appImages =
       new MNPackagerAppImageProvider();
     final var appImage =
-      new MNPackagerAppImage(appImages);
+      new MNPackagerAppImage(appImages, this.processes);
 
     final var appImageReason = appImage.unsupportedReason(packageVOpt);
     if (appImageReason.isPresent()) {
@@ -93,10 +94,8 @@ public final class MNPackagerFlatpak
     }
 
     try {
-      final var r = this.processes.executeAndWait(
+      final var r = this.processes.probe(
         System.getenv(),
-        new ConcurrentLinkedQueue<>(),
-        new ConcurrentLinkedQueue<>(),
         List.of(
           "flatpak",
           "--version"
@@ -154,7 +153,7 @@ public final class MNPackagerFlatpak
   }
 
   @Override
-  public Path execute(
+  public MNativePackagerResult execute(
     final MNativeWorkspaceType workspace,
     final MPackageReaderType reader)
     throws MException
@@ -162,6 +161,9 @@ public final class MNPackagerFlatpak
     Objects.requireNonNull(workspace, "workspace");
     Objects.requireNonNull(reader, "reader");
 
+    final var execution =
+      this.createExecution(workspace, reader);
+
     try {
       final var packageV =
         reader.packageDeclaration();
@@ -211,18 +213,18 @@ public final class MNPackagerFlatpak
         platform
       );
 
-      generateAndCopyAppImage(workspace, reader, build);
+      this.generateAndCopyAppImage(workspace, reader, build);
 
       this.flatpakWriteDesktopFile(build, packageV);
       this.flatpakWriteAppInfoFile(build, packageV);
       this.flatpakWriteIcons(reader, build, packageV);
-      this.flatpakBuildFinish(build, packageV);
-      this.flatpakBuildExport(build, repos);
-      this.flatpakBuildBundle(repos, outputFile, packageV);
+      this.flatpakBuildFinish(workspace, build, packageV);
+      this.flatpakBuildExport(workspace, build, repos);
+      this.flatpakBuildBundle(workspace, repos, outputFile, packageV);
 
-      return outputFile;
+      return MNDigestOutputStream.resultOfFile(outputFile);
     } catch (final Exception e) {
-      throw this.error(e);
+      throw execution.error(e);
     }
   }
 
@@ -353,6 +355,7 @@ public final class MNPackagerFlatpak
   }
 
   private void flatpakBuildBundle(
+    final MNativeWorkspaceType workspace,
     final Path repos,
     final Path outputFile,
     final MPackageDeclaration packageV)
@@ -362,8 +365,7 @@ public final class MNPackagerFlatpak
 
     this.processes.executeAndWaitChecked(
       System.getenv(),
-      new ConcurrentLinkedQueue<>(),
-      new ConcurrentLinkedQueue<>(),
+      workspace.processOutput(this.name()),
       List.of(
         "flatpak",
         "build-bundle",
@@ -376,6 +378,7 @@ public final class MNPackagerFlatpak
   }
 
   private void flatpakBuildExport(
+    final MNativeWorkspaceType workspace,
     final Path build,
     final Path repos)
     throws MException, InterruptedException
@@ -384,8 +387,7 @@ public final class MNPackagerFlatpak
 
     this.processes.executeAndWaitChecked(
       System.getenv(),
-      new ConcurrentLinkedQueue<>(),
-      new ConcurrentLinkedQueue<>(),
+      workspace.processOutput(this.name()),
       List.of(
         "flatpak",
         "build-export",
@@ -397,6 +399,7 @@ public final class MNPackagerFlatpak
   }
 
   private void flatpakBuildFinish(
+    final MNativeWorkspaceType workspace,
     final Path directory,
     final MPackageDeclaration packageV)
     throws MException, InterruptedException
@@ -414,13 +417,12 @@ public final class MNPackagerFlatpak
 
     this.processes.executeAndWaitChecked(
       System.getenv(),
-      new ConcurrentLinkedQueue<>(),
-      new ConcurrentLinkedQueue<>(),
+      workspace.processOutput(this.name()),
       List.copyOf(arguments)
     );
   }
 
-  private static void generateAndCopyAppImage(
+  private void generateAndCopyAppImage(
     final MNativeWorkspaceType workspace,
     final MPackageReaderType reader,
     final Path build)
@@ -431,18 +433,23 @@ public final class MNPackagerFlatpak
     final var appImages =
       new MNPackagerAppImageProvider();
     final var appImage =
-      new MNPackagerAppImage(appImages);
-
-    appImage.execute(workspace, reader);
+      new MNPackagerAppImage(appImages, this.processes);
 
     final var appImageRoot =
-      appImage.appImageRoot();
+      appImage.execute(workspace, reader)
+        .auxiliaryTrees()
+        .get(MNPackagerAppImage.APP_IMAGE_TREE);
+
+    /*
+     * The app-image is not modified after this point, and neither is the
+     * build tree, so the build tree can share data with the app-image.
+     */
 
-    PathUtils.copyDirectory(
+    MNTreeMaterializer.materialize(
       appImageRoot.resolve("bin"),
       build.resolve("files").resolve("bin")
     );
-    PathUtils.copyDirectory(
+    MNTreeMaterializer.materialize(
       appImageRoot.resolve("lib"),
       build.resolve("files").resolve("lib")
     );
@@ -514,8 +521,7 @@ public final class MNPackagerFlatpak
 
     this.processes.executeAndWaitChecked(
       System.getenv(),
-      new ConcurrentLinkedQueue<>(),
-      new ConcurrentLinkedQueue<>(),
+      workspace.processOutput(this.name()),
       List.of(
         "flatpak",
         "build-init",
@@ -540,8 +546,7 @@ public final class MNPackagerFlatpak
 
     this.processes.executeAndWaitChecked(
       System.getenv(),
-      new ConcurrentLinkedQueue<>(),
-      new ConcurrentLinkedQueue<>(),
+      workspace.processOutput(this.name()),
       List.of(
         "flatpak",
         "install",
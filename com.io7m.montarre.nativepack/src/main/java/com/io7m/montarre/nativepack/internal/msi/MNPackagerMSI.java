@@ -21,12 +21,14 @@ import com.io7m.montarre.api.MException;
 import com.io7m.montarre.api.MMetadataType;
 import com.io7m.montarre.api.MPackageDeclaration;
 import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
 import com.io7m.montarre.api.natives.MNativePackagerServiceProviderType;
 import com.io7m.montarre.api.natives.MNativePackagerServiceType;
 import com.io7m.montarre.api.natives.MNativeProcessesType;
 import com.io7m.montarre.api.natives.MNativeWorkspaceType;
 import com.io7m.montarre.nativepack.MWiXValidators;
 import com.io7m.montarre.nativepack.MWiXWriters;
+import com.io7m.montarre.nativepack.internal.MNDigestOutputStream;
 import com.io7m.montarre.nativepack.internal.MNPackagerAbstract;
 import com.io7m.montarre.nativepack.internal.app_image.MNPackagerAppImage;
 import com.io7m.montarre.nativepack.internal.app_image.MNPackagerAppImageProvider;
@@ -42,7 +44,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A native packager that produces MSI packages.
@@ -82,7 +83,7 @@ public final class MNPackagerMSI
     final var appImages =
       new MNPackagerAppImageProvider();
     final var appImage =
-      new MNPackagerAppImage(appImages);
+      new MNPackagerAppImage(appImages, this.processes);
 
     final var appImageReason = appImage.unsupportedReason(packageV);
     if (appImageReason.isPresent()) {
@@ -90,10 +91,8 @@ public final class MNPackagerMSI
     }
 
     try {
-      final var r = this.processes.executeAndWait(
+      final var r = this.processes.probe(
         System.getenv(),
-        new ConcurrentLinkedQueue<>(),
-        new ConcurrentLinkedQueue<>(),
         List.of(
           "wix",
           "--version"
@@ -119,7 +118,7 @@ public final class MNPackagerMSI
   }
 
   @Override
-  public Path execute(
+  public MNativePackagerResult execute(
     final MNativeWorkspaceType workspace,
     final MPackageReaderType packageV)
     throws MException
@@ -127,15 +126,18 @@ public final class MNPackagerMSI
     Objects.requireNonNull(workspace, "workspace");
     Objects.requireNonNull(packageV, "packageV");
 
+    final var execution =
+      this.createExecution(workspace, packageV);
+
     final var appImages =
       new MNPackagerAppImageProvider();
     final var appImage =
-      new MNPackagerAppImage(appImages);
-
-    appImage.execute(workspace, packageV);
+      new MNPackagerAppImage(appImages, this.processes);
 
     final var appImageRoot =
-      appImage.appImageRoot();
+      appImage.execute(workspace, packageV)
+        .auxiliaryTrees()
+        .get(MNPackagerAppImage.APP_IMAGE_TREE);
 
     final var wixWriters =
       new MWiXWriters();
@@ -156,7 +158,7 @@ public final class MNPackagerMSI
         writer.execute();
       }
     } catch (final IOException e) {
-      throw this.error(e);
+      throw execution.error(e);
     }
 
     this.validateWiX(wixXML);
@@ -169,8 +171,7 @@ public final class MNPackagerMSI
     try {
       this.processes.executeAndWaitChecked(
         System.getenv(),
-        new ConcurrentLinkedQueue<>(),
-        new ConcurrentLinkedQueue<>(),
+        workspace.processOutput(this.name()),
         List.of(
           "wix.exe",
           "build",
@@ -179,11 +180,10 @@ public final class MNPackagerMSI
           msiOut.toString()
         )
       );
-    } catch (final InterruptedException e) {
-      throw this.error(e);
+      return MNDigestOutputStream.resultOfFile(msiOut);
+    } catch (final InterruptedException | IOException e) {
+      throw execution.error(e);
     }
-
-    return msiOut;
   }
 
   private void validateWiX(
@@ -61,6 +61,8 @@ public final class MBatchScripts
       upperName + "_HOME";
     final var pathName =
       upperName + "_MODULE_PATH";
+    final var javaName =
+      upperName + "_JAVA";
 
     final var out = new ArrayList<String>();
     out.add("@echo off");
@@ -76,14 +78,27 @@ public final class MBatchScripts
     out.add(")");
     out.add("");
 
+    out.add("REM Use the bundled Java runtime, if there is one.");
+    out.add("set \"%s=java\"".formatted(javaName));
+    out.add("if exist \"%%%s%%\\runtime\\bin\\java.exe\" set \"%s=%%%s%%\\runtime\\bin\\java.exe\""
+              .formatted(homeName, javaName, homeName));
+    out.add("");
+
     out.add("REM Check that the available Java runtime is suitable.");
-    out.add("java -jar \"%%%s%%/bin/launch.jar\" check-java-version 21".formatted(homeName));
+    out.add("\"%%%s%%\" -jar \"%%%s%%/bin/launch.jar\" check-java-version 21".formatted(javaName, homeName));
     out.add("if %errorlevel% neq 0 exit /b 1");
     out.add("");
 
+    /*
+     * cmd strips the first and last quotes from a command that starts with
+     * a quote, so the command is wrapped in an extra pair of quotes. The
+     * empty delimiter set keeps module paths that contain spaces intact.
+     */
+
     out.add("REM Build a module path.");
-    out.add("for /f %%%%i in ('java -jar %%%s%%\\bin\\launch.jar get-module-path %%%s%%') do set %s=%%%%i"
+    out.add("for /f \"usebackq delims=\" %%%%i in (`\"\"%%%s%%\" -jar \"%%%s%%\\bin\\launch.jar\" get-module-path \"%%%s%%\"\"`) do set %s=%%%%i"
               .formatted(
+                javaName,
                 homeName,
                 homeName,
                 pathName
@@ -92,7 +107,7 @@ public final class MBatchScripts
     out.add("");
 
     out.add("REM Run the application.");
-    out.add("java -p %%%s%% -m %s %%*".formatted(pathName, javaInfo.mainModule()));
+    out.add("\"%%%s%%\" -p %%%s%% -m %s %%*".formatted(javaName, pathName, javaInfo.mainModule()));
     out.add("if %errorlevel% neq 0 exit /b 1");
     return List.copyOf(out);
   }
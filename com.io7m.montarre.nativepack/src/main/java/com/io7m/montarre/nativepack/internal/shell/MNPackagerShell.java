@@ -19,9 +19,14 @@ package com.io7m.montarre.nativepack.internal.shell;
 
 import com.io7m.montarre.api.MException;
 import com.io7m.montarre.api.MJavaInfoType;
+import com.io7m.montarre.api.MMetadataType;
 import com.io7m.montarre.api.MPackageDeclaration;
 import com.io7m.montarre.api.MShortName;
 import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy;
+import com.io7m.montarre.api.natives.MNativeArchiveCodec;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
 import com.io7m.montarre.api.natives.MNativePackagerServiceProviderType;
 import com.io7m.montarre.api.natives.MNativePackagerServiceType;
 import com.io7m.montarre.api.natives.MNativeWorkspaceType;
@@ -32,6 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -39,6 +45,8 @@ import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * A native packager that produces shell packages.
@@ -71,7 +79,7 @@ public final class MNPackagerShell
   }
 
   @Override
-  public Path execute(
+  public MNativePackagerResult execute(
     final MNativeWorkspaceType workspace,
     final MPackageReaderType packageV)
     throws MException
@@ -79,13 +87,12 @@ public final class MNPackagerShell
     Objects.requireNonNull(workspace, "workspace");
     Objects.requireNonNull(packageV, "packageV");
 
+    final var execution =
+      this.createExecution(workspace, packageV);
+
     try {
       final var work =
         workspace.createWorkDirectory();
-      final var pack =
-        work.resolve("pack");
-      final var bin =
-        pack.resolve("bin");
 
       final var packV =
         packageV.packageDeclaration();
@@ -95,6 +102,29 @@ public final class MNPackagerShell
         metadata.names()
           .shortName();
 
+      final var streamingCompression =
+        this.streamingCompression(workspace);
+
+      if (streamingCompression.isPresent()) {
+        final var compression =
+          streamingCompression.get();
+
+        return MNArchives.packTarStreaming(
+          compression,
+          packageV,
+          module -> PlatformDependentModulePolicy.INCLUDE,
+          generatedFiles(metadata.javaInfo(), shortName),
+          work.resolve(outputName(metadata, compression)),
+          entry -> entry.startsWith("bin/"),
+          shortName
+        );
+      }
+
+      final var pack =
+        work.resolve("pack");
+      final var bin =
+        pack.resolve("bin");
+
       packageV.unpackInto(pack);
 
       Files.createDirectories(bin);
@@ -113,28 +143,90 @@ public final class MNPackagerShell
         shortName
       );
 
-      final var outName =
-        "%s-%s-any.txz".formatted(
-          metadata.names().packageName(),
-          metadata.version().version().toString()
+      final var compression =
+        MNArchives.compressionFor(
+          workspace,
+          this.name(),
+          pack,
+          MNArchives.defaultTarCompression()
         );
 
-      final var outFile =
-        work.resolve(outName);
-
-      MNArchives.packTar(
+      return MNArchives.pack(
+        compression,
         pack,
-        outFile,
+        work.resolve(outputName(metadata, compression)),
         entry -> entry.startsWith("bin/"),
         shortName
       );
-      return outFile;
     } catch (final Exception e) {
-      throw this.error(e);
+      throw execution.error(e);
     }
   }
 
-  private static void writeShellScript(
+  /**
+   * The package can be streamed directly into the output archive if the
+   * output is a tar archive, and if the compression can be chosen without
+   * first unpacking the package (adaptive compression samples the
+   * unpacked files).
+   */
+
+  private Optional<MNativeArchiveCompression> streamingCompression(
+    final MNativeWorkspaceType workspace)
+  {
+    final var explicit =
+      workspace.archiveCompression(this.name());
+    final var adaptive =
+      workspace.archiveCompressionAdaptive(this.name());
+
+    if (explicit.isEmpty() && adaptive.isPresent()) {
+      return Optional.empty();
+    }
+
+    final var compression =
+      explicit.orElseGet(MNArchives::defaultTarCompression);
+
+    if (compression.codec() == MNativeArchiveCodec.ZIP) {
+      return Optional.empty();
+    }
+    return Optional.of(compression);
+  }
+
+  private static String outputName(
+    final MMetadataType metadata,
+    final MNativeArchiveCompression compression)
+  {
+    return "%s-%s-any.%s".formatted(
+      metadata.names().packageName(),
+      metadata.version().version().toString(),
+      compression.codec().fileExtension()
+    );
+  }
+
+  /**
+   * @return The files in {@code bin}, generated in memory
+   */
+
+  static SortedMap<String, byte[]> generatedFiles(
+    final MJavaInfoType javaInfo,
+    final MShortName shortName)
+    throws IOException
+  {
+    final var files = new TreeMap<String, byte[]>();
+    files.put("bin/launch.jar", launcher());
+    files.put(
+      "bin/" + shortName.name(),
+      MShellScripts.shellScriptText(javaInfo, shortName)
+        .getBytes(StandardCharsets.UTF_8)
+    );
+    files.put(
+      "bin/" + shortName.name() + ".bat",
+      MBatchScripts.batchScriptText(javaInfo, shortName)
+        .getBytes(StandardCharsets.UTF_8)
+    );
+    return files;
+  }
+
+  static void writeShellScript(
     final Path file,
     final MJavaInfoType javaInfo,
     final MShortName shortName)
@@ -150,7 +242,7 @@ public final class MNPackagerShell
     );
   }
 
-  private static void writeBatchScript(
+  static void writeBatchScript(
     final Path file,
     final MJavaInfoType javaInfo,
     final MShortName shortName)
@@ -166,13 +258,26 @@ public final class MNPackagerShell
     );
   }
 
-  private static void writeLauncher(
+  static void writeLauncher(
     final Path file)
     throws IOException
   {
-    try (final var stream = MNPackagerShell.class.getResourceAsStream(
-      "/com/io7m/montarre/nativepack/internal/com.io7m.montarre.launchstub.jar")) {
+    try (final var stream = openLauncher()) {
       Files.copy(stream, file, StandardCopyOption.REPLACE_EXISTING);
     }
   }
+
+  private static byte[] launcher()
+    throws IOException
+  {
+    try (final var stream = openLauncher()) {
+      return stream.readAllBytes();
+    }
+  }
+
+  private static InputStream openLauncher()
+  {
+    return MNPackagerShell.class.getResourceAsStream(
+      "/com/io7m/montarre/nativepack/internal/com.io7m.montarre.launchstub.jar");
+  }
 }
@@ -0,0 +1,400 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.nativepack.internal.shell;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MPackageDeclaration;
+import com.io7m.montarre.api.MPlatform;
+import com.io7m.montarre.api.MPlatformDependentModule;
+import com.io7m.montarre.api.MShortName;
+import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.api.natives.MNativePackagerFile;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import com.io7m.montarre.api.natives.MNativePackagerServiceProviderType;
+import com.io7m.montarre.api.natives.MNativePackagerServiceType;
+import com.io7m.montarre.api.natives.MNativeWorkspaceType;
+import com.io7m.montarre.nativepack.internal.MNArchives;
+import com.io7m.montarre.nativepack.internal.MNPackagerAbstract;
+import com.io7m.montarre.nativepack.internal.MNPackagerExecution;
+import com.io7m.montarre.nativepack.internal.MNTreeMaterializer;
+import com.io7m.seltzer.api.SStructuredError;
+import com.io7m.seltzer.api.SStructuredErrorType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A native packager that produces one thin shell package for each platform
+ * named by the platform-dependent modules in the package. Each package
+ * contains the platform-independent modules, the platform-dependent modules
+ * for that platform only, and the Java runtime configured for that platform,
+ * if any.
+ */
+
+public final class MNPackagerShellPlatforms
+  extends MNPackagerAbstract
+  implements MNativePackagerServiceType
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(MNPackagerShellPlatforms.class);
+
+  /**
+   * A native packager that produces per-platform shell packages.
+   *
+   * @param inProvider The provider
+   */
+
+  public MNPackagerShellPlatforms(
+    final MNativePackagerServiceProviderType inProvider)
+  {
+    super(inProvider);
+  }
+
+  private static SortedSet<MPlatform> platformsOf(
+    final MPackageDeclaration packageV)
+  {
+    final var platforms = new TreeSet<MPlatform>();
+    for (final var item : packageV.manifest().items()) {
+      if (item instanceof final MPlatformDependentModule module) {
+        platforms.add(
+          new MPlatform(module.architecture(), module.operatingSystem())
+        );
+      }
+    }
+    return platforms;
+  }
+
+  private static SStructuredError<String> errorNoPlatforms()
+  {
+    return new SStructuredError<>(
+      "error-platforms-none",
+      "The package does not contain any platform-dependent modules.",
+      Map.of(),
+      Optional.of(
+        "Use the com.io7m.montarre.shell packager for packages that are not platform-dependent."),
+      Optional.empty()
+    );
+  }
+
+  @Override
+  public Optional<SStructuredErrorType<String>> unsupportedReason(
+    final Optional<MPackageDeclaration> packageV)
+  {
+    if (packageV.isPresent() && platformsOf(packageV.get()).isEmpty()) {
+      return Optional.of(errorNoPlatforms());
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public MNativePackagerResult execute(
+    final MNativeWorkspaceType workspace,
+    final MPackageReaderType packageV)
+    throws MException
+  {
+    Objects.requireNonNull(workspace, "workspace");
+    Objects.requireNonNull(packageV, "packageV");
+
+    final var execution =
+      this.createExecution(workspace, packageV);
+
+    try {
+      final var packV =
+        packageV.packageDeclaration();
+      final var platforms =
+        platformsOf(packV);
+
+      if (platforms.isEmpty()) {
+        final var error = errorNoPlatforms();
+        throw new MException(
+          error.message(),
+          error.errorCode(),
+          execution.attributes(),
+          error.remediatingAction()
+        );
+      }
+
+      final var work =
+        workspace.createWorkDirectory();
+      final var common =
+        work.resolve("common");
+      final var bin =
+        common.resolve("bin");
+
+      final var metadata =
+        packV.metadata();
+      final var shortName =
+        metadata.names()
+          .shortName();
+
+      /*
+       * Everything other than the platform-dependent modules is unpacked
+       * once, and shared between all the platforms.
+       */
+
+      packageV.unpackInto(common, m -> PlatformDependentModulePolicy.IGNORE);
+
+      Files.createDirectories(bin);
+
+      MNPackagerShell.writeLauncher(
+        bin.resolve("launch.jar")
+      );
+      MNPackagerShell.writeShellScript(
+        bin.resolve(shortName.name()),
+        metadata.javaInfo(),
+        shortName
+      );
+      MNPackagerShell.writeBatchScript(
+        bin.resolve(shortName.name() + ".bat"),
+        metadata.javaInfo(),
+        shortName
+      );
+
+      final var compression =
+        MNArchives.compressionFor(
+          workspace,
+          this.name(),
+          common,
+          MNArchives.defaultTarCompression()
+        );
+
+      /*
+       * The package reader cannot be used concurrently, so the
+       * platform-dependent modules are staged serially. Runtimes are
+       * obtained up front so that download failures are reported before
+       * any archives are built.
+       */
+
+      final var staged = new TreeMap<MPlatform, Path>();
+      final var runtimes = new TreeMap<MPlatform, Path>();
+      for (final var platform : platforms) {
+        execution.setAttribute("Platform", platform);
+        staged.put(
+          platform,
+          stagePlatformModules(work, packageV, packV, platform)
+        );
+        workspace.platformRuntime(platform)
+          .ifPresent(path -> runtimes.put(platform, path));
+      }
+
+      final var results = new ArrayList<MNativePackagerResult>();
+      try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        final var futures = new ArrayList<Future<MNativePackagerResult>>();
+        for (final var platform : platforms) {
+          final var build = new PlatformBuild(
+            execution,
+            work,
+            common,
+            staged.get(platform),
+            Optional.ofNullable(runtimes.get(platform)),
+            platform,
+            compression,
+            shortName,
+            "%s-%s-%s-%s.%s".formatted(
+              metadata.names().packageName(),
+              metadata.version().version().toString(),
+              platform.architecture(),
+              platform.operatingSystem(),
+              compression.codec().fileExtension()
+            )
+          );
+          futures.add(executor.submit(build::execute));
+        }
+        for (final var future : futures) {
+          results.add(future.get());
+        }
+      }
+
+      /*
+       * The first platform's archive is the primary output, and the rest
+       * are additional files.
+       */
+
+      final var first = results.getFirst();
+      return MNativePackagerResult.builder()
+        .setFile(first.file())
+        .setSize(first.size())
+        .setHash(first.hash())
+        .setAdditionalFiles(
+          results.stream()
+            .skip(1L)
+            .map(r -> {
+              return MNativePackagerFile.builder()
+                .setFile(r.file())
+                .setSize(r.size())
+                .setHash(r.hash())
+                .build();
+            })
+            .toList()
+        )
+        .build();
+    } catch (final Exception e) {
+      throw execution.error(e);
+    }
+  }
+
+  private static Path stagePlatformModules(
+    final Path work,
+    final MPackageReaderType packageV,
+    final MPackageDeclaration packV,
+    final MPlatform platform)
+    throws IOException, MException
+  {
+    final var directory =
+      work.resolve("platform-%s-%s".formatted(
+        platform.architecture(),
+        platform.operatingSystem()
+      ));
+
+    Files.createDirectories(directory);
+
+    for (final var item : packV.manifest().items()) {
+      if (item instanceof final MPlatformDependentModule module) {
+        if (!Objects.equals(module.architecture(), platform.architecture())) {
+          continue;
+        }
+        if (!Objects.equals(module.operatingSystem(), platform.operatingSystem())) {
+          continue;
+        }
+
+        final var fileName =
+          Paths.get(module.file().name()).getFileName();
+
+        try (var out = Files.newOutputStream(
+          directory.resolve(fileName),
+          StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.WRITE)) {
+          try (var in = packageV.readFile(module.file())) {
+            in.transferTo(out);
+            out.flush();
+          }
+        }
+      }
+    }
+    return directory;
+  }
+
+  private record PlatformBuild(
+    MNPackagerExecution execution,
+    Path work,
+    Path common,
+    Path modules,
+    Optional<Path> runtime,
+    MPlatform platform,
+    MNativeArchiveCompression compression,
+    MShortName shortName,
+    String outName)
+  {
+    MNativePackagerResult execute()
+      throws Exception
+    {
+      final var tree =
+        this.work.resolve("pack-%s-%s".formatted(
+          this.platform.architecture(),
+          this.platform.operatingSystem()
+        ));
+
+      LOG.info("Building package {} for {}", this.outName, this.platform);
+
+      /*
+       * The common tree is materialized with links where possible, and
+       * so each platform tree costs little more than its own modules.
+       */
+
+      MNTreeMaterializer.materialize(this.common, tree);
+
+      final var moduleTarget =
+        tree.resolve("lib")
+          .resolve(this.platform.architecture().name())
+          .resolve(this.platform.operatingSystem().name());
+
+      Files.createDirectories(moduleTarget.getParent());
+      Files.move(this.modules, moduleTarget);
+
+      final var executables = new HashSet<String>();
+      if (this.runtime.isPresent()) {
+        final var runtimeTarget = tree.resolve("runtime");
+        MNTreeMaterializer.materialize(this.runtime.get(), runtimeTarget);
+        executables.addAll(findExecutables(tree, runtimeTarget));
+      }
+
+      return MNArchives.pack(
+        this.compression,
+        tree,
+        this.work.resolve(this.outName),
+        entry -> entry.startsWith("bin/") || executables.contains(entry),
+        this.shortName
+      );
+    }
+  }
+
+  /**
+   * Find the files within the given directory that are executable by their
+   * owner, returning their names relative to the given root.
+   */
+
+  private static Set<String> findExecutables(
+    final Path root,
+    final Path directory)
+    throws IOException
+  {
+    try (var stream = Files.walk(directory)) {
+      final var results = new HashSet<String>();
+      final var files =
+        stream.filter(p -> Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS))
+          .toList();
+
+      for (final var file : files) {
+        final Set<PosixFilePermission> permissions;
+        try {
+          permissions = Files.getPosixFilePermissions(file);
+        } catch (final UnsupportedOperationException e) {
+          return Set.of();
+        }
+        if (permissions.contains(PosixFilePermission.OWNER_EXECUTE)) {
+          results.add(
+            root.relativize(file)
+              .toString()
+              .replace('\\', '/')
+          );
+        }
+      }
+      return results;
+    }
+  }
+}
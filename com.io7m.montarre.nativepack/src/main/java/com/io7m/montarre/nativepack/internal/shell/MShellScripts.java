@@ -61,6 +61,8 @@ public final class MShellScripts
       upperName + "_HOME";
     final var pathName =
       upperName + "_MODULE_PATH";
+    final var javaName =
+      upperName + "_JAVA";
 
     final var out = new ArrayList<String>();
     out.add("#!/bin/sh");
@@ -75,12 +77,23 @@ public final class MShellScripts
     out.add("fi");
     out.add("");
 
+    out.add("#");
+    out.add("# Use the bundled Java runtime, if there is one.");
+    out.add("#");
+    out.add("");
+    out.add("%s=\"${%s}/runtime/bin/java\"".formatted(javaName, homeName));
+    out.add("if [ ! -x \"${%s}\" ]".formatted(javaName));
+    out.add("then");
+    out.add("  %s=java".formatted(javaName));
+    out.add("fi");
+    out.add("");
+
     out.add("#");
     out.add("# Check that the available Java runtime is suitable.");
     out.add("#");
     out.add("");
-    out.add("/usr/bin/env java -jar \"${%s}/bin/launch.jar\" \\"
-              .formatted(homeName));
+    out.add("/usr/bin/env \"${%s}\" -jar \"${%s}/bin/launch.jar\" \\"
+              .formatted(javaName, homeName));
     out.add("  check-java-version %s || exit 1"
               .formatted(Long.toUnsignedString(javaInfo.requiredJDKVersion())));
     out.add("");
@@ -91,8 +104,8 @@ public final class MShellScripts
     out.add("#   ${%s}/lib/${ARCH}/${OS}".formatted(homeName));
     out.add("#");
     out.add("");
-    out.add("%s=$(/usr/bin/env java -jar \"${%s}/bin/launch.jar\" \\"
-              .formatted(pathName, homeName));
+    out.add("%s=$(/usr/bin/env \"${%s}\" -jar \"${%s}/bin/launch.jar\" \\"
+              .formatted(pathName, javaName, homeName));
     out.add("  get-module-path \"${%s}\") || exit 1"
               .formatted(homeName));
     out.add("");
@@ -101,7 +114,7 @@ public final class MShellScripts
     out.add("# Run the application.");
     out.add("#");
     out.add("");
-    out.add("exec /usr/bin/env java \\");
+    out.add("exec /usr/bin/env \"${%s}\" \\".formatted(javaName));
     out.add("  -p \"${%s}\" \\".formatted(pathName));
     out.add("  -m %s \\".formatted(javaInfo.mainModule()));
     out.add("  \"$@\"");
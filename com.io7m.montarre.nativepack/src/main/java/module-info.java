@@ -16,9 +16,11 @@
 
 import com.io7m.montarre.api.natives.MNativePackagerServiceProviderType;
 import com.io7m.montarre.nativepack.internal.app_image.MNPackagerAppImageProvider;
+import com.io7m.montarre.nativepack.internal.deb.MNPackagerDebDirectProvider;
 import com.io7m.montarre.nativepack.internal.deb.MNPackagerDebProvider;
 import com.io7m.montarre.nativepack.internal.flatpak.MNPackagerFlatpakProvider;
 import com.io7m.montarre.nativepack.internal.msi.MNPackagerMSIProvider;
+import com.io7m.montarre.nativepack.internal.shell.MNPackagerShellPlatformsProvider;
 import com.io7m.montarre.nativepack.internal.shell.MNPackagerShellProvider;
 
 /**
@@ -33,8 +35,9 @@ module com.io7m.montarre.nativepack
   requires com.io7m.montarre.api;
   requires com.io7m.montarre.xml;
 
+  requires com.github.luben.zstd_jni;
+  requires com.io7m.anethum.api;
   requires com.io7m.jaffirm.core;
-  requires com.io7m.jdownload.core;
   requires com.io7m.jmulticlose.core;
   requires com.io7m.lanark.core;
   requires com.io7m.seltzer.api;
@@ -42,15 +45,19 @@ module com.io7m.montarre.nativepack
   requires com.io7m.verona.core;
   requires java.net.http;
   requires java.xml;
+  requires jdk.httpserver;
   requires org.apache.commons.compress;
   requires org.apache.commons.io;
   requires org.slf4j;
+  requires org.tukaani.xz;
 
   provides MNativePackagerServiceProviderType
     with MNPackagerAppImageProvider,
       MNPackagerDebProvider,
+      MNPackagerDebDirectProvider,
       MNPackagerMSIProvider,
       MNPackagerShellProvider,
+      MNPackagerShellPlatformsProvider,
       MNPackagerFlatpakProvider;
 
   uses MNativePackagerServiceProviderType;
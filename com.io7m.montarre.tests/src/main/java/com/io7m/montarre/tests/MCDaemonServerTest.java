@@ -0,0 +1,358 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MReservedNames;
+import com.io7m.montarre.cmdline.MDaemonClient;
+import com.io7m.montarre.cmdline.internal.MCDaemonServer;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MCDaemonServerTest
+{
+  private Path directory;
+  private Path socket;
+  private MCDaemonServer server;
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path inDirectory)
+    throws Exception
+  {
+    this.directory = inDirectory;
+    this.socket = inDirectory.resolve("montarre.sock");
+    this.server = MCDaemonServer.start(this.socket, 2);
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws Exception
+  {
+    this.server.close();
+  }
+
+  private record Result(
+    int exitCode,
+    String output,
+    String log)
+  {
+
+  }
+
+  private Result execute(
+    final String... arguments)
+    throws Exception
+  {
+    final var output = new ByteArrayOutputStream();
+    final var log = new ByteArrayOutputStream();
+    final var exitCode =
+      MDaemonClient.execute(
+        this.socket,
+        this.directory,
+        List.of(arguments),
+        output,
+        log
+      );
+    return new Result(
+      exitCode,
+      output.toString(StandardCharsets.UTF_8),
+      log.toString(StandardCharsets.UTF_8)
+    );
+  }
+
+  /**
+   * The socket is only accessible to its owner.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSocketPermissions()
+    throws Exception
+  {
+    assertEquals(
+      PosixFilePermissions.fromString("rw-------"),
+      Files.getPosixFilePermissions(this.socket)
+    );
+  }
+
+  /**
+   * Command output is sent back to the client.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testHelp()
+    throws Exception
+  {
+    final var result = this.execute("help", "package");
+    assertEquals(0, result.exitCode());
+    assertTrue(result.output().contains("check"), result.output());
+  }
+
+  /**
+   * Relative paths are resolved against the client's working directory, and
+   * data written to standard output is sent back to the client.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRelativePaths()
+    throws Exception
+  {
+    final var text = "<Package/>";
+    try (var out = new ZipArchiveOutputStream(
+      this.directory.resolve("example.mpk"))) {
+      out.putArchiveEntry(
+        new ZipArchiveEntry(MReservedNames.montarrePackage().name())
+      );
+      out.write(text.getBytes(StandardCharsets.UTF_8));
+      out.closeArchiveEntry();
+      out.finish();
+    }
+
+    final var result =
+      this.execute("package", "extract-declaration", "--file", "example.mpk");
+    assertEquals(0, result.exitCode(), result.log());
+    assertEquals(text, result.output());
+  }
+
+  /**
+   * Log messages produced by a job are sent back to the client.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testLogsRouted()
+    throws Exception
+  {
+    final var result =
+      this.execute("package", "extract-declaration", "--file", "missing.mpk");
+    assertEquals(1, result.exitCode());
+    assertEquals("", result.output());
+    assertTrue(
+      result.log().contains(this.directory.resolve("missing.mpk").toString()),
+      result.log()
+    );
+  }
+
+  /**
+   * Unknown commands fail.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testUnknownCommand()
+    throws Exception
+  {
+    final var result = this.execute("nonexistent");
+    assertNotEquals(0, result.exitCode());
+  }
+
+  /**
+   * Daemon commands cannot be executed by the daemon.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDaemonCommandsRejected()
+    throws Exception
+  {
+    final var result =
+      this.execute("daemon", "serve", "--socket", "other.sock");
+    assertEquals(1, result.exitCode());
+    assertTrue(result.log().contains("cannot be executed"), result.log());
+    assertTrue(Files.notExists(this.directory.resolve("other.sock")));
+  }
+
+  /**
+   * Many concurrent jobs complete, and each receives only its own output.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testConcurrentJobs()
+    throws Exception
+  {
+    final var tasks = new ArrayList<Callable<Result>>();
+    for (int index = 0; index < 16; ++index) {
+      final var group = index % 2 == 0 ? "package" : "native";
+      tasks.add(() -> this.execute("help", group));
+    }
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      final var futures = executor.invokeAll(tasks);
+      for (int index = 0; index < futures.size(); ++index) {
+        final var result = futures.get(index).get();
+        assertEquals(0, result.exitCode());
+        if (index % 2 == 0) {
+          assertTrue(result.output().contains("extract-declaration"));
+          assertTrue(!result.output().contains("create-batch"));
+        } else {
+          assertTrue(result.output().contains("create-batch"));
+          assertTrue(!result.output().contains("extract-declaration"));
+        }
+      }
+    }
+  }
+
+  /**
+   * Malformed requests are ignored, and do not affect the daemon.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMalformedRequest()
+    throws Exception
+  {
+    try (var channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      channel.connect(UnixDomainSocketAddress.of(this.socket));
+      final var out =
+        new DataOutputStream(Channels.newOutputStream(channel));
+      out.writeInt(0x23232323);
+      out.flush();
+      assertEquals(-1, Channels.newInputStream(channel).read());
+    }
+
+    assertEquals(0, this.execute("help").exitCode());
+  }
+
+  /**
+   * Closing the daemon whilst clients are connecting does not leave any
+   * connection open.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  @Timeout(30L)
+  public void testCloseWhileConnecting()
+    throws Exception
+  {
+    final var clients = new ConcurrentLinkedQueue<SocketChannel>();
+    final var connector = Thread.ofVirtual().start(() -> {
+      while (true) {
+        try {
+          final var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+          clients.add(channel);
+          channel.connect(UnixDomainSocketAddress.of(this.socket));
+        } catch (final IOException e) {
+          return;
+        }
+      }
+    });
+
+    while (clients.size() < 16) {
+      Thread.sleep(1L);
+    }
+    this.server.close();
+    connector.join();
+
+    assertTrue(Files.notExists(this.socket));
+    for (final var client : clients) {
+      try (client) {
+        if (client.isConnected()) {
+          assertEquals(-1, Channels.newInputStream(client).read());
+        }
+      } catch (final IOException e) {
+        // A connection reset is also acceptable.
+      }
+    }
+  }
+
+  /**
+   * A second daemon cannot listen on the same socket.
+   */
+
+  @Test
+  public void testAlreadyRunning()
+  {
+    final var ex =
+      assertThrows(MException.class, () -> {
+        MCDaemonServer.start(this.socket, 1);
+      });
+    assertEquals("error-daemon-running", ex.errorCode());
+  }
+
+  /**
+   * A socket left behind by a daemon that has gone away is replaced.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testStaleSocket()
+    throws Exception
+  {
+    final var stale = this.directory.resolve("stale.sock");
+    try (var channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      channel.bind(UnixDomainSocketAddress.of(stale));
+    }
+    assertTrue(Files.exists(stale));
+
+    try (var other = MCDaemonServer.start(stale, 1)) {
+      final var output = new ByteArrayOutputStream();
+      final var exitCode =
+        MDaemonClient.execute(
+          stale,
+          this.directory,
+          List.of("help"),
+          output,
+          new ByteArrayOutputStream()
+        );
+      assertEquals(0, exitCode);
+    }
+    assertTrue(Files.notExists(stale));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.cmdline.internal.MCNativeBatchSummary;
+import com.io7m.montarre.cmdline.internal.MCNativeOutputManifest;
+import com.io7m.montarre.nativepack.internal.MNDigestOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MCNativeBatchSummaryTest
+{
+  /**
+   * The summary describes every package in the order they were added,
+   * including the packages that failed.
+   *
+   * @param directory A temporary directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWrite(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var outputA = directory.resolve("a");
+    Files.createDirectories(outputA);
+    final var fileA = outputA.resolve("a.txz");
+    Files.writeString(fileA, "Archive A");
+
+    final var summary = new MCNativeBatchSummary();
+    summary.add(new MCNativeBatchSummary.Entry(
+      Path.of("packages", "a.mpk"),
+      outputA,
+      List.of(
+        new MCNativeOutputManifest.Entry(
+          MNDigestOutputStream.resultOfFile(fileA),
+          new RDottedName("com.io7m.montarre.shell"),
+          Duration.ofMillis(100L)
+        )
+      ),
+      Duration.ofMillis(1000L),
+      Optional.empty()
+    ));
+    summary.add(new MCNativeBatchSummary.Entry(
+      Path.of("packages", "b.mpk"),
+      directory.resolve("b"),
+      List.of(),
+      Duration.ofMillis(10L),
+      Optional.of("Corrupt package.")
+    ));
+    summary.write(directory);
+
+    assertEquals(1L, summary.failures());
+    assertTrue(summary.entries().get(0).succeeded());
+    assertFalse(summary.entries().get(1).succeeded());
+
+    final var json =
+      new ObjectMapper().readTree(directory.resolve("summary.json").toFile());
+    final var packages = json.get("packages");
+    assertEquals(2, packages.size());
+
+    final var first = packages.get(0);
+    assertEquals("a.mpk", first.get("package").asText());
+    assertEquals("a", first.get("outputDirectory").asText());
+    assertEquals("SUCCEEDED", first.get("status").asText());
+    assertEquals(1000L, first.get("elapsedMilliseconds").asLong());
+    assertEquals(1, first.get("files").size());
+    assertEquals("a.txz", first.get("files").get(0).get("file").asText());
+    assertEquals(9L, first.get("files").get(0).get("size").asLong());
+    assertNull(first.get("error"));
+
+    final var second = packages.get(1);
+    assertEquals("b.mpk", second.get("package").asText());
+    assertEquals("FAILED", second.get("status").asText());
+    assertEquals("Corrupt package.", second.get("error").asText());
+    assertEquals(0, second.get("files").size());
+
+    assertFalse(Files.exists(directory.resolve("summary.json.tmp")));
+  }
+}
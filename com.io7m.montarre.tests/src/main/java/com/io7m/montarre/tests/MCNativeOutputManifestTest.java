@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.cmdline.internal.MCNativeOutputManifest;
+import com.io7m.montarre.nativepack.internal.MNDigestOutputStream;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MCNativeOutputManifestTest
+{
+  /**
+   * The checksum and JSON manifests describe the given results, sorted by
+   * file name.
+   *
+   * @param directory A temporary directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWrite(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var fileB = directory.resolve("b.deb");
+    final var fileA = directory.resolve("a.txz");
+    Files.writeString(fileB, "Package B");
+    Files.writeString(fileA, "Archive A");
+
+    final var manifest = new MCNativeOutputManifest();
+    manifest.add(new MCNativeOutputManifest.Entry(
+      MNDigestOutputStream.resultOfFile(fileB),
+      new RDottedName("com.io7m.montarre.deb"),
+      Duration.ofMillis(2500L)
+    ));
+    manifest.add(new MCNativeOutputManifest.Entry(
+      MNDigestOutputStream.resultOfFile(fileA),
+      new RDottedName("com.io7m.montarre.shell"),
+      Duration.ofMillis(100L)
+    ));
+    manifest.write(directory);
+
+    assertEquals(
+      List.of(
+        sha256(fileA) + "  a.txz",
+        sha256(fileB) + "  b.deb"
+      ),
+      Files.readAllLines(directory.resolve("SHA256SUMS"))
+    );
+
+    final var json =
+      new ObjectMapper().readTree(directory.resolve("manifest.json").toFile());
+    final var files = json.get("files");
+    assertEquals(2, files.size());
+
+    final var first = files.get(0);
+    assertEquals("a.txz", first.get("file").asText());
+    assertEquals(9L, first.get("size").asLong());
+    assertEquals(sha256(fileA), first.get("sha256").asText());
+    assertEquals("com.io7m.montarre.shell", first.get("packager").asText());
+    assertEquals(100L, first.get("elapsedMilliseconds").asLong());
+
+    final var second = files.get(1);
+    assertEquals("b.deb", second.get("file").asText());
+    assertEquals(2500L, second.get("elapsedMilliseconds").asLong());
+
+    assertFalse(Files.exists(directory.resolve("SHA256SUMS.tmp")));
+    assertFalse(Files.exists(directory.resolve("manifest.json.tmp")));
+  }
+
+  /**
+   * The checksum file can be checked by sha256sum, if it is installed.
+   *
+   * @param directory A temporary directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSHA256SumCommand(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var file = directory.resolve("x y.zip");
+    Files.writeString(file, "Hello.");
+
+    final var manifest = new MCNativeOutputManifest();
+    manifest.add(new MCNativeOutputManifest.Entry(
+      MNDigestOutputStream.resultOfFile(file),
+      new RDottedName("com.io7m.montarre.app_image"),
+      Duration.ZERO
+    ));
+    manifest.write(directory);
+
+    final Process process;
+    try {
+      process = new ProcessBuilder("sha256sum", "--check", "SHA256SUMS")
+        .directory(directory.toFile())
+        .redirectErrorStream(true)
+        .start();
+    } catch (final IOException e) {
+      Assumptions.abort("sha256sum is not available: " + e.getMessage());
+      return;
+    }
+
+    final var output = new String(process.getInputStream().readAllBytes());
+    assertTrue(process.waitFor(60L, TimeUnit.SECONDS));
+    assertEquals(0, process.exitValue(), output);
+  }
+
+  private static String sha256(
+    final Path file)
+    throws Exception
+  {
+    return HexFormat.of().formatHex(
+      MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file))
+    );
+  }
+}
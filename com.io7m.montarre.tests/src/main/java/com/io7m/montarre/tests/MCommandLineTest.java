@@ -84,6 +84,15 @@ public final class MCommandLineTest
       List.of("help", "native"),
       List.of("help", "native", "packagers"),
       List.of("help", "native", "create"),
+      List.of("help", "native", "create-batch"),
+      List.of("help", "native", "cache"),
+      List.of("help", "native", "cache", "serve"),
+      List.of("help", "daemon"),
+      List.of("help", "daemon", "serve"),
+      List.of("help", "native", "runtimes"),
+      List.of("help", "native", "runtimes", "digest"),
+      List.of("help", "native", "runtimes", "list"),
+      List.of("help", "native", "runtimes", "prune"),
       List.of("help", "maven-central", "download")
     ).map(MCommandLineTest::helpOf);
   }
@@ -301,6 +310,125 @@ public final class MCommandLineTest
     assertEquals(0, r);
   }
 
+  @Test
+  public void testNativeCreateBatch(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var packages = directory.resolve("packages");
+    Files.createDirectories(packages);
+    this.resource(
+      "com.io7m.montarre.distribution-0.0.1-SNAPSHOT.mpk",
+      packages.resolve("a.mpk")
+    );
+    this.resource(
+      "com.io7m.montarre.distribution-0.0.1-SNAPSHOT.mpk",
+      packages.resolve("b.mpk")
+    );
+
+    final var output = directory.resolve("output");
+    final var r = MMain.mainExitless(
+      new String[]{
+        "native",
+        "create-batch",
+        "--package-directory",
+        packages.toString(),
+        "--work-directory",
+        directory.resolve("work").toString(),
+        "--output-directory",
+        output.toString(),
+        "--include-packagers",
+        "com.io7m.montarre.shell",
+        "--java-runtime-directory",
+        System.getProperty("java.home"),
+        "--jobs",
+        "2"
+      }
+    );
+    assertEquals(0, r);
+    assertTrue(Files.isRegularFile(output.resolve("summary.json")));
+    assertTrue(Files.isDirectory(output.resolve("a")));
+    assertTrue(Files.isDirectory(output.resolve("b")));
+  }
+
+  @Test
+  public void testNativeCreateBatchNoPackages(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var packages = directory.resolve("packages");
+    Files.createDirectories(packages);
+    Files.writeString(packages.resolve("notes.txt"), "Not a package.");
+
+    final var r = MMain.mainExitless(
+      new String[]{
+        "native",
+        "create-batch",
+        "--package-directory",
+        packages.toString(),
+        "--work-directory",
+        directory.resolve("work").toString(),
+        "--output-directory",
+        directory.resolve("output").toString(),
+        "--java-runtime-directory",
+        directory.toString()
+      }
+    );
+    assertEquals(1, r);
+  }
+
+  @Test
+  public void testNativeCreateBatchDuplicatePackages(
+    final @TempDir Path directory)
+  {
+    final var r = MMain.mainExitless(
+      new String[]{
+        "native",
+        "create-batch",
+        "--package",
+        directory.resolve("a").resolve("x.mpk").toString(),
+        "--package",
+        directory.resolve("b").resolve("x.mpk").toString(),
+        "--work-directory",
+        directory.resolve("work").toString(),
+        "--output-directory",
+        directory.resolve("output").toString(),
+        "--java-runtime-directory",
+        directory.toString()
+      }
+    );
+    assertEquals(1, r);
+  }
+
+  @Test
+  public void testNativeRuntimesListPrune(
+    final @TempDir Path directory)
+  {
+    var r = MMain.mainExitless(
+      new String[]{
+        "native",
+        "runtimes",
+        "list",
+        "--store-directory",
+        directory.toString()
+      }
+    );
+    assertEquals(0, r);
+
+    r = MMain.mainExitless(
+      new String[]{
+        "native",
+        "runtimes",
+        "prune",
+        "--store-directory",
+        directory.toString(),
+        "--size-limit",
+        "0"
+      }
+    );
+    assertEquals(0, r);
+  }
+
   @Test
   public void testMavenCentralDownload(
     final @TempDir Path directory)
@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.MShortName;
+import com.io7m.montarre.api.natives.MNativeArchiveCodec;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.api.natives.MNativeArchiveCompressionAdaptive;
+import com.io7m.montarre.nativepack.internal.MNArchiveCompressionSelector;
+import com.io7m.montarre.nativepack.internal.MNArchives;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class MNArchiveCompressionSelectorTest
+{
+  private Path directory;
+  private Path input;
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path inDirectory)
+    throws Exception
+  {
+    this.directory = inDirectory;
+    this.input = inDirectory.resolve("input");
+    Files.createDirectories(this.input);
+
+    final var rng = new Random(0x6d6f6e74L);
+    for (int index = 0; index < 100; ++index) {
+      final var data = new byte[1000 + rng.nextInt(1000)];
+      for (int byteIndex = 0; byteIndex < data.length; ++byteIndex) {
+        data[byteIndex] = (byte) ('a' + rng.nextInt(8));
+      }
+      Files.write(this.input.resolve("file-%03d".formatted(index)), data);
+    }
+  }
+
+  private static MNativeArchiveCompressionAdaptive.Builder adaptive()
+  {
+    return MNativeArchiveCompressionAdaptive.builder()
+      .setSampleBlockCount(4)
+      .setSampleBlockSize(16384);
+  }
+
+  /**
+   * The weakest level that reaches the ratio target is selected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRatioTargetReached()
+    throws Exception
+  {
+    final var selected =
+      MNArchiveCompressionSelector.select(
+        adaptive().setRatioTarget(0.9).build(),
+        MNativeArchiveCodec.TAR_GZIP,
+        this.input
+      );
+
+    assertEquals(MNativeArchiveCodec.TAR_GZIP, selected.codec());
+    assertEquals(1, selected.level());
+  }
+
+  /**
+   * The strongest level is selected if the ratio target cannot be reached.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRatioTargetUnreachable()
+    throws Exception
+  {
+    final var selected =
+      MNArchiveCompressionSelector.select(
+        adaptive().setRatioTarget(0.0001).build(),
+        MNativeArchiveCodec.ZIP,
+        this.input
+      );
+
+    assertEquals(MNativeArchiveCodec.ZIP, selected.codec());
+    assertEquals(9, selected.level());
+  }
+
+  /**
+   * The strongest level is selected if every level fits the time budget.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTimeBudgetGenerous()
+    throws Exception
+  {
+    final var selected =
+      MNArchiveCompressionSelector.select(
+        adaptive().setTimeBudget(Duration.ofHours(1L)).build(),
+        MNativeArchiveCodec.TAR_GZIP,
+        this.input
+      );
+
+    assertEquals(9, selected.level());
+  }
+
+  /**
+   * The weakest level is selected if no level fits the time budget.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTimeBudgetImpossible()
+    throws Exception
+  {
+    final var selected =
+      MNArchiveCompressionSelector.select(
+        adaptive()
+          .setCodec(MNativeArchiveCodec.TAR_XZ)
+          .setTimeBudget(Duration.ofNanos(1L))
+          .build(),
+        MNativeArchiveCodec.TAR_GZIP,
+        this.input
+      );
+
+    assertEquals(MNativeArchiveCodec.TAR_XZ, selected.codec());
+    assertEquals(0, selected.level());
+  }
+
+  /**
+   * Empty inputs select the weakest level.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testEmpty()
+    throws Exception
+  {
+    final var empty = this.directory.resolve("empty");
+    Files.createDirectories(empty);
+
+    final var selected =
+      MNArchiveCompressionSelector.select(
+        adaptive().setRatioTarget(0.5).build(),
+        MNativeArchiveCodec.TAR_ZSTD,
+        empty
+      );
+
+    assertEquals(MNativeArchiveCodec.TAR_ZSTD, selected.codec());
+    assertEquals(1, selected.level());
+  }
+
+  /**
+   * Pinning the selected level explicitly produces an identical archive.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPinnedReproducible()
+    throws Exception
+  {
+    final var selected =
+      MNArchiveCompressionSelector.select(
+        adaptive().setRatioTarget(0.3).build(),
+        MNativeArchiveCodec.TAR_XZ,
+        this.input
+      );
+
+    final var pinned =
+      MNativeArchiveCompression.builder()
+        .setCodec(selected.codec())
+        .setLevel(selected.level())
+        .build();
+
+    final var shortName = new MShortName("app");
+    final var output0 = this.directory.resolve("output0.txz");
+    final var output1 = this.directory.resolve("output1.txz");
+    MNArchives.pack(selected, this.input, output0, name -> false, shortName);
+    MNArchives.pack(pinned, this.input, output1, name -> false, shortName);
+
+    assertArrayEquals(Files.readAllBytes(output0), Files.readAllBytes(output1));
+  }
+
+  /**
+   * Adaptive compression requires a budget or a target.
+   */
+
+  @Test
+  public void testAdaptiveInvalid()
+  {
+    assertThrows(IllegalArgumentException.class, () -> {
+      MNativeArchiveCompressionAdaptive.builder().build();
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      MNativeArchiveCompressionAdaptive.builder()
+        .setRatioTarget(1.5)
+        .build();
+    });
+    assertThrows(IllegalArgumentException.class, () -> {
+      MNativeArchiveCompressionAdaptive.builder()
+        .setTimeBudget(Duration.ZERO)
+        .build();
+    });
+  }
+}
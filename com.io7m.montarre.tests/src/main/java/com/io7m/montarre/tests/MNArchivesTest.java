@@ -0,0 +1,784 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MFileName;
+import com.io7m.montarre.api.MPackageDeclaration;
+import com.io7m.montarre.api.MPlatformDependentModule;
+import com.io7m.montarre.api.MShortName;
+import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.io.MPackageReaderType.PlatformDependentModulePolicy;
+import com.io7m.montarre.api.natives.MNativeArchiveCodec;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.nativepack.internal.MNArchives;
+import com.io7m.montarre.nativepack.internal.MNGZIPParallelOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.io.TempDir;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNArchivesTest
+{
+  private static byte[] data(
+    final int size)
+  {
+    final var rng = new Random(0x6d6f6e74L);
+    final var data = new byte[size];
+    for (int index = 0; index < size; ++index) {
+      data[index] = (byte) ('a' + rng.nextInt(8));
+    }
+    return data;
+  }
+
+  private static byte[] gzip(
+    final byte[] data,
+    final int threads,
+    final int chunkSize)
+    throws IOException
+  {
+    final var bytes = new ByteArrayOutputStream();
+    try (var out = new MNGZIPParallelOutputStream(bytes, 6, 65536, threads)) {
+      for (int offset = 0; offset < data.length; offset += chunkSize) {
+        out.write(data, offset, Math.min(chunkSize, data.length - offset));
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static InputStream decompress(
+    final MNativeArchiveCodec codec,
+    final InputStream input)
+    throws IOException
+  {
+    return switch (codec) {
+      case TAR_XZ -> new XZInputStream(input);
+      case TAR_GZIP -> new GZIPInputStream(input);
+      case TAR_ZSTD -> new ZstdInputStream(input);
+      case ZIP -> input;
+    };
+  }
+
+  private static Map<String, byte[]> unpack(
+    final MNativeArchiveCodec codec,
+    final Path file)
+    throws IOException
+  {
+    final var results = new TreeMap<String, byte[]>();
+    try (var fileIn = Files.newInputStream(file)) {
+      if (codec == MNativeArchiveCodec.ZIP) {
+        try (var zipIn = new ZipInputStream(fileIn)) {
+          while (true) {
+            final var entry = zipIn.getNextEntry();
+            if (entry == null) {
+              break;
+            }
+            results.put(entry.getName(), zipIn.readAllBytes());
+          }
+        }
+      } else {
+        try (var tarIn =
+               new TarArchiveInputStream(decompress(codec, fileIn))) {
+          while (true) {
+            final var entry = tarIn.getNextEntry();
+            if (entry == null) {
+              break;
+            }
+            results.put(entry.getName(), tarIn.readAllBytes());
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Multi-member gzip output survives a round trip.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testGZIPRoundTrip()
+    throws Exception
+  {
+    final var data = data(1_000_000);
+    try (var in = new GZIPInputStream(
+      new ByteArrayInputStream(gzip(data, 4, 10_000)))) {
+      assertArrayEquals(data, in.readAllBytes());
+    }
+  }
+
+  /**
+   * Multi-member gzip output does not depend on the number of threads or
+   * the sizes of writes.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testGZIPDeterministic()
+    throws Exception
+  {
+    final var data = data(1_000_000);
+    final var expected = gzip(data, 1, 1_000_000);
+
+    assertArrayEquals(expected, gzip(data, 4, 1_000_000));
+    assertArrayEquals(expected, gzip(data, 3, 1));
+    assertArrayEquals(expected, gzip(data, 2, 99_999));
+  }
+
+  /**
+   * Every codec produces an archive containing the input files.
+   *
+   * @param directory A temporary directory
+   *
+   * @return The tests
+   */
+
+  @TestFactory
+  public Stream<DynamicTest> testPackRoundTrip(
+    final @TempDir Path directory)
+  {
+    return Stream.of(MNativeArchiveCodec.values())
+      .map(codec -> DynamicTest.dynamicTest(
+        "testPackRoundTrip_" + codec,
+        () -> packRoundTrip(codec, directory.resolve(codec.name()))
+      ));
+  }
+
+  private static void packRoundTrip(
+    final MNativeArchiveCodec codec,
+    final Path directory)
+    throws Exception
+  {
+    final var input = directory.resolve("input");
+    Files.createDirectories(input.resolve("bin"));
+    Files.write(input.resolve("bin/app"), data(100));
+    Files.write(input.resolve("data.bin"), data(2_000_000));
+
+    final var compression =
+      MNativeArchiveCompression.builder()
+        .setCodec(codec)
+        .setLevel(codec.levelMinimum())
+        .build();
+
+    final var output =
+      directory.resolve("output." + codec.fileExtension());
+    final var result =
+      MNArchives.pack(
+        compression,
+        input,
+        output,
+        name -> name.startsWith("bin/"),
+        new MShortName("app")
+      );
+
+    assertEquals(output, result.file());
+    assertEquals(Files.size(output), result.size());
+    assertEquals(
+      HexFormat.of().formatHex(
+        MessageDigest.getInstance("SHA-256")
+          .digest(Files.readAllBytes(output))),
+      result.hash().value().value()
+    );
+
+    final var entries = unpack(codec, output);
+    assertEquals(2, entries.size());
+    assertArrayEquals(data(100), entries.get("app/bin/app"));
+    assertArrayEquals(data(2_000_000), entries.get("app/data.bin"));
+  }
+
+  /**
+   * Packing is reproducible for every codec.
+   *
+   * @param directory A temporary directory
+   *
+   * @return The tests
+   */
+
+  @TestFactory
+  public Stream<DynamicTest> testPackReproducible(
+    final @TempDir Path directory)
+  {
+    return Stream.of(MNativeArchiveCodec.values())
+      .map(codec -> DynamicTest.dynamicTest(
+        "testPackReproducible_" + codec,
+        () -> packReproducible(codec, directory.resolve(codec.name()))
+      ));
+  }
+
+  private static void packReproducible(
+    final MNativeArchiveCodec codec,
+    final Path directory)
+    throws Exception
+  {
+    final var input = directory.resolve("input");
+    Files.createDirectories(input);
+    Files.write(input.resolve("data.bin"), data(1_000_000));
+
+    final var compression =
+      MNativeArchiveCompression.builder()
+        .setCodec(codec)
+        .build();
+
+    final var output0 = directory.resolve("output0");
+    final var output1 = directory.resolve("output1");
+    final var shortName = new MShortName("app");
+    MNArchives.pack(compression, input, output0, name -> false, shortName);
+    MNArchives.pack(compression, input, output1, name -> false, shortName);
+
+    assertArrayEquals(Files.readAllBytes(output0), Files.readAllBytes(output1));
+  }
+
+  /**
+   * Zip archives deflated serially and in parallel are identical, contain
+   * entries in sorted order, and use fixed timestamps.
+   *
+   * @param directory A temporary directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testZipParallelReproducible(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var input = directory.resolve("input");
+    Files.createDirectories(input.resolve("lib"));
+
+    final var rng = new Random(0x6d6f6e74L);
+    for (int index = 0; index < 40; ++index) {
+      Files.write(
+        input.resolve("lib/file-%02d.bin".formatted(index)),
+        data(rng.nextInt(100_000))
+      );
+    }
+    Files.write(input.resolve("large.bin"), data(3_000_000));
+    Files.write(input.resolve("empty.bin"), new byte[0]);
+
+    final var outputs = directory.resolve("outputs");
+    Files.createDirectories(outputs);
+
+    final var shortName = new MShortName("app");
+    final var serial = outputs.resolve("serial.zip");
+    MNArchives.packZip(input, serial, 6, 1, shortName);
+
+    for (final var threads : new int[]{2, 4, 16}) {
+      final var parallel = outputs.resolve("parallel-%d.zip".formatted(threads));
+      MNArchives.packZip(input, parallel, 6, threads, shortName);
+      assertArrayEquals(
+        Files.readAllBytes(serial),
+        Files.readAllBytes(parallel),
+        "Output with %d threads".formatted(threads)
+      );
+    }
+
+    try (var stream = Files.list(outputs)) {
+      assertEquals(4L, stream.count());
+    }
+
+    final var names = new ArrayList<String>();
+    try (var zipFile = new ZipFile(serial.toFile())) {
+      final var entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        final var entry = entries.nextElement();
+        names.add(entry.getName());
+        assertEquals(
+          Instant.parse("2024-10-14T00:00:00+00:00"),
+          entry.getLastModifiedTime().toInstant()
+        );
+        assertArrayEquals(
+          Files.readAllBytes(input.resolve(entry.getName().substring(4))),
+          zipFile.getInputStream(entry).readAllBytes()
+        );
+      }
+    }
+
+    assertEquals(42, names.size());
+    assertEquals(names.stream().sorted().toList(), names);
+  }
+
+  /**
+   * Identical files with identical modes are stored once, with later copies
+   * stored as hard links to the first copy. The archive can be extracted by
+   * the tar command-line tool, if it is installed.
+   *
+   * @param directory A temporary directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTarHardLinks(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var input = directory.resolve("input");
+    Files.createDirectories(input.resolve("a"));
+    Files.createDirectories(input.resolve("b"));
+    Files.createDirectories(input.resolve("bin"));
+
+    final var shared = data(500_000);
+    final var other = data(500_000);
+    other[0] = (byte) 'z';
+    Files.write(input.resolve("a/LICENSE"), shared);
+    Files.write(input.resolve("b/LICENSE"), shared);
+    Files.write(input.resolve("b/OTHER"), other);
+    Files.write(input.resolve("bin/LICENSE"), shared);
+    Files.write(input.resolve("c.txt"), shared);
+    Files.write(input.resolve("empty0"), new byte[0]);
+    Files.write(input.resolve("empty1"), new byte[0]);
+
+    final var output = directory.resolve("output.txz");
+    MNArchives.pack(
+      MNArchives.defaultTarCompression(),
+      input,
+      output,
+      name -> name.startsWith("bin/"),
+      new MShortName("app")
+    );
+
+    final var links = new TreeMap<String, String>();
+    final var files = new TreeMap<String, byte[]>();
+    try (var tarIn = new TarArchiveInputStream(
+      new XZInputStream(Files.newInputStream(output)))) {
+      while (true) {
+        final var entry = tarIn.getNextEntry();
+        if (entry == null) {
+          break;
+        }
+        if (entry.isLink()) {
+          links.put(entry.getName(), entry.getLinkName());
+        } else {
+          files.put(entry.getName(), tarIn.readAllBytes());
+        }
+      }
+    }
+
+    assertEquals(
+      Map.of(
+        "app/b/LICENSE", "app/a/LICENSE",
+        "app/c.txt", "app/a/LICENSE"
+      ),
+      links
+    );
+    assertEquals(
+      List.of(
+        "app/a/LICENSE",
+        "app/b/OTHER",
+        "app/bin/LICENSE",
+        "app/empty0",
+        "app/empty1"
+      ),
+      List.copyOf(files.keySet())
+    );
+    assertArrayEquals(other, files.get("app/b/OTHER"));
+
+    final var extract = directory.resolve("extract");
+    Files.createDirectories(extract);
+
+    final Process process;
+    try {
+      process = new ProcessBuilder(
+        "tar", "-x", "-J", "-f", output.toString(), "-C", extract.toString())
+        .redirectErrorStream(true)
+        .start();
+    } catch (final IOException e) {
+      Assumptions.abort("tar is not available: " + e.getMessage());
+      return;
+    }
+
+    process.getInputStream().transferTo(System.err);
+    assertTrue(process.waitFor(60L, TimeUnit.SECONDS));
+    assertEquals(0, process.exitValue());
+
+    for (final var name : List.of("a/LICENSE", "b/LICENSE", "bin/LICENSE", "c.txt")) {
+      assertArrayEquals(
+        shared,
+        Files.readAllBytes(extract.resolve("app").resolve(name))
+      );
+    }
+  }
+
+  /**
+   * A package reader that streams the given files and supports nothing else.
+   */
+
+  private static MPackageReaderType streamingReader(
+    final SortedMap<String, byte[]> files)
+  {
+    return new MPackageReaderType()
+    {
+      @Override
+      public MPackageDeclaration packageDeclaration()
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void close()
+      {
+
+      }
+
+      @Override
+      public InputStream readFile(
+        final MFileName file)
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void checkHash(
+        final MFileName file)
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void unpackInto(
+        final Path output,
+        final Function<MPlatformDependentModule, PlatformDependentModulePolicy> filterPlatform)
+      {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void streamTo(
+        final EntryConsumerType consumer,
+        final Function<MPlatformDependentModule, PlatformDependentModulePolicy> filterPlatform)
+        throws MException
+      {
+        try {
+          for (final var file : files.entrySet()) {
+            final var data = file.getValue();
+            consumer.accept(
+              file.getKey(),
+              data.length,
+              new ByteArrayInputStream(data)
+            );
+          }
+        } catch (final IOException e) {
+          throw new MException(e.getMessage(), e, "error-io", Map.of());
+        }
+      }
+    };
+  }
+
+  /**
+   * Streaming a package produces the same files as unpacking the package
+   * and packing the resulting directory, in sorted order, and generated
+   * files replace package files.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTarStreaming(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var packageFiles = new TreeMap<String, byte[]>();
+    packageFiles.put("META-INF/MONTARRE/PACKAGE.XML", data(100));
+    packageFiles.put("bin/app", data(10));
+    packageFiles.put("lib/a.jar", data(2_000_000));
+    packageFiles.put("lib/x86_64/linux/b.jar", data(1000));
+    packageFiles.put("meta/icon.png", data(300));
+
+    final var generated = new TreeMap<String, byte[]>();
+    generated.put("bin/app", data(20));
+    generated.put("bin/app.bat", data(30));
+    generated.put("bin/launch.jar", data(40));
+
+    final var input = directory.resolve("input");
+    for (final var file : packageFiles.entrySet()) {
+      final var path = input.resolve(file.getKey());
+      Files.createDirectories(path.getParent());
+      Files.write(path, file.getValue());
+    }
+    for (final var file : generated.entrySet()) {
+      Files.write(input.resolve(file.getKey()), file.getValue());
+    }
+
+    final var compression =
+      MNArchives.defaultTarCompression();
+    final var shortName =
+      new MShortName("app");
+    final Predicate<String> isExecutable =
+      name -> name.startsWith("bin/");
+
+    final var expected =
+      MNArchives.packTar(
+        compression,
+        input,
+        directory.resolve("expected.txz"),
+        isExecutable,
+        shortName
+      );
+
+    final var results = new ArrayList<Path>();
+    for (int index = 0; index < 2; ++index) {
+      final var result =
+        MNArchives.packTarStreaming(
+          compression,
+          streamingReader(packageFiles),
+          module -> PlatformDependentModulePolicy.INCLUDE,
+          generated,
+          directory.resolve("streamed%d.txz".formatted(index)),
+          isExecutable,
+          shortName
+        );
+      assertEquals(Files.size(result.file()), result.size());
+      results.add(result.file());
+    }
+
+    assertArrayEquals(
+      Files.readAllBytes(results.get(0)),
+      Files.readAllBytes(results.get(1))
+    );
+
+    final var expectedFiles =
+      unpack(MNativeArchiveCodec.TAR_XZ, expected.file());
+    final var receivedFiles =
+      unpack(MNativeArchiveCodec.TAR_XZ, results.get(0));
+
+    assertEquals(expectedFiles.keySet(), receivedFiles.keySet());
+    for (final var name : expectedFiles.keySet()) {
+      assertArrayEquals(expectedFiles.get(name), receivedFiles.get(name), name);
+    }
+
+    final var names = new ArrayList<String>();
+    final var modes = new TreeMap<String, Integer>();
+    try (var tarIn = new TarArchiveInputStream(
+      new XZInputStream(Files.newInputStream(results.get(0))))) {
+      while (true) {
+        final var entry = tarIn.getNextEntry();
+        if (entry == null) {
+          break;
+        }
+        names.add(entry.getName());
+        modes.put(entry.getName(), Integer.valueOf(entry.getMode() & 0777));
+        assertEquals(
+          Instant.parse("2024-10-14T00:00:00Z"),
+          entry.getLastModifiedTime().toInstant()
+        );
+      }
+    }
+
+    assertEquals(
+      List.of(
+        "app/META-INF/MONTARRE/PACKAGE.XML",
+        "app/bin/app",
+        "app/bin/app.bat",
+        "app/bin/launch.jar",
+        "app/lib/a.jar",
+        "app/lib/x86_64/linux/b.jar",
+        "app/meta/icon.png"
+      ),
+      names
+    );
+    assertEquals(Integer.valueOf(0755), modes.get("app/bin/app"));
+    assertEquals(Integer.valueOf(0644), modes.get("app/lib/a.jar"));
+  }
+
+  /**
+   * Streaming a package stores duplicate files as hard links in the same
+   * way as unpacking the package and packing the resulting directory, and
+   * leaves no scratch files behind.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTarStreamingHardLinks(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var shared = data(1_500_000);
+    final var other = data(1_500_000);
+    other[0] = (byte) 'z';
+
+    final var packageFiles = new TreeMap<String, byte[]>();
+    packageFiles.put("a/LICENSE", shared);
+    packageFiles.put("b/LICENSE", shared);
+    packageFiles.put("b/OTHER", other);
+    packageFiles.put("c.txt", shared);
+    packageFiles.put("empty0", new byte[0]);
+    packageFiles.put("empty1", new byte[0]);
+
+    final var generated = new TreeMap<String, byte[]>();
+    generated.put("bin/LICENSE", shared);
+    generated.put("bin/NOTICE", shared);
+
+    final var input = directory.resolve("input");
+    for (final var file : packageFiles.entrySet()) {
+      final var path = input.resolve(file.getKey());
+      Files.createDirectories(path.getParent());
+      Files.write(path, file.getValue());
+    }
+    for (final var file : generated.entrySet()) {
+      final var path = input.resolve(file.getKey());
+      Files.createDirectories(path.getParent());
+      Files.write(path, file.getValue());
+    }
+
+    final var compression =
+      MNArchives.defaultTarCompression();
+    final var shortName =
+      new MShortName("app");
+    final Predicate<String> isExecutable =
+      name -> name.startsWith("bin/");
+
+    final var expected =
+      MNArchives.packTar(
+        compression,
+        input,
+        directory.resolve("expected.txz"),
+        isExecutable,
+        shortName
+      );
+    final var received =
+      MNArchives.packTarStreaming(
+        compression,
+        streamingReader(packageFiles),
+        module -> PlatformDependentModulePolicy.INCLUDE,
+        generated,
+        directory.resolve("streamed.txz"),
+        isExecutable,
+        shortName
+      );
+
+    final var links = new TreeMap<String, String>();
+    try (var tarIn = new TarArchiveInputStream(
+      new XZInputStream(Files.newInputStream(received.file())))) {
+      while (true) {
+        final var entry = tarIn.getNextEntry();
+        if (entry == null) {
+          break;
+        }
+        if (entry.isLink()) {
+          links.put(entry.getName(), entry.getLinkName());
+        }
+      }
+    }
+
+    assertEquals(
+      Map.of(
+        "app/b/LICENSE", "app/a/LICENSE",
+        "app/bin/NOTICE", "app/bin/LICENSE",
+        "app/c.txt", "app/a/LICENSE"
+      ),
+      links
+    );
+
+    final var expectedFiles =
+      unpack(MNativeArchiveCodec.TAR_XZ, expected.file());
+    final var receivedFiles =
+      unpack(MNativeArchiveCodec.TAR_XZ, received.file());
+
+    assertEquals(expectedFiles.keySet(), receivedFiles.keySet());
+    for (final var name : expectedFiles.keySet()) {
+      assertArrayEquals(expectedFiles.get(name), receivedFiles.get(name), name);
+    }
+    assertArrayEquals(other, receivedFiles.get("app/b/OTHER"));
+
+    try (var files = Files.list(directory)) {
+      assertEquals(
+        List.of("expected.txz", "input", "streamed.txz"),
+        files.map(p -> p.getFileName().toString())
+          .sorted()
+          .toList()
+      );
+    }
+  }
+
+  /**
+   * Compression levels outside of the range supported by a codec are
+   * rejected.
+   */
+
+  @Test
+  public void testLevelInvalid()
+  {
+    for (final var codec : MNativeArchiveCodec.values()) {
+      assertThrows(IllegalArgumentException.class, () -> {
+        MNativeArchiveCompression.builder()
+          .setCodec(codec)
+          .setLevel(codec.levelMaximum() + 1)
+          .build();
+      });
+      assertThrows(IllegalArgumentException.class, () -> {
+        MNativeArchiveCompression.builder()
+          .setCodec(codec)
+          .setLevel(codec.levelMinimum() - 1)
+          .build();
+      });
+    }
+  }
+
+  /**
+   * The default tar compression is unchanged.
+   */
+
+  @Test
+  public void testDefault()
+  {
+    final var compression = MNArchives.defaultTarCompression();
+    assertEquals(MNativeArchiveCodec.TAR_XZ, compression.codec());
+    assertEquals(2, compression.level());
+    assertEquals("txz", compression.codec().fileExtension());
+  }
+}
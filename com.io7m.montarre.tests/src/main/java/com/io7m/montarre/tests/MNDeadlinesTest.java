@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.nativepack.internal.MNDeadlines;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(30L)
+public final class MNDeadlinesTest
+{
+  /**
+   * Operations without a timeout execute on the calling thread.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testNoTimeoutInline()
+    throws Exception
+  {
+    final var caller = Thread.currentThread();
+    final var result =
+      MNDeadlines.execute("Test", Optional.empty(), () -> {
+        return Thread.currentThread();
+      });
+
+    assertSame(caller, result);
+  }
+
+  /**
+   * Operations that complete in time return their results.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCompletes()
+    throws Exception
+  {
+    final var result =
+      MNDeadlines.execute(
+        "Test",
+        Optional.of(Duration.ofSeconds(10L)),
+        () -> Integer.valueOf(23)
+      );
+
+    assertEquals(Integer.valueOf(23), result);
+  }
+
+  /**
+   * Errors raised by operations are propagated unchanged.
+   */
+
+  @Test
+  public void testErrorPropagated()
+  {
+    final var error =
+      new MException("Failed.", "error-test", Map.of(), Optional.empty());
+
+    final var ex =
+      assertThrows(MException.class, () -> {
+        MNDeadlines.execute(
+          "Test",
+          Optional.of(Duration.ofSeconds(10L)),
+          () -> {
+            throw error;
+          }
+        );
+      });
+
+    assertSame(error, ex);
+  }
+
+  /**
+   * Checked exceptions that are not errors are wrapped.
+   */
+
+  @Test
+  public void testCheckedWrapped()
+  {
+    final var ex =
+      assertThrows(MException.class, () -> {
+        MNDeadlines.execute(
+          "Test",
+          Optional.of(Duration.ofSeconds(10L)),
+          () -> {
+            throw sneaky(new IOException("Failed."));
+          }
+        );
+      });
+
+    assertEquals("error-exception", ex.errorCode());
+    assertEquals(IOException.class, ex.getCause().getClass());
+  }
+
+  /**
+   * An operation that does not complete in time is interrupted, and has
+   * finished cleaning up by the time the error is raised.
+   */
+
+  @Test
+  public void testDeadlineExpired()
+  {
+    final var cleanedUp = new AtomicBoolean(false);
+
+    final var ex =
+      assertThrows(MException.class, () -> {
+        MNDeadlines.execute(
+          "Test",
+          Optional.of(Duration.ofMillis(100L)),
+          () -> {
+            try {
+              Thread.sleep(60_000L);
+              return null;
+            } finally {
+              Thread.sleep(250L);
+              cleanedUp.set(true);
+            }
+          }
+        );
+      });
+
+    assertEquals("error-deadline", ex.errorCode());
+    assertEquals("Test", ex.attributes().get("Operation"));
+    assertEquals("PT0.1S", ex.attributes().get("Timeout"));
+    assertTrue(cleanedUp.get());
+  }
+
+  /**
+   * Interrupting the calling thread cancels the operation and waits for it
+   * to stop.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCallerInterrupted()
+    throws Exception
+  {
+    final var started = new CountDownLatch(1);
+    final var stopped = new AtomicBoolean(false);
+    final var thrown = new AtomicReference<Throwable>();
+
+    final var caller = Thread.ofVirtual().start(() -> {
+      try {
+        MNDeadlines.execute(
+          "Test",
+          Optional.of(Duration.ofSeconds(60L)),
+          () -> {
+            try {
+              started.countDown();
+              Thread.sleep(60_000L);
+              return null;
+            } finally {
+              stopped.set(true);
+            }
+          }
+        );
+      } catch (final Throwable e) {
+        thrown.set(e);
+      }
+    });
+
+    started.await();
+    caller.interrupt();
+    caller.join();
+
+    assertTrue(stopped.get());
+    assertEquals(InterruptedException.class, thrown.get().getClass());
+  }
+
+  /**
+   * Cancellation is detected through causes.
+   */
+
+  @Test
+  public void testIsCancellation()
+  {
+    assertTrue(MNDeadlines.isCancellation(new InterruptedException()));
+    assertTrue(MNDeadlines.isCancellation(
+      new MException("x", "error-cancelled", Map.of(), Optional.empty())));
+    assertTrue(MNDeadlines.isCancellation(
+      new MException(
+        "x",
+        new InterruptedIOException(),
+        "error-exception",
+        Map.of()
+      )));
+    assertFalse(MNDeadlines.isCancellation(new IOException()));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E extends Throwable> RuntimeException sneaky(
+    final Throwable e)
+    throws E
+  {
+    throw (E) e;
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.natives.MNativeArchiveCodec;
+import com.io7m.montarre.api.natives.MNativeArchiveCompression;
+import com.io7m.montarre.nativepack.internal.MNDebWriter;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SequencedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNDebWriterTest
+{
+  private Path directory;
+  private Path data;
+
+  private record ArMember(
+    String name,
+    byte[] data)
+  {
+
+  }
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path inDirectory)
+    throws Exception
+  {
+    this.directory = inDirectory;
+    this.data = inDirectory.resolve("data");
+
+    final var app = this.data.resolve("opt/app");
+    Files.createDirectories(app.resolve("bin"));
+    Files.createDirectories(app.resolve("lib"));
+    Files.createDirectories(this.data.resolve("usr/bin"));
+
+    Files.writeString(app.resolve("bin/app"), "#!/bin/sh\nexit 0\n");
+    Files.setPosixFilePermissions(
+      app.resolve("bin/app"),
+      PosixFilePermissions.fromString("rwxr-xr-x")
+    );
+    Files.write(app.resolve("lib/a.jar"), new byte[3000]);
+    Files.writeString(app.resolve("lib/" + "x".repeat(120) + ".txt"), "Long.");
+    Files.createSymbolicLink(
+      this.data.resolve("usr/bin/app"),
+      Path.of("/opt/app/bin/app")
+    );
+  }
+
+  private static SequencedMap<String, String> control()
+  {
+    final var control = new LinkedHashMap<String, String>();
+    control.put("Package", "app");
+    control.put("Version", "1.0.0");
+    control.put("Architecture", "amd64");
+    control.put("Maintainer", "io7m");
+    control.put("Description", "An app.\nThe first paragraph.\n\nThe second.");
+    return control;
+  }
+
+  private static MNativeArchiveCompression compression(
+    final MNativeArchiveCodec codec)
+  {
+    return MNativeArchiveCompression.builder()
+      .setCodec(codec)
+      .setLevel(codec.levelMinimum())
+      .build();
+  }
+
+  private static List<ArMember> readAr(
+    final Path file)
+    throws IOException
+  {
+    final var bytes = Files.readAllBytes(file);
+    assertEquals(
+      "!<arch>\n",
+      new String(bytes, 0, 8, StandardCharsets.US_ASCII)
+    );
+
+    final var members = new ArrayList<ArMember>();
+    var offset = 8;
+    while (offset < bytes.length) {
+      final var header =
+        new String(bytes, offset, 60, StandardCharsets.US_ASCII);
+      assertEquals("`\n", header.substring(58));
+      assertEquals("1728864000", header.substring(16, 28).strip());
+      assertEquals("100644", header.substring(40, 48).strip());
+
+      final var size = Integer.parseInt(header.substring(48, 58).strip());
+      offset += 60;
+      members.add(new ArMember(
+        header.substring(0, 16).strip(),
+        Arrays.copyOfRange(bytes, offset, offset + size)
+      ));
+      offset += size + (size & 1);
+    }
+    return members;
+  }
+
+  private static Map<String, byte[]> readTarGz(
+    final byte[] data)
+    throws IOException
+  {
+    final var files = new TreeMap<String, byte[]>();
+    try (var tar = new TarArchiveInputStream(
+      new GzipCompressorInputStream(new ByteArrayInputStream(data)))) {
+      while (true) {
+        final var entry = tar.getNextEntry();
+        if (entry == null) {
+          break;
+        }
+        assertEquals("root", entry.getUserName());
+        assertEquals(0L, entry.getLongUserId());
+        files.put(entry.getName(), tar.readAllBytes());
+      }
+    }
+    return files;
+  }
+
+  private static String run(
+    final String... command)
+    throws Exception
+  {
+    final Process process;
+    try {
+      process = new ProcessBuilder(command)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    } catch (final IOException e) {
+      Assumptions.abort("%s is not available: %s".formatted(
+        command[0], e.getMessage()));
+      return "";
+    }
+
+    final var output =
+      new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    assertTrue(process.waitFor(60L, TimeUnit.SECONDS));
+    assertEquals(0, process.exitValue());
+    return output;
+  }
+
+  /**
+   * Packages contain the expected members in the expected order for all
+   * tar codecs.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMembers()
+    throws Exception
+  {
+    final var suffixes = Map.of(
+      MNativeArchiveCodec.TAR_XZ, "xz",
+      MNativeArchiveCodec.TAR_GZIP, "gz",
+      MNativeArchiveCodec.TAR_ZSTD, "zst"
+    );
+
+    for (final var entry : suffixes.entrySet()) {
+      final var output =
+        this.directory.resolve("app-%s.deb".formatted(entry.getValue()));
+      final var result =
+        MNDebWriter.write(compression(entry.getKey()), control(), this.data, output);
+
+      assertEquals(output, result.file());
+      assertEquals(Files.size(output), result.size());
+
+      final var members = readAr(output);
+      assertEquals(
+        List.of(
+          "debian-binary",
+          "control.tar." + entry.getValue(),
+          "data.tar." + entry.getValue()
+        ),
+        members.stream().map(ArMember::name).toList()
+      );
+      assertArrayEquals(
+        "2.0\n".getBytes(StandardCharsets.US_ASCII),
+        members.get(0).data()
+      );
+    }
+
+    try (var stream = Files.list(this.directory)) {
+      assertTrue(stream.noneMatch(p -> p.toString().endsWith(".tmp")));
+    }
+  }
+
+  /**
+   * Writing the same tree twice produces identical packages.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReproducible()
+    throws Exception
+  {
+    final var compression = compression(MNativeArchiveCodec.TAR_XZ);
+    final var r0 =
+      MNDebWriter.write(compression, control(), this.data, this.directory.resolve("0.deb"));
+    final var r1 =
+      MNDebWriter.write(compression, control(), this.data, this.directory.resolve("1.deb"));
+
+    assertEquals(r0.hash(), r1.hash());
+    assertArrayEquals(Files.readAllBytes(r0.file()), Files.readAllBytes(r1.file()));
+  }
+
+  /**
+   * The control archive contains the expected control file and checksums.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testControl()
+    throws Exception
+  {
+    final var output = this.directory.resolve("app.deb");
+    MNDebWriter.write(
+      compression(MNativeArchiveCodec.TAR_GZIP),
+      control(),
+      this.data,
+      output
+    );
+
+    final var files = readTarGz(readAr(output).get(1).data());
+    assertEquals(List.of("./", "./control", "./md5sums"), List.copyOf(files.keySet()));
+
+    assertEquals(
+      String.join(
+        "\n",
+        "Package: app",
+        "Version: 1.0.0",
+        "Architecture: amd64",
+        "Maintainer: io7m",
+        "Installed-Size: 12",
+        "Description: An app.",
+        " The first paragraph.",
+        " .",
+        " The second.",
+        ""
+      ),
+      new String(files.get("./control"), StandardCharsets.UTF_8)
+    );
+
+    final var md5sums =
+      new String(files.get("./md5sums"), StandardCharsets.UTF_8);
+    assertTrue(
+      md5sums.contains("0efa007088f326bbc072c34315f3edb8  opt/app/lib/a.jar\n"),
+      md5sums
+    );
+    assertEquals(3, md5sums.lines().count());
+  }
+
+  /**
+   * The ZIP codec cannot be used.
+   */
+
+  @Test
+  public void testZipRejected()
+  {
+    assertThrows(IllegalArgumentException.class, () -> {
+      MNDebWriter.write(
+        compression(MNativeArchiveCodec.ZIP),
+        control(),
+        this.data,
+        this.directory.resolve("app.deb")
+      );
+    });
+  }
+
+  /**
+   * The package is accepted by dpkg-deb, which reports the expected
+   * contents and fields.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDpkgContents()
+    throws Exception
+  {
+    final var output = this.directory.resolve("app.deb");
+    MNDebWriter.write(
+      compression(MNativeArchiveCodec.TAR_XZ),
+      control(),
+      this.data,
+      output
+    );
+
+    final var contents =
+      run("dpkg-deb", "--contents", output.toString())
+        .lines()
+        .map(line -> {
+          final var fields = line.split("\\s+");
+          final var text = new StringBuilder();
+          text.append(fields[0]);
+          text.append(' ');
+          text.append(fields[1]);
+          text.append(' ');
+          text.append(fields[2]);
+          for (var index = 5; index < fields.length; ++index) {
+            text.append(' ');
+            text.append(fields[index]);
+          }
+          return text.toString();
+        })
+        .toList();
+
+    assertEquals(
+      List.of(
+        "drwxr-xr-x root/root 0 ./",
+        "drwxr-xr-x root/root 0 ./opt/",
+        "drwxr-xr-x root/root 0 ./opt/app/",
+        "drwxr-xr-x root/root 0 ./opt/app/bin/",
+        "-rwxr-xr-x root/root 17 ./opt/app/bin/app",
+        "drwxr-xr-x root/root 0 ./opt/app/lib/",
+        "-rw-r--r-- root/root 3000 ./opt/app/lib/a.jar",
+        "-rw-r--r-- root/root 5 ./opt/app/lib/%s.txt".formatted("x".repeat(120)),
+        "drwxr-xr-x root/root 0 ./usr/",
+        "drwxr-xr-x root/root 0 ./usr/bin/",
+        "lrwxrwxrwx root/root 0 ./usr/bin/app -> /opt/app/bin/app"
+      ),
+      contents
+    );
+
+    assertEquals(
+      "app\n1.0.0\n12\n",
+      run("dpkg-deb", "--field", output.toString(), "Package")
+        + run("dpkg-deb", "--field", output.toString(), "Version")
+        + run("dpkg-deb", "--field", output.toString(), "Installed-Size")
+    );
+  }
+
+  /**
+   * Packages whose data archive spans many compressed blocks are extracted
+   * completely by dpkg-deb, for all tar codecs.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDpkgExtractLarge()
+    throws Exception
+  {
+    final var rng = new Random(0x64656241L);
+    final var large = new byte[20 * 1024 * 1024];
+    for (int index = 0; index < large.length; ++index) {
+      large[index] = (byte) ('a' + rng.nextInt(16));
+    }
+    Files.write(this.data.resolve("opt/app/lib/large.bin"), large);
+
+    for (final var codec : List.of(
+      MNativeArchiveCodec.TAR_XZ,
+      MNativeArchiveCodec.TAR_GZIP,
+      MNativeArchiveCodec.TAR_ZSTD)) {
+      final var output =
+        this.directory.resolve("app-%s.deb".formatted(codec));
+      final var extracted =
+        this.directory.resolve("extracted-%s".formatted(codec));
+
+      MNDebWriter.write(compression(codec), control(), this.data, output);
+
+      assertTrue(
+        run("dpkg-deb", "--contents", output.toString())
+          .contains("./opt/app/lib/large.bin"),
+        codec.toString()
+      );
+
+      run("dpkg-deb", "-x", output.toString(), extracted.toString());
+      assertArrayEquals(
+        large,
+        Files.readAllBytes(extracted.resolve("opt/app/lib/large.bin")),
+        codec.toString()
+      );
+      assertTrue(Files.isSymbolicLink(extracted.resolve("usr/bin/app")));
+    }
+  }
+}
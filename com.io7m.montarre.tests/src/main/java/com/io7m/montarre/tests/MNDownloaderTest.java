@@ -0,0 +1,379 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.nativepack.internal.MNDownloader;
+import com.io7m.streamtime.core.STTransferStatistics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNDownloaderTest
+{
+  private static final Pattern RANGE =
+    Pattern.compile("bytes=([0-9]+)-([0-9]*)");
+
+  private HttpServer server;
+  private HttpClient client;
+  private byte[] data;
+  private List<String> ranges;
+  private AtomicInteger failures;
+  private volatile boolean rangesSupported;
+  private volatile int status;
+  private Path output;
+  private Path outputTemp;
+  private URI uri;
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    this.data = new byte[8_500_000];
+    new Random(0x6d6f6e74L).nextBytes(this.data);
+
+    this.ranges = Collections.synchronizedList(new ArrayList<>());
+    this.failures = new AtomicInteger(0);
+    this.rangesSupported = true;
+    this.status = 200;
+
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    this.server.createContext("/jdk", this::serve);
+    this.server.start();
+
+    this.client = HttpClient.newHttpClient();
+    this.uri = URI.create(
+      "http://localhost:%d/jdk".formatted(this.server.getAddress().getPort())
+    );
+    this.output = directory.resolve("jdk-archive");
+    this.outputTemp = directory.resolve("jdk-archive.tmp");
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    this.server.stop(0);
+    this.client.shutdownNow();
+  }
+
+  /**
+   * A server that supports range requests, and that can be told to fail
+   * part way through sending a response.
+   */
+
+  private void serve(
+    final HttpExchange exchange)
+    throws IOException
+  {
+    try (exchange) {
+      if (this.status != 200) {
+        exchange.sendResponseHeaders(this.status, -1L);
+        return;
+      }
+
+      final var headers = exchange.getResponseHeaders();
+      if (this.rangesSupported) {
+        headers.set("Accept-Ranges", "bytes");
+      }
+
+      if (exchange.getRequestMethod().equals("HEAD")) {
+        headers.set("Content-Length", Integer.toString(this.data.length));
+        exchange.sendResponseHeaders(200, -1L);
+        return;
+      }
+
+      var start = 0;
+      var end = this.data.length;
+      var code = 200;
+
+      final var range = exchange.getRequestHeaders().getFirst("Range");
+      if (range != null && this.rangesSupported) {
+        this.ranges.add(range);
+        final var matcher = RANGE.matcher(range);
+        assertTrue(matcher.matches());
+        start = Integer.parseInt(matcher.group(1));
+        if (!matcher.group(2).isEmpty()) {
+          end = Integer.parseInt(matcher.group(2)) + 1;
+        }
+        if (start >= this.data.length) {
+          exchange.sendResponseHeaders(416, -1L);
+          return;
+        }
+        code = 206;
+        headers.set(
+          "Content-Range",
+          "bytes %d-%d/%d".formatted(start, end - 1, this.data.length)
+        );
+      }
+
+      final var length = end - start;
+      exchange.sendResponseHeaders(code, length);
+      try (var out = exchange.getResponseBody()) {
+        if (this.failures.getAndDecrement() > 0) {
+          out.write(this.data, start, length / 3);
+          out.flush();
+          throw new IOException("Injected failure.");
+        }
+        out.write(this.data, start, length);
+      }
+    }
+  }
+
+  private String hash()
+    throws Exception
+  {
+    return HexFormat.of().formatHex(
+      MessageDigest.getInstance("SHA-256").digest(this.data)
+    );
+  }
+
+  private MNDownloader downloader(
+    final String hash,
+    final int segments,
+    final List<STTransferStatistics> statistics)
+  {
+    return new MNDownloader(
+      this.client,
+      this.uri,
+      this.output,
+      this.outputTemp,
+      hash,
+      segments,
+      statistics::add
+    );
+  }
+
+  /**
+   * A simple download works.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDownload()
+    throws Exception
+  {
+    final var statistics = new ArrayList<STTransferStatistics>();
+    this.downloader(this.hash(), 1, statistics).execute();
+
+    assertArrayEquals(this.data, Files.readAllBytes(this.output));
+    assertFalse(Files.exists(this.outputTemp));
+    assertEquals(List.of(), this.ranges);
+    assertEquals(this.data.length, statistics.getLast().sizeTransferred());
+  }
+
+  /**
+   * A download resumes from an existing temporary file.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testResumeExisting()
+    throws Exception
+  {
+    try (var out = Files.newOutputStream(this.outputTemp)) {
+      out.write(this.data, 0, 1000);
+    }
+
+    final var statistics = new ArrayList<STTransferStatistics>();
+    this.downloader(this.hash(), 1, statistics).execute();
+
+    assertArrayEquals(this.data, Files.readAllBytes(this.output));
+    assertEquals(List.of("bytes=1000-"), this.ranges);
+    assertEquals(this.data.length, statistics.getLast().sizeTransferred());
+  }
+
+  /**
+   * A download that fails part way through is resumed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testResumeAfterFailure()
+    throws Exception
+  {
+    this.failures.set(2);
+    this.downloader(this.hash(), 1, new ArrayList<>()).execute();
+
+    assertArrayEquals(this.data, Files.readAllBytes(this.output));
+    assertEquals(2, this.ranges.size());
+    assertTrue(this.ranges.stream().noneMatch("bytes=0-"::equals));
+  }
+
+  /**
+   * A download that is not a range request restarts from the beginning if
+   * the server does not support ranges.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testResumeUnsupported()
+    throws Exception
+  {
+    this.rangesSupported = false;
+    Files.writeString(this.outputTemp, "Garbage that must be discarded.");
+
+    this.downloader(this.hash(), 4, new ArrayList<>()).execute();
+    assertArrayEquals(this.data, Files.readAllBytes(this.output));
+  }
+
+  /**
+   * A segmented download issues one range request per segment.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSegmented()
+    throws Exception
+  {
+    final var statistics = new ArrayList<STTransferStatistics>();
+    this.downloader(this.hash(), 4, statistics).execute();
+
+    assertArrayEquals(this.data, Files.readAllBytes(this.output));
+    assertEquals(4, this.ranges.size());
+    assertTrue(this.ranges.contains("bytes=0-2124999"));
+    assertTrue(this.ranges.contains("bytes=6375000-8499999"));
+    assertEquals(this.data.length, statistics.getLast().sizeTransferred());
+    assertFalse(Files.exists(this.outputTemp));
+    assertFalse(
+      Files.exists(this.outputTemp.resolveSibling("jdk-archive.tmp.segments"))
+    );
+  }
+
+  /**
+   * Segments that fail part way through are resumed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSegmentedAfterFailures()
+    throws Exception
+  {
+    this.failures.set(3);
+    this.downloader(this.hash(), 4, new ArrayList<>()).execute();
+
+    assertArrayEquals(this.data, Files.readAllBytes(this.output));
+    assertEquals(7, this.ranges.size());
+  }
+
+  /**
+   * A segmented download resumes from a temporary file left by a single
+   * stream download.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSegmentedResumeExisting()
+    throws Exception
+  {
+    try (var out = Files.newOutputStream(this.outputTemp)) {
+      out.write(this.data, 0, 3_000_000);
+    }
+
+    this.downloader(this.hash(), 4, new ArrayList<>()).execute();
+
+    assertArrayEquals(this.data, Files.readAllBytes(this.output));
+    assertEquals(3, this.ranges.size());
+    assertTrue(this.ranges.contains("bytes=3000000-4249999"));
+  }
+
+  /**
+   * Hash mismatches are detected and the temporary file is discarded.
+   */
+
+  @Test
+  public void testHashMismatch()
+  {
+    final var ex =
+      assertThrows(MException.class, () -> {
+        this.downloader("00", 4, new ArrayList<>()).execute();
+      });
+
+    assertEquals("error-hash-mismatch", ex.errorCode());
+    assertFalse(Files.exists(this.output));
+    assertFalse(Files.exists(this.outputTemp));
+  }
+
+  /**
+   * HTTP errors are reported.
+   */
+
+  @Test
+  public void testHTTPError()
+  {
+    this.status = 404;
+
+    final var ex =
+      assertThrows(MException.class, () -> {
+        this.downloader("00", 1, new ArrayList<>()).execute();
+      });
+
+    assertEquals("error-http", ex.errorCode());
+    assertEquals("404", ex.attributes().get("HTTP Status"));
+  }
+
+  /**
+   * Persistent I/O errors are eventually reported.
+   */
+
+  @Test
+  public void testIOErrorPersistent()
+  {
+    this.failures.set(Integer.MAX_VALUE);
+
+    final var ex =
+      assertThrows(MException.class, () -> {
+        this.downloader("00", 1, new ArrayList<>()).execute();
+      });
+
+    assertEquals("error-http-io", ex.errorCode());
+  }
+}
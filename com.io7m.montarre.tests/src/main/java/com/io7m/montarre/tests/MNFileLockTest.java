@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.nativepack.internal.MNFileLock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(30L)
+public final class MNFileLockTest
+{
+  /**
+   * A lock can be released by a thread other than the one that acquired it.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReleaseOtherThread(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var file = directory.resolve("lock");
+    final var lock =
+      CompletableFuture.supplyAsync(() -> {
+        try {
+          return MNFileLock.tryLock(file).orElseThrow();
+        } catch (final Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }).get();
+
+    assertTrue(MNFileLock.tryLock(file).isEmpty());
+    lock.close();
+
+    try (var again = MNFileLock.tryLock(file).orElseThrow()) {
+      assertEquals(file, again.file());
+    }
+  }
+
+  /**
+   * A thread waiting for a lock acquires it when it is released.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testWaiting(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var file = directory.resolve("lock");
+    final var lock = MNFileLock.lock(file);
+
+    final var waiter =
+      CompletableFuture.supplyAsync(() -> {
+        try (var ignored = MNFileLock.lock(file)) {
+          return Boolean.TRUE;
+        } catch (final Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+    Thread.sleep(100L);
+    assertFalse(waiter.isDone());
+    lock.close();
+    assertTrue(waiter.get(10L, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Acquiring a lock already held by the current thread fails rather than
+   * deadlocking.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSelfDeadlock(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var file = directory.resolve("lock");
+    try (var ignored = MNFileLock.lock(file)) {
+      assertThrows(IllegalStateException.class, () -> MNFileLock.lock(file));
+      assertThrows(IllegalStateException.class, () -> MNFileLock.tryLock(file));
+    }
+  }
+
+  /**
+   * Releasing a lock more than once has no effect.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCloseTwice(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var file = directory.resolve("lock");
+    final var lock = MNFileLock.lock(file);
+    lock.close();
+
+    try (var ignored = MNFileLock.lock(file)) {
+      lock.close();
+      assertFalse(lockableElsewhere(file));
+    }
+  }
+
+  /**
+   * In-process state for a file is discarded once the lock is released.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPermitsDiscarded(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var before = MNFileLock.permitCount();
+    for (int index = 0; index < 100; ++index) {
+      final var file = directory.resolve("lock-" + index);
+      try (var ignored = MNFileLock.lock(file)) {
+        assertFalse(lockableElsewhere(file));
+      }
+    }
+    assertEquals(before, MNFileLock.permitCount());
+  }
+
+  private static boolean lockableElsewhere(
+    final Path file)
+    throws Exception
+  {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        final var lockOpt = MNFileLock.tryLock(file);
+        if (lockOpt.isPresent()) {
+          lockOpt.get().close();
+          return Boolean.TRUE;
+        }
+        return Boolean.FALSE;
+      } catch (final Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }).get().booleanValue();
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.lanark.core.RDottedName;
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeProcessOutput;
+import com.io7m.montarre.nativepack.MNativeProcesses;
+import com.io7m.montarre.nativepack.internal.MNJPackage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public final class MNJPackageTest
+{
+  private static final RDottedName PACKAGER =
+    new RDottedName("com.io7m.montarre.test");
+
+  private Path directory;
+  private Path executable;
+  private Path logs;
+  private MNativeProcesses processes;
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path inDirectory)
+    throws Exception
+  {
+    assumeTrue(Files.isExecutable(Path.of("/bin/sh")));
+
+    this.directory = inDirectory;
+    this.logs = inDirectory.resolve("logs");
+    Files.createDirectories(this.logs);
+    Files.createDirectories(inDirectory.resolve("running"));
+
+    /*
+     * A fake jpackage that records the number of instances of itself that
+     * are running concurrently.
+     */
+
+    this.executable = inDirectory.resolve("jpackage");
+    Files.writeString(
+      this.executable,
+      """
+        #!/bin/sh
+        D="$(dirname "$0")"
+        touch "$D/running/$$"
+        ls "$D/running" | wc -l >> "$D/concurrency.txt"
+        echo "jpackage $*"
+        sleep 0.2
+        rm "$D/running/$$"
+        if [ "$1" = "--fail" ]
+        then
+          echo "Failed!" 1>&2
+          exit 2
+        fi
+        exit 0
+        """
+    );
+    Files.setPosixFilePermissions(
+      this.executable,
+      PosixFilePermissions.fromString("rwx------")
+    );
+
+    this.processes = new MNativeProcesses();
+  }
+
+  private MNJPackage jpackage(
+    final int concurrency)
+  {
+    return new MNJPackage(
+      this.executable,
+      packager -> new MNativeProcessOutput(
+        10,
+        1000,
+        Optional.of(this.logs.resolve(packager.value() + ".log"))
+      ),
+      concurrency
+    );
+  }
+
+  private int maximumConcurrency()
+    throws Exception
+  {
+    return Files.readAllLines(this.directory.resolve("concurrency.txt"))
+      .stream()
+      .mapToInt(s -> Integer.parseInt(s.trim()))
+      .max()
+      .orElseThrow();
+  }
+
+  /**
+   * The tool is executed with the given arguments, and output is logged.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testExecute()
+    throws Exception
+  {
+    this.jpackage(1)
+      .execute(this.processes, PACKAGER, List.of("--type", "deb"));
+
+    final var log =
+      Files.readString(this.logs.resolve("com.io7m.montarre.test.log"));
+    assertTrue(log.contains("stdout: jpackage --type deb"), log);
+    assertTrue(log.contains("Exit code 0"), log);
+  }
+
+  /**
+   * Failures are reported along with the output of the tool.
+   */
+
+  @Test
+  public void testFailure()
+  {
+    final var ex =
+      assertThrows(MException.class, () -> {
+        this.jpackage(1)
+          .execute(this.processes, PACKAGER, List.of("--fail"));
+      });
+
+    assertEquals("error-jpackage", ex.errorCode());
+    assertEquals("2", ex.attributes().get("Exit Code"));
+    assertEquals("Failed!", ex.attributes().get("Standard Error").trim());
+    assertEquals(
+      "jpackage --fail",
+      ex.attributes().get("Standard Output").trim()
+    );
+  }
+
+  /**
+   * The number of concurrent executions is limited.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testConcurrencyLimited()
+    throws Exception
+  {
+    final var jpackage = this.jpackage(2);
+    final var futures = new ArrayList<Future<?>>();
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int index = 0; index < 8; ++index) {
+        futures.add(executor.submit(() -> {
+          jpackage.execute(this.processes, PACKAGER, List.of());
+          return null;
+        }));
+      }
+    }
+
+    for (final var future : futures) {
+      future.get();
+    }
+
+    final var maximum = this.maximumConcurrency();
+    assertTrue(maximum >= 1 && maximum <= 2, "Concurrency " + maximum);
+    assertEquals(
+      8L,
+      Files.readAllLines(this.directory.resolve("concurrency.txt")).size()
+    );
+  }
+
+  /**
+   * Executions with a limit of one are serialized.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testConcurrencySerial()
+    throws Exception
+  {
+    final var jpackage = this.jpackage(1);
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int index = 0; index < 4; ++index) {
+        executor.submit(() -> {
+          jpackage.execute(this.processes, PACKAGER, List.of());
+          return null;
+        });
+      }
+    }
+
+    assertEquals(1, this.maximumConcurrency());
+  }
+}
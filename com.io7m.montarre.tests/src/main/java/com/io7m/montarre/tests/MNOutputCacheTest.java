@@ -0,0 +1,336 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.natives.MNativeOutputCacheConfiguration;
+import com.io7m.montarre.api.natives.MNativePackagerFile;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import com.io7m.montarre.nativepack.internal.MNDigestOutputStream;
+import com.io7m.montarre.nativepack.internal.MNOutputCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNOutputCacheTest
+{
+  private Path cacheDirectory;
+  private Path workDirectory;
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    this.cacheDirectory = directory.resolve("cache");
+    this.workDirectory = directory.resolve("work");
+    Files.createDirectories(this.workDirectory);
+  }
+
+  private MNOutputCache open(
+    final long sizeLimit)
+    throws Exception
+  {
+    return MNOutputCache.open(
+      MNativeOutputCacheConfiguration.builder()
+        .setDirectory(this.cacheDirectory)
+        .setSizeLimit(sizeLimit)
+        .build()
+    );
+  }
+
+  private MNativePackagerResult output(
+    final String name,
+    final int size)
+    throws Exception
+  {
+    final var file = this.workDirectory.resolve(name);
+    final var data = new byte[size];
+    for (int index = 0; index < size; ++index) {
+      data[index] = (byte) (index + name.hashCode());
+    }
+    Files.write(file, data);
+    return MNDigestOutputStream.resultOfFile(file);
+  }
+
+  private static String key(
+    final String packager)
+  {
+    return MNOutputCache.key(new TreeMap<>(Map.of("packager", packager)));
+  }
+
+  /**
+   * Keys depend on every component.
+   */
+
+  @Test
+  public void testKeys()
+  {
+    final var k0 =
+      MNOutputCache.key(new TreeMap<>(Map.of("a", "x", "b", "y")));
+    final var k1 =
+      MNOutputCache.key(new TreeMap<>(Map.of("b", "y", "a", "x")));
+    final var k2 =
+      MNOutputCache.key(new TreeMap<>(Map.of("a", "x", "b", "z")));
+
+    assertEquals(k0, k1);
+    assertNotEquals(k0, k2);
+    assertEquals(64, k0.length());
+  }
+
+  /**
+   * Outputs that are not in the cache are not found, and the output
+   * directory is not created.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMiss()
+    throws Exception
+  {
+    final var cache = this.open(Long.MAX_VALUE);
+    assertEquals(
+      Optional.empty(),
+      cache.find(key("a"), this.workDirectory.resolve("out"))
+    );
+    assertFalse(Files.exists(this.workDirectory.resolve("out")));
+  }
+
+  /**
+   * Outputs added to the cache are found, and match the original outputs.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPutFind()
+    throws Exception
+  {
+    final var cache = this.open(Long.MAX_VALUE);
+    final var result = this.output("x.deb", 1000);
+    final var data = Files.readAllBytes(result.file());
+    cache.put(key("a"), result);
+
+    /*
+     * The cache holds a copy of the output, and so the original can be
+     * removed.
+     */
+
+    Files.delete(result.file());
+
+    final var found =
+      cache.find(key("a"), this.workDirectory.resolve("out"))
+        .orElseThrow();
+
+    assertEquals(
+      this.workDirectory.resolve("out").resolve("x.deb"),
+      found.file()
+    );
+    assertEquals(result.size(), found.size());
+    assertEquals(result.hash(), found.hash());
+    assertArrayEquals(data, Files.readAllBytes(found.file()));
+    assertFalse(
+      Files.getPosixFilePermissions(found.file())
+        .contains(PosixFilePermission.OWNER_WRITE)
+    );
+
+    assertEquals(
+      Optional.empty(),
+      cache.find(key("b"), this.workDirectory.resolve("out"))
+    );
+  }
+
+  /**
+   * Additional files are stored and found along with the output.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPutFindAdditional()
+    throws Exception
+  {
+    final var cache = this.open(Long.MAX_VALUE);
+    cache.put(key("a"), this.outputWithAdditional());
+
+    final var found =
+      cache.find(key("a"), this.workDirectory.resolve("out"))
+        .orElseThrow();
+
+    assertEquals("x.txz", found.file().getFileName().toString());
+    assertEquals(1, found.additionalFiles().size());
+
+    final var additional = found.additionalFiles().getFirst();
+    assertEquals(
+      this.workDirectory.resolve("out").resolve("y.txz"),
+      additional.file()
+    );
+    assertEquals(2000L, additional.size());
+    assertEquals(
+      MNDigestOutputStream.resultOfFile(additional.file()).hash(),
+      additional.hash()
+    );
+  }
+
+  /**
+   * The size of an output includes its additional files.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testEvictAdditional()
+    throws Exception
+  {
+    final var cache = this.open(2500L);
+    cache.put(key("a"), this.outputWithAdditional());
+
+    assertEquals(
+      Optional.empty(),
+      cache.find(key("a"), this.workDirectory.resolve("out"))
+    );
+  }
+
+  private MNativePackagerResult outputWithAdditional()
+    throws Exception
+  {
+    final var main = this.output("x.txz", 1000);
+    final var other = this.output("y.txz", 2000);
+    return MNativePackagerResult.builder()
+      .from(main)
+      .addAdditionalFiles(
+        MNativePackagerFile.builder()
+          .setFile(other.file())
+          .setSize(other.size())
+          .setHash(other.hash())
+          .build())
+      .build();
+  }
+
+  /**
+   * Adding an output that is already present has no effect.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPutTwice()
+    throws Exception
+  {
+    final var cache = this.open(Long.MAX_VALUE);
+    final var r0 = this.output("x.deb", 1000);
+    cache.put(key("a"), r0);
+    final var r1 = this.output("y.deb", 1000);
+    cache.put(key("a"), r1);
+
+    final var found =
+      cache.find(key("a"), this.workDirectory.resolve("out"))
+        .orElseThrow();
+
+    assertEquals("x.deb", found.file().getFileName().toString());
+    assertEquals(r0.hash(), found.hash());
+  }
+
+  /**
+   * The least recently used outputs are removed when the cache is too large.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testEvictLRU()
+    throws Exception
+  {
+    final var cache = this.open(2500L);
+    cache.put(key("a"), this.output("a.deb", 1000));
+    Thread.sleep(10L);
+    cache.put(key("b"), this.output("b.deb", 1000));
+    Thread.sleep(10L);
+
+    /*
+     * Using "a" makes "b" the least recently used output.
+     */
+
+    assertTrue(
+      cache.find(key("a"), this.workDirectory.resolve("out0")).isPresent()
+    );
+    Thread.sleep(10L);
+
+    cache.put(key("c"), this.output("c.deb", 1000));
+
+    assertTrue(
+      cache.find(key("a"), this.workDirectory.resolve("out1")).isPresent()
+    );
+    assertFalse(
+      cache.find(key("b"), this.workDirectory.resolve("out1")).isPresent()
+    );
+    assertTrue(
+      cache.find(key("c"), this.workDirectory.resolve("out1")).isPresent()
+    );
+  }
+
+  /**
+   * Pruning removes everything when the limit is zero.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPrune()
+    throws Exception
+  {
+    final var cache = this.open(Long.MAX_VALUE);
+    cache.put(key("a"), this.output("a.deb", 1000));
+    cache.put(key("b"), this.output("b.deb", 1000));
+
+    final var removed = cache.prune(0L);
+    assertEquals(2, removed.size());
+    assertTrue(removed.contains(key("a")));
+    assertTrue(removed.contains(key("b")));
+    assertEquals(
+      Optional.empty(),
+      cache.find(key("a"), this.workDirectory.resolve("out"))
+    );
+  }
+
+  /**
+   * Keys must be SHA-256 hashes.
+   */
+
+  @Test
+  public void testKeyInvalid()
+  {
+    assertThrows(IllegalArgumentException.class, () -> {
+      this.open(Long.MAX_VALUE).find("../x", this.workDirectory);
+    });
+  }
+}
@@ -22,12 +22,14 @@ import com.io7m.jmulticlose.core.CloseableCollectionType;
 import com.io7m.jmulticlose.core.ClosingResourceFailedException;
 import com.io7m.montarre.api.http.MHTTPClientFactoryType;
 import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
 import com.io7m.montarre.api.natives.MNativePackagerServiceType;
 import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
 import com.io7m.montarre.api.natives.MNativeWorkspaceType;
 import com.io7m.montarre.io.MPackageReaders;
 import com.io7m.montarre.nativepack.MNWorkspaces;
 import com.io7m.montarre.nativepack.MNativeProcesses;
+import com.io7m.montarre.nativepack.internal.app_image.MNPackagerAppImage;
 import com.io7m.montarre.nativepack.internal.app_image.MNPackagerAppImageProvider;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assumptions;
@@ -43,7 +45,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public final class MNPackagerAppImageTest
@@ -140,13 +145,20 @@ public final class MNPackagerAppImageTest
       "Packager is supported on this platform."
     );
 
-    final var path = this.packager.execute(
+    final var result = this.packager.execute(
       this.workspace,
       this.reader
     );
+    final var path = result.file();
 
     LOG.debug("Produced {}", path);
     assertTrue(Files.isRegularFile(path));
+    assertEquals(Files.size(path), result.size());
+    assertTrue(
+      Files.isDirectory(
+        result.auxiliaryTrees().get(MNPackagerAppImage.APP_IMAGE_TREE)
+      )
+    );
 
     final var name = path.getFileName().toString();
     assertTrue(
@@ -175,6 +187,41 @@ public final class MNPackagerAppImageTest
     );
   }
 
+  /**
+   * A single packager instance can be used by concurrent executions.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testExecuteConcurrently()
+    throws Exception
+  {
+    Assumptions.assumeTrue(
+      this.packager.unsupportedReason(Optional.empty()).isEmpty(),
+      "Packager is supported on this platform."
+    );
+
+    final Future<MNativePackagerResult> f0;
+    final Future<MNativePackagerResult> f1;
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      f0 = executor.submit(() -> {
+        return this.packager.execute(this.workspace, this.reader);
+      });
+      f1 = executor.submit(() -> {
+        return this.packager.execute(this.workspace, this.reader);
+      });
+    }
+
+    final var r0 = f0.get();
+    final var r1 = f1.get();
+    assertNotEquals(r0.file(), r1.file());
+    assertNotEquals(
+      r0.auxiliaryTrees().get(MNPackagerAppImage.APP_IMAGE_TREE),
+      r1.auxiliaryTrees().get(MNPackagerAppImage.APP_IMAGE_TREE)
+    );
+  }
+
   private void resource(
     final String resourceName,
     final Path output)
@@ -44,6 +44,7 @@ import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.Executors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public final class MNPackagerDebTest
@@ -140,13 +141,15 @@ public final class MNPackagerDebTest
       "Packager is supported on this platform."
     );
 
-    final var path = this.packager.execute(
+    final var result = this.packager.execute(
       this.workspace,
       this.reader
     );
+    final var path = result.file();
 
     LOG.debug("Produced {}", path);
     assertTrue(Files.isRegularFile(path));
+    assertEquals(Files.size(path), result.size());
 
     final var name = path.getFileName().toString();
     assertTrue(
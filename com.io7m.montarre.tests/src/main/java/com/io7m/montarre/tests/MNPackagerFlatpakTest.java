@@ -147,13 +147,15 @@ public final class MNPackagerFlatpakTest
       "Packager is supported on this platform."
     );
 
-    final var path = this.packager.execute(
+    final var result = this.packager.execute(
       this.workspace,
       this.reader
     );
+    final var path = result.file();
 
     LOG.debug("Produced {}", path);
     assertTrue(Files.isRegularFile(path));
+    assertEquals(Files.size(path), result.size());
 
     final var name = path.getFileName().toString();
     assertTrue(
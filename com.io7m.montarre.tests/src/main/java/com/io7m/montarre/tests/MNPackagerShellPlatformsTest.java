@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.MArchitectureName;
+import com.io7m.montarre.api.MFileName;
+import com.io7m.montarre.api.MHash;
+import com.io7m.montarre.api.MHashAlgorithm;
+import com.io7m.montarre.api.MHashValue;
+import com.io7m.montarre.api.MManifest;
+import com.io7m.montarre.api.MOperatingSystemName;
+import com.io7m.montarre.api.MPackageDeclaration;
+import com.io7m.montarre.api.MPlatformDependentModule;
+import com.io7m.montarre.api.natives.MNativePackagerServiceType;
+import com.io7m.montarre.nativepack.MNativeProcesses;
+import com.io7m.montarre.nativepack.internal.shell.MNPackagerShellPlatformsProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNPackagerShellPlatformsTest
+{
+  private MNativePackagerServiceType packager;
+
+  @BeforeEach
+  public void setup()
+  {
+    this.packager =
+      new MNPackagerShellPlatformsProvider()
+        .create(new MNativeProcesses());
+  }
+
+  /**
+   * Packages without platform-dependent modules are not supported.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testUnsupportedNoPlatforms()
+    throws Exception
+  {
+    final var reason =
+      this.packager.unsupportedReason(
+        Optional.of(MExamplePackages.EMPTY_PACKAGE))
+        .orElseThrow();
+
+    assertEquals("error-platforms-none", reason.errorCode());
+  }
+
+  /**
+   * Packages with platform-dependent modules are supported.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSupportedPlatforms()
+    throws Exception
+  {
+    final var hash =
+      new MHash(
+        new MHashAlgorithm("SHA-256"),
+        new MHashValue(
+          "bef5e82eeac406d93b993858e575ba304366ad333d54134969951d1223ff2ce8")
+      );
+
+    final var packageV =
+      MPackageDeclaration.builder()
+        .from(MExamplePackages.EMPTY_PACKAGE)
+        .setManifest(
+          MManifest.builder()
+            .addItems(new MPlatformDependentModule(
+              new MFileName("lib/x.jar"),
+              hash,
+              MOperatingSystemName.linux(),
+              MArchitectureName.x86_64()
+            ))
+            .addItems(new MPlatformDependentModule(
+              new MFileName("lib/y.jar"),
+              hash,
+              MOperatingSystemName.windows(),
+              MArchitectureName.x86_64()
+            ))
+            .build())
+        .build();
+
+    assertTrue(this.packager.unsupportedReason(Optional.of(packageV)).isEmpty());
+  }
+
+  /**
+   * The packager cannot reject a package that it has not seen.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSupportedNoPackage()
+    throws Exception
+  {
+    assertTrue(this.packager.unsupportedReason(Optional.empty()).isEmpty());
+  }
+}
@@ -45,6 +45,7 @@ import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.Executors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -142,13 +143,15 @@ public final class MNPackagerShellTest
       "Packager is supported on this platform."
     );
 
-    final var path = this.packager.execute(
+    final var result = this.packager.execute(
       this.workspace,
       this.reader
     );
+    final var path = result.file();
 
     LOG.debug("Produced {}", path);
     assertTrue(Files.isRegularFile(path));
+    assertEquals(Files.size(path), result.size());
 
     final var name = path.getFileName().toString();
     assertFalse(
@@ -0,0 +1,367 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.natives.MNativeCacheServerConfiguration;
+import com.io7m.montarre.api.natives.MNativeCacheServerType;
+import com.io7m.montarre.api.natives.MNativePackagerFile;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import com.io7m.montarre.api.natives.MNativeRemoteCacheConfiguration;
+import com.io7m.montarre.nativepack.MNCacheServers;
+import com.io7m.montarre.nativepack.internal.MNDigestOutputStream;
+import com.io7m.montarre.nativepack.internal.MNOutputCache;
+import com.io7m.montarre.nativepack.internal.MNRemoteCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNRemoteCacheTest
+{
+  private Path serverDirectory;
+  private Path workDirectory;
+  private Path fetchDirectory;
+  private MNativeCacheServerType server;
+  private HttpClient client;
+  private URI uri;
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    this.serverDirectory = directory.resolve("server");
+    this.workDirectory = directory.resolve("work");
+    this.fetchDirectory = directory.resolve("fetch");
+    Files.createDirectories(this.workDirectory);
+
+    this.server =
+      new MNCacheServers().start(
+        MNativeCacheServerConfiguration.builder()
+          .setDirectory(this.serverDirectory)
+          .setAddress(new InetSocketAddress("localhost", 0))
+          .build()
+      );
+
+    this.client = HttpClient.newHttpClient();
+    this.uri = URI.create(
+      "http://localhost:%d".formatted(this.server.address().getPort())
+    );
+  }
+
+  @AfterEach
+  public void tearDown()
+    throws Exception
+  {
+    this.server.close();
+    this.client.shutdownNow();
+  }
+
+  private MNRemoteCache cache(
+    final boolean push)
+  {
+    return new MNRemoteCache(
+      this.client,
+      MNativeRemoteCacheConfiguration.builder()
+        .setUri(this.uri)
+        .setPush(push)
+        .build()
+    );
+  }
+
+  private MNativePackagerResult output(
+    final String name,
+    final int size)
+    throws Exception
+  {
+    final var file = this.workDirectory.resolve(name);
+    final var data = new byte[size];
+    for (int index = 0; index < size; ++index) {
+      data[index] = (byte) (index + name.hashCode());
+    }
+    Files.write(file, data);
+    return MNDigestOutputStream.resultOfFile(file);
+  }
+
+  private static String key(
+    final String packager)
+  {
+    return MNOutputCache.key(new TreeMap<>(Map.of("packager", packager)));
+  }
+
+  private int put(
+    final String path,
+    final byte[] data)
+    throws Exception
+  {
+    return this.client.send(
+      HttpRequest.newBuilder(this.uri.resolve(path))
+        .PUT(HttpRequest.BodyPublishers.ofByteArray(data))
+        .build(),
+      HttpResponse.BodyHandlers.discarding()
+    ).statusCode();
+  }
+
+  /**
+   * Outputs that are not in the cache are not found, and the output
+   * directory is not created.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMiss()
+    throws Exception
+  {
+    assertEquals(
+      Optional.empty(),
+      this.cache(true).fetchOutput(key("a"), this.fetchDirectory)
+    );
+    assertFalse(Files.exists(this.fetchDirectory));
+  }
+
+  /**
+   * Pushed outputs can be fetched.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPushFetch()
+    throws Exception
+  {
+    final var cache = this.cache(true);
+    final var result = this.output("a.txz", 100_000);
+    cache.pushOutput(key("a"), result);
+
+    final var fetched =
+      cache.fetchOutput(key("a"), this.fetchDirectory).orElseThrow();
+
+    assertEquals(this.fetchDirectory.resolve("a.txz"), fetched.file());
+    assertEquals(result.size(), fetched.size());
+    assertEquals(result.hash(), fetched.hash());
+    assertArrayEquals(
+      Files.readAllBytes(result.file()),
+      Files.readAllBytes(fetched.file())
+    );
+  }
+
+  /**
+   * Additional files are pushed and fetched along with the output.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPushFetchAdditional()
+    throws Exception
+  {
+    final var cache = this.cache(true);
+    final var main = this.output("a-x86_64-linux.txz", 10_000);
+    final var other = this.output("a-x86_64-windows.txz", 20_000);
+    final var result =
+      MNativePackagerResult.builder()
+        .from(main)
+        .addAdditionalFiles(
+          MNativePackagerFile.builder()
+            .setFile(other.file())
+            .setSize(other.size())
+            .setHash(other.hash())
+            .build())
+        .build();
+
+    cache.pushOutput(key("a"), result);
+
+    final var fetched =
+      cache.fetchOutput(key("a"), this.fetchDirectory).orElseThrow();
+
+    assertEquals(main.hash(), fetched.hash());
+    assertEquals(1, fetched.additionalFiles().size());
+
+    final var additional = fetched.additionalFiles().getFirst();
+    assertEquals(
+      this.fetchDirectory.resolve("a-x86_64-windows.txz"),
+      additional.file()
+    );
+    assertEquals(other.size(), additional.size());
+    assertEquals(other.hash(), additional.hash());
+    assertArrayEquals(
+      Files.readAllBytes(other.file()),
+      Files.readAllBytes(additional.file())
+    );
+  }
+
+  /**
+   * Nothing is uploaded if pushing is disabled.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPushDisabled()
+    throws Exception
+  {
+    final var result = this.output("a.txz", 1000);
+    this.cache(false).pushOutput(key("a"), result);
+
+    assertEquals(
+      Optional.empty(),
+      this.cache(true).fetchOutput(key("a"), this.fetchDirectory)
+    );
+  }
+
+  /**
+   * Blobs can be fetched by hash.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBlob()
+    throws Exception
+  {
+    final var cache = this.cache(true);
+    final var result = this.output("runtime.tar.gz", 10_000);
+    final var hash = result.hash().value().value();
+    final var target = this.fetchDirectory.resolve("runtime");
+    Files.createDirectories(this.fetchDirectory);
+
+    assertFalse(
+      cache.fetchBlob(hash, target, target.resolveSibling("tmp"), 1, s -> { })
+    );
+    assertTrue(cache.pushBlob(hash, result.file()));
+    assertTrue(cache.pushBlob(hash, result.file()));
+    assertTrue(
+      cache.fetchBlob(hash, target, target.resolveSibling("tmp"), 1, s -> { })
+    );
+    assertArrayEquals(
+      Files.readAllBytes(result.file()),
+      Files.readAllBytes(target)
+    );
+  }
+
+  /**
+   * The server rejects blobs that do not match their hash.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testServerRejectsHashMismatch()
+    throws Exception
+  {
+    final var result = this.output("a.txz", 1000);
+    final var hash = result.hash().value().value();
+
+    assertEquals(
+      400,
+      this.put("/blobs/sha256/" + hash, new byte[]{1, 2, 3})
+    );
+    assertFalse(
+      Files.exists(this.serverDirectory.resolve("blobs").resolve(hash))
+    );
+  }
+
+  /**
+   * The server rejects output references to blobs that are not present.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testServerRejectsDanglingOutput()
+    throws Exception
+  {
+    final var result = this.output("a.txz", 1000);
+    final var text =
+      "file=a.txz\nhashAlgorithm=SHA-256\nhashValue=%s\n"
+        .formatted(result.hash().value().value());
+
+    assertEquals(409, this.put("/outputs/" + key("a"), text.getBytes()));
+  }
+
+  /**
+   * Blobs that are corrupted on the server are detected by the client and
+   * treated as absent.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testClientRejectsCorruptBlob()
+    throws Exception
+  {
+    final var cache = this.cache(true);
+    final var result = this.output("a.txz", 1000);
+    cache.pushOutput(key("a"), result);
+
+    final var blob =
+      this.serverDirectory.resolve("blobs")
+        .resolve(result.hash().value().value());
+    Files.write(blob, new byte[1000]);
+
+    assertEquals(
+      Optional.empty(),
+      cache.fetchOutput(key("a"), this.fetchDirectory)
+    );
+    assertFalse(Files.exists(this.fetchDirectory.resolve("a.txz")));
+  }
+
+  /**
+   * Output references that name files outside the output directory are
+   * rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testClientRejectsUnsafeFileName()
+    throws Exception
+  {
+    final var cache = this.cache(true);
+    final var result = this.output("a.txz", 1000);
+    final var hash = result.hash().value().value();
+    assertTrue(cache.pushBlob(hash, result.file()));
+
+    final var text =
+      "file=../a.txz\nhashAlgorithm=SHA-256\nhashValue=%s\n"
+        .formatted(hash);
+    assertEquals(201, this.put("/outputs/" + key("a"), text.getBytes()));
+
+    assertEquals(
+      Optional.empty(),
+      cache.fetchOutput(key("a"), this.fetchDirectory)
+    );
+  }
+}
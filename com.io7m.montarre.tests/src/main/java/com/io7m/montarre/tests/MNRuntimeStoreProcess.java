@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.MArchiveFormat;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreConfiguration;
+import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
+import com.io7m.montarre.nativepack.internal.MNRuntimeStore;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A program that acquires a runtime from a runtime store. This is executed
+ * in separate processes by {@link MNRuntimeStoreTest}.
+ */
+
+public final class MNRuntimeStoreProcess
+{
+  private static final String RUNTIME_PREFIX = "RUNTIME ";
+
+  private MNRuntimeStoreProcess()
+  {
+
+  }
+
+  /**
+   * Start a process that acquires a runtime.
+   *
+   * @param storeDirectory The store directory
+   * @param workDirectory  The work directory
+   * @param uri            The runtime URI
+   * @param format         The runtime format
+   * @param hash           The runtime hash
+   * @param hold           If the runtime should be held until standard input
+   *                       is closed
+   *
+   * @return The process
+   *
+   * @throws Exception On errors
+   */
+
+  public static Process start(
+    final Path storeDirectory,
+    final Path workDirectory,
+    final URI uri,
+    final MArchiveFormat format,
+    final String hash,
+    final boolean hold)
+    throws Exception
+  {
+    final var java =
+      ProcessHandle.current()
+        .info()
+        .command()
+        .orElseThrow();
+
+    final var modulePath =
+      System.getProperty("jdk.module.path", "");
+    final var classPath =
+      System.getProperty("java.class.path", "");
+
+    final var command = new ArrayList<String>();
+    command.add(java);
+    if (!classPath.isEmpty()) {
+      command.add("-cp");
+      command.add(classPath);
+    }
+    if (!modulePath.isEmpty()) {
+      command.add("-p");
+      command.add(modulePath);
+      command.add("-m");
+      command.add(
+        "com.io7m.montarre.tests/" + MNRuntimeStoreProcess.class.getName()
+      );
+    } else {
+      command.add(MNRuntimeStoreProcess.class.getName());
+    }
+
+    command.addAll(List.of(
+      storeDirectory.toString(),
+      workDirectory.toString(),
+      uri.toString(),
+      format.name(),
+      hash,
+      Boolean.toString(hold)
+    ));
+
+    return new ProcessBuilder(command)
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start();
+  }
+
+  /**
+   * Wait for a process to report the runtime that it acquired. Log messages
+   * are also written to the standard output of the process and are ignored.
+   *
+   * @param reader The standard output of the process
+   *
+   * @return The runtime directory
+   *
+   * @throws IOException On errors
+   */
+
+  public static Path waitForRuntime(
+    final BufferedReader reader)
+    throws IOException
+  {
+    while (true) {
+      final var line = reader.readLine();
+      if (line == null) {
+        throw new EOFException("Process did not report a runtime.");
+      }
+      if (line.startsWith(RUNTIME_PREFIX)) {
+        return Path.of(line.substring(RUNTIME_PREFIX.length()));
+      }
+    }
+  }
+
+  /**
+   * Acquire a runtime and print the runtime directory.
+   *
+   * @param args The arguments
+   *
+   * @throws Exception On errors
+   */
+
+  public static void main(
+    final String[] args)
+    throws Exception
+  {
+    final var store =
+      MNRuntimeStore.open(
+        MNativeRuntimeStoreConfiguration.builder()
+          .setDirectory(Path.of(args[0]))
+          .build()
+      );
+
+    final var configuration =
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(Files.createDirectories(Path.of(args[1])))
+        .setJavaRuntimeDownloadURI(URI.create(args[2]))
+        .setJavaRuntimeDownloadFormat(MArchiveFormat.valueOf(args[3]))
+        .setJavaRuntimeDownloadSHA256(args[4])
+        .build();
+
+    try (var client = HttpClient.newHttpClient()) {
+      final var runtime = store.acquire(client, configuration, s -> { });
+      System.out.println(RUNTIME_PREFIX + runtime);
+      System.out.flush();
+
+      if (Boolean.parseBoolean(args[5])) {
+        System.in.readAllBytes();
+      }
+      store.release(runtime);
+    }
+  }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.MArchiveFormat;
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeCacheServerConfiguration;
+import com.io7m.montarre.api.natives.MNativeRemoteCacheConfiguration;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreConfiguration;
+import com.io7m.montarre.api.natives.MNativeRuntimeStoreEntry;
+import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
+import com.io7m.montarre.nativepack.MNCacheServers;
+import com.io7m.montarre.nativepack.internal.MNRuntimeStore;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNRuntimeStoreTest
+{
+  private static final String SHA_TAR_XZ =
+    "aff3834be4dac5ba199a87ea3a07a11ed657334b6cb7c24615e166f7611de87e";
+  private static final String SHA_TAR_GZ =
+    "cff89c26e1af9a5aeb0051f0dbcdef0902362940849d14de3f7d6f94fdbdc0e2";
+
+  private HttpServer server;
+  private HttpClient client;
+  private ConcurrentHashMap<String, AtomicInteger> requests;
+  private Path storeDirectory;
+  private Path workDirectory;
+  private volatile long delay;
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    this.storeDirectory = directory.resolve("store");
+    this.workDirectory = directory.resolve("work");
+    this.requests = new ConcurrentHashMap<>();
+
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    this.server.createContext("/", this::serve);
+    this.server.start();
+
+    this.client = HttpClient.newHttpClient();
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    this.server.stop(0);
+    this.client.shutdownNow();
+  }
+
+  private void serve(
+    final HttpExchange exchange)
+    throws IOException
+  {
+    try (exchange) {
+      final var name =
+        exchange.getRequestURI().getPath().substring(1);
+
+      this.requests.computeIfAbsent(name, k -> new AtomicInteger())
+        .incrementAndGet();
+
+      try {
+        Thread.sleep(this.delay);
+      } catch (final InterruptedException e) {
+        throw new IOException(e);
+      }
+
+      try (var stream = MNRuntimeStoreTest.class.getResourceAsStream(
+        "/com/io7m/montarre/tests/%s".formatted(name))) {
+        final var data = stream.readAllBytes();
+        exchange.sendResponseHeaders(200, data.length);
+        try (var out = exchange.getResponseBody()) {
+          out.write(data);
+        }
+      }
+    }
+  }
+
+  private URI uriOf(
+    final String name)
+  {
+    return URI.create(
+      "http://localhost:%d/%s".formatted(
+        this.server.getAddress().getPort(),
+        name
+      ));
+  }
+
+  private MNativeWorkspaceConfiguration workspace(
+    final String name,
+    final MArchiveFormat format,
+    final String hash)
+  {
+    return MNativeWorkspaceConfiguration.builder()
+      .setBaseDirectory(this.workDirectory)
+      .setJavaRuntimeDownloadURI(this.uriOf(name))
+      .setJavaRuntimeDownloadFormat(format)
+      .setJavaRuntimeDownloadSHA256(hash)
+      .build();
+  }
+
+  private MNRuntimeStore store(
+    final long sizeLimit)
+    throws MException
+  {
+    return MNRuntimeStore.open(
+      MNativeRuntimeStoreConfiguration.builder()
+        .setDirectory(this.storeDirectory)
+        .setSizeLimit(sizeLimit)
+        .build()
+    );
+  }
+
+  /**
+   * A runtime is downloaded and extracted once, and is shared between
+   * store instances.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAcquireOnce()
+    throws Exception
+  {
+    final var config =
+      this.workspace("jdk.tar.xz", MArchiveFormat.TAR_XZ, SHA_TAR_XZ);
+
+    final var store0 = this.store(Long.MAX_VALUE);
+    final var store1 = this.store(Long.MAX_VALUE);
+
+    final var path0 = store0.acquire(this.client, config, s -> { });
+    final var path1 = store1.acquire(this.client, config, s -> { });
+
+    assertEquals(path0, path1);
+    assertEquals(1, this.requests.get("jdk.tar.xz").get());
+    assertEquals(this.storeDirectory.toAbsolutePath().resolve(SHA_TAR_XZ), path0);
+
+    final var modules = path0.resolve("jdk").resolve("lib").resolve("modules");
+    assertEquals(2820000L, Files.size(modules));
+    assertFalse(
+      Files.getPosixFilePermissions(modules)
+        .contains(PosixFilePermission.OWNER_WRITE)
+    );
+    for (final var directory : List.of(path0, modules.getParent())) {
+      assertFalse(
+        Files.getPosixFilePermissions(directory)
+          .contains(PosixFilePermission.OWNER_WRITE)
+      );
+    }
+
+    final var entries = store0.list();
+    assertEquals(1, entries.size());
+
+    final var entry = entries.getFirst();
+    assertEquals(SHA_TAR_XZ, entry.sha256());
+    assertEquals(MArchiveFormat.TAR_XZ, entry.format());
+    assertEquals(2820000L, entry.size());
+    assertEquals(path0, entry.directory());
+
+    store0.release(path0);
+    store1.release(path1);
+  }
+
+  /**
+   * Staging files left behind by a process that died whilst fetching a
+   * runtime are removed when the runtime is next locked.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testStaleStagingRemoved()
+    throws Exception
+  {
+    final var config =
+      this.workspace("jdk.tar.xz", MArchiveFormat.TAR_XZ, SHA_TAR_XZ);
+
+    final var staging = this.storeDirectory.resolve("staging");
+    final var stale = staging.resolve(SHA_TAR_XZ + "-stale");
+    final var staleInner = stale.resolve("jdk").resolve("lib");
+    Files.createDirectories(staleInner);
+    Files.writeString(staleInner.resolve("modules"), "x");
+    Files.setPosixFilePermissions(
+      staleInner,
+      PosixFilePermissions.fromString("r-xr-xr-x")
+    );
+
+    final var other = staging.resolve(SHA_TAR_GZ + "-other");
+    Files.createDirectories(other);
+
+    this.store(Long.MAX_VALUE).acquire(this.client, config, s -> { });
+
+    assertFalse(Files.exists(stale));
+    assertTrue(Files.exists(other));
+  }
+
+  /**
+   * Runtimes in use are not pruned, and the least recently used runtimes
+   * are pruned first.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPrune()
+    throws Exception
+  {
+    final var store = this.store(Long.MAX_VALUE);
+
+    final var pathXZ =
+      store.acquire(
+        this.client,
+        this.workspace("jdk.tar.xz", MArchiveFormat.TAR_XZ, SHA_TAR_XZ),
+        s -> { }
+      );
+    final var pathGZ =
+      store.acquire(
+        this.client,
+        this.workspace("jdk.tar.gz", MArchiveFormat.TAR_GZ, SHA_TAR_GZ),
+        s -> { }
+      );
+
+    assertNotEquals(pathXZ, pathGZ);
+    assertEquals(2, store.list().size());
+    assertEquals(List.of(), store.prune(0L));
+
+    store.release(pathXZ);
+
+    final var removed = store.prune(0L);
+    assertEquals(
+      List.of(SHA_TAR_XZ),
+      removed.stream().map(MNativeRuntimeStoreEntry::sha256).toList()
+    );
+    assertFalse(Files.exists(pathXZ));
+    assertTrue(Files.exists(pathGZ));
+
+    store.release(pathGZ);
+  }
+
+  /**
+   * Acquiring a runtime evicts unused runtimes over the size limit.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSizeLimit()
+    throws Exception
+  {
+    final var store = this.store(1L);
+
+    final var pathXZ =
+      store.acquire(
+        this.client,
+        this.workspace("jdk.tar.xz", MArchiveFormat.TAR_XZ, SHA_TAR_XZ),
+        s -> { }
+      );
+    store.release(pathXZ);
+
+    final var pathGZ =
+      store.acquire(
+        this.client,
+        this.workspace("jdk.tar.gz", MArchiveFormat.TAR_GZ, SHA_TAR_GZ),
+        s -> { }
+      );
+
+    assertFalse(Files.exists(pathXZ));
+    assertTrue(Files.exists(pathGZ));
+    assertEquals(
+      List.of(SHA_TAR_GZ),
+      store.list().stream().map(MNativeRuntimeStoreEntry::sha256).toList()
+    );
+    store.release(pathGZ);
+  }
+
+  /**
+   * Invalid hashes are rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInvalidHash()
+    throws Exception
+  {
+    final var store = this.store(Long.MAX_VALUE);
+
+    final var ex =
+      assertThrows(MException.class, () -> {
+        store.acquire(
+          this.client,
+          this.workspace("jdk.tar.xz", MArchiveFormat.TAR_XZ, "../../x"),
+          s -> { }
+        );
+      });
+
+    assertEquals("error-hash-invalid", ex.errorCode());
+  }
+
+  /**
+   * Several processes acquiring the same runtime at the same time download
+   * and extract it exactly once.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAcquireProcesses()
+    throws Exception
+  {
+    this.delay = 1_000L;
+
+    final var processes = new ArrayList<Process>();
+    for (int index = 0; index < 4; ++index) {
+      processes.add(
+        MNRuntimeStoreProcess.start(
+          this.storeDirectory,
+          this.workDirectory.resolve(Integer.toString(index)),
+          this.uriOf("jdk.tar.xz"),
+          MArchiveFormat.TAR_XZ,
+          SHA_TAR_XZ,
+          false
+        )
+      );
+    }
+
+    final var paths = new HashSet<Path>();
+    for (final var process : processes) {
+      final var reader =
+        new BufferedReader(
+          new InputStreamReader(process.getInputStream(), UTF_8));
+      paths.add(MNRuntimeStoreProcess.waitForRuntime(reader));
+      reader.transferTo(Writer.nullWriter());
+      assertTrue(process.waitFor(60L, TimeUnit.SECONDS));
+      assertEquals(0, process.exitValue());
+    }
+
+    assertEquals(1, this.requests.get("jdk.tar.xz").get());
+    assertEquals(
+      Set.of(this.storeDirectory.toAbsolutePath().resolve(SHA_TAR_XZ)),
+      paths
+    );
+
+    final var entries = this.store(Long.MAX_VALUE).list();
+    assertEquals(1, entries.size());
+    assertEquals(2820000L, entries.getFirst().size());
+  }
+
+  /**
+   * A runtime in use by another process is not pruned.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPruneInUseByProcess()
+    throws Exception
+  {
+    final var process =
+      MNRuntimeStoreProcess.start(
+        this.storeDirectory,
+        this.workDirectory,
+        this.uriOf("jdk.tar.xz"),
+        MArchiveFormat.TAR_XZ,
+        SHA_TAR_XZ,
+        true
+      );
+
+    try {
+      final var reader =
+        new BufferedReader(
+          new InputStreamReader(process.getInputStream(), UTF_8));
+      final var path =
+        MNRuntimeStoreProcess.waitForRuntime(reader);
+
+      final var store = this.store(Long.MAX_VALUE);
+      assertEquals(List.of(), store.prune(0L));
+      assertTrue(Files.isDirectory(path));
+
+      process.getOutputStream().close();
+      reader.transferTo(Writer.nullWriter());
+      assertTrue(process.waitFor(60L, TimeUnit.SECONDS));
+      assertEquals(0, process.exitValue());
+
+      assertEquals(
+        List.of(SHA_TAR_XZ),
+        store.prune(0L)
+          .stream()
+          .map(MNativeRuntimeStoreEntry::sha256)
+          .toList()
+      );
+      assertFalse(Files.exists(path));
+    } finally {
+      process.destroyForcibly();
+    }
+  }
+
+  /**
+   * A runtime downloaded from its source is uploaded to the remote cache,
+   * and other stores fetch it from the remote cache instead of the source.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAcquireRemoteCache()
+    throws Exception
+  {
+    try (var cacheServer = new MNCacheServers().start(
+      MNativeCacheServerConfiguration.builder()
+        .setDirectory(this.workDirectory.resolveSibling("remote"))
+        .setAddress(new InetSocketAddress("localhost", 0))
+        .build())) {
+
+      final var config =
+        MNativeWorkspaceConfiguration.builder()
+          .from(
+            this.workspace("jdk.tar.gz", MArchiveFormat.TAR_GZ, SHA_TAR_GZ))
+          .setRemoteCache(
+            MNativeRemoteCacheConfiguration.builder()
+              .setUri(URI.create(
+                "http://localhost:%d/".formatted(
+                  cacheServer.address().getPort())))
+              .build())
+          .build();
+
+      final var store0 = this.store(Long.MAX_VALUE);
+      final var store1 =
+        MNRuntimeStore.open(
+          MNativeRuntimeStoreConfiguration.builder()
+            .setDirectory(this.storeDirectory.resolveSibling("store1"))
+            .build()
+        );
+
+      final var path0 = store0.acquire(this.client, config, s -> { });
+      final var path1 = store1.acquire(this.client, config, s -> { });
+
+      assertEquals(1, this.requests.get("jdk.tar.gz").get());
+      assertNotEquals(path0, path1);
+      assertEquals(
+        store0.list().getFirst().size(),
+        store1.list().getFirst().size()
+      );
+
+      store0.release(path0);
+      store1.release(path1);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.MException;
+import com.io7m.montarre.nativepack.MNTreeDigests;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class MNTreeDigestsTest
+{
+  private static String sha256(
+    final String text)
+    throws Exception
+  {
+    return HexFormat.of().formatHex(
+      MessageDigest.getInstance("SHA-256")
+        .digest(text.getBytes(StandardCharsets.UTF_8))
+    );
+  }
+
+  /**
+   * The digest of a tree is the digest of the documented listing.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testListing(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    Files.createDirectories(directory.resolve("b").resolve("c"));
+    Files.writeString(directory.resolve("a"), "Hello.");
+    Files.writeString(directory.resolve("b").resolve("c").resolve("d"), "");
+    Files.createSymbolicLink(directory.resolve("e"), Path.of("a"));
+
+    final var expected =
+      sha256(
+        "f 6 %s a\n".formatted(sha256("Hello."))
+        + "d b\n"
+        + "d b/c\n"
+        + "f 0 %s b/c/d\n".formatted(sha256(""))
+        + "l a e\n"
+      );
+
+    assertEquals(expected, MNTreeDigests.sha256(directory));
+  }
+
+  /**
+   * Changing a file changes the digest.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testChanged(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    Files.writeString(directory.resolve("a"), "Hello.");
+    final var digest0 = MNTreeDigests.sha256(directory);
+    Files.writeString(directory.resolve("a"), "Hello!");
+    final var digest1 = MNTreeDigests.sha256(directory);
+    assertNotEquals(digest0, digest1);
+  }
+
+  /**
+   * Nonexistent directories are errors.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMissing(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var ex =
+      assertThrows(MException.class, () -> {
+        MNTreeDigests.sha256(directory.resolve("x"));
+      });
+    assertEquals("error-io", ex.errorCode());
+  }
+}
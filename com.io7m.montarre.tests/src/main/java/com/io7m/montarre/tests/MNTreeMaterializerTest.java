@@ -0,0 +1,222 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.nativepack.MNTreeDigests;
+import com.io7m.montarre.nativepack.internal.MNTreeMaterializer;
+import com.io7m.montarre.nativepack.internal.MNTreeMaterializer.Method;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNTreeMaterializerTest
+{
+  private Path directory;
+  private Path source;
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path inDirectory)
+    throws IOException
+  {
+    this.directory = inDirectory;
+    this.source = inDirectory.resolve("source");
+
+    final var random = new Random(0x6d6f6e74L);
+    final var data = new byte[100_000];
+
+    Files.createDirectories(this.source.resolve("bin"));
+    Files.createDirectories(this.source.resolve("lib/runtime/lib"));
+
+    for (int index = 0; index < 20; ++index) {
+      random.nextBytes(data);
+      Files.write(
+        this.source.resolve("lib/runtime/lib/file%d.so".formatted(index)),
+        data
+      );
+    }
+
+    final var exec = this.source.resolve("bin/app");
+    Files.writeString(exec, "#!/bin/sh\nexit 0\n");
+    Files.setPosixFilePermissions(
+      exec,
+      PosixFilePermissions.fromString("rwxr-xr-x")
+    );
+    Files.writeString(this.source.resolve("lib/empty"), "");
+    Files.createSymbolicLink(
+      this.source.resolve("lib/link.so"),
+      Path.of("runtime/lib/file0.so")
+    );
+  }
+
+  /**
+   * Materialized trees are identical to their sources, for every permitted
+   * combination of methods.
+   *
+   * @return The tests
+   */
+
+  @TestFactory
+  public Stream<DynamicTest> testMaterializeIdentical()
+  {
+    return Stream.of(
+      EnumSet.allOf(Method.class),
+      EnumSet.of(Method.HARDLINK, Method.COPY),
+      EnumSet.of(Method.HARDLINK),
+      EnumSet.of(Method.COPY)
+    ).map(methods -> {
+      return DynamicTest.dynamicTest("testMaterializeIdentical_" + methods, () -> {
+        final var target =
+          this.directory.resolve(
+            String.join("_", methods.stream().map(Enum::name).toList())
+          ).resolve("target");
+        final var method =
+          MNTreeMaterializer.materialize(this.source, target, methods, 4);
+
+        assertTrue(methods.contains(method));
+        assertEquals(
+          MNTreeDigests.sha256(this.source),
+          MNTreeDigests.sha256(target)
+        );
+        assertTrue(Files.isSymbolicLink(target.resolve("lib/link.so")));
+        assertEquals(
+          PosixFilePermissions.fromString("rwxr-xr-x"),
+          Files.getPosixFilePermissions(target.resolve("bin/app"))
+        );
+      });
+    });
+  }
+
+  /**
+   * Hard links share files with the source tree.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testHardLinks()
+    throws Exception
+  {
+    final var target =
+      this.directory.resolve("target");
+    final var method =
+      MNTreeMaterializer.materialize(
+        this.source, target, EnumSet.of(Method.HARDLINK), 1);
+
+    assertEquals(Method.HARDLINK, method);
+    assertTrue(
+      Files.isSameFile(
+        this.source.resolve("lib/runtime/lib/file3.so"),
+        target.resolve("lib/runtime/lib/file3.so")
+      )
+    );
+  }
+
+  /**
+   * Copies are independent of the source tree.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCopy()
+    throws Exception
+  {
+    final var target =
+      this.directory.resolve("target");
+    final var method =
+      MNTreeMaterializer.materialize(
+        this.source, target, EnumSet.of(Method.COPY), 4);
+
+    assertEquals(Method.COPY, method);
+
+    final var file = target.resolve("lib/empty");
+    Files.writeString(file, "Changed.");
+    assertEquals("", Files.readString(this.source.resolve("lib/empty")));
+  }
+
+  /**
+   * Read-only directories are materialized with their permissions.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReadOnlyDirectory()
+    throws Exception
+  {
+    final var readOnly =
+      PosixFilePermissions.fromString("r-xr-xr-x");
+
+    Files.setPosixFilePermissions(this.source.resolve("bin"), readOnly);
+
+    final var target =
+      this.directory.resolve("target");
+
+    try {
+      MNTreeMaterializer.materialize(
+        this.source, target, EnumSet.of(Method.COPY), 4);
+
+      assertEquals(
+        readOnly,
+        Files.getPosixFilePermissions(target.resolve("bin"))
+      );
+    } finally {
+      final var writable = PosixFilePermissions.fromString("rwxr-xr-x");
+      Files.setPosixFilePermissions(this.source.resolve("bin"), writable);
+      if (Files.exists(target.resolve("bin"))) {
+        Files.setPosixFilePermissions(target.resolve("bin"), writable);
+      }
+    }
+  }
+
+  /**
+   * Existing targets are rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTargetExists()
+    throws Exception
+  {
+    final var target =
+      this.directory.resolve("target");
+
+    Files.createDirectories(target);
+
+    assertThrows(FileAlreadyExistsException.class, () -> {
+      MNTreeMaterializer.materialize(this.source, target);
+    });
+  }
+}
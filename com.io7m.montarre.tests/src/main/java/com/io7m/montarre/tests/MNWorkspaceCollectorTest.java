@@ -0,0 +1,272 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.api.natives.MNativeWorkspaceRetention;
+import com.io7m.montarre.api.natives.MNativeWorkspaceRun;
+import com.io7m.montarre.nativepack.MNWorkspaces;
+import com.io7m.montarre.nativepack.internal.MNFileLock;
+import com.io7m.montarre.nativepack.internal.MNWorkspaceCollector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNWorkspaceCollectorTest
+{
+  private static final OffsetDateTime NOW =
+    OffsetDateTime.of(2024, 10, 13, 12, 0, 0, 0, ZoneOffset.UTC);
+
+  private Path directory;
+  private Path runs;
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path inDirectory)
+  {
+    this.directory = inDirectory;
+    this.runs = MNWorkspaceCollector.runsDirectory(inDirectory);
+  }
+
+  private static MNativeWorkspaceRun run(
+    final String name,
+    final long size,
+    final int hoursAgo)
+  {
+    return MNativeWorkspaceRun.builder()
+      .setDirectory(Path.of(name))
+      .setSize(size)
+      .setTimeLastModified(NOW.minusHours(hoursAgo))
+      .build();
+  }
+
+  private Path createRun(
+    final String name,
+    final int size,
+    final int hoursAgo)
+    throws IOException
+  {
+    final var run = this.runs.resolve(name);
+    final var work = run.resolve("work0");
+    Files.createDirectories(work);
+    Files.write(work.resolve("file.bin"), new byte[size]);
+    Files.setLastModifiedTime(
+      run,
+      FileTime.from(OffsetDateTime.now().minusHours(hoursAgo).toInstant())
+    );
+    return run;
+  }
+
+  /**
+   * Runs beyond the maximum number of runs are removed, oldest first.
+   */
+
+  @Test
+  public void testSelectMaximumRuns()
+  {
+    final var r0 = run("r0", 10L, 1);
+    final var r1 = run("r1", 10L, 2);
+    final var r2 = run("r2", 10L, 3);
+    final var r3 = run("r3", 10L, 4);
+
+    final var evictions =
+      MNWorkspaceCollector.selectEvictions(
+        List.of(r0, r1, r2, r3),
+        MNativeWorkspaceRetention.builder()
+          .setMaximumRuns(2)
+          .build(),
+        NOW
+      );
+
+    assertEquals(List.of(r3, r2), evictions);
+  }
+
+  /**
+   * Runs older than the maximum age are removed.
+   */
+
+  @Test
+  public void testSelectMaximumAge()
+  {
+    final var r0 = run("r0", 10L, 1);
+    final var r1 = run("r1", 10L, 25);
+    final var r2 = run("r2", 10L, 48);
+
+    final var evictions =
+      MNWorkspaceCollector.selectEvictions(
+        List.of(r0, r1, r2),
+        MNativeWorkspaceRetention.builder()
+          .setMaximumAge(Duration.ofDays(1L))
+          .build(),
+        NOW
+      );
+
+    assertEquals(List.of(r2, r1), evictions);
+  }
+
+  /**
+   * The oldest runs are removed until the total size fits, after removing
+   * runs that are excluded by other limits.
+   */
+
+  @Test
+  public void testSelectMaximumSize()
+  {
+    final var r0 = run("r0", 100L, 1);
+    final var r1 = run("r1", 100L, 2);
+    final var r2 = run("r2", 100L, 3);
+    final var r3 = run("r3", 100L, 4);
+    final var r4 = run("r4", 100L, 100);
+
+    final var evictions =
+      MNWorkspaceCollector.selectEvictions(
+        List.of(r0, r1, r2, r3, r4),
+        MNativeWorkspaceRetention.builder()
+          .setMaximumSize(250L)
+          .setMaximumAge(Duration.ofDays(1L))
+          .build(),
+        NOW
+      );
+
+    assertEquals(List.of(r4, r3, r2), evictions);
+  }
+
+  /**
+   * An empty policy removes nothing.
+   */
+
+  @Test
+  public void testSelectNothing()
+  {
+    final var evictions =
+      MNWorkspaceCollector.selectEvictions(
+        List.of(run("r0", 10L, 1), run("r1", 10L, 1000)),
+        MNativeWorkspaceRetention.builder().build(),
+        NOW
+      );
+
+    assertEquals(List.of(), evictions);
+  }
+
+  /**
+   * Runs are removed from the filesystem along with their lock files, and
+   * the reclaimed space is reported.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCollect()
+    throws Exception
+  {
+    final var r0 = this.createRun("r0", 1000, 1);
+    final var r1 = this.createRun("r1", 2000, 2);
+    final var r2 = this.createRun("r2", 3000, 3);
+    Files.writeString(MNWorkspaceCollector.lockFile(r2), "");
+
+    final var removed =
+      new MNWorkspaces().collectGarbage(
+        this.directory,
+        MNativeWorkspaceRetention.builder()
+          .setMaximumRuns(1)
+          .build()
+      );
+
+    assertEquals(
+      List.of(r2, r1),
+      removed.stream().map(MNativeWorkspaceRun::directory).toList()
+    );
+    assertEquals(
+      5000L,
+      removed.stream().mapToLong(MNativeWorkspaceRun::size).sum()
+    );
+    assertTrue(Files.isDirectory(r0));
+    assertFalse(Files.exists(r1));
+    assertFalse(Files.exists(r2));
+    assertFalse(Files.exists(MNWorkspaceCollector.lockFile(r2)));
+  }
+
+  /**
+   * Runs that are locked are not removed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCollectLocked()
+    throws Exception
+  {
+    final var r0 = this.createRun("r0", 1000, 1);
+    final var r1 = this.createRun("r1", 2000, 2);
+
+    final List<MNativeWorkspaceRun> removed;
+    try (var ignored = MNFileLock.lock(MNWorkspaceCollector.lockFile(r1))) {
+      try (var executor = Executors.newSingleThreadExecutor()) {
+        removed = executor.submit(() -> {
+          return MNWorkspaceCollector.collect(
+            this.directory,
+            MNativeWorkspaceRetention.builder()
+              .setMaximumRuns(0)
+              .build()
+          );
+        }).get();
+      }
+    }
+
+    assertEquals(
+      List.of(r0),
+      removed.stream().map(MNativeWorkspaceRun::directory).toList()
+    );
+    assertFalse(Files.exists(r0));
+    assertTrue(Files.isDirectory(r1));
+  }
+
+  /**
+   * A missing work directory contains no runs.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCollectEmpty()
+    throws Exception
+  {
+    final var removed =
+      MNWorkspaceCollector.collect(
+        this.directory.resolve("nonexistent"),
+        MNativeWorkspaceRetention.builder()
+          .setMaximumRuns(0)
+          .build()
+      );
+
+    assertEquals(List.of(), removed);
+  }
+}
@@ -22,6 +22,9 @@ import com.io7m.montarre.api.MApplicationKind;
 import com.io7m.montarre.api.MArchiveFormat;
 import com.io7m.montarre.api.MCopying;
 import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.MHash;
+import com.io7m.montarre.api.MHashAlgorithm;
+import com.io7m.montarre.api.MHashValue;
 import com.io7m.montarre.api.MJavaInfo;
 import com.io7m.montarre.api.MLink;
 import com.io7m.montarre.api.MLinkRole;
@@ -36,13 +39,21 @@ import com.io7m.montarre.api.MVendorID;
 import com.io7m.montarre.api.MVendorName;
 import com.io7m.montarre.api.MVersion;
 import com.io7m.montarre.api.http.MHTTPClients;
+import com.io7m.montarre.api.io.MPackageReaderType;
+import com.io7m.montarre.api.natives.MNativePackagerResult;
+import com.io7m.montarre.api.natives.MNativePackagerServiceType;
 import com.io7m.montarre.api.natives.MNativeWorkspaceConfiguration;
+import com.io7m.montarre.api.natives.MNativeWorkspaceType;
 import com.io7m.montarre.io.MPackageReaders;
 import com.io7m.montarre.io.MPackageWriters;
+import com.io7m.montarre.nativepack.MNTreeDigests;
 import com.io7m.montarre.nativepack.MNWorkspaces;
+import com.io7m.montarre.nativepack.internal.MNFileLock;
+import com.io7m.montarre.nativepack.internal.MNWorkspaceCollector;
 import com.io7m.montarre.xml.MPackageDeclarationSerializers;
 import com.io7m.quixote.core.QWebServerType;
 import com.io7m.quixote.core.QWebServers;
+import com.io7m.seltzer.api.SStructuredErrorType;
 import com.io7m.streamtime.core.STTransferStatistics;
 import com.io7m.verona.core.Version;
 import org.junit.jupiter.api.AfterEach;
@@ -59,12 +70,16 @@ import java.io.InputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -212,6 +227,57 @@ public final class MNWorkspacesTest implements Flow.Subscriber<STTransferStatist
     }
   }
 
+  @Test
+  public void testDownloadJDKTarXz(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    this.server.addResponse()
+      .forPath("/jdk")
+      .withData(resource("jdk.tar.xz"))
+      .withStatus(200);
+
+    final var config =
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory)
+        .setJavaRuntimeDownloadFormat(MArchiveFormat.TAR_XZ)
+        .setJavaRuntimeDownloadSHA256("aff3834be4dac5ba199a87ea3a07a11ed657334b6cb7c24615e166f7611de87e")
+        .setJavaRuntimeDownloadURI(this.server.uri().resolve("jdk"))
+        .build();
+
+    try (var reader = this.readers.open(this.packageFile)) {
+      try (var workspace = this.workspaces.open(config, httpClients, reader)) {
+        workspace.javaRuntimeDownload().subscribe(this);
+
+        {
+          final var path =
+            workspace.javaRuntime().get(5L, TimeUnit.SECONDS);
+          assertTrue(Files.isDirectory(path));
+          assertTrue(Files.isRegularFile(
+            path.resolve("jdk")
+              .resolve("bin")
+              .resolve("java")));
+          assertEquals(
+            2820000L,
+            Files.size(path.resolve("jdk")
+                         .resolve("lib")
+                         .resolve("modules"))
+          );
+        }
+
+        {
+          final var path =
+            workspace.javaRuntime().get(5L, TimeUnit.SECONDS);
+          assertTrue(Files.isDirectory(path));
+          assertTrue(Files.isRegularFile(
+            path.resolve("jdk")
+              .resolve("bin")
+              .resolve("java")));
+        }
+      }
+    }
+  }
+
   @RepeatedTest(value = 10, failureThreshold = 1)
   public void testDownloadJDK404(
     final @TempDir Path directory)
@@ -305,6 +371,263 @@ public final class MNWorkspacesTest implements Flow.Subscriber<STTransferStatist
     }
   }
 
+  /**
+   * A workspace can be closed on a thread other than the one that first
+   * created a work directory, and closing it releases the run lock.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCloseAfterWorkDirectoryOnOtherThread(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var config =
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory.resolve("work"))
+        .setJavaRuntimeDirectory(createRuntimeDirectory(directory))
+        .build();
+
+    final var workspace = this.workspaces.open(config, httpClients);
+    final var work = new AtomicReference<Path>();
+    Thread.ofVirtual().start(() -> {
+      try {
+        work.set(workspace.createWorkDirectory());
+      } catch (final MException e) {
+        throw new IllegalStateException(e);
+      }
+    }).join();
+
+    workspace.close();
+
+    final var lock =
+      MNFileLock.tryLock(MNWorkspaceCollector.lockFile(work.get().getParent()));
+    assertTrue(lock.isPresent());
+    lock.get().close();
+  }
+
+  /**
+   * Packagers log the output of processes into a directory named after the
+   * package.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testProcessLogPerPackage(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var logs = directory.resolve("logs");
+    final var config =
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory.resolve("work"))
+        .setJavaRuntimeDirectory(createRuntimeDirectory(directory))
+        .setProcessLogDirectory(logs)
+        .build();
+
+    final var packager = new TestPackager();
+    try (var reader = this.readers.open(this.packageFile)) {
+      try (var workspace = this.workspaces.open(config, httpClients)) {
+        assertEquals(
+          Optional.of(logs.resolve(packager.name().value() + ".log")),
+          workspace.processOutput(packager.name()).logFile()
+        );
+
+        workspace.executePackager(packager, reader);
+        assertEquals(
+          Optional.of(
+            logs.resolve("com.io7m.example-1.0.0")
+              .resolve(packager.name().value() + ".log")
+          ),
+          packager.logFile.get()
+        );
+      }
+    }
+  }
+
+  /**
+   * A packager executed with a timeout runs on a separate thread, and the
+   * workspace can still be closed afterwards.
+   *
+   * @param directory The directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPackagerTimeoutClose(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var config =
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory.resolve("work"))
+        .setJavaRuntimeDirectory(createRuntimeDirectory(directory))
+        .setPackagerTimeout(Duration.ofHours(1L))
+        .build();
+
+    final var packager = new TestPackager();
+    try (var reader = this.readers.open(this.packageFile)) {
+      final var workspace = this.workspaces.open(config, httpClients);
+      final var result = workspace.executePackager(packager, reader);
+      assertTrue(Files.isRegularFile(result.file()));
+      workspace.close();
+    }
+
+    final var run = packager.workDirectory.get().getParent();
+    final var lock = MNFileLock.tryLock(MNWorkspaceCollector.lockFile(run));
+    assertTrue(lock.isPresent());
+    lock.get().close();
+  }
+
+  @Test
+  public void testRuntimeDirectory(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var runtime = createRuntimeDirectory(directory);
+
+    final var config =
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory.resolve("work"))
+        .setJavaRuntimeDirectory(runtime)
+        .build();
+
+    try (var reader = this.readers.open(this.packageFile)) {
+      try (var workspace = this.workspaces.open(config, httpClients, reader)) {
+        final var future = workspace.javaRuntime();
+        assertTrue(future.isDone());
+        assertEquals(runtime, future.get());
+        assertFalse(Files.exists(directory.resolve("work").resolve("runtimes")));
+      }
+    }
+  }
+
+  @Test
+  public void testRuntimeDirectoryDigest(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var runtime = createRuntimeDirectory(directory);
+
+    final var config =
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory.resolve("work"))
+        .setJavaRuntimeDirectory(runtime)
+        .setJavaRuntimeDirectorySHA256(MNTreeDigests.sha256(runtime))
+        .build();
+
+    try (var reader = this.readers.open(this.packageFile)) {
+      try (var workspace = this.workspaces.open(config, httpClients, reader)) {
+        assertEquals(
+          runtime,
+          workspace.javaRuntime().get(5L, TimeUnit.SECONDS)
+        );
+      }
+    }
+  }
+
+  @Test
+  public void testRuntimeDirectoryDigestMismatch(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var runtime = createRuntimeDirectory(directory);
+    final var digest = MNTreeDigests.sha256(runtime);
+    Files.writeString(runtime.resolve("release"), "JAVA_VERSION=\"22\"");
+
+    final var config =
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory.resolve("work"))
+        .setJavaRuntimeDirectory(runtime)
+        .setJavaRuntimeDirectorySHA256(digest)
+        .build();
+
+    try (var reader = this.readers.open(this.packageFile)) {
+      try (var workspace = this.workspaces.open(config, httpClients, reader)) {
+        final var ex = assertThrows(MException.class, () -> {
+          try {
+            workspace.javaRuntime().get(5L, TimeUnit.SECONDS);
+          } catch (final ExecutionException e) {
+            throw e.getCause();
+          }
+        });
+        assertEquals("error-hash-mismatch", ex.errorCode());
+      }
+    }
+  }
+
+  @Test
+  public void testRuntimeDirectoryMissing(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var config =
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory.resolve("work"))
+        .setJavaRuntimeDirectory(directory.resolve("nonexistent"))
+        .build();
+
+    try (var reader = this.readers.open(this.packageFile)) {
+      try (var workspace = this.workspaces.open(config, httpClients, reader)) {
+        final var ex = assertThrows(MException.class, () -> {
+          try {
+            workspace.javaRuntime().get(5L, TimeUnit.SECONDS);
+          } catch (final ExecutionException e) {
+            throw e.getCause();
+          }
+        });
+        assertEquals("error-java-runtime-missing", ex.errorCode());
+      }
+    }
+  }
+
+  @Test
+  public void testRuntimeDirectoryConfigurationInvalid(
+    final @TempDir Path directory)
+  {
+    assertThrows(IllegalArgumentException.class, () -> {
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory)
+        .setJavaRuntimeDirectory(directory)
+        .setJavaRuntimeDownloadFormat(MArchiveFormat.ZIP)
+        .build();
+    });
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory)
+        .setJavaRuntimeDownloadFormat(MArchiveFormat.ZIP)
+        .build();
+    });
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      MNativeWorkspaceConfiguration.builder()
+        .setBaseDirectory(directory)
+        .setJavaRuntimeDirectorySHA256("00")
+        .build();
+    });
+  }
+
+  private static Path createRuntimeDirectory(
+    final Path directory)
+    throws IOException
+  {
+    final var runtime = directory.resolve("runtime");
+    Files.createDirectories(runtime.resolve("bin"));
+    Files.createDirectories(runtime.resolve("lib"));
+    Files.writeString(runtime.resolve("bin").resolve("java"), "#!/bin/sh");
+    Files.writeString(runtime.resolve("lib").resolve("modules"), "modules");
+    Files.writeString(runtime.resolve("release"), "JAVA_VERSION=\"21\"");
+    return runtime;
+  }
+
   private static InputStream resource(
     final String name)
   {
@@ -340,4 +663,69 @@ public final class MNWorkspacesTest implements Flow.Subscriber<STTransferStatist
   {
 
   }
+
+  /**
+   * A packager that writes a single file into a work directory.
+   */
+
+  private static final class TestPackager
+    implements MNativePackagerServiceType
+  {
+    private final AtomicReference<Optional<Path>> logFile;
+    private final AtomicReference<Path> workDirectory;
+
+    TestPackager()
+    {
+      this.logFile = new AtomicReference<>(Optional.empty());
+      this.workDirectory = new AtomicReference<>();
+    }
+
+    @Override
+    public RDottedName name()
+    {
+      return new RDottedName("com.io7m.montarre.tests.packager");
+    }
+
+    @Override
+    public String describe()
+    {
+      return "A test packager.";
+    }
+
+    @Override
+    public Optional<SStructuredErrorType<String>> unsupportedReason(
+      final Optional<MPackageDeclaration> packageV)
+    {
+      return Optional.empty();
+    }
+
+    @Override
+    public MNativePackagerResult execute(
+      final MNativeWorkspaceType workspace,
+      final MPackageReaderType packageV)
+      throws MException
+    {
+      this.logFile.set(workspace.processOutput(this.name()).logFile());
+
+      final var directory = workspace.createWorkDirectory();
+      this.workDirectory.set(directory);
+
+      final var file = directory.resolve("output.txt");
+      try {
+        Files.writeString(file, "");
+      } catch (final IOException e) {
+        throw new MException(e.getMessage(), e, "error-io");
+      }
+
+      return MNativePackagerResult.builder()
+        .setFile(file)
+        .setSize(0L)
+        .setHash(new MHash(
+          new MHashAlgorithm("SHA-256"),
+          new MHashValue(
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855")
+        ))
+        .build();
+    }
+  }
 }
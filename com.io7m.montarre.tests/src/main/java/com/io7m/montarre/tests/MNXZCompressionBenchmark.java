@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.nativepack.internal.MNXZParallelOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A benchmark comparing the compressors considered for native packages.
+ * The single argument is a file to compress, such as an uncompressed tar
+ * archive of an application. Each compressor is run against the file held
+ * in memory, and the parallel XZ compressor is run with increasing numbers
+ * of threads up to the number of available processors.
+ */
+
+public final class MNXZCompressionBenchmark
+{
+  private static final int XZ_BLOCK_SIZE =
+    8 * 1024 * 1024;
+
+  private MNXZCompressionBenchmark()
+  {
+
+  }
+
+  private interface CompressorType
+  {
+    OutputStream open(OutputStream output)
+      throws IOException;
+  }
+
+  private static final class CountingOutputStream extends OutputStream
+  {
+    private long count;
+
+    CountingOutputStream()
+    {
+
+    }
+
+    @Override
+    public void write(
+      final int b)
+    {
+      ++this.count;
+    }
+
+    @Override
+    public void write(
+      final byte[] buffer,
+      final int offset,
+      final int length)
+    {
+      this.count += length;
+    }
+  }
+
+  public static void main(
+    final String[] args)
+    throws Exception
+  {
+    final var data =
+      Files.readAllBytes(Path.of(args[0]));
+    final var processors =
+      Runtime.getRuntime().availableProcessors();
+
+    System.out.printf(
+      "# %d octets, %d available processors%n",
+      Integer.valueOf(data.length),
+      Integer.valueOf(processors)
+    );
+    System.out.printf(
+      "%-24s %10s %14s %8s %10s%n",
+      "compressor",
+      "seconds",
+      "octets",
+      "ratio",
+      "MiB/s"
+    );
+
+    run("gzip(9)", data, out -> {
+      return new DeflaterOutputStream(out, new Deflater(9, false), 65536);
+    });
+    run("bzip(9)", data, out -> new BZip2CompressorOutputStream(out, 9));
+    run("xz(2)", data, out -> new XZOutputStream(out, new LZMA2Options(2)));
+    run("xz(3)", data, out -> new XZOutputStream(out, new LZMA2Options(3)));
+
+    final var threadCounts = new ArrayList<Integer>();
+    for (int threads = 1; threads < processors; threads *= 2) {
+      threadCounts.add(Integer.valueOf(threads));
+    }
+    threadCounts.add(Integer.valueOf(processors));
+
+    for (final var threads : threadCounts) {
+      run(
+        "xz(2) parallel x%d".formatted(threads),
+        data,
+        out -> {
+          return new MNXZParallelOutputStream(
+            out,
+            2,
+            XZ_BLOCK_SIZE,
+            threads.intValue()
+          );
+        }
+      );
+    }
+  }
+
+  private static void run(
+    final String name,
+    final byte[] data,
+    final CompressorType compressor)
+    throws IOException
+  {
+    final var counter = new CountingOutputStream();
+    final var timeThen = System.nanoTime();
+    try (var out = compressor.open(counter)) {
+      out.write(data);
+    }
+    final var seconds =
+      (double) (System.nanoTime() - timeThen) / 1_000_000_000.0;
+
+    System.out.printf(
+      "%-24s %10.3f %14d %8.3f %10.2f%n",
+      name,
+      Double.valueOf(seconds),
+      Long.valueOf(counter.count),
+      Double.valueOf((double) counter.count / (double) data.length),
+      Double.valueOf(((double) data.length / 1048576.0) / seconds)
+    );
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.nativepack.internal.MNXZParallelInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public final class MNXZParallelInputStreamTest
+{
+  private static byte[] data(
+    final int size)
+  {
+    final var rng = new Random(0x6d6f6e74L);
+    final var data = new byte[size];
+    for (int index = 0; index < size; ++index) {
+      data[index] = (byte) ('a' + rng.nextInt(8));
+    }
+    return data;
+  }
+
+  private static Path writeBlocks(
+    final Path directory,
+    final byte[] data,
+    final int blockSize)
+    throws Exception
+  {
+    final var file = directory.resolve("data.xz");
+    try (var out = new XZOutputStream(
+      Files.newOutputStream(file),
+      new LZMA2Options(1))) {
+      for (int offset = 0; offset < data.length; offset += blockSize) {
+        out.write(data, offset, Math.min(blockSize, data.length - offset));
+        out.endBlock();
+      }
+    }
+    return file;
+  }
+
+  @Test
+  public void testMultipleBlocks(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var data = data(1_000_000);
+    final var file = writeBlocks(directory, data, 65536);
+
+    try (var in = MNXZParallelInputStream.open(file, 4)) {
+      assertArrayEquals(data, in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void testMultipleBlocksSingleThread(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var data = data(300_000);
+    final var file = writeBlocks(directory, data, 65536);
+
+    try (var in = MNXZParallelInputStream.open(file, 1)) {
+      assertArrayEquals(data, in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void testSingleBlock(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var data = data(300_000);
+    final var file = writeBlocks(directory, data, data.length);
+
+    try (var in = MNXZParallelInputStream.open(file, 4)) {
+      assertArrayEquals(data, in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void testByteAtATime(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var data = data(200_000);
+    final var file = writeBlocks(directory, data, 16384);
+
+    try (var in = MNXZParallelInputStream.open(file, 3)) {
+      final var result = new byte[data.length];
+      for (int index = 0; index < data.length; ++index) {
+        result[index] = (byte) in.read();
+      }
+      assertArrayEquals(data, result);
+      assertArrayEquals(new byte[0], in.readAllBytes());
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.montarre.tests;
+
+import com.io7m.montarre.nativepack.internal.MNXZParallelInputStream;
+import com.io7m.montarre.nativepack.internal.MNXZParallelOutputStream;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class MNXZParallelOutputStreamTest
+{
+  private static byte[] data(
+    final int size)
+  {
+    final var rng = new Random(0x6d6f6e74L);
+    final var data = new byte[size];
+    for (int index = 0; index < size; ++index) {
+      data[index] = (byte) ('a' + rng.nextInt(8));
+    }
+    return data;
+  }
+
+  private static byte[] compress(
+    final byte[] data,
+    final int blockSize,
+    final int threads,
+    final int chunkSize)
+    throws IOException
+  {
+    final var bytes = new ByteArrayOutputStream();
+    try (var out = new MNXZParallelOutputStream(bytes, 2, blockSize, threads)) {
+      for (int offset = 0; offset < data.length; offset += chunkSize) {
+        out.write(data, offset, Math.min(chunkSize, data.length - offset));
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] decompress(
+    final byte[] data)
+    throws IOException
+  {
+    try (var in = new XZInputStream(new ByteArrayInputStream(data))) {
+      return in.readAllBytes();
+    }
+  }
+
+  /**
+   * Data spanning many blocks survives a round trip.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRoundTrip()
+    throws Exception
+  {
+    final var data = data(1_000_000);
+    assertArrayEquals(data, decompress(compress(data, 65536, 4, 10_000)));
+  }
+
+  /**
+   * The output does not depend on the number of threads or the sizes of
+   * writes.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDeterministic()
+    throws Exception
+  {
+    final var data = data(1_000_000);
+    final var expected = compress(data, 65536, 1, 1_000_000);
+
+    assertArrayEquals(expected, compress(data, 65536, 4, 1_000_000));
+    assertArrayEquals(expected, compress(data, 65536, 8, 1));
+    assertArrayEquals(expected, compress(data, 65536, 3, 65536));
+    assertArrayEquals(expected, compress(data, 65536, 2, 99_999));
+  }
+
+  /**
+   * The output is a single XZ stream containing one block per block of
+   * input.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSingleStream(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var data = data(1_000_000);
+    final var file = directory.resolve("data.xz");
+    Files.write(file, compress(data, 65536, 4, 4096));
+
+    try (var in = new SeekableXZInputStream(new SeekableFileInputStream(file.toFile()))) {
+      assertEquals(1, in.getStreamCount());
+      assertEquals(16, in.getBlockCount());
+      assertEquals(data.length, in.length());
+    }
+  }
+
+  /**
+   * Empty input yields a valid XZ file.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testEmpty()
+    throws Exception
+  {
+    assertArrayEquals(new byte[0], decompress(compress(new byte[0], 65536, 4, 1)));
+  }
+
+  /**
+   * The output can be decoded in parallel.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testParallelDecode(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var data = data(1_000_000);
+    final var file = directory.resolve("data.xz");
+    Files.write(file, compress(data, 65536, 4, 4096));
+
+    try (var in = MNXZParallelInputStream.open(file, 4)) {
+      assertArrayEquals(data, in.readAllBytes());
+    }
+  }
+
+  /**
+   * The output can be decoded by the xz command-line tool, if it is
+   * installed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testXZCommand(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var data = data(1_000_000);
+    final var file = directory.resolve("data.xz");
+    Files.write(file, compress(data, 65536, 4, 4096));
+
+    final Process process;
+    try {
+      process = new ProcessBuilder("xz", "--decompress", "--stdout", file.toString())
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    } catch (final IOException e) {
+      Assumptions.abort("xz is not available: " + e.getMessage());
+      return;
+    }
+
+    final var output = process.getInputStream().readAllBytes();
+    assertTrue(process.waitFor(60L, TimeUnit.SECONDS));
+    assertEquals(0, process.exitValue());
+    assertArrayEquals(data, output);
+  }
+
+  /**
+   * The highest preset works, and the dictionary of each encoder is limited
+   * to the block size so that memory use is bounded.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPresetMaximum()
+    throws Exception
+  {
+    final var data = data(1_000_000);
+    final var bytes = new ByteArrayOutputStream();
+    final var blockSize = 8 * 1024 * 1024;
+
+    try (var out = new MNXZParallelOutputStream(bytes, 9, blockSize, 2)) {
+      final var unlimited = new LZMA2Options(9).getEncoderMemoryUsage();
+      assertTrue(
+        out.encoderMemoryUsage() < unlimited / 4,
+        "Encoder memory %d KiB".formatted(out.encoderMemoryUsage())
+      );
+      out.write(data);
+    }
+    assertArrayEquals(data, decompress(bytes.toByteArray()));
+  }
+
+  /**
+   * Closed streams cannot be written.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testClosed()
+    throws Exception
+  {
+    final var out =
+      new MNXZParallelOutputStream(new ByteArrayOutputStream(), 2, 65536, 2);
+    out.close();
+    out.close();
+    assertThrows(IOException.class, () -> out.write(0));
+  }
+}
@@ -20,14 +20,32 @@ package com.io7m.montarre.tests;
 import com.io7m.jaffirm.core.PreconditionViolationException;
 import com.io7m.jaffirm.core.Preconditions;
 import com.io7m.montarre.api.MException;
+import com.io7m.montarre.api.natives.MNativeProcessOutput;
+import com.io7m.montarre.api.natives.MNativeProcessOutputBuffer;
 import com.io7m.montarre.nativepack.MNativeProcesses;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public final class MNativeProcessesTest
 {
@@ -40,8 +58,7 @@ public final class MNativeProcessesTest
       assertThrows(MException.class, () -> {
       p.executeAndWaitChecked(
         System.getenv(),
-        new ConcurrentLinkedQueue<>(),
-        new ConcurrentLinkedQueue<>(),
+        MNativeProcessOutput.create(),
         List.of(
           "absolutely-not-a-real-program"
         )
@@ -60,10 +77,375 @@ public final class MNativeProcessesTest
       assertThrows(PreconditionViolationException.class, () -> {
         p.executeAndWaitChecked(
           System.getenv(),
-          new ConcurrentLinkedQueue<>(),
-          new ConcurrentLinkedQueue<>(),
+          MNativeProcessOutput.create(),
           List.of()
         );
       });
   }
+
+  /**
+   * Output is captured, and the tail of the output is attached to errors.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testOutputCaptured()
+    throws Exception
+  {
+    final var p =
+      new MNativeProcesses();
+    final var output =
+      MNativeProcessOutput.create();
+
+    final var ex =
+      assertThrows(MException.class, () -> {
+        p.executeAndWaitChecked(
+          System.getenv(),
+          output,
+          List.of("sh", "-c", "echo out0; echo err0 1>&2; exit 3")
+        );
+      });
+
+    assertEquals("error-exec-command", ex.errorCode());
+    assertEquals("3", ex.attributes().get("Error Code"));
+    assertEquals(List.of("out0"), output.standardOut().lines());
+    assertEquals(List.of("err0"), output.standardError().lines());
+    assertTrue(ex.attributes().get("Standard Output").contains("out0"));
+    assertTrue(ex.attributes().get("Standard Error").contains("err0"));
+  }
+
+  /**
+   * Very verbose processes only have their most recent output retained.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testOutputBounded()
+    throws Exception
+  {
+    final var p =
+      new MNativeProcesses();
+    final var output =
+      new MNativeProcessOutput(10, 1000, Optional.empty());
+
+    p.executeAndWaitChecked(
+      System.getenv(),
+      output,
+      List.of("sh", "-c", "seq 1 100000; head -c 100000 /dev/zero | tr '\\0' x")
+    );
+
+    final var lines = output.standardOut().lines();
+    assertTrue(lines.size() <= 10);
+    assertTrue(lines.getLast().length() <= 1000);
+    assertTrue(lines.getLast().startsWith("xxxx"));
+    assertTrue(output.standardOut().linesDropped() >= 99990L);
+    assertTrue(output.standardOut().tail().startsWith("["));
+  }
+
+  /**
+   * Output is streamed to log files.
+   *
+   * @param directory A temporary directory
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testOutputLogged(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var p =
+      new MNativeProcesses();
+    final var logFile =
+      directory.resolve("logs").resolve("x.log");
+    final var output =
+      new MNativeProcessOutput(1, 1000, Optional.of(logFile));
+
+    p.executeAndWaitChecked(
+      System.getenv(),
+      output,
+      List.of("sh", "-c", "seq 1 1000")
+    );
+    p.executeAndWaitChecked(
+      System.getenv(),
+      new MNativeProcessOutput(1, 1000, Optional.of(logFile)),
+      List.of("sh", "-c", "echo again")
+    );
+
+    assertEquals(List.of("1000"), output.standardOut().lines());
+
+    final var lines = Files.readAllLines(logFile);
+    assertTrue(lines.getFirst().startsWith("# "));
+    assertEquals("stdout: 1", lines.get(1));
+    assertEquals("stdout: 1000", lines.get(1000));
+    assertTrue(lines.get(1001).endsWith("Exit code 0"));
+    assertTrue(lines.contains("stdout: again"));
+  }
+
+  /**
+   * Buffers discard the oldest lines when the octet limit is exceeded, and
+   * truncate lines that are too long.
+   */
+
+  @Test
+  public void testBufferOctetLimit()
+  {
+    final var buffer = new MNativeProcessOutputBuffer(100, 8);
+    buffer.add("abc");
+    buffer.add("def");
+    buffer.add("ghi");
+
+    assertEquals(List.of("def", "ghi"), buffer.lines());
+    assertEquals(1L, buffer.linesDropped());
+
+    buffer.add("\u00e9\u00e9\u00e9\u00e9\u00e9");
+    assertEquals(List.of("\u00e9\u00e9\u00e9\u00e9"), buffer.lines());
+    assertEquals(3L, buffer.linesDropped());
+  }
+
+  /**
+   * Create a program that counts the number of times it has been executed.
+   */
+
+  private static Path countingProgram(
+    final Path directory)
+    throws Exception
+  {
+    assumeTrue(Files.isExecutable(Path.of("/bin/sh")));
+
+    final var program = directory.resolve("counter.sh");
+    Files.writeString(
+      program,
+      """
+        #!/bin/sh
+        echo x >> "$(dirname "$0")/count.txt"
+        exit 3
+        """
+    );
+    Files.setPosixFilePermissions(
+      program,
+      PosixFilePermissions.fromString("rwx------")
+    );
+    return program;
+  }
+
+  private static int executions(
+    final Path directory)
+    throws Exception
+  {
+    final var file = directory.resolve("count.txt");
+    if (!Files.exists(file)) {
+      return 0;
+    }
+    return Files.readAllLines(file).size();
+  }
+
+  /**
+   * Probes are cached.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testProbeCached(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var program =
+      countingProgram(directory);
+    final var p =
+      new MNativeProcesses();
+
+    final var command = List.of(program.toString(), "--version");
+    assertEquals(3, p.probe(System.getenv(), command));
+    assertEquals(3, p.probe(System.getenv(), command));
+    assertEquals(3, p.probe(System.getenv(), command));
+    assertEquals(1, executions(directory));
+
+    assertEquals(3, p.probe(System.getenv(), List.of(program.toString())));
+    assertEquals(2, executions(directory));
+  }
+
+  /**
+   * Concurrent probes share a single execution.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testProbeConcurrent(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var program =
+      countingProgram(directory);
+    final var p =
+      new MNativeProcesses();
+
+    final var command = List.of(program.toString(), "--version");
+    final var futures = new ArrayList<Future<Integer>>();
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int index = 0; index < 16; ++index) {
+        futures.add(executor.submit(() -> {
+          return Integer.valueOf(p.probe(System.getenv(), command));
+        }));
+      }
+    }
+
+    for (final var future : futures) {
+      assertEquals(3, future.get().intValue());
+    }
+    assertEquals(1, executions(directory));
+  }
+
+  /**
+   * Probes are executed again if the executable is modified.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testProbeModified(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var program =
+      countingProgram(directory);
+    final var p =
+      new MNativeProcesses();
+
+    final var command = List.of(program.toString(), "--version");
+    assertEquals(3, p.probe(System.getenv(), command));
+    assertEquals(1, executions(directory));
+
+    Files.setLastModifiedTime(
+      program,
+      FileTime.from(Instant.parse("2000-01-01T00:00:00Z"))
+    );
+
+    assertEquals(3, p.probe(System.getenv(), command));
+    assertEquals(2, executions(directory));
+  }
+
+  /**
+   * Probes are executed again once the cache duration has elapsed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testProbeExpired(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var program =
+      countingProgram(directory);
+    final var p =
+      new MNativeProcesses(Duration.ZERO);
+
+    final var command = List.of(program.toString(), "--version");
+    assertEquals(3, p.probe(System.getenv(), command));
+    assertEquals(3, p.probe(System.getenv(), command));
+    assertEquals(2, executions(directory));
+  }
+
+  /**
+   * Probes of nonexistent programs fail.
+   */
+
+  @Test
+  public void testProbeFail()
+  {
+    final var p =
+      new MNativeProcesses();
+    final var command =
+      List.of("absolutely-not-a-real-program", "--version");
+
+    final var ex0 =
+      assertThrows(MException.class, () -> p.probe(System.getenv(), command));
+    final var ex1 =
+      assertThrows(MException.class, () -> p.probe(System.getenv(), command));
+
+    assertEquals("error-exec", ex0.errorCode());
+    assertEquals("error-exec", ex1.errorCode());
+  }
+
+  /**
+   * A process log that cannot be written does not stop the output of the
+   * process from being read.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  @Timeout(60L)
+  public void testLogFailureDrains()
+    throws Exception
+  {
+    final var full = Path.of("/dev/full");
+    assumeTrue(Files.isWritable(full));
+
+    final var p =
+      new MNativeProcesses();
+    final var output =
+      new MNativeProcessOutput(10, 1000, Optional.of(full));
+
+    final var r =
+      p.executeAndWait(
+        System.getenv(),
+        output,
+        List.of("sh", "-c", "seq 1 1000000")
+      );
+
+    assertEquals(0, r);
+    assertEquals("1000000", output.standardOut().lines().getLast());
+  }
+
+  /**
+   * Interrupting a thread waiting for a process destroys the process and
+   * its descendants.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testInterruptDestroys()
+    throws Exception
+  {
+    final var p =
+      new MNativeProcesses();
+    final var output =
+      MNativeProcessOutput.create();
+
+    final var thrown = new AtomicReference<Throwable>();
+    final var thread = Thread.ofVirtual().start(() -> {
+      try {
+        p.executeAndWait(
+          System.getenv(),
+          output,
+          List.of("sh", "-c", "sleep 60 & echo $!; wait")
+        );
+      } catch (final Throwable e) {
+        thrown.set(e);
+      }
+    });
+
+    while (output.standardOut().isEmpty()) {
+      Thread.sleep(10L);
+    }
+
+    final var child =
+      ProcessHandle.of(Long.parseLong(output.standardOut().lines().getFirst()))
+        .orElseThrow();
+
+    thread.interrupt();
+    thread.join();
+
+    assertEquals(InterruptedException.class, thrown.get().getClass());
+    child.onExit().get(5L, TimeUnit.SECONDS);
+    assertFalse(child.isAlive());
+  }
 }
@@ -43,6 +43,7 @@ import com.io7m.montarre.api.MVendor;
 import com.io7m.montarre.api.MVendorID;
 import com.io7m.montarre.api.MVendorName;
 import com.io7m.montarre.api.MVersion;
+import com.io7m.montarre.api.io.MPackageReaderType;
 import com.io7m.montarre.io.MPackageReaders;
 import com.io7m.montarre.io.MPackageWriters;
 import com.io7m.montarre.xml.MPackageDeclarationSerializers;
@@ -58,10 +59,13 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -216,6 +220,73 @@ public final class MPackageReadersTest
     }
   }
 
+  @Test
+  public void testStreamMatchesUnpack()
+    throws Exception
+  {
+    final var bom =
+      this.directory.resolve("bom.xml");
+    final var outFile =
+      this.directory.resolve("out.mpk");
+    final var outFileTmp =
+      this.directory.resolve("out.mpk.tmp");
+    final var unpacked =
+      this.directory.resolve("unpacked");
+
+    final var p =
+      MExamplePackages.EMPTY_PACKAGE.withManifest(
+        MManifest.builder()
+          .addItems(
+            new MResource(
+              new MFileName("meta/bom.xml"),
+              new MHash(
+                new MHashAlgorithm("SHA-256"),
+                new MHashValue(
+                  "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855")),
+              MResourceRole.BOM,
+              Optional.empty()
+            ))
+          .build()
+      );
+
+    Files.createFile(bom);
+
+    try (final var writer =
+           this.writers.create(outFile, outFileTmp, p)) {
+      writer.addFile(new MFileName("meta/bom.xml"), bom);
+    }
+
+    final var streamed = new ArrayList<String>();
+    try (final var reader = this.readers.open(outFile)) {
+      reader.unpackInto(unpacked);
+      reader.streamTo(
+        (path, size, data) -> {
+          assertArrayEquals(
+            Files.readAllBytes(unpacked.resolve(path)),
+            data.readAllBytes()
+          );
+          assertEquals(Files.size(unpacked.resolve(path)), size);
+          streamed.add(path);
+        },
+        m -> MPackageReaderType.PlatformDependentModulePolicy.INCLUDE
+      );
+    }
+
+    final List<String> files;
+    try (var stream = Files.walk(unpacked)) {
+      files = stream.filter(Files::isRegularFile)
+        .map(f -> unpacked.relativize(f).toString().replace('\\', '/'))
+        .sorted()
+        .toList();
+    }
+
+    assertEquals(
+      List.of("META-INF/MONTARRE/PACKAGE.XML", "meta/bom.xml"),
+      streamed
+    );
+    assertEquals(files, streamed);
+  }
+
   @Test
   public void testFileMissing()
     throws Exception
@@ -38,6 +38,8 @@ open module com.io7m.montarre.tests
   requires com.io7m.montarre.launchstub;
   requires com.io7m.montarre.adoptium;
 
+  requires com.fasterxml.jackson.databind;
+  requires com.github.luben.zstd_jni;
   requires com.h2database.mvstore;
   requires com.io7m.anethum.api;
   requires com.io7m.jaffirm.core;
@@ -51,8 +53,10 @@ open module com.io7m.montarre.tests
   requires io.helidon.webserver;
   requires java.net.http;
   requires java.xml;
+  requires jdk.httpserver;
   requires org.apache.commons.compress;
   requires org.apache.commons.lang3;
+  requires org.tukaani.xz;
 
   exports com.io7m.montarre.tests;
 }
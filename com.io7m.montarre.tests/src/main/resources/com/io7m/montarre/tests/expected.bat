@@ -8,14 +8,18 @@ if NOT DEFINED MONTARRE_HOME (
   exit /b 1
 )
 
+REM Use the bundled Java runtime, if there is one.
+set "MONTARRE_JAVA=java"
+if exist "%MONTARRE_HOME%\runtime\bin\java.exe" set "MONTARRE_JAVA=%MONTARRE_HOME%\runtime\bin\java.exe"
+
 REM Check that the available Java runtime is suitable.
-java -jar "%MONTARRE_HOME%/bin/launch.jar" check-java-version 21
+"%MONTARRE_JAVA%" -jar "%MONTARRE_HOME%/bin/launch.jar" check-java-version 21
 if %errorlevel% neq 0 exit /b 1
 
 REM Build a module path.
-for /f %%i in ('java -jar %MONTARRE_HOME%\bin\launch.jar get-module-path %MONTARRE_HOME%') do set MONTARRE_MODULE_PATH=%%i
+for /f "usebackq delims=" %%i in (`""%MONTARRE_JAVA%" -jar "%MONTARRE_HOME%\bin\launch.jar" get-module-path "%MONTARRE_HOME%""`) do set MONTARRE_MODULE_PATH=%%i
 if %errorlevel% neq 0 exit /b 1
 
 REM Run the application.
-java -p %MONTARRE_MODULE_PATH% -m com.io7m.montarre.cmdline/com.io7m.montarre.cmdline.MMain %*
+"%MONTARRE_JAVA%" -p %MONTARRE_MODULE_PATH% -m com.io7m.montarre.cmdline/com.io7m.montarre.cmdline.MMain %*
 if %errorlevel% neq 0 exit /b 1
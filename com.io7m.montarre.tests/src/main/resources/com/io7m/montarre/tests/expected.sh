@@ -8,11 +8,21 @@ then
   exit 1
 fi
 
+#
+# Use the bundled Java runtime, if there is one.
+#
+
+MONTARRE_JAVA="${MONTARRE_HOME}/runtime/bin/java"
+if [ ! -x "${MONTARRE_JAVA}" ]
+then
+  MONTARRE_JAVA=java
+fi
+
 #
 # Check that the available Java runtime is suitable.
 #
 
-/usr/bin/env java -jar "${MONTARRE_HOME}/bin/launch.jar" \
+/usr/bin/env "${MONTARRE_JAVA}" -jar "${MONTARRE_HOME}/bin/launch.jar" \
   check-java-version 21 || exit 1
 
 #
@@ -21,14 +31,14 @@ fi
 #   ${MONTARRE_HOME}/lib/${ARCH}/${OS}
 #
 
-MONTARRE_MODULE_PATH=$(/usr/bin/env java -jar "${MONTARRE_HOME}/bin/launch.jar" \
+MONTARRE_MODULE_PATH=$(/usr/bin/env "${MONTARRE_JAVA}" -jar "${MONTARRE_HOME}/bin/launch.jar" \
   get-module-path "${MONTARRE_HOME}") || exit 1
 
 #
 # Run the application.
 #
 
-exec /usr/bin/env java \
+exec /usr/bin/env "${MONTARRE_JAVA}" \
   -p "${MONTARRE_MODULE_PATH}" \
   -m com.io7m.montarre.cmdline/com.io7m.montarre.cmdline.MMain \
   "$@"